@@ -28,16 +28,23 @@
 
 package org.opennms.oce.graphserver;
 
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.opennms.alec.datasource.api.Situation;
+import org.opennms.oce.graphserver.data.OceDatasetLoader;
 import org.opennms.oce.graphserver.model.Graph;
+import org.opennms.oce.graphserver.model.GraphDelta;
 import org.opennms.oce.graphserver.model.GraphMetadata;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @CrossOrigin
@@ -46,6 +53,9 @@ public class GraphController {
     @Autowired
     private GraphService graphService;
 
+    @Autowired
+    private GraphPushService graphPushService;
+
     @RequestMapping("/")
     public List<GraphMetadata> graphs() {
         return graphService.getAvailableGraphs();
@@ -56,7 +66,60 @@ public class GraphController {
                        @RequestParam(value = "time", required = false) Long timestampInMillis,
                        @RequestParam(value = "szl", required = false) Integer szl,
                        @RequestParam(value = "focalPoint", required = false) String focalPoint,
-                       @RequestParam(value = "removeInventoryWithNoAlarms", required = false) Boolean removeInventoryWithNoAlarms) {
+                       @RequestParam(value = "removeInventoryWithNoAlarms", required = false) Boolean removeInventoryWithNoAlarms,
+                       @RequestParam(value = "expandFromFocalPoints", required = false) Boolean expandFromFocalPoints) {
+        return graphService.getGraph(id, toGraphView(timestampInMillis, szl, focalPoint, removeInventoryWithNoAlarms, expandFromFocalPoints));
+    }
+
+    @RequestMapping("/{id}/delta")
+    public GraphDelta graphDelta(@PathVariable("id") String id,
+                                 @RequestParam(value = "from") Long fromTimestampInMillis,
+                                 @RequestParam(value = "time", required = false) Long timestampInMillis,
+                                 @RequestParam(value = "szl", required = false) Integer szl,
+                                 @RequestParam(value = "focalPoint", required = false) String focalPoint,
+                                 @RequestParam(value = "removeInventoryWithNoAlarms", required = false) Boolean removeInventoryWithNoAlarms,
+                                 @RequestParam(value = "expandFromFocalPoints", required = false) Boolean expandFromFocalPoints) {
+        return graphService.getGraphDelta(id, fromTimestampInMillis, toGraphView(timestampInMillis, szl, focalPoint, removeInventoryWithNoAlarms, expandFromFocalPoints));
+    }
+
+    /**
+     * Streams the graph, followed by deltas as it changes. When no time is given, the graph follows the current time.
+     */
+    @RequestMapping("/{id}/stream")
+    public SseEmitter graphStream(@PathVariable("id") String id,
+                                  @RequestParam(value = "time", required = false) Long timestampInMillis,
+                                  @RequestParam(value = "szl", required = false) Integer szl,
+                                  @RequestParam(value = "focalPoint", required = false) String focalPoint,
+                                  @RequestParam(value = "removeInventoryWithNoAlarms", required = false) Boolean removeInventoryWithNoAlarms,
+                                  @RequestParam(value = "expandFromFocalPoints", required = false) Boolean expandFromFocalPoints) {
+        return graphPushService.subscribe(id, toGraphView(timestampInMillis, szl, focalPoint, removeInventoryWithNoAlarms, expandFromFocalPoints), timestampInMillis == null);
+    }
+
+    @RequestMapping("/{id}/metadata")
+    public GraphMetadata graphMetadata(@PathVariable("id") String id) {
+        return graphService.getGraphMetadata(id);
+    }
+
+    /**
+     * Appends the alarms in the request body, in the same XML format as alec.alarms.xml, to the dataset.
+     */
+    @RequestMapping(value = "/{id}/alarms", method = RequestMethod.POST)
+    public GraphMetadata appendAlarms(@PathVariable("id") String id, InputStream body) {
+        return graphService.appendAlarms(id, OceDatasetLoader.readAlarms(new OceDatasetLoader.Source("alarms", () -> body)));
+    }
+
+    /**
+     * Appends the situations in the request body, in the same XML format as alec.situations.xml, to the dataset.
+     */
+    @RequestMapping(value = "/{id}/situations", method = RequestMethod.POST)
+    public GraphMetadata appendSituations(@PathVariable("id") String id, InputStream body) {
+        final List<Situation> situations = new ArrayList<>();
+        OceDatasetLoader.forEachSituation(new OceDatasetLoader.Source("situations", () -> body), situations::add);
+        return graphService.appendSituations(id, situations);
+    }
+
+    private static GraphView toGraphView(Long timestampInMillis, Integer szl, String focalPoint, Boolean removeInventoryWithNoAlarms,
+                                         Boolean expandFromFocalPoints) {
         final long timestamp = timestampInMillis != null ? timestampInMillis : System.currentTimeMillis();
         final GraphView.Builder graphViewBuilder = GraphView.builder()
                 .setTimestampInMillis(timestamp);
@@ -69,12 +132,10 @@ public class GraphController {
         if (removeInventoryWithNoAlarms != null) {
             graphViewBuilder.setRemoveInventoryWithNoAlarms(removeInventoryWithNoAlarms);
         }
-        return graphService.getGraph(id, graphViewBuilder.build());
-    }
-
-    @RequestMapping("/{id}/metadata")
-    public GraphMetadata graphMetadata(@PathVariable("id") String id) {
-        return graphService.getGraphMetadata(id);
+        if (expandFromFocalPoints != null) {
+            graphViewBuilder.setExpandFromFocalPoints(expandFromFocalPoints);
+        }
+        return graphViewBuilder.build();
     }
 
 }
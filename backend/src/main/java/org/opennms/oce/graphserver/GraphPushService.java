@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.opennms.oce.graphserver.model.Graph;
+import org.opennms.oce.graphserver.model.GraphDelta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes graph updates to subscribed clients using Server-Sent Events.
+ *
+ * Clients receive the complete graph when they subscribe, followed by deltas on every tick where
+ * the graph changes. Subscribers with the same view are grouped together so that every
+ * distinct view is only computed once per tick, regardless of the number of subscribers.
+ */
+@Component
+public class GraphPushService {
+    private static final Logger LOG = LoggerFactory.getLogger(GraphPushService.class);
+
+    public static final String GRAPH_EVENT_NAME = "graph";
+    public static final String DELTA_EVENT_NAME = "delta";
+
+    @Autowired
+    private GraphService graphService;
+
+    private final Map<SubscriptionKey, Subscribers> subscribersByKey = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribes to updates for the given view.
+     *
+     * @param id graph id
+     * @param graphView the view
+     * @param live when true, the view follows the current time instead of the timestamp of the given view
+     * @return the emitter to return to the client
+     */
+    public SseEmitter subscribe(String id, GraphView graphView, boolean live) {
+        // Fail fast if the graph doesn't exist
+        graphService.getGraphMetadata(id);
+
+        // Never time out, the emitter is removed when the client disconnects
+        final SseEmitter emitter = new SseEmitter(0L);
+        // The timestamp is not part of the key for live views, since it changes on every tick
+        final SubscriptionKey key = new SubscriptionKey(id, live ? graphView.withTimestamp(0) : graphView, live);
+        while (true) {
+            final Subscribers subscribers = subscribersByKey.computeIfAbsent(key, k -> new Subscribers(k,
+                    live ? System.currentTimeMillis() : graphView.getTimestampInMillis(), graphService.getGeneration(id)));
+            synchronized (subscribers) {
+                if (subscribers.closed) {
+                    // This group was removed while we were waiting for the lock, try again
+                    continue;
+                }
+                // Start with the graph at the same time as the other subscribers, so that they can share the deltas
+                final Graph graph = graphService.getGraph(id, key.graphView.withTimestamp(subscribers.lastTimestampInMillis));
+                if (send(emitter, SseEmitter.event().name(GRAPH_EVENT_NAME).data(graph, MediaType.APPLICATION_JSON))) {
+                    subscribers.emitters.add(emitter);
+                    emitter.onCompletion(() -> subscribers.emitters.remove(emitter));
+                    emitter.onTimeout(() -> subscribers.emitters.remove(emitter));
+                    emitter.onError(e -> subscribers.emitters.remove(emitter));
+                }
+                return emitter;
+            }
+        }
+    }
+
+    /**
+     * Computes the changes for every distinct view, and sends them to the subscribers of that view.
+     */
+    @Scheduled(fixedRateString = "${oce.graph.cache.tick.ms:10000}")
+    public void pushUpdates() {
+        for (Subscribers subscribers : subscribersByKey.values()) {
+            synchronized (subscribers) {
+                if (subscribers.emitters.isEmpty()) {
+                    subscribersByKey.remove(subscribers.key);
+                    subscribers.closed = true;
+                    continue;
+                }
+
+                final SubscriptionKey key = subscribers.key;
+                final long timestampInMillis = key.live ? System.currentTimeMillis() : subscribers.lastTimestampInMillis;
+                final long generation;
+                final GraphDelta delta;
+                try {
+                    generation = graphService.getGeneration(key.id);
+                    if (generation != subscribers.generation) {
+                        // The dataset was reloaded, so the graph the subscribers have may no longer match
+                        // the previous graph, send them the complete graph instead
+                        pushGraph(subscribers, timestampInMillis, generation);
+                        continue;
+                    }
+                    delta = graphService.getGraphDelta(key.id, subscribers.lastTimestampInMillis, key.graphView.withTimestamp(timestampInMillis));
+                } catch (RuntimeException e) {
+                    // Retrying on the next tick is unlikely to help, e.g. the dataset was removed, so let the
+                    // subscribers know and drop them
+                    LOG.warn("Failed to compute the changes for {}, closing {} subscribers.", key, subscribers.emitters.size(), e);
+                    close(subscribers, e);
+                    continue;
+                }
+                subscribers.lastTimestampInMillis = timestampInMillis;
+                if (delta.isEmpty()) {
+                    continue;
+                }
+
+                LOG.debug("Pushing delta for {} to {} subscribers.", key, subscribers.emitters.size());
+                for (SseEmitter emitter : subscribers.emitters) {
+                    if (!send(emitter, SseEmitter.event().name(DELTA_EVENT_NAME).data(delta, MediaType.APPLICATION_JSON))) {
+                        subscribers.emitters.remove(emitter);
+                    }
+                }
+            }
+        }
+    }
+
+    private void pushGraph(Subscribers subscribers, long timestampInMillis, long generation) {
+        final SubscriptionKey key = subscribers.key;
+        final Graph graph = graphService.getGraph(key.id, key.graphView.withTimestamp(timestampInMillis));
+        subscribers.lastTimestampInMillis = timestampInMillis;
+        subscribers.generation = generation;
+
+        LOG.debug("Pushing graph for {} to {} subscribers.", key, subscribers.emitters.size());
+        for (SseEmitter emitter : subscribers.emitters) {
+            if (!send(emitter, SseEmitter.event().name(GRAPH_EVENT_NAME).data(graph, MediaType.APPLICATION_JSON))) {
+                subscribers.emitters.remove(emitter);
+            }
+        }
+    }
+
+    /**
+     * Completes the emitters of the given subscribers with the given error, and removes the group.
+     * Must be called while holding the lock on the subscribers.
+     */
+    private void close(Subscribers subscribers, Throwable t) {
+        for (SseEmitter emitter : subscribers.emitters) {
+            emitter.completeWithError(t);
+        }
+        subscribers.emitters.clear();
+        subscribersByKey.remove(subscribers.key);
+        subscribers.closed = true;
+    }
+
+    public int getNumSubscribers() {
+        return subscribersByKey.values().stream()
+                .mapToInt(s -> s.emitters.size())
+                .sum();
+    }
+
+    private static boolean send(SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+            return true;
+        } catch (IOException|IllegalStateException e) {
+            // The client went away
+            LOG.debug("Failed to send event to subscriber.", e);
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    private static class Subscribers {
+        private final SubscriptionKey key;
+        private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+        private long lastTimestampInMillis;
+        private long generation;
+        private boolean closed = false;
+
+        private Subscribers(SubscriptionKey key, long lastTimestampInMillis, long generation) {
+            this.key = key;
+            this.lastTimestampInMillis = lastTimestampInMillis;
+            this.generation = generation;
+        }
+    }
+
+    private static class SubscriptionKey {
+        private final String id;
+        private final GraphView graphView;
+        private final boolean live;
+
+        private SubscriptionKey(String id, GraphView graphView, boolean live) {
+            this.id = Objects.requireNonNull(id);
+            this.graphView = Objects.requireNonNull(graphView);
+            this.live = live;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            SubscriptionKey that = (SubscriptionKey) o;
+            return live == that.live &&
+                    Objects.equals(id, that.id) &&
+                    Objects.equals(graphView, that.graphView);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, graphView, live);
+        }
+
+        @Override
+        public String toString() {
+            return "SubscriptionKey{" +
+                    "id='" + id + '\'' +
+                    ", graphView=" + graphView +
+                    ", live=" + live +
+                    '}';
+        }
+    }
+}
@@ -28,62 +28,552 @@
 
 package org.opennms.oce.graphserver;
 
-import java.util.Collections;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.Situation;
+import org.opennms.oce.graphserver.data.DatasetWatcher;
 import org.opennms.oce.graphserver.data.OceDataset;
 import org.opennms.oce.graphserver.data.OceGraphGenerator;
 import org.opennms.oce.graphserver.model.Graph;
+import org.opennms.oce.graphserver.model.GraphDelta;
 import org.opennms.oce.graphserver.model.GraphMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+/**
+ * Serves the graphs for the datasets found in oce.dataset.path.
+ *
+ * The dataset in oce.dataset.path itself (or the sample dataset, if there is none) is loaded on startup
+ * and is always kept in memory. Every subdirectory that contains a dataset is served as a separate graph,
+ * whose id is the name of the directory. These are loaded on first use, and the least recently used ones
+ * are evicted when the size of their XML files exceeds oce.datasets.cache.max.mb, or when they have not
+ * been used for oce.datasets.idle.minutes. The most recently used dataset is kept even when it does not fit,
+ * so that a dataset that is larger than the budget is not loaded again on every request. A subdirectory
+ * with the same name as the id of the dataset in oce.dataset.path itself is not served.
+ *
+ * Alarms and situations can be appended to a loaded dataset while it is being served. These are only kept
+ * in memory, and are lost when the dataset is reloaded or evicted.
+ *
+ * The statistics of both caches, and the time taken to load the datasets, are published to the meter registry.
+ */
 @Component
 public class GraphService {
     private static final Logger LOG = LoggerFactory.getLogger(GraphService.class);
 
+    public static final String DATASET_LOAD_TIMER_NAME = "graph.dataset.load";
+    public static final String DEFAULT_DATASET_TAG = "default";
+
     @Value("${oce.dataset.path}")
     private String oceDatasetPath;
 
-    private List<OceGraphGenerator> graphGenerators;
+    @Value("${oce.dataset.alarms.mapped:false}")
+    private boolean mapAlarms;
+
+    @Value("${oce.dataset.watch:true}")
+    private boolean watchDataset;
+
+    @Value("${oce.dataset.watch.quiet.ms:5000}")
+    private long watchQuietPeriodMs;
+
+    @Value("${oce.datasets.cache.max.mb:4096}")
+    private long datasetCacheMaxMb;
+
+    @Value("${oce.datasets.idle.minutes:60}")
+    private long datasetIdleMinutes;
+
+    @Value("${oce.graph.cache.size:100}")
+    private long graphCacheSize;
+
+    @Value("${oce.graph.cache.tick.ms:10000}")
+    private long graphCacheTickMs;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicLong loadCounter = new AtomicLong();
+    private final AtomicLong generationCounter = new AtomicLong();
+
+    /**
+     * The dataset in oce.dataset.path. This is replaced as a whole when the dataset is reloaded,
+     * requests that are already in flight continue to use the previous one.
+     */
+    private volatile LoadedDataset defaultDataset;
+
+    /**
+     * The datasets in the subdirectories of oce.dataset.path, keyed by id.
+     */
+    private Cache<String, LoadedDataset> datasets;
+
+    /**
+     * The most recently used dataset from a subdirectory, which is kept after it is evicted for its size.
+     */
+    private volatile LoadedDataset pinnedDataset;
+
+    private Cache<GraphCacheKey, Graph> graphCache;
+
+    private DatasetWatcher datasetWatcher;
+
+    private final Object reloadLock = new Object();
 
     @PostConstruct
     public void init(){
+        graphCache = CacheBuilder.newBuilder()
+                .maximumSize(graphCacheSize)
+                .recordStats()
+                .build();
+        datasets = CacheBuilder.newBuilder()
+                // The maximum weight is divided between the segments, use a single one so that the budget applies as a whole
+                .concurrencyLevel(1)
+                .maximumWeight(datasetCacheMaxMb)
+                .weigher((String id, LoadedDataset dataset) -> dataset.weightInMb)
+                .expireAfterAccess(datasetIdleMinutes, TimeUnit.MINUTES)
+                .removalListener(this::onDatasetRemoved)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, graphCache, "graphs");
+        GuavaCacheMetrics.monitor(meterRegistry, datasets, "datasets");
+
         // Create a generator for the OCE dataset
+        OceGraphGenerator graphGenerator;
         try {
-            graphGenerators = Collections.singletonList(new OceGraphGenerator(OceDataset.oceDataset(oceDatasetPath)));
+            graphGenerator = new OceGraphGenerator(loadOceDataset(DEFAULT_DATASET_TAG, oceDatasetPath), null,
+                    OceGraphGenerator.DEFAULT_LABEL, meterRegistry);
             LOG.info("Successfully loaded the OCE dataset from: {}", oceDatasetPath);
         } catch (Exception e) {
             LOG.warn("Loading the OCE dataset failed. Defaulting to sample dataset. Error: {}", e.getMessage());
-            graphGenerators = Collections.singletonList(new OceGraphGenerator(OceDataset.sampleDataset()));
+            graphGenerator = new OceGraphGenerator(OceDataset.sampleDataset(), null, OceGraphGenerator.DEFAULT_LABEL, meterRegistry);
+        }
+        defaultDataset = new LoadedDataset(loadCounter.getAndIncrement(), generationCounter.incrementAndGet(), graphGenerator, 0);
+
+        // The default dataset is looked up first, so a subdirectory with the same name could never be served
+        final String defaultId = graphGenerator.getGraphMetadata().getId();
+        if (isDatasetDirectory(Paths.get(oceDatasetPath).resolve(defaultId))) {
+            throw new IllegalStateException("The dataset in " + Paths.get(oceDatasetPath).resolve(defaultId)
+                    + " has the same id as the dataset in " + oceDatasetPath + ". Please rename the directory.");
+        }
+
+        // Reload the datasets when they change
+        final Path datasetPath = Paths.get(oceDatasetPath);
+        if (watchDataset && Files.isDirectory(datasetPath)) {
+            try {
+                datasetWatcher = new DatasetWatcher(datasetPath, watchQuietPeriodMs, this::onDatasetsChanged);
+                datasetWatcher.start();
+            } catch (IOException e) {
+                LOG.warn("Failed to watch {} for changes. The datasets will not be reloaded.", datasetPath, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (datasetWatcher != null) {
+            datasetWatcher.close();
         }
     }
 
+    /**
+     * Loads the dataset in oce.dataset.path again, and replaces the current one once it is loaded.
+     *
+     * The graph keeps its id, and the cached graphs are discarded. If the dataset fails to load,
+     * we continue to serve the current one.
+     */
+    public void reload() {
+        synchronized (reloadLock) {
+            doReload();
+        }
+    }
+
+    private void doReload() {
+        LOG.info("Reloading the OCE dataset from: {}", oceDatasetPath);
+        final OceDataset dataset;
+        try {
+            dataset = loadOceDataset(DEFAULT_DATASET_TAG, oceDatasetPath);
+        } catch (Exception e) {
+            LOG.warn("Reloading the OCE dataset failed. Continuing with the current dataset.", e);
+            return;
+        }
+        final LoadedDataset previousDataset = defaultDataset;
+        final String graphId = previousDataset.graphGenerator.getGraphMetadata().getId();
+        defaultDataset = new LoadedDataset(loadCounter.getAndIncrement(), generationCounter.incrementAndGet(),
+                new OceGraphGenerator(dataset, graphId, OceGraphGenerator.DEFAULT_LABEL, meterRegistry), 0);
+        removeGraphs(previousDataset);
+        LOG.info("Successfully reloaded the OCE dataset from: {}", oceDatasetPath);
+    }
+
+    private void onDatasetsChanged(Set<Path> directories) {
+        final Path datasetPath = Paths.get(oceDatasetPath);
+        for (Path directory : directories) {
+            if (directory.equals(datasetPath)) {
+                reload();
+            } else if (directory.getParent().equals(datasetPath)) {
+                // Drop the dataset, it will be loaded again on the next request
+                LOG.info("Dataset in {} changed, it will be reloaded on the next request.", directory);
+                final String id = directory.getFileName().toString();
+                unpin(id);
+                datasets.invalidate(id);
+            }
+        }
+    }
+
+    private void onDatasetRemoved(RemovalNotification<String, LoadedDataset> notification) {
+        LOG.info("Removed dataset {}. Cause: {}", notification.getKey(), notification.getCause());
+        if (notification.getCause() == RemovalCause.SIZE && notification.getValue() == pinnedDataset) {
+            LOG.info("Keeping dataset {} since it is the most recently used one. Its size of {}MB exceeds the remaining budget.",
+                    notification.getKey(), notification.getValue().weightInMb);
+            return;
+        }
+        unpin(notification.getKey());
+        removeGraphs(notification.getValue());
+    }
+
+    private void unpin(String id) {
+        final LoadedDataset pinned = pinnedDataset;
+        if (pinned != null && Objects.equals(pinned.graphGenerator.getGraphMetadata().getId(), id)) {
+            pinnedDataset = null;
+            removeGraphs(pinned);
+        }
+    }
+
+    /**
+     * @return a number that changes every time the dataset with the given id is reloaded, or when appended
+     * alarms or situations change graphs of the dataset that may already have been served
+     */
+    public long getGeneration(String id) {
+        return getDataset(id).generation;
+    }
+
+    /**
+     * Lists the graphs. The datasets that have not been loaded yet don't have any time metadata.
+     */
     public List<GraphMetadata> getAvailableGraphs() {
-        return graphGenerators.stream().map(OceGraphGenerator::getGraphMetadata).collect(Collectors.toList());
+        final List<GraphMetadata> graphs = new ArrayList<>();
+        graphs.add(defaultDataset.graphGenerator.getGraphMetadata());
+        for (Path directory : getDatasetDirectories()) {
+            final String id = directory.getFileName().toString();
+            final LoadedDataset dataset = getLoadedDataset(id);
+            if (dataset != null) {
+                graphs.add(dataset.graphGenerator.getGraphMetadata());
+            } else {
+                graphs.add(GraphMetadata.builder()
+                        .withId(id)
+                        .withLabel(id)
+                        .withDescription("Graph generated from OCE dataset in " + directory)
+                        .build());
+            }
+        }
+        return graphs;
     }
 
     public GraphMetadata getGraphMetadata(String id) {
-        return graphGenerators.stream()
-                .filter(gg -> Objects.equals(gg.getGraphMetadata().getId(), id))
-                .findFirst()
-                .orElseThrow(() -> new NoSuchElementException(id))
-                .getGraphMetadata();
+        return getDataset(id).graphGenerator.getGraphMetadata();
     }
 
     public Graph getGraph(String id, GraphView graphView) {
-        return graphGenerators.stream()
-                .filter(gg -> Objects.equals(gg.getGraphMetadata().getId(), id))
-                .findFirst()
-                .orElseThrow(() -> new NoSuchElementException(id))
-                .getGraph(graphView);
+        return getGraph(getDataset(id), graphView);
+    }
+
+    /**
+     * Computes the changes between the graph generated for the given view at the previous time,
+     * and the graph generated for the given view.
+     *
+     * The graphs are only generated when the active alarms or situations differ between the two times,
+     * and the previous graph is typically already in the cache.
+     */
+    public GraphDelta getGraphDelta(String id, long fromTimestampInMillis, GraphView graphView) {
+        // Use the same dataset for both graphs
+        final LoadedDataset dataset = getDataset(id);
+        final GraphView fromGraphView = graphView.withTimestamp(fromTimestampInMillis).withTimestampRoundedToTick(graphCacheTickMs);
+        final GraphView toGraphView = graphView.withTimestampRoundedToTick(graphCacheTickMs);
+        final long fromTimestamp = fromGraphView.getTimestampInMillis();
+        final long toTimestamp = toGraphView.getTimestampInMillis();
+        if (!dataset.graphGenerator.hasChangesBetween(fromTimestamp, toTimestamp)) {
+            return GraphDelta.empty(fromTimestamp, toTimestamp);
+        }
+        return GraphDelta.between(fromTimestamp, getGraph(dataset, fromGraphView),
+                toTimestamp, getGraph(dataset, toGraphView));
+    }
+
+    /**
+     * Appends the given alarm updates to the dataset with the given id.
+     *
+     * @return the metadata of the graph, with the time range extended to include the updates
+     */
+    public GraphMetadata appendAlarms(String id, Collection<Alarm> alarms) {
+        final LoadedDataset dataset = getDataset(id);
+        if (!alarms.isEmpty()) {
+            synchronized (dataset) {
+                dataset.graphGenerator.appendAlarms(alarms);
+                // Graphs only consider the updates strictly before their time
+                onAppended(dataset, alarms.stream().mapToLong(Alarm::getTime).min().getAsLong() + 1);
+            }
+        }
+        return dataset.graphGenerator.getGraphMetadata();
+    }
+
+    /**
+     * Appends the given situations to the primary result set of the dataset with the given id.
+     * Situations with the same id as an existing situation replace it.
+     *
+     * @return the metadata of the graph
+     */
+    public GraphMetadata appendSituations(String id, Collection<Situation> situations) {
+        final LoadedDataset dataset = getDataset(id);
+        if (!situations.isEmpty()) {
+            synchronized (dataset) {
+                dataset.graphGenerator.appendSituations(situations);
+                // Situations only show up in the graphs once they have been created
+                onAppended(dataset, situations.stream().mapToLong(Situation::getCreationTime).min().getAsLong());
+            }
+        }
+        return dataset.graphGenerator.getGraphMetadata();
+    }
+
+    /**
+     * Moves the dataset to a new version, keeping the cached graphs that precede the given time.
+     */
+    private void onAppended(LoadedDataset dataset, long affectedFromMs) {
+        final long previousVersion = dataset.version.getAndIncrement();
+        final long version = previousVersion + 1;
+        // The graphs before the change are carried over, but the time range of the dataset may have grown
+        final GraphMetadata graphMetadata = dataset.graphGenerator.getGraphMetadata();
+        for (Map.Entry<GraphCacheKey, Graph> entry : new ArrayList<>(graphCache.asMap().entrySet())) {
+            final GraphCacheKey key = entry.getKey();
+            if (key.datasetNumber == dataset.number && key.datasetVersion == previousVersion
+                    && key.graphView.getTimestampInMillis() < affectedFromMs) {
+                graphCache.put(new GraphCacheKey(dataset.number, version, key.graphView),
+                        entry.getValue().withGraphMetadata(graphMetadata));
+            }
+        }
+        graphCache.asMap().keySet().removeIf(key -> key.datasetNumber == dataset.number && key.datasetVersion < version);
+
+        // Subscribers can only be sent a delta if the graph they have did not change, which is the case when
+        // the changes are all within the current tick. Otherwise, they need to be sent the complete graph.
+        final long now = System.currentTimeMillis();
+        if (graphCacheTickMs <= 0 || affectedFromMs <= GraphView.roundToTick(now, graphCacheTickMs)) {
+            dataset.generation = generationCounter.incrementAndGet();
+        }
+    }
+
+    public CacheStats getGraphCacheStats() {
+        return graphCache.stats();
+    }
+
+    public CacheStats getDatasetCacheStats() {
+        return datasets.stats();
+    }
+
+    private LoadedDataset getDataset(String id) {
+        final LoadedDataset defaultDataset = this.defaultDataset;
+        if (Objects.equals(defaultDataset.graphGenerator.getGraphMetadata().getId(), id)) {
+            return defaultDataset;
+        }
+        final Path directory = getDatasetDirectory(id);
+        if (directory == null) {
+            throw new NoSuchElementException(id);
+        }
+        final LoadedDataset pinned = pinnedDataset;
+        if (pinned != null && pinned.graphGenerator.getGraphMetadata().getId().equals(id)) {
+            return pinned;
+        }
+        try {
+            // Concurrent requests for the same dataset wait on the first one to load it,
+            // different datasets are loaded in parallel
+            final LoadedDataset dataset = datasets.get(id, () -> loadDataset(id, directory));
+            final LoadedDataset previous = pinnedDataset;
+            pinnedDataset = dataset;
+            if (previous != null && previous != dataset
+                    && datasets.getIfPresent(previous.graphGenerator.getGraphMetadata().getId()) != previous) {
+                // The previous dataset was only kept since it was pinned
+                removeGraphs(previous);
+            }
+            return dataset;
+        } catch (ExecutionException|UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the dataset with the given id if it is currently loaded, or null otherwise
+     */
+    private LoadedDataset getLoadedDataset(String id) {
+        final LoadedDataset pinned = pinnedDataset;
+        if (pinned != null && pinned.graphGenerator.getGraphMetadata().getId().equals(id)) {
+            return pinned;
+        }
+        return datasets.getIfPresent(id);
+    }
+
+    private LoadedDataset loadDataset(String id, Path directory) throws IOException {
+        LOG.info("Loading the OCE dataset {} from: {}", id, directory);
+        final OceGraphGenerator graphGenerator = new OceGraphGenerator(loadOceDataset(id, directory.toString()), id, id, meterRegistry);
+        // Use the size of the XML files as an estimate of the memory required by the dataset
+        final long sizeInBytes;
+        try (Stream<Path> files = Files.list(directory)) {
+            sizeInBytes = files.filter(p -> p.getFileName().toString().endsWith(".xml"))
+                    .mapToLong(p -> p.toFile().length())
+                    .sum();
+        }
+        final int weightInMb = (int)Math.max(1, Math.min(Integer.MAX_VALUE, sizeInBytes / (1024 * 1024)));
+        return new LoadedDataset(loadCounter.getAndIncrement(), generationCounter.incrementAndGet(), graphGenerator, weightInMb);
+    }
+
+    /**
+     * Loads the dataset in the given directory, and records the time it took, tagged with the outcome.
+     */
+    private OceDataset loadOceDataset(String datasetTag, String directory) {
+        final long startNanos = System.nanoTime();
+        String exception = "none";
+        try {
+            return OceDataset.oceDataset(directory, mapAlarms);
+        } catch (RuntimeException e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            Timer.builder(DATASET_LOAD_TIMER_NAME)
+                    .description("Time taken to load a dataset")
+                    .tags("dataset", datasetTag, "exception", exception)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return the directory of the dataset with the given id, or null if there is no such dataset
+     */
+    private Path getDatasetDirectory(String id) {
+        if (id == null || id.isEmpty() || id.contains("/") || id.contains("\\") || id.startsWith(".")) {
+            return null;
+        }
+        final Path directory = Paths.get(oceDatasetPath).resolve(id);
+        return isDatasetDirectory(directory) ? directory : null;
+    }
+
+    private List<Path> getDatasetDirectories() {
+        final Path datasetPath = Paths.get(oceDatasetPath);
+        if (!Files.isDirectory(datasetPath)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> directories = Files.list(datasetPath)) {
+            final String defaultId = defaultDataset.graphGenerator.getGraphMetadata().getId();
+            return directories.filter(GraphService::isDatasetDirectory)
+                    .filter(directory -> {
+                        if (directory.getFileName().toString().equals(defaultId)) {
+                            LOG.warn("Ignoring the dataset in {} since it has the same id as the dataset in {}.", directory, datasetPath);
+                            return false;
+                        }
+                        return true;
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            LOG.warn("Failed to list the datasets in {}.", datasetPath, e);
+            return new ArrayList<>();
+        }
+    }
+
+    private static boolean isDatasetDirectory(Path directory) {
+        return Files.isRegularFile(directory.resolve(OceDataset.ALARMS_FILE_NAME));
+    }
+
+    private Graph getGraph(LoadedDataset dataset, GraphView graphView) {
+        // Views that fall within the same tick share the same graph
+        final GraphView roundedGraphView = graphView.withTimestampRoundedToTick(graphCacheTickMs);
+        final GraphCacheKey key = new GraphCacheKey(dataset.number, dataset.version.get(), roundedGraphView);
+        try {
+            // Concurrent requests for the same key wait on the first one to load,
+            // instead of generating the same graph in parallel
+            return graphCache.get(key, () -> dataset.graphGenerator.getGraph(roundedGraphView));
+        } catch (ExecutionException|UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void removeGraphs(LoadedDataset dataset) {
+        graphCache.asMap().keySet().removeIf(key -> key.datasetNumber == dataset.number);
+    }
+
+    /**
+     * A dataset and its generator. Every load is assigned a new number, and every append a new version,
+     * which are used to key the generated graphs so that the graphs from previous loads or versions are never served.
+     *
+     * The generation is taken from a counter that is shared by all of the datasets, so it never repeats across loads.
+     */
+    private static class LoadedDataset {
+        private final long number;
+        private final AtomicLong version = new AtomicLong();
+        private volatile long generation;
+        private final OceGraphGenerator graphGenerator;
+        private final int weightInMb;
+
+        private LoadedDataset(long number, long generation, OceGraphGenerator graphGenerator, int weightInMb) {
+            this.number = number;
+            this.generation = generation;
+            this.graphGenerator = Objects.requireNonNull(graphGenerator);
+            this.weightInMb = weightInMb;
+        }
+    }
+
+    private static class GraphCacheKey {
+        private final long datasetNumber;
+        private final long datasetVersion;
+        private final GraphView graphView;
+
+        private GraphCacheKey(long datasetNumber, long datasetVersion, GraphView graphView) {
+            this.datasetNumber = datasetNumber;
+            this.datasetVersion = datasetVersion;
+            this.graphView = Objects.requireNonNull(graphView);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            GraphCacheKey that = (GraphCacheKey) o;
+            return datasetNumber == that.datasetNumber &&
+                    datasetVersion == that.datasetVersion &&
+                    Objects.equals(graphView, that.graphView);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(datasetNumber, datasetVersion, graphView);
+        }
     }
 
 }
@@ -37,12 +37,14 @@ public class GraphView {
     public static final int DEFAULT_SZL = 3;
     public static final boolean DEFAULT_REMOVE_INVENTORY_WITH_NO_ALARMS = false;
     public static final int DEFAULT_VERTEX_LIMIT = 1000;
+    public static final boolean DEFAULT_EXPAND_FROM_FOCAL_POINTS = false;
 
     private final long timestampInMillis;
     private final int szl;
     private final String focalPoint;
     private final boolean removeInventoryWithNoAlarms;
     private final int vertexLimit;
+    private final boolean expandFromFocalPoints;
 
     public static GraphView.Builder builder() {
         return new Builder();
@@ -54,6 +56,7 @@ public class GraphView {
         this.focalPoint = builder.focalPoint;
         this.removeInventoryWithNoAlarms = builder.removeInventoryWithNoAlarms;
         this.vertexLimit = builder.vertexLimit;
+        this.expandFromFocalPoints = builder.expandFromFocalPoints;
     }
 
     public static class Builder {
@@ -62,6 +65,7 @@ public class GraphView {
         private String focalPoint;
         private boolean removeInventoryWithNoAlarms = DEFAULT_REMOVE_INVENTORY_WITH_NO_ALARMS;
         private int vertexLimit = DEFAULT_VERTEX_LIMIT;
+        private boolean expandFromFocalPoints = DEFAULT_EXPAND_FROM_FOCAL_POINTS;
 
         public Builder setTimestampInMillis(long timestampInMillis) {
             this.timestampInMillis = timestampInMillis;
@@ -91,6 +95,15 @@ public class GraphView {
             return this;
         }
 
+        /**
+         * When set, only the vertices within szl hops of the focal points are built, instead of building
+         * the complete graph and filtering it afterwards. The resulting graph is the same.
+         */
+        public Builder setExpandFromFocalPoints(boolean expandFromFocalPoints) {
+            this.expandFromFocalPoints = expandFromFocalPoints;
+            return this;
+        }
+
         public GraphView build() {
             Objects.requireNonNull(timestampInMillis, "timestamp is required");
             return new GraphView(this);
@@ -116,4 +129,76 @@ public class GraphView {
     public int getVertexLimit() {
         return vertexLimit;
     }
+
+    public boolean isExpandFromFocalPoints() {
+        return expandFromFocalPoints;
+    }
+
+    /**
+     * Creates a copy of this view with the timestamp rounded down to the given resolution.
+     * Views that fall within the same tick will then generate the same graph.
+     *
+     * @param tickResolutionMs tick resolution, a value <= 0 leaves the timestamp as is
+     * @return the rounded view
+     */
+    public GraphView withTimestampRoundedToTick(long tickResolutionMs) {
+        if (tickResolutionMs <= 0) {
+            return this;
+        }
+        return withTimestamp(roundToTick(timestampInMillis, tickResolutionMs));
+    }
+
+    /**
+     * Creates a copy of this view at the given time.
+     *
+     * @param timestampInMillis point in time
+     * @return the view at the given time
+     */
+    public GraphView withTimestamp(long timestampInMillis) {
+        if (timestampInMillis == this.timestampInMillis) {
+            return this;
+        }
+        return builder()
+                .setTimestampInMillis(timestampInMillis)
+                .setSzl(szl)
+                .setFocalPoint(focalPoint)
+                .setRemoveInventoryWithNoAlarms(removeInventoryWithNoAlarms)
+                .sertVertexLimit(vertexLimit)
+                .setExpandFromFocalPoints(expandFromFocalPoints)
+                .build();
+    }
+
+    static long roundToTick(long time, long tickResolutionMs) {
+        return Math.floorDiv(time, tickResolutionMs) * tickResolutionMs;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        GraphView graphView = (GraphView) o;
+        return timestampInMillis == graphView.timestampInMillis &&
+                szl == graphView.szl &&
+                removeInventoryWithNoAlarms == graphView.removeInventoryWithNoAlarms &&
+                vertexLimit == graphView.vertexLimit &&
+                expandFromFocalPoints == graphView.expandFromFocalPoints &&
+                Objects.equals(focalPoint, graphView.focalPoint);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(timestampInMillis, szl, focalPoint, removeInventoryWithNoAlarms, vertexLimit, expandFromFocalPoints);
+    }
+
+    @Override
+    public String toString() {
+        return "GraphView{" +
+                "timestampInMillis=" + timestampInMillis +
+                ", szl=" + szl +
+                ", focalPoint='" + focalPoint + '\'' +
+                ", removeInventoryWithNoAlarms=" + removeInventoryWithNoAlarms +
+                ", vertexLimit=" + vertexLimit +
+                ", expandFromFocalPoints=" + expandFromFocalPoints +
+                '}';
+    }
 }
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.alec.datasource.api.Alarm;
+
+/**
+ * Storage for the alarm updates in a dataset.
+ *
+ * Every distinct alarm id is assigned an ordinal, and every update is assigned an index.
+ * The updates for any given alarm are sorted by time, which allows us to find the state
+ * of the alarm at any point in time.
+ */
+public interface AlarmStore {
+
+    /**
+     * Alarms that have been cleared for longer than this are no longer active.
+     */
+    long CLEARED_ALARM_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Alarms that have not been updated for longer than this are no longer active.
+     */
+    long STALE_ALARM_TTL_MS = TimeUnit.DAYS.toMillis(1);
+
+    int getNumAlarms();
+
+    int getNumUpdates();
+
+    String getAlarmId(int ordinal);
+
+    /**
+     * @return the ordinal of the alarm the given update belongs to
+     */
+    int getAlarmOrdinal(int update);
+
+    long getTime(int update);
+
+    boolean isClear(int update);
+
+    /**
+     * Retrieves the complete alarm for the given update.
+     */
+    Alarm getAlarm(int update);
+
+    /**
+     * Finds the last update of every alarm that was active at the given time.
+     *
+     * Only the updates strictly before the given time are considered. Alarms that have been
+     * cleared for more than {@link #CLEARED_ALARM_TTL_MS}, or that have not been updated for more than
+     * {@link #STALE_ALARM_TTL_MS} are not considered to be active.
+     *
+     * @param timestampInMs point in time
+     * @return the indices of the updates, ordered by alarm ordinal
+     */
+    int[] getActiveUpdatesAt(long timestampInMs);
+
+    /**
+     * Finds the last update of the alarm with the given ordinal strictly before the given time.
+     *
+     * @return the index of the update, or -1 if there were no updates before the given time
+     */
+    int getLastUpdateBefore(int ordinal, long timestampInMs);
+
+    /**
+     * Retrieves the last state of every alarm that was active at the given time.
+     *
+     * @see #getActiveUpdatesAt(long)
+     */
+    default List<Alarm> getActiveAlarmsAt(long timestampInMs) {
+        final int[] updates = getActiveUpdatesAt(timestampInMs);
+        final List<Alarm> activeAlarms = new ArrayList<>(updates.length);
+        for (int update : updates) {
+            activeAlarms.add(getAlarm(update));
+        }
+        return activeAlarms;
+    }
+
+    static boolean isActive(long lastUpdateTimeInMs, boolean isClear, long timestampInMs) {
+        final long timeSinceLastAlarmInMs = Math.abs(lastUpdateTimeInMs - timestampInMs);
+        // Disregard alarms that have been cleared for more than 5 minutes
+        if (isClear && timeSinceLastAlarmInMs >= CLEARED_ALARM_TTL_MS) {
+            return false;
+        }
+        // Disregard alarms with no updates in the last 24 hours
+        return timeSinceLastAlarmInMs < STALE_ALARM_TTL_MS;
+    }
+}
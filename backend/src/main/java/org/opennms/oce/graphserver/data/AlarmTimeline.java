@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.alec.datasource.api.Alarm;
+
+/**
+ * Index of the alarm updates in a dataset, grouped by alarm id and sorted by time.
+ *
+ * The updates for all of the alarms are stored in a single array, where the updates
+ * for the alarm with ordinal i are found in [offsets[i], offsets[i+1]). This allows us to find
+ * the state of any alarm at a given time with a binary search.
+ */
+public class AlarmTimeline implements AlarmStore {
+
+    private final String[] alarmIds;
+    private final int[] offsets;
+    private final long[] times;
+    private final Alarm[] updates;
+
+    public AlarmTimeline(List<Alarm> alarms) {
+        // Assign an ordinal to every alarm id, in the order in which they were first seen
+        final Map<String, Integer> ordinalsById = new HashMap<>();
+        final int[] ordinals = new int[alarms.size()];
+        final List<String> alarmIds = new ArrayList<>();
+        int[] counts = new int[16];
+        for (int i = 0; i < ordinals.length; i++) {
+            final String alarmId = alarms.get(i).getId();
+            Integer ordinal = ordinalsById.get(alarmId);
+            if (ordinal == null) {
+                ordinal = alarmIds.size();
+                ordinalsById.put(alarmId, ordinal);
+                alarmIds.add(alarmId);
+                if (ordinal >= counts.length) {
+                    counts = Arrays.copyOf(counts, counts.length * 2);
+                }
+            }
+            ordinals[i] = ordinal;
+            counts[ordinal]++;
+        }
+        this.alarmIds = alarmIds.toArray(new String[0]);
+
+        // Group the updates by ordinal, preserving the original order within each group
+        offsets = new int[this.alarmIds.length + 1];
+        for (int i = 0; i < this.alarmIds.length; i++) {
+            offsets[i + 1] = offsets[i] + counts[i];
+        }
+        final int[] next = Arrays.copyOf(offsets, this.alarmIds.length);
+        updates = new Alarm[ordinals.length];
+        for (int i = 0; i < ordinals.length; i++) {
+            updates[next[ordinals[i]]++] = alarms.get(i);
+        }
+
+        // Sort the updates for each alarm by time, the sort is stable so updates that occur
+        // at the same time remain in the order in which they were given
+        times = new long[updates.length];
+        for (int i = 0; i < this.alarmIds.length; i++) {
+            Arrays.sort(updates, offsets[i], offsets[i + 1], Comparator.comparingLong(Alarm::getTime));
+        }
+        for (int i = 0; i < updates.length; i++) {
+            times[i] = updates[i].getTime();
+        }
+    }
+
+    /**
+     * Creates a timeline from arrays that were built by {@link #AlarmTimeline(List)}, i.e. from a snapshot.
+     * The updates for the alarm with ordinal i must be found in [offsets[i], offsets[i+1]), sorted by time.
+     */
+    AlarmTimeline(String[] alarmIds, int[] offsets, long[] times, Alarm[] updates) {
+        this.alarmIds = alarmIds;
+        this.offsets = offsets;
+        this.times = times;
+        this.updates = updates;
+    }
+
+    @Override
+    public int[] getActiveUpdatesAt(long timestampInMs) {
+        final int[] activeUpdates = new int[alarmIds.length];
+        int numActiveUpdates = 0;
+        for (int i = 0; i < alarmIds.length; i++) {
+            final int idx = indexOfFirstUpdateAtOrAfter(offsets[i], offsets[i + 1], timestampInMs) - 1;
+            if (idx >= offsets[i] && isActive(updates[idx], timestampInMs)) {
+                activeUpdates[numActiveUpdates++] = idx;
+            }
+        }
+        return Arrays.copyOf(activeUpdates, numActiveUpdates);
+    }
+
+    /**
+     * Retrieves the last update for the alarm with the given ordinal strictly before the given time.
+     *
+     * @return the last update, or null if there were no updates before the given time
+     */
+    public Alarm getLastStateBefore(int ordinal, long timestampInMs) {
+        final int idx = getLastUpdateBefore(ordinal, timestampInMs);
+        if (idx < 0) {
+            return null;
+        }
+        return updates[idx];
+    }
+
+    @Override
+    public int getLastUpdateBefore(int ordinal, long timestampInMs) {
+        final int idx = indexOfFirstUpdateAtOrAfter(offsets[ordinal], offsets[ordinal + 1], timestampInMs) - 1;
+        return idx >= offsets[ordinal] ? idx : -1;
+    }
+
+    @Override
+    public int getNumAlarms() {
+        return alarmIds.length;
+    }
+
+    @Override
+    public int getNumUpdates() {
+        return updates.length;
+    }
+
+    @Override
+    public String getAlarmId(int ordinal) {
+        return alarmIds[ordinal];
+    }
+
+    @Override
+    public int getAlarmOrdinal(int update) {
+        // Every alarm has at least one update, so the offsets are strictly increasing
+        final int ordinal = Arrays.binarySearch(offsets, update);
+        return ordinal >= 0 ? ordinal : -ordinal - 2;
+    }
+
+    @Override
+    public long getTime(int update) {
+        return times[update];
+    }
+
+    @Override
+    public boolean isClear(int update) {
+        return updates[update].isClear();
+    }
+
+    @Override
+    public Alarm getAlarm(int update) {
+        return updates[update];
+    }
+
+    static boolean isActive(Alarm lastAlarm, long timestampInMs) {
+        return AlarmStore.isActive(lastAlarm.getTime(), lastAlarm.isClear(), timestampInMs);
+    }
+
+    private int indexOfFirstUpdateAtOrAfter(int fromIndex, int toIndex, long timestampInMs) {
+        int low = fromIndex;
+        int high = toIndex;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (times[mid] < timestampInMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opennms.alec.datasource.api.Alarm;
+
+/**
+ * An alarm store that accepts new updates once it has been loaded.
+ *
+ * The loaded updates are kept in the base store, which is never modified, and the appended updates
+ * are kept on the heap. The appended updates are assigned indices after those of the base store, and alarms
+ * that are not in the base store are assigned ordinals after those of the base store, so the indices and ordinals
+ * that have been handed out never change.
+ *
+ * Appends are serialized, and readers are never blocked: every append publishes a new {@link Snapshot}.
+ * The arrays shared between snapshots are only ever written past the sizes of the snapshots that have
+ * already been published, and the per-alarm indices are replaced rather than modified, so readers always
+ * see a consistent state.
+ */
+public class AppendableAlarmStore implements AlarmStore {
+
+    private final AlarmStore base;
+    private final int numBaseAlarms;
+    private final int numBaseUpdates;
+
+    /**
+     * Only accessed when appending.
+     */
+    private final Map<String, Integer> ordinalsById = new HashMap<>();
+
+    private volatile Snapshot snapshot;
+
+    public AppendableAlarmStore(AlarmStore base) {
+        this.base = base;
+        numBaseAlarms = base.getNumAlarms();
+        numBaseUpdates = base.getNumUpdates();
+        for (int i = 0; i < numBaseAlarms; i++) {
+            ordinalsById.put(base.getAlarmId(i), i);
+        }
+        snapshot = new Snapshot(new String[16], numBaseAlarms, new Alarm[16], new int[16], new long[16], 0, new int[numBaseAlarms][]);
+    }
+
+    /**
+     * Appends the given updates. The updates are visible to readers once this returns.
+     *
+     * The updates do not need to be in any particular order. When an update occurs at the same time as
+     * an existing update of the same alarm, it takes precedence over the existing one.
+     */
+    public synchronized void append(Collection<Alarm> alarms) {
+        final Snapshot current = snapshot;
+        String[] alarmIds = current.alarmIds;
+        int numAlarms = current.numAlarms;
+        Alarm[] updates = current.updates;
+        int[] ordinals = current.ordinals;
+        long[] times = current.times;
+        int numUpdates = current.numUpdates;
+        // Copy the index, since the updates of existing alarms are replaced
+        int[][] updatesByOrdinal = Arrays.copyOf(current.updatesByOrdinal, Math.max(current.updatesByOrdinal.length, numAlarms + alarms.size()));
+
+        for (Alarm alarm : alarms) {
+            Integer ordinal = ordinalsById.get(alarm.getId());
+            if (ordinal == null) {
+                ordinal = numAlarms++;
+                ordinalsById.put(alarm.getId(), ordinal);
+                if (ordinal - numBaseAlarms == alarmIds.length) {
+                    alarmIds = Arrays.copyOf(alarmIds, alarmIds.length * 2);
+                }
+                alarmIds[ordinal - numBaseAlarms] = alarm.getId();
+            }
+            if (numUpdates == updates.length) {
+                updates = Arrays.copyOf(updates, updates.length * 2);
+                ordinals = Arrays.copyOf(ordinals, ordinals.length * 2);
+                times = Arrays.copyOf(times, times.length * 2);
+            }
+            updates[numUpdates] = alarm;
+            ordinals[numUpdates] = ordinal;
+            times[numUpdates] = alarm.getTime();
+            updatesByOrdinal[ordinal] = insert(updatesByOrdinal[ordinal], numUpdates, times);
+            numUpdates++;
+        }
+        snapshot = new Snapshot(alarmIds, numAlarms, updates, ordinals, times, numUpdates, updatesByOrdinal);
+    }
+
+    /**
+     * Inserts the update into the given updates, which are sorted by time, after any updates that occur at the same time.
+     */
+    private static int[] insert(int[] updates, int update, long[] times) {
+        if (updates == null) {
+            return new int[]{update};
+        }
+        final int idx = indexOfFirstUpdateAfter(updates, times, times[update]);
+        final int[] newUpdates = new int[updates.length + 1];
+        System.arraycopy(updates, 0, newUpdates, 0, idx);
+        newUpdates[idx] = update;
+        System.arraycopy(updates, idx, newUpdates, idx + 1, updates.length - idx);
+        return newUpdates;
+    }
+
+    private static int indexOfFirstUpdateAfter(int[] updates, long[] times, long timestampInMs) {
+        int low = 0;
+        int high = updates.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (times[updates[mid]] <= timestampInMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int[] getActiveUpdatesAt(long timestampInMs) {
+        final Snapshot snapshot = this.snapshot;
+        final int[] activeUpdates = new int[snapshot.numAlarms];
+        int numActiveUpdates = 0;
+        for (int i = 0; i < snapshot.numAlarms; i++) {
+            final int idx = getLastUpdateBefore(snapshot, i, timestampInMs);
+            if (idx >= 0 && AlarmStore.isActive(getTime(snapshot, idx), isClear(snapshot, idx), timestampInMs)) {
+                activeUpdates[numActiveUpdates++] = idx;
+            }
+        }
+        return Arrays.copyOf(activeUpdates, numActiveUpdates);
+    }
+
+    @Override
+    public int getLastUpdateBefore(int ordinal, long timestampInMs) {
+        return getLastUpdateBefore(snapshot, ordinal, timestampInMs);
+    }
+
+    private int getLastUpdateBefore(Snapshot snapshot, int ordinal, long timestampInMs) {
+        final int baseIdx = ordinal < numBaseAlarms ? base.getLastUpdateBefore(ordinal, timestampInMs) : -1;
+        final int appendedIdx = snapshot.getLastUpdateBefore(ordinal, timestampInMs);
+        // The appended update wins when both occur at the same time
+        if (appendedIdx >= 0 && (baseIdx < 0 || snapshot.times[appendedIdx] >= base.getTime(baseIdx))) {
+            return numBaseUpdates + appendedIdx;
+        }
+        return baseIdx;
+    }
+
+    @Override
+    public int getNumAlarms() {
+        return snapshot.numAlarms;
+    }
+
+    @Override
+    public int getNumUpdates() {
+        return numBaseUpdates + snapshot.numUpdates;
+    }
+
+    @Override
+    public String getAlarmId(int ordinal) {
+        return ordinal < numBaseAlarms ? base.getAlarmId(ordinal) : snapshot.alarmIds[ordinal - numBaseAlarms];
+    }
+
+    @Override
+    public int getAlarmOrdinal(int update) {
+        return update < numBaseUpdates ? base.getAlarmOrdinal(update) : snapshot.ordinals[update - numBaseUpdates];
+    }
+
+    @Override
+    public long getTime(int update) {
+        return getTime(snapshot, update);
+    }
+
+    private long getTime(Snapshot snapshot, int update) {
+        return update < numBaseUpdates ? base.getTime(update) : snapshot.times[update - numBaseUpdates];
+    }
+
+    @Override
+    public boolean isClear(int update) {
+        return isClear(snapshot, update);
+    }
+
+    private boolean isClear(Snapshot snapshot, int update) {
+        return update < numBaseUpdates ? base.isClear(update) : snapshot.updates[update - numBaseUpdates].isClear();
+    }
+
+    @Override
+    public Alarm getAlarm(int update) {
+        return update < numBaseUpdates ? base.getAlarm(update) : snapshot.updates[update - numBaseUpdates];
+    }
+
+    /**
+     * The appended updates, as of a given append.
+     */
+    private static class Snapshot {
+        /**
+         * Ids of the alarms that are not in the base store.
+         */
+        private final String[] alarmIds;
+        /**
+         * Number of alarms, including the ones in the base store.
+         */
+        private final int numAlarms;
+        private final Alarm[] updates;
+        private final int[] ordinals;
+        private final long[] times;
+        private final int numUpdates;
+        /**
+         * The appended updates of every alarm, sorted by time.
+         */
+        private final int[][] updatesByOrdinal;
+
+        private Snapshot(String[] alarmIds, int numAlarms, Alarm[] updates, int[] ordinals, long[] times, int numUpdates, int[][] updatesByOrdinal) {
+            this.alarmIds = alarmIds;
+            this.numAlarms = numAlarms;
+            this.updates = updates;
+            this.ordinals = ordinals;
+            this.times = times;
+            this.numUpdates = numUpdates;
+            this.updatesByOrdinal = updatesByOrdinal;
+        }
+
+        /**
+         * @return the index of the last appended update strictly before the given time, relative to the appended updates, or -1 if there is none
+         */
+        private int getLastUpdateBefore(int ordinal, long timestampInMs) {
+            final int[] alarmUpdates = ordinal < updatesByOrdinal.length ? updatesByOrdinal[ordinal] : null;
+            if (alarmUpdates == null) {
+                return -1;
+            }
+            int low = 0;
+            int high = alarmUpdates.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (times[alarmUpdates[mid]] < timestampInMs) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low > 0 ? alarmUpdates[low - 1] : -1;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.opennms.oce.graphserver.model.Graph;
+
+/**
+ * A compact, immutable, directed graph.
+ *
+ * Vertices are identified by their ordinal, and the edges are stored in compressed sparse row (CSR) form:
+ * the out edges of vertex v are found at [outOffsets[v], outOffsets[v+1]) in the out arrays, and the in edges
+ * are found at [inOffsets[v], inOffsets[v+1]) in the in arrays.
+ *
+ * A graph can also be built as an overlay on top of a base graph, which is shared rather than copied. The vertices
+ * of the base keep their ordinals, and the vertices of the overlay are numbered from {@code base.getNumVertices()}.
+ * The edges that are added by the overlay are kept in separate CSR arrays, which are indexed by slot rather than by
+ * ordinal: the base vertices that have edges in the overlay are found in the sorted extraOutVertices and extraInVertices
+ * arrays and take the first slots, followed by one slot for every vertex of the overlay. The edges of the base are
+ * always listed before the edges of the overlay.
+ *
+ * Sub-graphs are represented by a {@link BitSet} of vertex ordinals, where an edge is part of the sub-graph
+ * when both of its vertices are.
+ *
+ * There is at most one edge between any ordered pair of vertices.
+ */
+public class CompactGraph {
+
+    private final CompactGraph base;
+    private final int numBaseVertices;
+
+    private final Graph.Vertex[] vertices;
+
+    private final int[] extraOutVertices;
+    private final int[] outOffsets;
+    private final int[] outTargets;
+    private final Graph.Edge[] outEdges;
+
+    private final int[] extraInVertices;
+    private final int[] inOffsets;
+    private final int[] inSources;
+    private final int[] inEdgeIndices;
+
+    private CompactGraph(CompactGraph base, Graph.Vertex[] vertices,
+                         int[] extraOutVertices, int[] outOffsets, int[] outTargets, Graph.Edge[] outEdges,
+                         int[] extraInVertices, int[] inOffsets, int[] inSources, int[] inEdgeIndices) {
+        this.base = base;
+        this.numBaseVertices = base != null ? base.getNumVertices() : 0;
+        this.vertices = vertices;
+        this.extraOutVertices = extraOutVertices;
+        this.outOffsets = outOffsets;
+        this.outTargets = outTargets;
+        this.outEdges = outEdges;
+        this.extraInVertices = extraInVertices;
+        this.inOffsets = inOffsets;
+        this.inSources = inSources;
+        this.inEdgeIndices = inEdgeIndices;
+    }
+
+    public static Builder builder() {
+        return new Builder(null);
+    }
+
+    /**
+     * Creates a graph from the out edges of a graph that was built by a {@link Builder} without a base,
+     * i.e. where the out edges are already bucketed by source and free of parallel edges.
+     */
+    static CompactGraph fromOutEdges(Graph.Vertex[] vertices, int[] outOffsets, int[] outTargets, Graph.Edge[] outEdges) {
+        final int numVertices = vertices.length;
+        final int numEdges = outTargets.length;
+
+        // Index the edges by target, the out edges are ordered by source so the in edges are as well
+        final int[] inOffsets = new int[numVertices + 1];
+        for (int i = 0; i < numEdges; i++) {
+            inOffsets[outTargets[i] + 1]++;
+        }
+        for (int v = 0; v < numVertices; v++) {
+            inOffsets[v + 1] += inOffsets[v];
+        }
+        final int[] nextIn = Arrays.copyOf(inOffsets, numVertices);
+        final int[] inSources = new int[numEdges];
+        final int[] inEdgeIndices = new int[numEdges];
+        for (int v = 0; v < numVertices; v++) {
+            for (int i = outOffsets[v]; i < outOffsets[v + 1]; i++) {
+                final int idx = nextIn[outTargets[i]]++;
+                inSources[idx] = v;
+                inEdgeIndices[idx] = i;
+            }
+        }
+        return new CompactGraph(null, vertices, new int[0], outOffsets, outTargets, outEdges,
+                new int[0], inOffsets, inSources, inEdgeIndices);
+    }
+
+    /**
+     * Creates a builder for an overlay on the given graph. The graph starts with all of the vertices and edges
+     * from the base, which keep their ordinals, but none of these are copied.
+     */
+    public static Builder builder(CompactGraph base) {
+        return new Builder(base);
+    }
+
+    public static class Builder {
+        private final CompactGraph base;
+        private final int numBaseVertices;
+
+        private Graph.Vertex[] vertices;
+        private int numVertices;
+
+        private int[] sources;
+        private int[] targets;
+        private Graph.Edge[] edges;
+        private int numEdges;
+
+        private Builder(CompactGraph base) {
+            this.base = base;
+            numBaseVertices = base != null ? base.getNumVertices() : 0;
+            numVertices = numBaseVertices;
+            vertices = new Graph.Vertex[16];
+            sources = new int[16];
+            targets = new int[16];
+            edges = new Graph.Edge[16];
+        }
+
+        /**
+         * Adds a vertex to the graph.
+         *
+         * @return the ordinal of the vertex
+         */
+        public int addVertex(Graph.Vertex vertex) {
+            final int idx = numVertices - numBaseVertices;
+            if (idx == vertices.length) {
+                vertices = Arrays.copyOf(vertices, vertices.length * 2);
+            }
+            vertices[idx] = vertex;
+            return numVertices++;
+        }
+
+        /**
+         * Adds an edge to the graph. If there is already an edge from source to target, the edge is ignored.
+         */
+        public Builder addEdge(int source, int target, Graph.Edge edge) {
+            if (numEdges == edges.length) {
+                sources = Arrays.copyOf(sources, sources.length * 2);
+                targets = Arrays.copyOf(targets, targets.length * 2);
+                edges = Arrays.copyOf(edges, edges.length * 2);
+            }
+            sources[numEdges] = source;
+            targets[numEdges] = target;
+            edges[numEdges] = edge;
+            numEdges++;
+            return this;
+        }
+
+        public int getNumVertices() {
+            return numVertices;
+        }
+
+        public Graph.Vertex getVertex(int v) {
+            return v < numBaseVertices ? base.getVertex(v) : vertices[v - numBaseVertices];
+        }
+
+        public CompactGraph build() {
+            final int numOverlayVertices = numVertices - numBaseVertices;
+
+            // Find the vertices of the base that have edges in the overlay, these take the first slots
+            final int[] extraOutVertices = getBaseVertices(sources);
+            final int[] extraInVertices = getBaseVertices(targets);
+            final int numOutSlots = extraOutVertices.length + numOverlayVertices;
+            final int numInSlots = extraInVertices.length + numOverlayVertices;
+            final int[] outSlots = new int[numEdges];
+            final int[] inSlots = new int[numEdges];
+            for (int i = 0; i < numEdges; i++) {
+                outSlots[i] = getSlot(sources[i], numBaseVertices, extraOutVertices);
+                inSlots[i] = getSlot(targets[i], numBaseVertices, extraInVertices);
+            }
+
+            // Bucket the edges by source, keeping them in the order they were added
+            final int[] outOffsets = new int[numOutSlots + 1];
+            for (int i = 0; i < numEdges; i++) {
+                outOffsets[outSlots[i] + 1]++;
+            }
+            for (int s = 0; s < numOutSlots; s++) {
+                outOffsets[s + 1] += outOffsets[s];
+            }
+            final int[] next = Arrays.copyOf(outOffsets, numOutSlots);
+            final int[] bucketedTargets = new int[numEdges];
+            final int[] bucketedInSlots = new int[numEdges];
+            final Graph.Edge[] bucketedEdges = new Graph.Edge[numEdges];
+            for (int i = 0; i < numEdges; i++) {
+                final int idx = next[outSlots[i]]++;
+                bucketedTargets[idx] = targets[i];
+                bucketedInSlots[idx] = inSlots[i];
+                bucketedEdges[idx] = edges[i];
+            }
+
+            // Remove parallel edges, the first edge between any two vertices wins and the edges of the base win over
+            // those of the overlay
+            final int[] lastSourceForTarget = new int[numInSlots];
+            Arrays.fill(lastSourceForTarget, -1);
+            final int[] outTargets = new int[numEdges];
+            final int[] outInSlots = new int[numEdges];
+            final Graph.Edge[] outEdges = new Graph.Edge[numEdges];
+            int numOutEdges = 0;
+            for (int s = 0; s < numOutSlots; s++) {
+                final int source = getSlotVertex(s, numBaseVertices, extraOutVertices);
+                final int start = outOffsets[s];
+                final int end = outOffsets[s + 1];
+                outOffsets[s] = numOutEdges;
+                for (int i = start; i < end; i++) {
+                    final int target = bucketedTargets[i];
+                    final int inSlot = bucketedInSlots[i];
+                    if (lastSourceForTarget[inSlot] == s || (source < numBaseVertices && target < numBaseVertices && base.hasEdge(source, target))) {
+                        continue;
+                    }
+                    lastSourceForTarget[inSlot] = s;
+                    outTargets[numOutEdges] = target;
+                    outInSlots[numOutEdges] = inSlot;
+                    outEdges[numOutEdges] = bucketedEdges[i];
+                    numOutEdges++;
+                }
+            }
+            outOffsets[numOutSlots] = numOutEdges;
+
+            // Now index the edges by target, the slots are ordered by source so the in edges are as well
+            final int[] inOffsets = new int[numInSlots + 1];
+            for (int i = 0; i < numOutEdges; i++) {
+                inOffsets[outInSlots[i] + 1]++;
+            }
+            for (int s = 0; s < numInSlots; s++) {
+                inOffsets[s + 1] += inOffsets[s];
+            }
+            final int[] nextIn = Arrays.copyOf(inOffsets, numInSlots);
+            final int[] inSources = new int[numOutEdges];
+            final int[] inEdgeIndices = new int[numOutEdges];
+            for (int s = 0; s < numOutSlots; s++) {
+                final int source = getSlotVertex(s, numBaseVertices, extraOutVertices);
+                for (int i = outOffsets[s]; i < outOffsets[s + 1]; i++) {
+                    final int idx = nextIn[outInSlots[i]]++;
+                    inSources[idx] = source;
+                    inEdgeIndices[idx] = i;
+                }
+            }
+
+            return new CompactGraph(base, Arrays.copyOf(vertices, numOverlayVertices),
+                    extraOutVertices, outOffsets, Arrays.copyOf(outTargets, numOutEdges), Arrays.copyOf(outEdges, numOutEdges),
+                    extraInVertices, inOffsets, inSources, inEdgeIndices);
+        }
+
+        /**
+         * @return the sorted, distinct, vertices of the base that are found in the given edge endpoints
+         */
+        private int[] getBaseVertices(int[] endpoints) {
+            if (numBaseVertices == 0) {
+                return new int[0];
+            }
+            return Arrays.stream(endpoints, 0, numEdges)
+                    .filter(v -> v < numBaseVertices)
+                    .sorted()
+                    .distinct()
+                    .toArray();
+        }
+    }
+
+    private static int getSlot(int v, int numBaseVertices, int[] extraVertices) {
+        if (v >= numBaseVertices) {
+            return extraVertices.length + v - numBaseVertices;
+        }
+        return numBaseVertices > 0 ? Arrays.binarySearch(extraVertices, v) : -1;
+    }
+
+    private static int getSlotVertex(int slot, int numBaseVertices, int[] extraVertices) {
+        return slot < extraVertices.length ? extraVertices[slot] : numBaseVertices + slot - extraVertices.length;
+    }
+
+    private boolean hasEdge(int source, int target) {
+        for (int i = 0; i < getOutDegree(source); i++) {
+            if (getOutTarget(source, i) == target) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getNumVertices() {
+        return numBaseVertices + vertices.length;
+    }
+
+    public int getNumEdges() {
+        return (base != null ? base.getNumEdges() : 0) + outTargets.length;
+    }
+
+    public Graph.Vertex getVertex(int v) {
+        return v < numBaseVertices ? base.getVertex(v) : vertices[v - numBaseVertices];
+    }
+
+    public int getOutDegree(int v) {
+        final int baseOutDegree = v < numBaseVertices ? base.getOutDegree(v) : 0;
+        final int slot = getSlot(v, numBaseVertices, extraOutVertices);
+        return slot < 0 ? baseOutDegree : baseOutDegree + outOffsets[slot + 1] - outOffsets[slot];
+    }
+
+    public int getOutTarget(int v, int i) {
+        final int baseOutDegree = v < numBaseVertices ? base.getOutDegree(v) : 0;
+        if (i < baseOutDegree) {
+            return base.getOutTarget(v, i);
+        }
+        return outTargets[outOffsets[getSlot(v, numBaseVertices, extraOutVertices)] + i - baseOutDegree];
+    }
+
+    public Graph.Edge getOutEdge(int v, int i) {
+        final int baseOutDegree = v < numBaseVertices ? base.getOutDegree(v) : 0;
+        if (i < baseOutDegree) {
+            return base.getOutEdge(v, i);
+        }
+        return outEdges[outOffsets[getSlot(v, numBaseVertices, extraOutVertices)] + i - baseOutDegree];
+    }
+
+    public int getInDegree(int v) {
+        final int baseInDegree = v < numBaseVertices ? base.getInDegree(v) : 0;
+        final int slot = getSlot(v, numBaseVertices, extraInVertices);
+        return slot < 0 ? baseInDegree : baseInDegree + inOffsets[slot + 1] - inOffsets[slot];
+    }
+
+    public int getInSource(int v, int i) {
+        final int baseInDegree = v < numBaseVertices ? base.getInDegree(v) : 0;
+        if (i < baseInDegree) {
+            return base.getInSource(v, i);
+        }
+        return inSources[inOffsets[getSlot(v, numBaseVertices, extraInVertices)] + i - baseInDegree];
+    }
+
+    public Graph.Edge getInEdge(int v, int i) {
+        final int baseInDegree = v < numBaseVertices ? base.getInDegree(v) : 0;
+        if (i < baseInDegree) {
+            return base.getInEdge(v, i);
+        }
+        return outEdges[inEdgeIndices[inOffsets[getSlot(v, numBaseVertices, extraInVertices)] + i - baseInDegree]];
+    }
+
+    /**
+     * Counts the edges incident to the given vertex in the given sub-graph.
+     * Self-loops are only counted once.
+     */
+    public int getNumIncidentEdges(int v, BitSet subgraph) {
+        int numIncidentEdges = 0;
+        final int outDegree = getOutDegree(v);
+        for (int i = 0; i < outDegree; i++) {
+            if (subgraph.get(getOutTarget(v, i))) {
+                numIncidentEdges++;
+            }
+        }
+        final int inDegree = getInDegree(v);
+        for (int i = 0; i < inDegree; i++) {
+            final int source = getInSource(v, i);
+            if (source != v && subgraph.get(source)) {
+                numIncidentEdges++;
+            }
+        }
+        return numIncidentEdges;
+    }
+
+    public List<Graph.Vertex> getVertices(BitSet subgraph) {
+        final List<Graph.Vertex> subgraphVertices = new ArrayList<>(subgraph.cardinality());
+        for (int v = subgraph.nextSetBit(0); v >= 0; v = subgraph.nextSetBit(v + 1)) {
+            subgraphVertices.add(getVertex(v));
+        }
+        return subgraphVertices;
+    }
+
+    public List<Graph.Edge> getEdges(BitSet subgraph) {
+        final List<Graph.Edge> subgraphEdges = new ArrayList<>();
+        for (int v = subgraph.nextSetBit(0); v >= 0; v = subgraph.nextSetBit(v + 1)) {
+            final int outDegree = getOutDegree(v);
+            for (int i = 0; i < outDegree; i++) {
+                if (subgraph.get(getOutTarget(v, i))) {
+                    subgraphEdges.add(getOutEdge(v, i));
+                }
+            }
+        }
+        return subgraphEdges;
+    }
+}
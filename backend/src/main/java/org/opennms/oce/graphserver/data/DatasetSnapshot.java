@@ -0,0 +1,619 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.InventoryObject;
+import org.opennms.alec.datasource.api.InventoryObjectPeerEndpoint;
+import org.opennms.alec.datasource.api.InventoryObjectPeerRef;
+import org.opennms.alec.datasource.api.InventoryObjectRelativeRef;
+import org.opennms.alec.datasource.api.ResourceKey;
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.alec.datasource.api.Situation;
+import org.opennms.alec.datasource.common.ImmutableAlarm;
+import org.opennms.alec.datasource.common.ImmutableInventoryObject;
+import org.opennms.alec.datasource.common.ImmutableInventoryObjectPeerRef;
+import org.opennms.alec.datasource.common.ImmutableInventoryObjectRelativeRef;
+import org.opennms.alec.datasource.common.ImmutableSituation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compact binary copy of a dataset, used to avoid re-parsing the XML on every restart.
+ *
+ * Along with the dataset itself, the snapshot holds the indexes we derive from it, so that these
+ * don't need to be sorted or rebuilt on load. All of the strings are stored once in a string table,
+ * and are referenced by their index everywhere else. The layout is:
+ * <pre>
+ *   header:      magic, version, fingerprint
+ *   strings:     count, (length, utf-8 bytes)*
+ *   alarms:      count, (id, time, severity, inventory object type and id, summary, description, node id)*
+ *   timeline:    count, alarm ids, offsets, times
+ *   inventory:   count, (type, id, subtype, parent type and id, friendly name, weight, top level, peers, relatives)*
+ *   keys:        count, inventory count, (is situation, type or source, id, canonical id)*,
+ *                alarm inventory ordinals, (count, situation alarm ordinals)*
+ *   topology:    offsets, count, targets, edge types
+ *   situations:  count, (source, is primary, count, (id, creation time, severity, text, resource keys, alarm ids)*,
+ *                count, (alarm id, count, situation ordinals)*)*
+ * </pre>
+ * The alarms are stored in timeline order, and the key, topology and situation ordinals are those of the
+ * {@link ResourceKeyDictionary}, {@link InventoryTopology} and {@link SituationResults} of the dataset.
+ *
+ * The fingerprint identifies the version of the XML files the snapshot was built from. Snapshots
+ * with a different fingerprint or version are ignored. Snapshots are read from memory-mapped chunks of
+ * at most {@link #DEFAULT_CHUNK_SIZE_IN_BYTES}, so their size is not limited by that of a single buffer.
+ */
+public class DatasetSnapshot {
+    private static final Logger LOG = LoggerFactory.getLogger(DatasetSnapshot.class);
+
+    private static final int MAGIC = 0x414c4543; // ALEC
+    private static final int VERSION = 2;
+    private static final int NULL = -1;
+
+    /**
+     * Size of the chunks the snapshot is mapped in, which is well below the 2GB limit of a single buffer.
+     */
+    static final int DEFAULT_CHUNK_SIZE_IN_BYTES = 1 << 30;
+
+    /**
+     * Builds a fingerprint from the names, sizes and modification times of the given files.
+     */
+    public static String fingerprint(List<Path> files) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (Path file : files) {
+            sb.append(file.getFileName()).append(':')
+                    .append(Files.size(file)).append(':')
+                    .append(Files.getLastModifiedTime(file).toMillis()).append(';');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads the dataset from the given snapshot.
+     *
+     * @return the dataset, or an empty optional if the snapshot is missing, unreadable or does not match the given fingerprint
+     */
+    public static Optional<OceDataset> read(Path snapshot, String fingerprint) {
+        return read(snapshot, fingerprint, DEFAULT_CHUNK_SIZE_IN_BYTES);
+    }
+
+    static Optional<OceDataset> read(Path snapshot, String fingerprint, int chunkSizeInBytes) {
+        if (!Files.isRegularFile(snapshot)) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            final MappedInput in = new MappedInput(channel, chunkSizeInBytes);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                LOG.info("Snapshot {} has an unsupported format, ignoring.", snapshot);
+                return Optional.empty();
+            }
+            if (!fingerprint.equals(in.getString())) {
+                LOG.info("Snapshot {} is out of date, ignoring.", snapshot);
+                return Optional.empty();
+            }
+            return Optional.of(new Reader(in).readDataset());
+        } catch (IOException|RuntimeException e) {
+            LOG.warn("Failed to read snapshot {}, ignoring.", snapshot, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the dataset to the given snapshot. The snapshot is replaced atomically.
+     */
+    public static void write(OceDataset dataset, Path snapshot, String fingerprint) throws IOException {
+        final Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, fingerprint);
+            new Writer(dataset, out).writeDataset();
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Writer {
+        private final OceDataset dataset;
+        private final DataOutputStream out;
+        private final Map<String, Integer> stringIndices = new LinkedHashMap<>();
+
+        private Writer(OceDataset dataset, DataOutputStream out) {
+            this.dataset = dataset;
+            this.out = out;
+        }
+
+        private void writeDataset() throws IOException {
+            final AlarmStore alarmStore = dataset.getAlarmStore();
+            final ResourceKeyDictionary resourceKeys = dataset.getResourceKeys();
+            final CompactGraph inventoryGraph = dataset.getInventoryTopology().getGraph();
+
+            // Collect all of the strings up front, so that the table can be read first
+            for (int update = 0; update < alarmStore.getNumUpdates(); update++) {
+                final Alarm alarm = alarmStore.getAlarm(update);
+                intern(alarm.getId(), alarm.getInventoryObjectType(), alarm.getInventoryObjectId(), alarm.getSummary(), alarm.getDescription());
+            }
+            for (InventoryObject io : dataset.getInventory()) {
+                intern(io.getType(), io.getId(), io.getSubtype(), io.getParentType(), io.getParentId(), io.getFriendlyName());
+                for (InventoryObjectPeerRef peerRef : io.getPeers()) {
+                    intern(peerRef.getType(), peerRef.getId());
+                }
+                for (InventoryObjectRelativeRef relativeRef : io.getRelatives()) {
+                    intern(relativeRef.getType(), relativeRef.getId());
+                }
+            }
+            final int numKeys = resourceKeys.getNumKeys();
+            final BitSet situationKeys = new BitSet(numKeys);
+            final String[] firstTokens = new String[numKeys];
+            final String[] secondTokens = new String[numKeys];
+            resourceKeys.forEachKey((ordinal, isSituation, first, second) -> {
+                situationKeys.set(ordinal, isSituation);
+                firstTokens[ordinal] = first;
+                secondTokens[ordinal] = second;
+                intern(first, second, resourceKeys.getId(ordinal));
+            });
+            for (int v = 0; v < inventoryGraph.getNumVertices(); v++) {
+                for (int i = 0; i < inventoryGraph.getOutDegree(v); i++) {
+                    intern(inventoryGraph.getOutEdge(v, i).getType());
+                }
+            }
+            for (SituationResults situationResults : dataset.getSituationResults()) {
+                intern(situationResults.getSource());
+                for (int ordinal = 0; ordinal < situationResults.getNumSituations(); ordinal++) {
+                    final Situation situation = situationResults.getSituation(ordinal);
+                    intern(situation.getId(), situation.getDiagnosticText());
+                    for (ResourceKey resourceKey : situation.getResourceKeys()) {
+                        resourceKey.getTokens().forEach(this::intern);
+                    }
+                    for (Alarm alarm : situation.getAlarms()) {
+                        intern(alarm.getId());
+                    }
+                }
+            }
+            out.writeInt(stringIndices.size());
+            for (String s : stringIndices.keySet()) {
+                writeString(out, s);
+            }
+
+            // The alarms are written in timeline order, along with the timeline itself
+            out.writeInt(alarmStore.getNumUpdates());
+            for (int update = 0; update < alarmStore.getNumUpdates(); update++) {
+                final Alarm alarm = alarmStore.getAlarm(update);
+                writeRef(alarm.getId());
+                out.writeLong(alarm.getTime());
+                writeSeverity(alarm.getSeverity());
+                writeRef(alarm.getInventoryObjectType());
+                writeRef(alarm.getInventoryObjectId());
+                writeRef(alarm.getSummary());
+                writeRef(alarm.getDescription());
+                out.writeBoolean(alarm.getNodeId() != null);
+                out.writeLong(alarm.getNodeId() != null ? alarm.getNodeId() : 0L);
+            }
+            out.writeInt(alarmStore.getNumAlarms());
+            for (int i = 0; i < alarmStore.getNumAlarms(); i++) {
+                writeRef(alarmStore.getAlarmId(i));
+            }
+            final int[] offsets = new int[alarmStore.getNumAlarms() + 1];
+            for (int update = 0; update < alarmStore.getNumUpdates(); update++) {
+                offsets[alarmStore.getAlarmOrdinal(update) + 1]++;
+            }
+            for (int i = 0; i < alarmStore.getNumAlarms(); i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            writeInts(offsets);
+            for (int update = 0; update < alarmStore.getNumUpdates(); update++) {
+                out.writeLong(alarmStore.getTime(update));
+            }
+
+            out.writeInt(dataset.getInventory().size());
+            for (InventoryObject io : dataset.getInventory()) {
+                writeRef(io.getType());
+                writeRef(io.getId());
+                writeRef(io.getSubtype());
+                writeRef(io.getParentType());
+                writeRef(io.getParentId());
+                writeRef(io.getFriendlyName());
+                out.writeLong(io.getWeightToParent());
+                out.writeBoolean(io.isTopLevel());
+                out.writeInt(io.getPeers().size());
+                for (InventoryObjectPeerRef peerRef : io.getPeers()) {
+                    writeRef(peerRef.getType());
+                    writeRef(peerRef.getId());
+                    out.writeByte(peerRef.getEndpoint() != null ? peerRef.getEndpoint().ordinal() + 1 : 0);
+                    out.writeLong(peerRef.getWeight());
+                }
+                out.writeInt(io.getRelatives().size());
+                for (InventoryObjectRelativeRef relativeRef : io.getRelatives()) {
+                    writeRef(relativeRef.getType());
+                    writeRef(relativeRef.getId());
+                    out.writeLong(relativeRef.getWeight());
+                }
+            }
+
+            out.writeInt(numKeys);
+            out.writeInt(resourceKeys.getNumInventoryKeys());
+            for (int ordinal = 0; ordinal < numKeys; ordinal++) {
+                out.writeBoolean(situationKeys.get(ordinal));
+                writeRef(firstTokens[ordinal]);
+                writeRef(secondTokens[ordinal]);
+                writeRef(resourceKeys.getId(ordinal));
+            }
+            for (int ordinal = resourceKeys.getNumInventoryKeys(); ordinal < numKeys; ordinal++) {
+                out.writeInt(resourceKeys.getAlarmInventoryOrdinal(ordinal));
+            }
+            for (int ordinal = resourceKeys.getNumInventoryKeys(); ordinal < numKeys; ordinal++) {
+                final int[] alarmOrdinals = resourceKeys.getSituationAlarmOrdinals(ordinal);
+                out.writeInt(alarmOrdinals != null ? alarmOrdinals.length : NULL);
+                if (alarmOrdinals != null) {
+                    writeInts(alarmOrdinals);
+                }
+            }
+
+            final int[] outOffsets = new int[inventoryGraph.getNumVertices() + 1];
+            for (int v = 0; v < inventoryGraph.getNumVertices(); v++) {
+                outOffsets[v + 1] = outOffsets[v] + inventoryGraph.getOutDegree(v);
+            }
+            writeInts(outOffsets);
+            out.writeInt(inventoryGraph.getNumEdges());
+            for (int v = 0; v < inventoryGraph.getNumVertices(); v++) {
+                for (int i = 0; i < inventoryGraph.getOutDegree(v); i++) {
+                    out.writeInt(inventoryGraph.getOutTarget(v, i));
+                }
+            }
+            for (int v = 0; v < inventoryGraph.getNumVertices(); v++) {
+                for (int i = 0; i < inventoryGraph.getOutDegree(v); i++) {
+                    writeRef(inventoryGraph.getOutEdge(v, i).getType());
+                }
+            }
+
+            out.writeInt(dataset.getSituationResults().size());
+            for (SituationResults situationResults : dataset.getSituationResults()) {
+                writeRef(situationResults.getSource());
+                out.writeBoolean(situationResults.isPrimary());
+                final int numSituations = situationResults.getNumSituations();
+                out.writeInt(numSituations);
+                for (int ordinal = 0; ordinal < numSituations; ordinal++) {
+                    final Situation situation = situationResults.getSituation(ordinal);
+                    writeRef(situation.getId());
+                    out.writeLong(situation.getCreationTime());
+                    writeSeverity(situation.getSeverity());
+                    writeRef(situation.getDiagnosticText());
+                    out.writeInt(situation.getResourceKeys().size());
+                    for (ResourceKey resourceKey : situation.getResourceKeys()) {
+                        out.writeInt(resourceKey.getTokens().size());
+                        for (String token : resourceKey.getTokens()) {
+                            writeRef(token);
+                        }
+                    }
+                    out.writeInt(situation.getAlarms().size());
+                    for (Alarm alarm : situation.getAlarms()) {
+                        writeRef(alarm.getId());
+                    }
+                }
+
+                // Only keep the ordinals of the situations we wrote, in case an append is in progress
+                final Map<String, int[]> ordinalsByAlarmId = new LinkedHashMap<>();
+                for (String alarmId : situationResults.getAlarmIds()) {
+                    final int[] ordinals = Arrays.stream(situationResults.getSituationOrdinalsWithAlarm(alarmId))
+                            .filter(ordinal -> ordinal < numSituations)
+                            .toArray();
+                    if (ordinals.length > 0) {
+                        ordinalsByAlarmId.put(alarmId, ordinals);
+                    }
+                }
+                out.writeInt(ordinalsByAlarmId.size());
+                for (Map.Entry<String, int[]> entry : ordinalsByAlarmId.entrySet()) {
+                    writeRef(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    writeInts(entry.getValue());
+                }
+            }
+        }
+
+        private void intern(String... strings) {
+            for (String s : strings) {
+                if (s != null) {
+                    stringIndices.putIfAbsent(s, stringIndices.size());
+                }
+            }
+        }
+
+        private void writeRef(String s) throws IOException {
+            out.writeInt(s != null ? stringIndices.get(s) : NULL);
+        }
+
+        private void writeInts(int[] values) throws IOException {
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+
+        private void writeSeverity(Severity severity) throws IOException {
+            out.writeByte(severity != null ? severity.ordinal() + 1 : 0);
+        }
+    }
+
+    private static class Reader {
+        private final MappedInput in;
+        private String[] strings;
+
+        private Reader(MappedInput in) {
+            this.in = in;
+        }
+
+        private OceDataset readDataset() {
+            strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.getString();
+            }
+
+            final Alarm[] updates = new Alarm[in.getInt()];
+            for (int i = 0; i < updates.length; i++) {
+                final ImmutableAlarm.Builder builder = ImmutableAlarm.newBuilder()
+                        .setId(readRef())
+                        .setTime(in.getLong())
+                        .setSeverity(readSeverity())
+                        .setInventoryObjectType(readRef())
+                        .setInventoryObjectId(readRef())
+                        .setSummary(readRef())
+                        .setDescription(readRef());
+                final boolean hasNodeId = in.get() != 0;
+                final long nodeId = in.getLong();
+                if (hasNodeId) {
+                    builder.setNodeId(nodeId);
+                }
+                updates[i] = builder.build();
+            }
+            final String[] alarmIds = readRefs(in.getInt());
+            final int[] offsets = readInts(alarmIds.length + 1);
+            final long[] times = new long[updates.length];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = in.getLong();
+            }
+            final AlarmTimeline alarmTimeline = new AlarmTimeline(alarmIds, offsets, times, updates);
+
+            final int numInventoryObjects = in.getInt();
+            final List<InventoryObject> inventory = new ArrayList<>(numInventoryObjects);
+            for (int i = 0; i < numInventoryObjects; i++) {
+                final ImmutableInventoryObject.Builder builder = ImmutableInventoryObject.newBuilder()
+                        .setType(readRef())
+                        .setId(readRef())
+                        .setSubtype(readRef())
+                        .setParentType(readRef())
+                        .setParentId(readRef())
+                        .setFriendlyName(readRef())
+                        .setWeightToParent(in.getLong())
+                        .setTopLevel(in.get() != 0);
+                final int numPeers = in.getInt();
+                for (int k = 0; k < numPeers; k++) {
+                    final ImmutableInventoryObjectPeerRef.Builder peerBuilder = ImmutableInventoryObjectPeerRef.newBuilder()
+                            .setType(readRef())
+                            .setId(readRef());
+                    final int endpoint = in.get();
+                    builder.addPeer(peerBuilder
+                            .setEndpoint(endpoint > 0 ? InventoryObjectPeerEndpoint.values()[endpoint - 1] : null)
+                            .setWeight(in.getLong())
+                            .build());
+                }
+                final int numRelatives = in.getInt();
+                for (int k = 0; k < numRelatives; k++) {
+                    builder.addRelative(ImmutableInventoryObjectRelativeRef.newBuilder()
+                            .setType(readRef())
+                            .setId(readRef())
+                            .setWeight(in.getLong())
+                            .build());
+                }
+                inventory.add(builder.build());
+            }
+
+            final int numKeys = in.getInt();
+            final int numInventoryKeys = in.getInt();
+            final BitSet situationKeys = new BitSet(numKeys);
+            final String[] firstTokens = new String[numKeys];
+            final String[] secondTokens = new String[numKeys];
+            final String[] ids = new String[numKeys];
+            for (int ordinal = 0; ordinal < numKeys; ordinal++) {
+                situationKeys.set(ordinal, in.get() != 0);
+                firstTokens[ordinal] = readRef();
+                secondTokens[ordinal] = readRef();
+                ids[ordinal] = readRef();
+            }
+            final int[] alarmInventoryOrdinals = readInts(numKeys - numInventoryKeys);
+            final int[][] situationAlarmOrdinals = new int[numKeys - numInventoryKeys][];
+            for (int i = 0; i < situationAlarmOrdinals.length; i++) {
+                final int numAlarmOrdinals = in.getInt();
+                situationAlarmOrdinals[i] = numAlarmOrdinals != NULL ? readInts(numAlarmOrdinals) : null;
+            }
+            final ResourceKeyDictionary resourceKeys = new ResourceKeyDictionary(ids, firstTokens, secondTokens, situationKeys,
+                    numInventoryKeys, alarmInventoryOrdinals, situationAlarmOrdinals);
+
+            final int[] outOffsets = readInts(numInventoryKeys + 1);
+            final int numEdges = in.getInt();
+            final int[] outTargets = readInts(numEdges);
+            final String[] edgeTypes = readRefs(numEdges);
+            final InventoryTopology inventoryTopology = new InventoryTopology(inventory, resourceKeys, outOffsets, outTargets, edgeTypes);
+
+            final int numSituationResults = in.getInt();
+            final List<SituationResults> situationResults = new ArrayList<>(numSituationResults);
+            for (int i = 0; i < numSituationResults; i++) {
+                final String source = readRef();
+                final boolean isPrimary = in.get() != 0;
+                final Situation[] situations = new Situation[in.getInt()];
+                for (int k = 0; k < situations.length; k++) {
+                    final ImmutableSituation.Builder builder = ImmutableSituation.newBuilder()
+                            .setId(readRef())
+                            .setCreationTime(in.getLong())
+                            .setSeverity(readSeverity())
+                            .setDiagnosticText(readRef());
+                    final int numResourceKeys = in.getInt();
+                    for (int j = 0; j < numResourceKeys; j++) {
+                        final List<String> tokens = new ArrayList<>();
+                        final int numTokens = in.getInt();
+                        for (int t = 0; t < numTokens; t++) {
+                            tokens.add(readRef());
+                        }
+                        builder.addResourceKey(ResourceKey.key(tokens));
+                    }
+                    final int numAlarmRefs = in.getInt();
+                    for (int j = 0; j < numAlarmRefs; j++) {
+                        builder.addAlarm(ImmutableAlarm.newBuilder().setId(readRef()).build());
+                    }
+                    situations[k] = builder.build();
+                }
+                final int numAlarmIds = in.getInt();
+                final Map<String, int[]> situationOrdinalsByAlarmId = new HashMap<>(numAlarmIds * 4 / 3 + 1);
+                for (int k = 0; k < numAlarmIds; k++) {
+                    final String alarmId = readRef();
+                    situationOrdinalsByAlarmId.put(alarmId, readInts(in.getInt()));
+                }
+                situationResults.add(new SituationResults(source, isPrimary, situations, situationOrdinalsByAlarmId));
+            }
+            return new OceDataset(alarmTimeline, inventory, situationResults, resourceKeys, inventoryTopology);
+        }
+
+        private String readRef() {
+            final int idx = in.getInt();
+            return idx != NULL ? strings[idx] : null;
+        }
+
+        private String[] readRefs(int length) {
+            final String[] refs = new String[length];
+            for (int i = 0; i < length; i++) {
+                refs[i] = readRef();
+            }
+            return refs;
+        }
+
+        private int[] readInts(int length) {
+            final int[] values = new int[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = in.getInt();
+            }
+            return values;
+        }
+
+        private Severity readSeverity() {
+            final int severity = in.get();
+            return severity > 0 ? Severity.values()[severity - 1] : null;
+        }
+    }
+
+    /**
+     * Reads a file that is mapped in fixed size chunks, since a single buffer is limited to 2GB.
+     *
+     * Every chunk is mapped along with the first few bytes of the next, so that the primitives which
+     * straddle two chunks can be read from the first. Only the strings need to be copied across chunks.
+     */
+    private static class MappedInput {
+        private static final int OVERLAP_IN_BYTES = Long.BYTES;
+
+        private final MappedByteBuffer[] chunks;
+        private final int chunkSizeInBytes;
+        private long position;
+
+        private MappedInput(FileChannel channel, int chunkSizeInBytes) throws IOException {
+            if (chunkSizeInBytes <= 0 || chunkSizeInBytes > Integer.MAX_VALUE - OVERLAP_IN_BYTES) {
+                throw new IllegalArgumentException("Invalid chunk size: " + chunkSizeInBytes);
+            }
+            final long size = channel.size();
+            this.chunkSizeInBytes = chunkSizeInBytes;
+            chunks = new MappedByteBuffer[(int) ((size + chunkSizeInBytes - 1) / chunkSizeInBytes)];
+            for (int i = 0; i < chunks.length; i++) {
+                final long start = (long) i * chunkSizeInBytes;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, (long) chunkSizeInBytes + OVERLAP_IN_BYTES));
+            }
+        }
+
+        private MappedByteBuffer chunk() {
+            return chunks[(int) (position / chunkSizeInBytes)];
+        }
+
+        private int offset() {
+            return (int) (position % chunkSizeInBytes);
+        }
+
+        private byte get() {
+            final byte value = chunk().get(offset());
+            position += Byte.BYTES;
+            return value;
+        }
+
+        private int getInt() {
+            final int value = chunk().getInt(offset());
+            position += Integer.BYTES;
+            return value;
+        }
+
+        private long getLong() {
+            final long value = chunk().getLong(offset());
+            position += Long.BYTES;
+            return value;
+        }
+
+        private String getString() {
+            final byte[] bytes = new byte[getInt()];
+            int copied = 0;
+            while (copied < bytes.length) {
+                final ByteBuffer chunk = chunk().duplicate();
+                final int offset = offset();
+                final int length = Math.min(bytes.length - copied, chunkSizeInBytes - offset);
+                chunk.position(offset);
+                chunk.get(bytes, copied, length);
+                copied += length;
+                position += length;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a dataset directory, and its immediate subdirectories, for changes to the XML files.
+ *
+ * An export typically writes several files one after the other, so the callback is only invoked once
+ * the directories have been quiet for the given period, with the set of directories that changed.
+ * The callback is invoked on the watcher's thread, and changes that occur while it is running trigger
+ * another invocation once it completes.
+ *
+ * Only the XML files are considered, so the snapshots and stores we write next to them don't trigger a reload.
+ */
+public class DatasetWatcher implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(DatasetWatcher.class);
+
+    private final Path directory;
+    private final long quietPeriodMs;
+    private final Consumer<Set<Path>> onChange;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    public DatasetWatcher(Path directory, long quietPeriodMs, Consumer<Set<Path>> onChange) throws IOException {
+        this.directory = directory;
+        this.quietPeriodMs = quietPeriodMs;
+        this.onChange = onChange;
+        watchService = FileSystems.getDefault().newWatchService();
+        register(directory);
+        try (Stream<Path> subdirectories = Files.list(directory)) {
+            for (Path subdirectory : (Iterable<Path>) subdirectories.filter(Files::isDirectory)::iterator) {
+                register(subdirectory);
+            }
+        }
+        thread = new Thread(this::run, "dataset-watcher");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+        LOG.info("Watching {} for changes.", directory);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                // Wait for the first change
+                final Set<Path> changedDirectories = new HashSet<>();
+                pollEvents(watchService.take(), changedDirectories);
+                if (changedDirectories.isEmpty()) {
+                    continue;
+                }
+                // Now wait until things settle down
+                WatchKey key;
+                while ((key = watchService.poll(quietPeriodMs, TimeUnit.MILLISECONDS)) != null) {
+                    pollEvents(key, changedDirectories);
+                }
+                LOG.info("Datasets in {} changed.", changedDirectories);
+                try {
+                    onChange.accept(changedDirectories);
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to handle changes to {}.", directory, e);
+                }
+            }
+        } catch (InterruptedException|ClosedWatchServiceException e) {
+            LOG.debug("Stopped watching {}.", directory);
+        }
+    }
+
+    /**
+     * Collects the directories with changes to the XML files from the given key, and starts watching new subdirectories.
+     */
+    private void pollEvents(WatchKey key, Set<Path> changedDirectories) {
+        final Path keyDirectory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changedDirectories.add(keyDirectory);
+                continue;
+            }
+            final Path path = keyDirectory.resolve((Path) event.context());
+            if (path.getFileName().toString().endsWith(".xml")) {
+                changedDirectories.add(keyDirectory);
+            } else if (keyDirectory.equals(directory) && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    register(path);
+                    // The files may have been copied in before we started watching
+                    changedDirectories.add(path);
+                } catch (IOException e) {
+                    LOG.warn("Failed to watch {} for changes.", path, e);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private void register(Path path) throws IOException {
+        path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+}
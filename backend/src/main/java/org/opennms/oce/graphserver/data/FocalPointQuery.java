@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * The focal point of a graph view.
+ *
+ * By default, the focal points are the vertices with a label that contains the given text, ignoring case.
+ * The text may also start with one of:
+ * <ul>
+ *     <li>{@code id:} - the vertex for the inventory object, alarm or situation with exactly the given id</li>
+ *     <li>{@code prefix:} - the vertices with a label that starts with the given text, ignoring case</li>
+ *     <li>{@code terms:} - the vertices with a label that contains every one of the whitespace separated terms, ignoring case</li>
+ * </ul>
+ */
+class FocalPointQuery {
+    static final String ID_PREFIX = "id:";
+    static final String PREFIX_PREFIX = "prefix:";
+    static final String TERMS_PREFIX = "terms:";
+
+    enum Type {
+        CONTAINS,
+        ID,
+        PREFIX,
+        TERMS
+    }
+
+    private final Type type;
+    private final String text;
+    private final List<String> terms;
+
+    private FocalPointQuery(Type type, String text) {
+        this.type = Objects.requireNonNull(type);
+        this.text = type == Type.ID ? text : text.toLowerCase();
+        if (type == Type.TERMS) {
+            terms = Arrays.stream(this.text.split("\\s+"))
+                    .filter(term -> !term.isEmpty())
+                    .collect(Collectors.toList());
+        } else {
+            terms = Collections.singletonList(this.text);
+        }
+    }
+
+    static FocalPointQuery parse(String focalPoint) {
+        if (focalPoint.startsWith(ID_PREFIX)) {
+            return new FocalPointQuery(Type.ID, focalPoint.substring(ID_PREFIX.length()));
+        } else if (focalPoint.startsWith(PREFIX_PREFIX)) {
+            return new FocalPointQuery(Type.PREFIX, focalPoint.substring(PREFIX_PREFIX.length()));
+        } else if (focalPoint.startsWith(TERMS_PREFIX)) {
+            return new FocalPointQuery(Type.TERMS, focalPoint.substring(TERMS_PREFIX.length()));
+        }
+        return new FocalPointQuery(Type.CONTAINS, focalPoint);
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    /**
+     * Finds the keys of the vertices that may match the query.
+     *
+     * @return the sorted key ordinals, or null if every vertex matches the query
+     */
+    int[] getCandidateKeyOrdinals(LabelIndex labelIndex, ResourceKeyDictionary resourceKeys) {
+        if (type == Type.ID) {
+            final int[] inventoryOrdinals = resourceKeys.getInventoryOrdinals(text);
+            final int[] ordinals = Arrays.copyOf(inventoryOrdinals, inventoryOrdinals.length + 2);
+            ordinals[inventoryOrdinals.length] = resourceKeys.getAlarmOrdinal(text);
+            ordinals[inventoryOrdinals.length + 1] = resourceKeys.getSituationOrdinal(OceGraphGenerator.PRIMARY_SOURCE_NAME, text);
+            return Arrays.stream(ordinals).filter(ordinal -> ordinal >= 0).sorted().toArray();
+        }
+
+        int[] candidates = null;
+        for (String term : terms) {
+            final int[] candidatesForTerm = labelIndex.getCandidates(term);
+            if (candidatesForTerm == null) {
+                continue;
+            }
+            candidates = candidates == null ? candidatesForTerm : OrdinalMultimap.intersect(candidates, candidatesForTerm);
+        }
+        return candidates;
+    }
+
+    /**
+     * Verifies that the label of a candidate vertex matches the query. Candidates for an id always match.
+     */
+    boolean matches(String label) {
+        if (type == Type.ID) {
+            return true;
+        } else if (label == null) {
+            return false;
+        }
+        final String lowerCaseLabel = label.toLowerCase();
+        if (type == Type.PREFIX) {
+            return lowerCaseLabel.startsWith(text);
+        }
+        for (String term : terms) {
+            if (!lowerCaseLabel.contains(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * The meters for the graphs generated by an {@link OceGraphGenerator}.
+ *
+ * Every graph records the time spent in each of the stages of the generation, along with the number of bytes
+ * allocated by the stage when the JVM can measure the allocations of the current thread. The number of vertices
+ * and edges are recorded before and after the graph is filtered.
+ */
+class GraphGeneratorMetrics {
+
+    static final String GENERATE_TIMER_NAME = "graph.generate";
+    static final String STAGE_TIMER_NAME = "graph.generate.stage";
+    static final String STAGE_ALLOCATED_SUMMARY_NAME = "graph.generate.stage.allocated";
+    static final String VERTICES_SUMMARY_NAME = "graph.generate.vertices";
+    static final String EDGES_SUMMARY_NAME = "graph.generate.edges";
+
+    static final String GRAPH_TAG = "graph";
+    static final String STAGE_TAG = "stage";
+    static final String SUBGRAPH_TAG = "subgraph";
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = getThreadMXBean();
+
+    enum Stage {
+        INVENTORY,
+        ALARMS,
+        SITUATIONS,
+        FOCAL_POINTS,
+        EXPAND,
+        OTHER_SITUATIONS,
+        BUILD,
+        SIZZLE,
+        PRUNE,
+        VERTEX_LIMIT,
+        WRAP;
+
+        String getTagValue() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final Timer generateTimer;
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Map<Stage, DistributionSummary> stageAllocations = new EnumMap<>(Stage.class);
+    private final DistributionSummary unfilteredVertices;
+    private final DistributionSummary unfilteredEdges;
+    private final DistributionSummary filteredVertices;
+    private final DistributionSummary filteredEdges;
+
+    GraphGeneratorMetrics(MeterRegistry meterRegistry, String graphId) {
+        final String graphTag = graphId != null ? graphId : "";
+        generateTimer = Timer.builder(GENERATE_TIMER_NAME)
+                .description("Time taken to generate a graph")
+                .tags(GRAPH_TAG, graphTag)
+                .register(meterRegistry);
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder(STAGE_TIMER_NAME)
+                    .description("Time taken by a stage of the graph generation")
+                    .tags(GRAPH_TAG, graphTag, STAGE_TAG, stage.getTagValue())
+                    .register(meterRegistry));
+            stageAllocations.put(stage, DistributionSummary.builder(STAGE_ALLOCATED_SUMMARY_NAME)
+                    .description("Memory allocated by a stage of the graph generation")
+                    .baseUnit("bytes")
+                    .tags(GRAPH_TAG, graphTag, STAGE_TAG, stage.getTagValue())
+                    .register(meterRegistry));
+        }
+        unfilteredVertices = countSummary(meterRegistry, VERTICES_SUMMARY_NAME, "vertices", graphTag, "unfiltered");
+        unfilteredEdges = countSummary(meterRegistry, EDGES_SUMMARY_NAME, "edges", graphTag, "unfiltered");
+        filteredVertices = countSummary(meterRegistry, VERTICES_SUMMARY_NAME, "vertices", graphTag, "filtered");
+        filteredEdges = countSummary(meterRegistry, EDGES_SUMMARY_NAME, "edges", graphTag, "filtered");
+    }
+
+    private static DistributionSummary countSummary(MeterRegistry meterRegistry, String name, String unit, String graphTag, String subgraph) {
+        return DistributionSummary.builder(name)
+                .description("Number of " + unit + " in the generated graphs")
+                .baseUnit(unit)
+                .tags(GRAPH_TAG, graphTag, SUBGRAPH_TAG, subgraph)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts recording the generation of a graph on the current thread.
+     */
+    Recorder start() {
+        return new Recorder(this);
+    }
+
+    /**
+     * Records the stages of a single graph, in the order in which they complete.
+     * A recorder must only be used by the thread that started it.
+     */
+    static class Recorder {
+        /**
+         * Discards everything, for use when the stages are run on their own.
+         */
+        static final Recorder NOOP = new Recorder(null);
+
+        private final GraphGeneratorMetrics metrics;
+        private final long startNanos;
+        private long lastNanos;
+        private long lastAllocatedBytes;
+
+        private Recorder(GraphGeneratorMetrics metrics) {
+            this.metrics = metrics;
+            startNanos = System.nanoTime();
+            lastNanos = startNanos;
+            lastAllocatedBytes = getAllocatedBytes();
+        }
+
+        /**
+         * Attributes the time and allocations since the previous stage, or since the start, to the given stage.
+         */
+        void stageCompleted(Stage stage) {
+            if (metrics == null) {
+                return;
+            }
+            final long nanos = System.nanoTime();
+            metrics.stageTimers.get(stage).record(nanos - lastNanos, TimeUnit.NANOSECONDS);
+            lastNanos = nanos;
+
+            final long allocatedBytes = getAllocatedBytes();
+            if (allocatedBytes >= 0 && lastAllocatedBytes >= 0) {
+                metrics.stageAllocations.get(stage).record(allocatedBytes - lastAllocatedBytes);
+            }
+            lastAllocatedBytes = allocatedBytes;
+        }
+
+        void unfilteredGraphBuilt(CompactGraph graph) {
+            if (metrics != null) {
+                metrics.unfilteredVertices.record(graph.getNumVertices());
+                metrics.unfilteredEdges.record(graph.getNumEdges());
+            }
+        }
+
+        void completed(int numVertices, int numEdges) {
+            if (metrics != null) {
+                metrics.filteredVertices.record(numVertices);
+                metrics.filteredEdges.record(numEdges);
+                metrics.generateTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes allocated by the current thread so far, or -1 if it can't be measured
+     */
+    private static long getAllocatedBytes() {
+        if (THREAD_MX_BEAN == null || !THREAD_MX_BEAN.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+            return (com.sun.management.ThreadMXBean) threadMXBean;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.Situation;
+
+/**
+ * Indexes over the alarms and situations of a dataset, used to find the focal points and to expand the graph
+ * outwards from them without building the complete graph.
+ *
+ * The indexes are built from the dataset as it is, and must be told about the alarms and situations that are
+ * appended afterwards. Updates are serialized, and readers are never blocked.
+ */
+class GraphIndex {
+
+    private final ResourceKeyDictionary resourceKeys;
+    private final InventoryTopology inventoryTopology;
+    private final LabelIndex labels;
+    private final OrdinalMultimap alarmOrdinalsByInventoryOrdinal;
+    /**
+     * The ordinals of the alarms in the store, and of the situations in the primary result set,
+     * indexed by the ordinal of their key minus the number of inventory keys. Other keys map to -1.
+     */
+    private volatile int[] alarmOrdinalsByKeyOrdinal = new int[0];
+    private volatile int[] situationOrdinalsByKeyOrdinal = new int[0];
+
+    private GraphIndex(ResourceKeyDictionary resourceKeys, InventoryTopology inventoryTopology, LabelIndex labels,
+                       OrdinalMultimap alarmOrdinalsByInventoryOrdinal) {
+        this.resourceKeys = resourceKeys;
+        this.inventoryTopology = inventoryTopology;
+        this.labels = labels;
+        this.alarmOrdinalsByInventoryOrdinal = alarmOrdinalsByInventoryOrdinal;
+    }
+
+    static GraphIndex build(OceDataset oceDataset, InventoryTopology inventoryTopology) {
+        final LabelIndex.Builder labels = LabelIndex.builder();
+        // The ordinals of the inventory vertices match the ordinals of their keys
+        final CompactGraph inventoryGraph = inventoryTopology.getGraph();
+        for (int v = 0; v < inventoryGraph.getNumVertices(); v++) {
+            labels.add(v, inventoryGraph.getVertex(v).getLabel());
+        }
+        final GraphIndex graphIndex = new GraphIndex(oceDataset.getResourceKeys(), inventoryTopology, labels.build(),
+                OrdinalMultimap.builder().build());
+        graphIndex.addAlarms(oceDataset.getAlarmStore(), 0, 0);
+        graphIndex.addSituations(oceDataset.getPrimarySituationResults(), oceDataset.getSituationsFromPrimaryResultSet());
+        return graphIndex;
+    }
+
+    /**
+     * Indexes the alarms in the given store, starting from the given alarm ordinal and update.
+     *
+     * The summary of every update is indexed, since the label of an alarm vertex depends on the time of the view,
+     * and so is the inventory object of every update.
+     */
+    synchronized void addAlarms(AlarmStore alarmStore, int fromAlarmOrdinal, int fromUpdate) {
+        final int[] alarmOrdinals = grow(alarmOrdinalsByKeyOrdinal);
+        for (int alarmOrdinal = fromAlarmOrdinal; alarmOrdinal < alarmStore.getNumAlarms(); alarmOrdinal++) {
+            alarmOrdinals[resourceKeys.getAlarmOrdinal(alarmStore.getAlarmId(alarmOrdinal)) - resourceKeys.getNumInventoryKeys()] = alarmOrdinal;
+        }
+
+        final LabelIndex.Builder alarmLabels = LabelIndex.builder();
+        final OrdinalMultimap.Builder alarmOrdinalsByInventory = OrdinalMultimap.builder();
+        int lastAlarmOrdinal = -1;
+        int alarmKeyOrdinal = -1;
+        String lastSummary = null;
+        int lastInventoryOrdinal = -1;
+        for (int update = fromUpdate; update < alarmStore.getNumUpdates(); update++) {
+            final int alarmOrdinal = alarmStore.getAlarmOrdinal(update);
+            final Alarm alarm = alarmStore.getAlarm(update);
+            final int inventoryOrdinal = inventoryTopology.getOrdinal(alarm.getInventoryObjectType(), alarm.getInventoryObjectId());
+            if (alarmOrdinal != lastAlarmOrdinal) {
+                alarmKeyOrdinal = resourceKeys.getAlarmOrdinal(alarmStore.getAlarmId(alarmOrdinal));
+                lastAlarmOrdinal = alarmOrdinal;
+            } else if (Objects.equals(alarm.getSummary(), lastSummary) && inventoryOrdinal == lastInventoryOrdinal) {
+                continue;
+            }
+            alarmLabels.add(alarmKeyOrdinal, alarm.getSummary());
+            if (inventoryOrdinal >= 0) {
+                alarmOrdinalsByInventory.put(inventoryOrdinal, alarmOrdinal);
+            }
+            lastSummary = alarm.getSummary();
+            lastInventoryOrdinal = inventoryOrdinal;
+        }
+
+        // Publish the ordinals before the alarms can be found through the other indexes
+        alarmOrdinalsByKeyOrdinal = alarmOrdinals;
+        labels.addAll(alarmLabels.build());
+        alarmOrdinalsByInventoryOrdinal.putAll(alarmOrdinalsByInventory.build());
+    }
+
+    /**
+     * Indexes the given situations, which must be part of the given primary result set.
+     */
+    synchronized void addSituations(SituationResults primarySituationResults, Collection<Situation> situations) {
+        final int[] situationOrdinals = grow(situationOrdinalsByKeyOrdinal);
+        final LabelIndex.Builder situationLabels = LabelIndex.builder();
+        for (Situation situation : situations) {
+            final int situationKeyOrdinal = resourceKeys.getSituationOrdinal(OceGraphGenerator.PRIMARY_SOURCE_NAME, situation.getId());
+            situationOrdinals[situationKeyOrdinal - resourceKeys.getNumInventoryKeys()] = primarySituationResults.getSituationOrdinal(situation.getId());
+            situationLabels.add(situationKeyOrdinal, OceGraphGenerator.getSituationLabel(situation));
+        }
+        situationOrdinalsByKeyOrdinal = situationOrdinals;
+        labels.addAll(situationLabels.build());
+    }
+
+    private int[] grow(int[] ordinalsByKeyOrdinal) {
+        final int[] ordinals = Arrays.copyOf(ordinalsByKeyOrdinal, resourceKeys.getNumKeys() - resourceKeys.getNumInventoryKeys());
+        Arrays.fill(ordinals, ordinalsByKeyOrdinal.length, ordinals.length, -1);
+        return ordinals;
+    }
+
+    LabelIndex getLabels() {
+        return labels;
+    }
+
+    /**
+     * @return the sorted ordinals of the alarms that referenced the given inventory object in any of their updates
+     */
+    int[] getAlarmOrdinalsForInventoryObject(int inventoryOrdinal) {
+        return alarmOrdinalsByInventoryOrdinal.get(inventoryOrdinal);
+    }
+
+    /**
+     * @return the ordinal of the alarm with the given key in the alarm store, or -1 if the key is not for an alarm
+     */
+    int getAlarmOrdinal(int keyOrdinal) {
+        return getOrdinal(alarmOrdinalsByKeyOrdinal, keyOrdinal);
+    }
+
+    /**
+     * @return the ordinal of the situation with the given key in the primary result set, or -1 if the key is not for such a situation
+     */
+    int getSituationOrdinal(int keyOrdinal) {
+        return getOrdinal(situationOrdinalsByKeyOrdinal, keyOrdinal);
+    }
+
+    private int getOrdinal(int[] ordinalsByKeyOrdinal, int keyOrdinal) {
+        final int idx = keyOrdinal - resourceKeys.getNumInventoryKeys();
+        return idx >= 0 && idx < ordinalsByKeyOrdinal.length ? ordinalsByKeyOrdinal[idx] : -1;
+    }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The weakly connected components of the inventory, and the inventory objects that have no parent.
+ *
+ * The inventory does not change once the dataset is loaded, so these are found once and used to prune
+ * every graph we generate.
+ */
+class InventoryComponents {
+
+    static final String PARENT_EDGE_TYPE = "parent";
+
+    private final int[] componentsByVertex;
+    private final int[] componentSizes;
+    private final BitSet rootVertices;
+
+    InventoryComponents(CompactGraph inventoryGraph) {
+        final int numVertices = inventoryGraph.getNumVertices();
+        final UnionFind unionFind = new UnionFind(numVertices);
+        rootVertices = new BitSet(numVertices);
+        for (int v = 0; v < numVertices; v++) {
+            boolean hasParent = false;
+            for (int i = 0; i < inventoryGraph.getOutDegree(v); i++) {
+                unionFind.union(v, inventoryGraph.getOutTarget(v, i));
+                hasParent |= PARENT_EDGE_TYPE.equals(inventoryGraph.getOutEdge(v, i).getType());
+            }
+            if (!hasParent) {
+                rootVertices.set(v);
+            }
+        }
+
+        // Number the components in the order of their first vertex
+        componentsByVertex = new int[numVertices];
+        final int[] componentsByRoot = new int[numVertices];
+        Arrays.fill(componentsByRoot, -1);
+        int numComponents = 0;
+        for (int v = 0; v < numVertices; v++) {
+            final int root = unionFind.find(v);
+            if (componentsByRoot[root] < 0) {
+                componentsByRoot[root] = numComponents++;
+            }
+            componentsByVertex[v] = componentsByRoot[root];
+        }
+        componentSizes = new int[numComponents];
+        for (int component : componentsByVertex) {
+            componentSizes[component]++;
+        }
+    }
+
+    int getNumComponents() {
+        return componentSizes.length;
+    }
+
+    int getComponent(int inventoryOrdinal) {
+        return componentsByVertex[inventoryOrdinal];
+    }
+
+    int getComponentSize(int component) {
+        return componentSizes[component];
+    }
+
+    /**
+     * @return true if the inventory object has no parent, in which case it is a root in any graph that contains it
+     */
+    boolean isRoot(int inventoryOrdinal) {
+        return rootVertices.get(inventoryOrdinal);
+    }
+
+    /**
+     * Disjoint sets over the ordinals [0, n). The smallest ordinal in a set is always its representative.
+     */
+    static class UnionFind {
+        private final int[] parents;
+
+        UnionFind(int n) {
+            parents = new int[n];
+            for (int i = 0; i < n; i++) {
+                parents[i] = i;
+            }
+        }
+
+        int find(int v) {
+            while (parents[v] != v) {
+                // Path halving
+                parents[v] = parents[parents[v]];
+                v = parents[v];
+            }
+            return v;
+        }
+
+        void union(int u, int v) {
+            final int rootU = find(u);
+            final int rootV = find(v);
+            if (rootU < rootV) {
+                parents[rootV] = rootU;
+            } else if (rootV < rootU) {
+                parents[rootU] = rootV;
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.List;
+
+import org.opennms.alec.datasource.api.InventoryObject;
+import org.opennms.alec.datasource.api.InventoryObjectPeerRef;
+import org.opennms.alec.datasource.api.InventoryObjectRelativeRef;
+import org.opennms.oce.graphserver.model.Graph;
+
+/**
+ * The inventory layer of the graph.
+ *
+ * The inventory does not change once the dataset is loaded, so the vertices and edges
+ * are built once and shared by every graph we generate.
+ */
+public class InventoryTopology {
+
+    private final ResourceKeyDictionary resourceKeys;
+    private final CompactGraph graph;
+    private final InventoryComponents components;
+
+    /**
+     * Builds the topology for the inventory. The vertex ordinals match the ordinals of the keys in the given dictionary.
+     */
+    public InventoryTopology(List<InventoryObject> inventory, ResourceKeyDictionary resourceKeys) {
+        this.resourceKeys = resourceKeys;
+
+        final CompactGraph.Builder builder = CompactGraph.builder();
+        for (Graph.Vertex v : getVertices(inventory, resourceKeys)) {
+            builder.addVertex(v);
+        }
+
+        // Now handle the relationships
+        // Copied from  org.opennms.oce.graphserver.data.GraphManager
+        for (InventoryObject io : inventory) {
+            final int ordinal = getOrdinal(io.getType(), io.getId());
+            final Graph.Vertex vertex = builder.getVertex(ordinal);
+
+            // Parent relationships
+            if (io.getParentType() != null && io.getParentId() != null) {
+                final int parentOrdinal = getOrdinal(io.getParentType(), io.getParentId());
+                if (parentOrdinal >= 0) {
+                    final Graph.Edge edge = new Graph.Edge("", vertex.getId(), builder.getVertex(parentOrdinal).getId(), "parent");
+                    builder.addEdge(ordinal, parentOrdinal, edge);
+                }
+            }
+
+            // Peer relationships
+            for (InventoryObjectPeerRef peerRef : io.getPeers()) {
+                final int peerOrdinal = getOrdinal(peerRef.getType(), peerRef.getId());
+                if (peerOrdinal >= 0) {
+                    final Graph.Edge edge = new Graph.Edge("", vertex.getId(), builder.getVertex(peerOrdinal).getId(), "peer");
+                    builder.addEdge(ordinal, peerOrdinal, edge);
+                }
+            }
+
+            // Relative relationships
+            for (InventoryObjectRelativeRef relativeRef : io.getRelatives()) {
+                final int relativeOrdinal = getOrdinal(relativeRef.getType(), relativeRef.getId());
+                if (relativeOrdinal >= 0) {
+                    final Graph.Edge edge = new Graph.Edge("", vertex.getId(), builder.getVertex(relativeOrdinal).getId(), "relative");
+                    builder.addEdge(ordinal, relativeOrdinal, edge);
+                }
+            }
+        }
+        this.graph = builder.build();
+        this.components = new InventoryComponents(graph);
+    }
+
+    /**
+     * Creates the topology from the edges of a topology that was built for the same inventory and keys, i.e. from a snapshot.
+     *
+     * @param outOffsets the out edges of vertex v are found at [outOffsets[v], outOffsets[v+1]) in outTargets and edgeTypes
+     */
+    InventoryTopology(List<InventoryObject> inventory, ResourceKeyDictionary resourceKeys, int[] outOffsets, int[] outTargets, String[] edgeTypes) {
+        this.resourceKeys = resourceKeys;
+
+        final Graph.Vertex[] vertices = getVertices(inventory, resourceKeys);
+        final Graph.Edge[] edges = new Graph.Edge[outTargets.length];
+        for (int v = 0; v < vertices.length; v++) {
+            for (int i = outOffsets[v]; i < outOffsets[v + 1]; i++) {
+                edges[i] = new Graph.Edge("", vertices[v].getId(), vertices[outTargets[i]].getId(), edgeTypes[i]);
+            }
+        }
+        this.graph = CompactGraph.fromOutEdges(vertices, outOffsets, outTargets, edges);
+        this.components = new InventoryComponents(graph);
+    }
+
+    /**
+     * Creates vertices for the inventory, the keys were added to the dictionary in the same order.
+     */
+    private static Graph.Vertex[] getVertices(List<InventoryObject> inventory, ResourceKeyDictionary resourceKeys) {
+        final Graph.Vertex[] vertices = new Graph.Vertex[resourceKeys.getNumInventoryKeys()];
+        for (InventoryObject io : inventory) {
+            final int ordinal = resourceKeys.getInventoryOrdinal(io.getType(), io.getId());
+            if (vertices[ordinal] != null) {
+                continue;
+            }
+            final String label = io.getFriendlyName() != null ? io.getFriendlyName() : io.getId();
+            vertices[ordinal] = new Graph.Vertex(resourceKeys.getId(ordinal), io.getType(), label, OceGraphGenerator.INVENTORY_LAYER_ID);
+        }
+        return vertices;
+    }
+
+    /**
+     * @return the inventory graph, where the vertex ordinals match {@link #getOrdinal(String, String)}
+     */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the ordinal of the vertex for the inventory object with the given type and id, or -1 if there is no such vertex
+     */
+    public int getOrdinal(String type, String id) {
+        return resourceKeys.getInventoryOrdinal(type, id);
+    }
+
+    /**
+     * @return the components of the inventory graph
+     */
+    InventoryComponents getComponents() {
+        return components;
+    }
+
+    public int getNumVertices() {
+        return graph.getNumVertices();
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trigram index over the labels of the vertices, used to find the focal points without scanning every vertex.
+ *
+ * The labels are indexed in lower case and keyed by the ordinal of their resource key. Every distinct trigram
+ * maps to a sorted array of the ordinals with a label that contains it, so the candidates for a term are found by
+ * intersecting the arrays for the trigrams in the term. Labels that are shorter than a trigram are indexed whole.
+ * The candidates are a superset of the labels that contain the term, and must be verified by the caller.
+ *
+ * Labels can be added after the index is built, see {@link OrdinalMultimap}.
+ */
+public class LabelIndex {
+    private static final int GRAM_LENGTH = 3;
+    private static final int[] EMPTY = new int[0];
+
+    private final OrdinalMultimap ordinalsByGram;
+
+    private LabelIndex(OrdinalMultimap ordinalsByGram) {
+        this.ordinalsByGram = ordinalsByGram;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private final OrdinalMultimap.Builder ordinalsByGram = OrdinalMultimap.builder();
+
+        private Builder() {}
+
+        /**
+         * Adds a label for the given ordinal. An ordinal may have more than one label.
+         */
+        public Builder add(int ordinal, String label) {
+            if (label == null || label.isEmpty()) {
+                return this;
+            }
+            final String lowerCaseLabel = label.toLowerCase();
+            if (lowerCaseLabel.length() < GRAM_LENGTH) {
+                ordinalsByGram.put(gram(lowerCaseLabel, 0, lowerCaseLabel.length()), ordinal);
+            } else {
+                for (int i = 0; i + GRAM_LENGTH <= lowerCaseLabel.length(); i++) {
+                    ordinalsByGram.put(gram(lowerCaseLabel, i, GRAM_LENGTH), ordinal);
+                }
+            }
+            return this;
+        }
+
+        public LabelIndex build() {
+            return new LabelIndex(ordinalsByGram.build());
+        }
+    }
+
+    /**
+     * Adds the labels from the given index to this one.
+     */
+    public void addAll(LabelIndex other) {
+        ordinalsByGram.putAll(other.ordinalsByGram);
+    }
+
+    /**
+     * Finds the ordinals with a label that may contain the given term, ignoring case.
+     *
+     * @return the sorted candidate ordinals, or null if every label contains the term
+     */
+    public int[] getCandidates(String term) {
+        if (term.isEmpty()) {
+            return null;
+        }
+        final String lowerCaseTerm = term.toLowerCase();
+        if (lowerCaseTerm.length() < GRAM_LENGTH) {
+            return getCandidatesForShortTerm(lowerCaseTerm);
+        }
+
+        final List<int[]> ordinalsForGrams = new ArrayList<>(lowerCaseTerm.length() - GRAM_LENGTH + 1);
+        for (int i = 0; i + GRAM_LENGTH <= lowerCaseTerm.length(); i++) {
+            final int[] ordinals = ordinalsByGram.get(gram(lowerCaseTerm, i, GRAM_LENGTH));
+            if (ordinals.length == 0) {
+                return EMPTY;
+            }
+            ordinalsForGrams.add(ordinals);
+        }
+        // Start with the rarest trigram, so that the intersection only shrinks from there
+        ordinalsForGrams.sort(Comparator.comparingInt(ordinals -> ordinals.length));
+        int[] candidates = ordinalsForGrams.get(0);
+        for (int i = 1; i < ordinalsForGrams.size() && candidates.length > 0; i++) {
+            candidates = OrdinalMultimap.intersect(candidates, ordinalsForGrams.get(i));
+        }
+        return candidates;
+    }
+
+    private int[] getCandidatesForShortTerm(String lowerCaseTerm) {
+        // Any label that contains the term has a trigram that contains it, or is shorter than a trigram itself
+        int[] candidates = EMPTY;
+        for (Map.Entry<Long, int[]> entry : ordinalsByGram.entrySet()) {
+            if (toString(entry.getKey()).contains(lowerCaseTerm)) {
+                candidates = OrdinalMultimap.union(candidates, entry.getValue());
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Packs up to {@link #GRAM_LENGTH} characters into a long, along with their number.
+     */
+    private static long gram(String s, int offset, int length) {
+        long gram = 0;
+        for (int i = 0; i < length; i++) {
+            gram = (gram << 16) | s.charAt(offset + i);
+        }
+        return ((long) length << (16 * GRAM_LENGTH)) | gram;
+    }
+
+    private static String toString(long gram) {
+        final int length = (int) (gram >>> (16 * GRAM_LENGTH));
+        final char[] chars = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            chars[i] = (char) gram;
+            gram >>>= 16;
+        }
+        return new String(chars);
+    }
+}
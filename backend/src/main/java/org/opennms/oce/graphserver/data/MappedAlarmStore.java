@@ -0,0 +1,576 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.ResourceKey;
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.alec.datasource.common.ImmutableAlarm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the alarm updates off-heap, in a memory-mapped columnar file.
+ *
+ * The columns hold the time, severity, clear flag and inventory key ordinal of every update, grouped by
+ * alarm and sorted by time in the same way as {@link AlarmTimeline}. This is all we need to determine
+ * which alarms are active at a given time. The remaining fields (summary, description, etc...) are kept in
+ * a separate record for every update, and are only read when the complete {@link Alarm} is requested.
+ *
+ * Each of the mapped columns is limited to 2GB, the records are read with positional reads and are not
+ * subject to this limit.
+ */
+public class MappedAlarmStore implements AlarmStore, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedAlarmStore.class);
+
+    /**
+     * Name of the store written next to the XML files.
+     */
+    public static final String FILE_NAME = "alec.alarms.store";
+
+    private static final int MAGIC = 0x414c4d53; // ALMS
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 128;
+    private static final int NULL = -1;
+    private static final byte CLEAR_FLAG = 1;
+
+    private final FileChannel channel;
+    private final int numAlarms;
+    private final int numUpdates;
+    private final StringColumn alarmIds;
+    private final StringColumn inventoryObjectTypes;
+    private final StringColumn inventoryObjectIds;
+    private final IntBuffer offsets;
+    private final LongBuffer times;
+    private final ByteBuffer severities;
+    private final ByteBuffer flags;
+    private final IntBuffer inventoryKeys;
+    private final LongBuffer recordPositions;
+    private final IntBuffer recordLengths;
+
+    private MappedAlarmStore(FileChannel channel) throws IOException {
+        this.channel = channel;
+        final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        header.position(8);
+        numAlarms = header.getInt();
+        numUpdates = header.getInt();
+        final int numInventoryKeys = header.getInt();
+        header.getLong(); // fingerprint
+        alarmIds = new StringColumn(channel, header.getLong(), numAlarms);
+        inventoryObjectTypes = new StringColumn(channel, header.getLong(), numInventoryKeys);
+        inventoryObjectIds = new StringColumn(channel, header.getLong(), numInventoryKeys);
+        offsets = map(channel, header.getLong(), (numAlarms + 1) * 4L).asIntBuffer();
+        times = map(channel, header.getLong(), numUpdates * 8L).asLongBuffer();
+        severities = map(channel, header.getLong(), numUpdates);
+        flags = map(channel, header.getLong(), numUpdates);
+        inventoryKeys = map(channel, header.getLong(), numUpdates * 4L).asIntBuffer();
+        recordPositions = map(channel, header.getLong(), numUpdates * 8L).asLongBuffer();
+        recordLengths = map(channel, header.getLong(), numUpdates * 4L).asIntBuffer();
+    }
+
+    /**
+     * Opens an existing store.
+     *
+     * @return the store, or an empty optional if the store is missing, unreadable or does not match the given fingerprint
+     */
+    public static Optional<MappedAlarmStore> open(Path path, String fingerprint) {
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                LOG.info("Alarm store {} has an unsupported format, ignoring.", path);
+                channel.close();
+                return Optional.empty();
+            }
+            header.position(20);
+            final StringColumn fingerprintColumn = new StringColumn(channel, header.getLong(), 1);
+            if (!fingerprint.equals(fingerprintColumn.get(0))) {
+                LOG.info("Alarm store {} is out of date, ignoring.", path);
+                channel.close();
+                return Optional.empty();
+            }
+            return Optional.of(new MappedAlarmStore(channel));
+        } catch (IOException|RuntimeException e) {
+            LOG.warn("Failed to open alarm store {}, ignoring.", path, e);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    public static Writer writer(Path path, String fingerprint) throws IOException {
+        return new Writer(path, fingerprint);
+    }
+
+    @Override
+    public int getNumAlarms() {
+        return numAlarms;
+    }
+
+    @Override
+    public int getNumUpdates() {
+        return numUpdates;
+    }
+
+    @Override
+    public String getAlarmId(int ordinal) {
+        return alarmIds.get(ordinal);
+    }
+
+    @Override
+    public int getAlarmOrdinal(int update) {
+        // Find the last offset that is <= update
+        int low = 0;
+        int high = numAlarms;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (offsets.get(mid + 1) <= update) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public long getTime(int update) {
+        return times.get(update);
+    }
+
+    public Severity getSeverity(int update) {
+        return toSeverity(severities.get(update));
+    }
+
+    @Override
+    public boolean isClear(int update) {
+        return (flags.get(update) & CLEAR_FLAG) != 0;
+    }
+
+    /**
+     * @return the ordinal of the inventory object the update is associated with, or -1 if there is none
+     */
+    public int getInventoryKeyOrdinal(int update) {
+        return inventoryKeys.get(update);
+    }
+
+    @Override
+    public int[] getActiveUpdatesAt(long timestampInMs) {
+        final int[] activeUpdates = new int[numAlarms];
+        int numActiveUpdates = 0;
+        for (int i = 0; i < numAlarms; i++) {
+            final int start = offsets.get(i);
+            final int idx = indexOfFirstUpdateAtOrAfter(start, offsets.get(i + 1), timestampInMs) - 1;
+            if (idx >= start && AlarmStore.isActive(times.get(idx), isClear(idx), timestampInMs)) {
+                activeUpdates[numActiveUpdates++] = idx;
+            }
+        }
+        return Arrays.copyOf(activeUpdates, numActiveUpdates);
+    }
+
+    @Override
+    public int getLastUpdateBefore(int ordinal, long timestampInMs) {
+        final int start = offsets.get(ordinal);
+        final int idx = indexOfFirstUpdateAtOrAfter(start, offsets.get(ordinal + 1), timestampInMs) - 1;
+        return idx >= start ? idx : -1;
+    }
+
+    @Override
+    public Alarm getAlarm(int update) {
+        final ImmutableAlarm.Builder builder = ImmutableAlarm.newBuilder()
+                .setId(getAlarmId(getAlarmOrdinal(update)))
+                .setTime(getTime(update))
+                .setSeverity(getSeverity(update));
+        final int inventoryKey = getInventoryKeyOrdinal(update);
+        if (inventoryKey != NULL) {
+            builder.setInventoryObjectType(inventoryObjectTypes.get(inventoryKey))
+                    .setInventoryObjectId(inventoryObjectIds.get(inventoryKey));
+        }
+
+        final ByteBuffer record = ByteBuffer.allocate(recordLengths.get(update));
+        try {
+            readFully(channel, record, recordPositions.get(update));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        record.flip();
+        builder.setSummary(readString(record))
+                .setDescription(readString(record));
+        if (record.get() != 0) {
+            builder.setNodeId(record.getLong());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int indexOfFirstUpdateAtOrAfter(int fromIndex, int toIndex, long timestampInMs) {
+        int low = fromIndex;
+        int high = toIndex;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (times.get(mid) < timestampInMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Writes a new store. The updates can be appended in any order.
+     */
+    public static class Writer implements Closeable {
+        private final Path path;
+        private final Path tmp;
+        private final String fingerprint;
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private long position = HEADER_SIZE;
+
+        private final Map<String, Integer> alarmOrdinalsById = new LinkedHashMap<>();
+        private final Map<ResourceKey, Integer> inventoryKeyOrdinals = new LinkedHashMap<>();
+        private int numUpdates;
+        private int[] ordinals = new int[1024];
+        private long[] times = new long[1024];
+        private byte[] severities = new byte[1024];
+        private int[] inventoryKeys = new int[1024];
+        private long[] recordPositions = new long[1024];
+        private int[] recordLengths = new int[1024];
+
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+        private Writer(Path path, String fingerprint) throws IOException {
+            this.path = path;
+            this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            this.fingerprint = fingerprint;
+            channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(HEADER_SIZE);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+        }
+
+        public void append(Alarm alarm) throws IOException {
+            if (numUpdates == ordinals.length) {
+                final int capacity = ordinals.length * 2;
+                ordinals = Arrays.copyOf(ordinals, capacity);
+                times = Arrays.copyOf(times, capacity);
+                severities = Arrays.copyOf(severities, capacity);
+                inventoryKeys = Arrays.copyOf(inventoryKeys, capacity);
+                recordPositions = Arrays.copyOf(recordPositions, capacity);
+                recordLengths = Arrays.copyOf(recordLengths, capacity);
+            }
+            ordinals[numUpdates] = alarmOrdinalsById.computeIfAbsent(alarm.getId(), k -> alarmOrdinalsById.size());
+            times[numUpdates] = alarm.getTime();
+            severities[numUpdates] = alarm.getSeverity() != null ? (byte)(alarm.getSeverity().ordinal() + 1) : 0;
+            inventoryKeys[numUpdates] = alarm.getInventoryObjectType() != null || alarm.getInventoryObjectId() != null
+                    ? inventoryKeyOrdinals.computeIfAbsent(ResourceKey.key(alarm.getInventoryObjectType(), alarm.getInventoryObjectId()),
+                        k -> inventoryKeyOrdinals.size())
+                    : NULL;
+
+            recordBytes.reset();
+            writeString(record, alarm.getSummary());
+            writeString(record, alarm.getDescription());
+            record.writeBoolean(alarm.getNodeId() != null);
+            if (alarm.getNodeId() != null) {
+                record.writeLong(alarm.getNodeId());
+            }
+            recordBytes.writeTo(out);
+            recordPositions[numUpdates] = position;
+            recordLengths[numUpdates] = recordBytes.size();
+            position += recordBytes.size();
+            numUpdates++;
+        }
+
+        /**
+         * Completes the store, and opens it.
+         */
+        public MappedAlarmStore finish() throws IOException {
+            // Group the updates by ordinal, and sort them by time within each group
+            final int numAlarms = alarmOrdinalsById.size();
+            final int[] offsets = new int[numAlarms + 1];
+            for (int i = 0; i < numUpdates; i++) {
+                offsets[ordinals[i] + 1]++;
+            }
+            for (int i = 0; i < numAlarms; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            final int[] next = Arrays.copyOf(offsets, numAlarms);
+            final int[] order = new int[numUpdates];
+            for (int i = 0; i < numUpdates; i++) {
+                order[next[ordinals[i]]++] = i;
+            }
+            final int[] tmpOrder = new int[numUpdates];
+            for (int i = 0; i < numAlarms; i++) {
+                sortByTime(order, tmpOrder, offsets[i], offsets[i + 1], times);
+            }
+
+            // Write the columns
+            final long[] sectionPositions = new long[12];
+            int section = 0;
+            sectionPositions[section++] = position;
+            writeStrings(new String[]{fingerprint});
+            sectionPositions[section++] = position;
+            writeStrings(alarmOrdinalsById.keySet().toArray(new String[0]));
+            final String[] inventoryObjectTypes = new String[inventoryKeyOrdinals.size()];
+            final String[] inventoryObjectIds = new String[inventoryKeyOrdinals.size()];
+            inventoryKeyOrdinals.forEach((key, ordinal) -> {
+                inventoryObjectTypes[ordinal] = key.getTokens().get(0);
+                inventoryObjectIds[ordinal] = key.getTokens().get(1);
+            });
+            sectionPositions[section++] = position;
+            writeStrings(inventoryObjectTypes);
+            sectionPositions[section++] = position;
+            writeStrings(inventoryObjectIds);
+            sectionPositions[section++] = position;
+            for (int offset : offsets) {
+                writeInt(offset);
+            }
+            sectionPositions[section++] = position;
+            for (int idx : order) {
+                writeLong(times[idx]);
+            }
+            sectionPositions[section++] = position;
+            for (int idx : order) {
+                writeByte(severities[idx]);
+            }
+            sectionPositions[section++] = position;
+            for (int idx : order) {
+                writeByte(severities[idx] == Severity.CLEARED.ordinal() + 1 ? CLEAR_FLAG : 0);
+            }
+            sectionPositions[section++] = position;
+            for (int idx : order) {
+                writeInt(inventoryKeys[idx]);
+            }
+            sectionPositions[section++] = position;
+            for (int idx : order) {
+                writeLong(recordPositions[idx]);
+            }
+            sectionPositions[section++] = position;
+            for (int idx : order) {
+                writeInt(recordLengths[idx]);
+            }
+            sectionPositions[section] = position;
+            out.flush();
+
+            // Now that we know where everything is, write the header
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(numAlarms);
+            header.putInt(numUpdates);
+            header.putInt(inventoryKeyOrdinals.size());
+            for (long sectionPosition : sectionPositions) {
+                header.putLong(sectionPosition);
+            }
+            header.rewind();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            channel.close();
+
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return open(path, fingerprint).orElseThrow(() -> new IOException("Failed to open alarm store " + path));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel.isOpen()) {
+                channel.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        private void writeStrings(String[] strings) throws IOException {
+            final byte[][] bytes = new byte[strings.length][];
+            int start = 0;
+            for (int i = 0; i < strings.length; i++) {
+                bytes[i] = strings[i] != null ? strings[i].getBytes(StandardCharsets.UTF_8) : null;
+                writeInt(start);
+                start += bytes[i] != null ? bytes[i].length : 0;
+            }
+            writeInt(start);
+            for (int i = 0; i < strings.length; i++) {
+                writeByte(bytes[i] != null ? 1 : 0);
+            }
+            for (byte[] b : bytes) {
+                if (b != null) {
+                    out.write(b);
+                    position += b.length;
+                }
+            }
+        }
+
+        private void writeInt(int v) throws IOException {
+            out.writeInt(v);
+            position += 4;
+        }
+
+        private void writeLong(long v) throws IOException {
+            out.writeLong(v);
+            position += 8;
+        }
+
+        private void writeByte(int v) throws IOException {
+            out.writeByte(v);
+            position += 1;
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            if (s == null) {
+                out.writeInt(NULL);
+                return;
+            }
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Stable merge sort of the indices in [from, to) by their time.
+     */
+    private static void sortByTime(int[] a, int[] tmp, int from, int to, long[] times) {
+        if (to - from < 2) {
+            return;
+        }
+        // Updates are typically already in order
+        boolean sorted = true;
+        for (int i = from + 1; i < to && sorted; i++) {
+            sorted = times[a[i - 1]] <= times[a[i]];
+        }
+        if (sorted) {
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        sortByTime(a, tmp, from, mid, times);
+        sortByTime(a, tmp, mid, to, times);
+        System.arraycopy(a, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            a[k++] = times[tmp[j]] < times[tmp[i]] ? tmp[j++] : tmp[i++];
+        }
+        while (i < mid) {
+            a[k++] = tmp[i++];
+        }
+        while (j < to) {
+            a[k++] = tmp[j++];
+        }
+    }
+
+    /**
+     * A column of strings: the start offsets, followed by a null flag for every string, followed by the UTF-8 bytes.
+     */
+    private static class StringColumn {
+        private final IntBuffer starts;
+        private final ByteBuffer nonNull;
+        private final ByteBuffer bytes;
+
+        private StringColumn(FileChannel channel, long position, int count) throws IOException {
+            starts = map(channel, position, (count + 1) * 4L).asIntBuffer();
+            nonNull = map(channel, position + (count + 1) * 4L, count);
+            bytes = map(channel, position + (count + 1) * 4L + count, starts.get(count));
+        }
+
+        private String get(int idx) {
+            if (nonNull.get(idx) == 0) {
+                return null;
+            }
+            final int start = starts.get(idx);
+            final byte[] b = new byte[starts.get(idx + 1) - start];
+            final ByteBuffer dup = bytes.duplicate();
+            dup.position(start);
+            dup.get(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length == NULL) {
+            return null;
+        }
+        final byte[] b = new byte[length];
+        buffer.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static Severity toSeverity(byte severity) {
+        return severity > 0 ? Severity.values()[severity - 1] : null;
+    }
+}
@@ -28,47 +28,84 @@
 
 package org.opennms.oce.graphserver.data;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import javax.xml.bind.JAXBException;
-
 import org.opennms.alec.datasource.api.Alarm;
 import org.opennms.alec.datasource.api.InventoryObject;
 import org.opennms.alec.datasource.api.Situation;
-import org.opennms.alec.datasource.jaxb.JaxbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.io.Resources;
 
 public class OceDataset {
+    private static final Logger LOG = LoggerFactory.getLogger(OceDataset.class);
+
+    /**
+     * Name of the binary snapshot written next to the XML files.
+     */
+    public static final String SNAPSHOT_FILE_NAME = "alec.snapshot";
 
-    private final List<Alarm> alarms;
+    public static final String ALARMS_FILE_NAME = "alec.alarms.xml";
+
+    private volatile List<Alarm> alarms;
     private final List<InventoryObject> inventory;
     private final List<SituationResults> situations;
     private final SituationResults primarySituationResults;
+    private volatile AlarmStore alarmStore;
+    private final ResourceKeyDictionary resourceKeys;
+    private final InventoryTopology inventoryTopology;
 
     public OceDataset(List<Alarm> alarms, List<InventoryObject> inventory, Set<Situation> situations) {
-        this.alarms = alarms;
-        this.inventory = inventory;
         // Wrap the given set of situation, and mark it as the primary set
-        this.primarySituationResults = SituationResults.builder()
+        this(alarms, inventory, Collections.singletonList(SituationResults.builder()
                 .withIsPrimary(true)
                 .withSituations(situations)
-                .build();
-        this.situations = Collections.singletonList(primarySituationResults);
+                .build()));
     }
 
     public OceDataset(List<Alarm> alarms, List<InventoryObject> inventory, List<SituationResults> situations) {
+        this(alarms, new AlarmTimeline(alarms), inventory, situations);
+    }
+
+    /**
+     * Creates a dataset backed by the given store. The alarms are only materialized when they are accessed.
+     */
+    public OceDataset(AlarmStore alarmStore, List<InventoryObject> inventory, List<SituationResults> situations) {
+        this(new AlarmStoreList(alarmStore), alarmStore, inventory, situations);
+    }
+
+    private OceDataset(List<Alarm> alarms, AlarmStore alarmStore, List<InventoryObject> inventory, List<SituationResults> situations) {
+        this(alarms, alarmStore, inventory, situations, null, null);
+    }
+
+    /**
+     * Creates a dataset from the given store and indexes, which were built for the same alarms, inventory and situations,
+     * i.e. from a snapshot.
+     */
+    OceDataset(AlarmStore alarmStore, List<InventoryObject> inventory, List<SituationResults> situations,
+               ResourceKeyDictionary resourceKeys, InventoryTopology inventoryTopology) {
+        this(new AlarmStoreList(alarmStore), alarmStore, inventory, situations, resourceKeys, inventoryTopology);
+    }
+
+    private OceDataset(List<Alarm> alarms, AlarmStore alarmStore, List<InventoryObject> inventory, List<SituationResults> situations,
+                       ResourceKeyDictionary resourceKeys, InventoryTopology inventoryTopology) {
         this.alarms = alarms;
+        this.alarmStore = alarmStore;
         this.inventory = inventory;
 
         long numPrimaryResults = situations.stream().filter(SituationResults::isPrimary).count();
@@ -78,6 +115,8 @@ public class OceDataset {
         this.primarySituationResults = situations.stream().filter(SituationResults::isPrimary).findFirst()
                 .orElseThrow(() -> new IllegalStateException("Should not happen."));
         this.situations = new ArrayList<>(situations);
+        this.resourceKeys = resourceKeys != null ? resourceKeys : ResourceKeyDictionary.build(inventory, alarmStore, this.situations);
+        this.inventoryTopology = inventoryTopology != null ? inventoryTopology : new InventoryTopology(inventory, this.resourceKeys);
     }
 
     public static OceDataset sampleDataset() {
@@ -88,6 +127,17 @@ public class OceDataset {
     }
 
     public static OceDataset oceDataset(String base) {
+        return oceDataset(base, false);
+    }
+
+    /**
+     * Loads the dataset from the given directory.
+     *
+     * @param base directory containing the XML files
+     * @param mapAlarms when true, the alarms are kept off-heap in a {@link MappedAlarmStore} which is
+     *                  built on the first load and re-used for as long as the alarms do not change
+     */
+    public static OceDataset oceDataset(String base, boolean mapAlarms) {
         // Enumerate the situation results
         final List<Path> situationResults = new LinkedList<>();
         situationResults.add(Paths.get(base, "alec.situations.xml"));
@@ -96,86 +146,166 @@ public class OceDataset {
                     .filter(Files::isRegularFile)
                     .filter(p -> p.getFileName().toString().endsWith(".situations.xml"))
                     .filter(p -> !p.getFileName().toString().equals("alec.situations.xml"))
+                    .sorted()
                     .collect(Collectors.toList()));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        return fromXmlFiles(Paths.get(base, "alec.alarms.xml"),
-                Paths.get(base, "alec.inventory.xml"),
-                situationResults.toArray(new Path[0]));
-    }
+        final Path alarmsIn = Paths.get(base, ALARMS_FILE_NAME);
+        final Path inventoryIn = Paths.get(base, "alec.inventory.xml");
+        if (mapAlarms) {
+            return fromXmlFilesWithMappedAlarms(alarmsIn, Paths.get(base, MappedAlarmStore.FILE_NAME), inventoryIn,
+                    situationResults.toArray(new Path[0]));
+        }
 
-    public static OceDataset fromResources(String alarmsIn, String inventoryIn, String... situationsIn) {
-        final List<Alarm> alarms;
-        final List<InventoryObject> inventory;
-        try (InputStream alarmIs = Resources.getResource(alarmsIn).openStream();
-             InputStream inventoryIs = Resources.getResource(inventoryIn).openStream()) {
-            alarms = JaxbUtils.getAlarms(alarmIs);
-            inventory = JaxbUtils.getInventory(inventoryIs);
-        }  catch (IOException|JAXBException e) {
+        // Use the snapshot if it was built from the same files
+        final List<Path> sources = new ArrayList<>();
+        sources.add(alarmsIn);
+        sources.add(inventoryIn);
+        sources.addAll(situationResults);
+        final String fingerprint;
+        try {
+            fingerprint = DatasetSnapshot.fingerprint(sources);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        final Path snapshot = Paths.get(base, SNAPSHOT_FILE_NAME);
+        final Optional<OceDataset> snapshotDataset = DatasetSnapshot.read(snapshot, fingerprint);
+        if (snapshotDataset.isPresent()) {
+            LOG.info("Loaded dataset from snapshot {}.", snapshot);
+            return snapshotDataset.get();
+        }
 
-        final List<SituationResults> situationResults = new ArrayList<>(situationsIn.length);
-        boolean isPrimary = true;
-        for (String situationsResource : situationsIn) {
-            try (InputStream situationsIs = Resources.getResource(situationsResource).openStream()) {
-                final Set<Situation> situations = JaxbUtils.getSituations(situationsIs);
-                situationResults.add(SituationResults.builder()
-                        .withSource(situationsResource)
-                        .withIsPrimary(isPrimary)
-                        .withSituations(situations)
-                        .build());
-            }  catch (IOException|JAXBException e) {
-                throw new RuntimeException(e);
-            }
-            isPrimary = false;
+        final OceDataset dataset = fromXmlFiles(alarmsIn, inventoryIn, situationResults.toArray(new Path[0]));
+        try {
+            DatasetSnapshot.write(dataset, snapshot, fingerprint);
+            LOG.info("Wrote dataset snapshot to {}.", snapshot);
+        } catch (IOException e) {
+            LOG.warn("Failed to write dataset snapshot to {}. The dataset will be loaded from XML on the next start.", snapshot, e);
         }
+        return dataset;
+    }
 
-        return new OceDataset(alarms, inventory, situationResults);
+    public static OceDataset fromResources(String alarmsIn, String inventoryIn, String... situationsIn) {
+        return OceDatasetLoader.load(fromResource(alarmsIn), fromResource(inventoryIn), Arrays.stream(situationsIn)
+                .map(OceDataset::fromResource)
+                .collect(Collectors.toList()));
     }
 
     public static OceDataset fromXmlFiles(Path alarmsIn, Path inventoryIn, Path... situationsIn) {
-        final List<Alarm> alarms;
-        final List<InventoryObject> inventory;
+        return OceDatasetLoader.load(fromPath(alarmsIn), fromPath(inventoryIn), Arrays.stream(situationsIn)
+                .map(OceDataset::fromPath)
+                .collect(Collectors.toList()));
+    }
+
+    public static OceDataset fromXmlFilesWithMappedAlarms(Path alarmsIn, Path alarmStore, Path inventoryIn, Path... situationsIn) {
+        final String fingerprint;
         try {
-            alarms = JaxbUtils.getAlarms(alarmsIn);
-            inventory = JaxbUtils.getInventory(inventoryIn);
-        } catch (IOException|JAXBException e) {
+            fingerprint = DatasetSnapshot.fingerprint(Collections.singletonList(alarmsIn));
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
-
-        final List<SituationResults> situationResults = new ArrayList<>(situationsIn.length);
-        boolean isPrimary = true;
-        for (Path situationsResource : situationsIn) {
-            try {
-                final Set<Situation> situations = JaxbUtils.getSituations(situationsResource);
-                situationResults.add(SituationResults.builder()
-                        .withSource(situationsResource.getFileName().toString())
-                        .withIsPrimary(isPrimary)
-                        .withSituations(situations)
-                        .build());
-            } catch (JAXBException|IOException e) {
-                throw new RuntimeException(e);
+        return OceDatasetLoader.load(() -> {
+            final Optional<MappedAlarmStore> existingStore = MappedAlarmStore.open(alarmStore, fingerprint);
+            if (existingStore.isPresent()) {
+                LOG.info("Using existing alarm store {}.", alarmStore);
+                return existingStore.get();
             }
-            isPrimary = false;
+            return OceDatasetLoader.writeAlarmStore(fromPath(alarmsIn), alarmStore, fingerprint);
+        }, fromPath(inventoryIn), Arrays.stream(situationsIn)
+                .map(OceDataset::fromPath)
+                .collect(Collectors.toList()));
+    }
+
+    private static OceDatasetLoader.Source fromResource(String resource) {
+        return new OceDatasetLoader.Source(resource, () -> Resources.getResource(resource).openStream());
+    }
+
+    private static OceDatasetLoader.Source fromPath(Path path) {
+        return new OceDatasetLoader.Source(path.getFileName().toString(), () -> new BufferedInputStream(Files.newInputStream(path)));
+    }
+
+    /**
+     * Appends the given alarm updates to the dataset.
+     *
+     * The first append wraps the store in an {@link AppendableAlarmStore}, the loaded updates are left as they are.
+     * Readers see either none or all of the given updates.
+     */
+    public synchronized void appendAlarms(Collection<Alarm> newAlarms) {
+        // Add the keys first, so that the alarms can always be resolved once they are visible
+        newAlarms.forEach(resourceKeys::addAlarm);
+        if (alarmStore instanceof AppendableAlarmStore) {
+            ((AppendableAlarmStore) alarmStore).append(newAlarms);
+            return;
         }
-        return new OceDataset(alarms, inventory, situationResults);
+        final AppendableAlarmStore appendableAlarmStore = new AppendableAlarmStore(alarmStore);
+        appendableAlarmStore.append(newAlarms);
+        alarms = new AlarmStoreList(appendableAlarmStore);
+        alarmStore = appendableAlarmStore;
+    }
+
+    /**
+     * Appends the given situations to the primary result set. Situations with the same id as an existing
+     * situation replace it.
+     */
+    public synchronized void appendSituations(Collection<Situation> newSituations) {
+        newSituations.forEach(situation -> resourceKeys.addSituation(OceGraphGenerator.PRIMARY_SOURCE_NAME, situation));
+        primarySituationResults.append(newSituations);
     }
 
     public List<Alarm> getAlarms() {
         return alarms;
     }
 
+    public AlarmStore getAlarmStore() {
+        return alarmStore;
+    }
+
+    public ResourceKeyDictionary getResourceKeys() {
+        return resourceKeys;
+    }
+
     public List<InventoryObject> getInventory() {
         return inventory;
     }
 
+    /**
+     * @return the inventory layer of the graph, where the vertex ordinals match those of the {@link #getResourceKeys() keys}
+     */
+    public InventoryTopology getInventoryTopology() {
+        return inventoryTopology;
+    }
+
     public List<SituationResults> getSituationResults() {
         return situations;
     }
 
+    public SituationResults getPrimarySituationResults() {
+        return primarySituationResults;
+    }
+
     public Set<Situation> getSituationsFromPrimaryResultSet() {
         return primarySituationResults.getSituations();
     }
+
+    /**
+     * Read-only view of the updates in a store, sorted by alarm and time.
+     */
+    private static class AlarmStoreList extends AbstractList<Alarm> {
+        private final AlarmStore alarmStore;
+
+        private AlarmStoreList(AlarmStore alarmStore) {
+            this.alarmStore = alarmStore;
+        }
+
+        @Override
+        public Alarm get(int index) {
+            return alarmStore.getAlarm(index);
+        }
+
+        @Override
+        public int size() {
+            return alarmStore.getNumUpdates();
+        }
+    }
 }
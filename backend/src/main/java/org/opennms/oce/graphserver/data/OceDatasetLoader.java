@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.InventoryObject;
+import org.opennms.alec.datasource.api.Situation;
+import org.opennms.alec.datasource.jaxb.JaxbUtils;
+import org.opennms.alec.datasource.v1.schema.Inventory;
+import org.opennms.alec.datasource.v1.schema.ModelObjectEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Loads datasets from XML using StAX.
+ *
+ * Rather than unmarshalling the complete document, we unmarshal one alarm, inventory object
+ * or situation at a time and convert it immediately, so that the JAXB object tree for the
+ * whole file is never held in memory. The files are independent of one another, so they are
+ * parsed in parallel.
+ */
+public class OceDatasetLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(OceDatasetLoader.class);
+
+    private static final JAXBContext JAXB_CONTEXT;
+    static {
+        try {
+            JAXB_CONTEXT = JAXBContext.newInstance(org.opennms.alec.datasource.v1.schema.Alarm.class,
+                    ModelObjectEntry.class, org.opennms.alec.datasource.v1.schema.Situation.class);
+        } catch (JAXBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface InputStreamSupplier {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * A named XML document.
+     */
+    public static class Source {
+        private final String name;
+        private final InputStreamSupplier inputStreamSupplier;
+
+        public Source(String name, InputStreamSupplier inputStreamSupplier) {
+            this.name = Objects.requireNonNull(name);
+            this.inputStreamSupplier = Objects.requireNonNull(inputStreamSupplier);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        private InputStream open() throws IOException {
+            return inputStreamSupplier.open();
+        }
+    }
+
+    /**
+     * Loads the dataset. The first situation source is used as the primary result set.
+     */
+    public static OceDataset load(Source alarmsIn, Source inventoryIn, List<Source> situationsIn) {
+        return load(alarmsIn.getName(), () -> readAlarms(alarmsIn), OceDataset::new, inventoryIn, situationsIn);
+    }
+
+    /**
+     * Loads the dataset, using the given store for the alarms. The store is retrieved in parallel
+     * with the inventory and the situations.
+     */
+    public static OceDataset load(Supplier<AlarmStore> alarmStoreSupplier, Source inventoryIn, List<Source> situationsIn) {
+        return load("alarm store", alarmStoreSupplier, OceDataset::new, inventoryIn, situationsIn);
+    }
+
+    @FunctionalInterface
+    private interface DatasetFactory<A> {
+        OceDataset create(A alarms, List<InventoryObject> inventory, List<SituationResults> situationResults);
+    }
+
+    private static <A> OceDataset load(String alarmsName, Supplier<A> alarmsSupplier, DatasetFactory<A> datasetFactory,
+                                       Source inventoryIn, List<Source> situationsIn) {
+        final long startMs = System.currentTimeMillis();
+        ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        final int numThreads = Math.max(1, Math.min(2 + situationsIn.size(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final OceDataset dataset;
+        try {
+            final CompletableFuture<A> alarmsFuture = CompletableFuture.supplyAsync(alarmsSupplier, executor);
+            final CompletableFuture<List<InventoryObject>> inventoryFuture = CompletableFuture.supplyAsync(() -> readInventory(inventoryIn), executor);
+            final List<CompletableFuture<SituationResults>> situationsFutures = new ArrayList<>(situationsIn.size());
+            boolean isPrimary = true;
+            for (Source situationsSource : situationsIn) {
+                final boolean isPrimarySource = isPrimary;
+                situationsFutures.add(CompletableFuture.supplyAsync(() -> SituationResults.builder()
+                        .withSource(situationsSource.getName())
+                        .withIsPrimary(isPrimarySource)
+                        .withSituations(readSituations(situationsSource))
+                        .build(), executor));
+                isPrimary = false;
+            }
+
+            final List<SituationResults> situationResults = new ArrayList<>(situationsFutures.size());
+            for (CompletableFuture<SituationResults> situationsFuture : situationsFutures) {
+                situationResults.add(situationsFuture.join());
+            }
+            dataset = datasetFactory.create(alarmsFuture.join(), inventoryFuture.join(), situationResults);
+        } catch (CompletionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        LOG.info("Loaded {} alarm updates, {} inventory objects and {} situation result sets from {} in {}ms using {} threads. Peak heap usage: {}MB.",
+                dataset.getAlarmStore().getNumUpdates(), dataset.getInventory().size(), dataset.getSituationResults().size(), alarmsName,
+                System.currentTimeMillis() - startMs, numThreads, getPeakHeapUsageInBytes() / (1024 * 1024));
+        return dataset;
+    }
+
+    public static List<Alarm> readAlarms(Source source) {
+        final List<Alarm> alarms = new ArrayList<>();
+        forEachAlarm(source, alarms::add);
+        return alarms;
+    }
+
+    /**
+     * Streams the alarms from the given source into a new {@link MappedAlarmStore}.
+     */
+    public static MappedAlarmStore writeAlarmStore(Source source, Path path, String fingerprint) {
+        final long startMs = System.currentTimeMillis();
+        try (MappedAlarmStore.Writer writer = MappedAlarmStore.writer(path, fingerprint)) {
+            forEachAlarm(source, alarm -> {
+                try {
+                    writer.append(alarm);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            final MappedAlarmStore store = writer.finish();
+            LOG.info("Wrote {} alarm updates from {} to {} in {}ms.", store.getNumUpdates(), source.getName(), path,
+                    System.currentTimeMillis() - startMs);
+            return store;
+        } catch (IOException|UncheckedIOException e) {
+            throw new RuntimeException("Failed to write alarm store " + path, e);
+        }
+    }
+
+    /**
+     * Invokes the consumer with every alarm update in the given source, as they are read.
+     */
+    public static void forEachAlarm(Source source, Consumer<Alarm> consumer) {
+        forEachElement(source, "alarm", org.opennms.alec.datasource.v1.schema.Alarm.class, alarm -> {
+            // Every event is a separate update of the alarm
+            for (org.opennms.alec.datasource.v1.schema.Event event : alarm.getEvent()) {
+                consumer.accept(JaxbUtils.toAlarm(alarm, event));
+            }
+        });
+    }
+
+    public static List<InventoryObject> readInventory(Source source) {
+        final List<InventoryObject> inventory = new ArrayList<>();
+        final Inventory singleEntryInventory = new Inventory();
+        forEachElement(source, "model-object-entry", ModelObjectEntry.class, entry -> {
+            singleEntryInventory.getModelObjectEntry().clear();
+            singleEntryInventory.getModelObjectEntry().add(entry);
+            inventory.addAll(JaxbUtils.toInventoryObjects(singleEntryInventory));
+        });
+        return inventory;
+    }
+
+    public static Set<Situation> readSituations(Source source) {
+        final Set<Situation> situations = new HashSet<>();
+        forEachSituation(source, situations::add);
+        return situations;
+    }
+
+    /**
+     * Invokes the consumer with every situation in the given source, in the order in which they appear.
+     */
+    public static void forEachSituation(Source source, Consumer<Situation> consumer) {
+        forEachElement(source, "situation", org.opennms.alec.datasource.v1.schema.Situation.class,
+                situation -> consumer.accept(JaxbUtils.toEngineSituation(situation)));
+    }
+
+    private static <T> void forEachElement(Source source, String localName, Class<T> clazz, Consumer<T> consumer) {
+        final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try (InputStream is = source.open()) {
+            final Unmarshaller unmarshaller = JAXB_CONTEXT.createUnmarshaller();
+            final XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(is);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.getEventType() == XMLStreamConstants.START_ELEMENT && localName.equals(reader.getLocalName())) {
+                        // Unmarshalling leaves the reader positioned after the end of the element
+                        consumer.accept(unmarshaller.unmarshal(reader, clazz).getValue());
+                    } else {
+                        reader.next();
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException|JAXBException|XMLStreamException e) {
+            throw new RuntimeException("Failed to load " + source.getName(), e);
+        }
+    }
+
+    private static long getPeakHeapUsageInBytes() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum();
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.InventoryObject;
+import org.opennms.alec.datasource.api.Situation;
+import org.opennms.alec.datasource.jaxb.JaxbUtils;
+import org.opennms.alec.datasource.v1.schema.Alarms;
+import org.opennms.alec.datasource.v1.schema.ModelObjectEntry;
+
+/**
+ * Writes datasets to XML using StAX, in the same format that is read by the {@link OceDatasetLoader}.
+ *
+ * The elements are marshalled one at a time, so the files can be larger than the heap.
+ */
+public class OceDatasetWriter {
+
+    private static final String NAMESPACE = "http://xmlns.opennms.org/xsd/alec/model/v1.0.0";
+
+    private static final JAXBContext JAXB_CONTEXT;
+    static {
+        try {
+            JAXB_CONTEXT = JAXBContext.newInstance(org.opennms.alec.datasource.v1.schema.Alarm.class,
+                    ModelObjectEntry.class, org.opennms.alec.datasource.v1.schema.Situation.class);
+        } catch (JAXBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Opens a writer for an alarms document. Every element is the list of updates for a single alarm.
+     */
+    public static ElementWriter<List<Alarm>> alarmWriter(Path path) throws IOException {
+        return new ElementWriter<>(path, "alarms", "alarm", org.opennms.alec.datasource.v1.schema.Alarm.class,
+                OceDatasetWriter::toAlarm);
+    }
+
+    public static void writeInventory(Path path, Collection<InventoryObject> inventory) throws IOException {
+        try (ElementWriter<InventoryObject> writer = new ElementWriter<>(path, "inventory", "model-object-entry",
+                ModelObjectEntry.class, io -> JaxbUtils.toInventory(Collections.singletonList(io)).getModelObjectEntry().get(0))) {
+            for (InventoryObject io : inventory) {
+                writer.write(io);
+            }
+        }
+    }
+
+    public static void writeSituations(Path path, Collection<Situation> situations) throws IOException {
+        try (ElementWriter<Situation> writer = new ElementWriter<>(path, "situations", "situation",
+                org.opennms.alec.datasource.v1.schema.Situation.class, JaxbUtils::toModelSituation)) {
+            for (Situation situation : situations) {
+                writer.write(situation);
+            }
+        }
+    }
+
+    /**
+     * Converts the updates of an alarm to a single alarm element, with one event per update.
+     */
+    private static org.opennms.alec.datasource.v1.schema.Alarm toAlarm(List<Alarm> updates) {
+        final Alarms alarms = JaxbUtils.toAlarms(updates);
+        final org.opennms.alec.datasource.v1.schema.Alarm alarm = alarms.getAlarm().get(0);
+        final org.opennms.alec.datasource.v1.schema.Alarm lastAlarm = alarms.getAlarm().get(alarms.getAlarm().size() - 1);
+        for (int i = 1; i < alarms.getAlarm().size(); i++) {
+            alarm.getEvent().addAll(alarms.getAlarm().get(i).getEvent());
+        }
+        alarm.setLastEventTime(lastAlarm.getLastEventTime());
+        alarm.setLastSeverity(lastAlarm.getLastSeverity());
+        return alarm;
+    }
+
+    /**
+     * Writes a document with a root element, followed by the elements as they are given.
+     */
+    public static class ElementWriter<T> implements Closeable {
+        private final OutputStream os;
+        private final XMLStreamWriter writer;
+        private final Marshaller marshaller;
+        private final QName elementName;
+        private final Class<Object> elementClass;
+        private final Function<T, ?> converter;
+
+        @SuppressWarnings("unchecked")
+        private <E> ElementWriter(Path path, String rootName, String elementName, Class<E> elementClass,
+                                  Function<T, E> converter) throws IOException {
+            this.elementName = new QName(NAMESPACE, elementName);
+            this.elementClass = (Class<Object>) elementClass;
+            this.converter = converter;
+            os = new BufferedOutputStream(Files.newOutputStream(path));
+            try {
+                marshaller = JAXB_CONTEXT.createMarshaller();
+                marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+                writer = XMLOutputFactory.newFactory().createXMLStreamWriter(os, "UTF-8");
+                writer.setDefaultNamespace(NAMESPACE);
+                writer.writeStartDocument("UTF-8", "1.0");
+                writer.writeCharacters("\n");
+                writer.writeStartElement(NAMESPACE, rootName);
+                writer.writeDefaultNamespace(NAMESPACE);
+            } catch (JAXBException|XMLStreamException e) {
+                os.close();
+                throw new IOException("Failed to write " + path, e);
+            }
+        }
+
+        public void write(T element) throws IOException {
+            try {
+                writer.writeCharacters("\n    ");
+                marshaller.marshal(new JAXBElement<>(elementName, elementClass, converter.apply(element)), writer);
+            } catch (JAXBException|XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writer.writeCharacters("\n");
+                writer.writeEndElement();
+                writer.writeEndDocument();
+                writer.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            } finally {
+                os.close();
+            }
+        }
+    }
+}
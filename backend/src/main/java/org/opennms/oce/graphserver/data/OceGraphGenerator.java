@@ -28,27 +28,30 @@
 
 package org.opennms.oce.graphserver.data;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.LongSummaryStatistics;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.opennms.alec.datasource.api.Alarm;
-import org.opennms.alec.datasource.api.InventoryObject;
-import org.opennms.alec.datasource.api.InventoryObjectPeerRef;
-import org.opennms.alec.datasource.api.InventoryObjectRelativeRef;
-import org.opennms.alec.datasource.api.ResourceKey;
 import org.opennms.alec.datasource.api.Severity;
 import org.opennms.alec.datasource.api.Situation;
 import org.opennms.oce.graphserver.GraphView;
+import org.opennms.oce.graphserver.data.GraphGeneratorMetrics.Stage;
 import org.opennms.oce.graphserver.model.Graph;
 import org.opennms.oce.graphserver.model.GraphMetadata;
 import org.opennms.oce.graphserver.model.TemporalAnnotation;
@@ -56,12 +59,9 @@ import org.opennms.oce.graphserver.model.TemporalAnnotation;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
-import edu.uci.ics.jung.algorithms.cluster.WeakComponentClusterer;
-import edu.uci.ics.jung.graph.DirectedSparseGraph;
-import edu.uci.ics.jung.graph.util.EdgeType;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 
 public class OceGraphGenerator {
 
@@ -83,48 +83,153 @@ public class OceGraphGenerator {
 
     public static final String PRIMARY_SOURCE_NAME = "primary";
 
+    public static final String DEFAULT_LABEL = "OCE";
+
+    // Kinds of vertices, in the order in which they are added to the graph
+    private static final int INVENTORY_VERTEX = 0;
+    private static final int ALARM_VERTEX = 1;
+    private static final int SITUATION_VERTEX = 2;
+    private static final int OTHER_SITUATION_VERTEX = 3;
+
+    /**
+     * Minimum number of alarms on the graph for the other situation result sets to be processed in parallel.
+     */
+    private static final int PARALLEL_OTHER_SITUATIONS_THRESHOLD = 1000;
+
     private final OceDataset oceDataset;
-    private final GraphMetadata graphMetadata;
+    private final ResourceKeyDictionary resourceKeys;
+    private final InventoryTopology inventoryTopology;
+    private final GraphGeneratorMetrics metrics;
+    private volatile GraphMetadata graphMetadata;
+    private volatile GraphIndex graphIndex;
 
-    private long startMs;
-    private long endMs;
-    private List<TemporalAnnotation> temporalAnnotations;
+    private volatile long startMs;
+    private volatile long endMs;
+    private volatile List<TemporalAnnotation> temporalAnnotations;
 
     public OceGraphGenerator(OceDataset oceDataset) {
+        this(oceDataset, null);
+    }
+
+    /**
+     * @param graphId id of the graph, used to keep the same id when the dataset is reloaded, a new id is generated when null
+     */
+    public OceGraphGenerator(OceDataset oceDataset, String graphId) {
+        this(oceDataset, graphId, DEFAULT_LABEL);
+    }
+
+    public OceGraphGenerator(OceDataset oceDataset, String graphId, String label) {
+        this(oceDataset, graphId, label, Metrics.globalRegistry);
+    }
+
+    /**
+     * @param meterRegistry registry for the timings and sizes of the generated graphs, which are tagged with the graph id
+     */
+    public OceGraphGenerator(OceDataset oceDataset, String graphId, String label, MeterRegistry meterRegistry) {
         this.oceDataset = oceDataset;
-        if (oceDataset.getAlarms().isEmpty()) {
+        if (oceDataset.getAlarmStore().getNumUpdates() == 0) {
             throw new IllegalArgumentException("One or more alarms is required.");
         }
         processGraph();
+        resourceKeys = oceDataset.getResourceKeys();
+        inventoryTopology = oceDataset.getInventoryTopology();
         graphMetadata = GraphMetadata.builder()
-                .withLabel("OCE")
+                .withId(graphId)
+                .withLabel(label)
                 .withDescription("Graph generated from OCE dataset")
                 .withTimeMetadata(startMs, endMs, temporalAnnotations)
                 .build();
+        metrics = new GraphGeneratorMetrics(meterRegistry, graphMetadata.getId());
     }
 
     private void processGraph() {
-        final Set<Long> allTimestamps = new HashSet<>();
-        oceDataset.getAlarms().forEach(a -> allTimestamps.add(a.getTime()));
-        oceDataset.getSituationsFromPrimaryResultSet().forEach(s -> allTimestamps.add(s.getCreationTime()));
-
-        final LongSummaryStatistics stats = allTimestamps.stream().mapToLong(l -> l).summaryStatistics();
+        // Use the update times from the store directly, so that the alarms don't need to be materialized
+        final AlarmStore alarmStore = oceDataset.getAlarmStore();
+        final LongSummaryStatistics stats = new LongSummaryStatistics();
+        for (int i = 0; i < alarmStore.getNumUpdates(); i++) {
+            stats.accept(alarmStore.getTime(i));
+        }
+        oceDataset.getSituationsFromPrimaryResultSet().forEach(s -> stats.accept(s.getCreationTime()));
         startMs = stats.getMin();
         endMs = stats.getMax();
+        temporalAnnotations = getTemporalAnnotations(oceDataset.getSituationsFromPrimaryResultSet());
+    }
 
+    private static List<TemporalAnnotation> getTemporalAnnotations(Collection<Situation> situations) {
         Comparator<Situation> situationComparator = Comparator.comparing(s -> s.getAlarms().size(), Comparator.reverseOrder());
         situationComparator = situationComparator.thenComparing(Situation::getCreationTime, Comparator.reverseOrder());
 
         // Find the 10 largest situations, and create annotations for these
-        temporalAnnotations = oceDataset.getSituationsFromPrimaryResultSet().stream()
+        return situations.stream()
                 .sorted(situationComparator)
                 .limit(10)
                 .map(s -> new TemporalAnnotation(s.getCreationTime(), String.format("Situation #%s Created", s.getId())))
                 .collect(Collectors.toList());
     }
 
-    private static List<Alarm> sortAlarmsByTime(List<Alarm> alarms) {
-        return alarms.stream().sorted(Comparator.comparing(Alarm::getTime).thenComparing(Alarm::getId)).collect(Collectors.toList());
+    /**
+     * Appends the given alarm updates to the dataset, and extends the time range of the graph to include them.
+     */
+    public synchronized void appendAlarms(Collection<Alarm> alarms) {
+        final int numAlarms = oceDataset.getAlarmStore().getNumAlarms();
+        final int numUpdates = oceDataset.getAlarmStore().getNumUpdates();
+        oceDataset.appendAlarms(alarms);
+        if (graphIndex != null) {
+            graphIndex.addAlarms(oceDataset.getAlarmStore(), numAlarms, numUpdates);
+        }
+        for (Alarm alarm : alarms) {
+            startMs = Math.min(startMs, alarm.getTime());
+            endMs = Math.max(endMs, alarm.getTime());
+        }
+        graphMetadata = withTimeMetadata(graphMetadata);
+    }
+
+    /**
+     * Appends the given situations to the primary result set of the dataset, and updates the time metadata to match.
+     */
+    public synchronized void appendSituations(Collection<Situation> situations) {
+        oceDataset.appendSituations(situations);
+        if (graphIndex != null) {
+            graphIndex.addSituations(oceDataset.getPrimarySituationResults(), situations);
+        }
+        for (Situation situation : situations) {
+            startMs = Math.min(startMs, situation.getCreationTime());
+            endMs = Math.max(endMs, situation.getCreationTime());
+        }
+        // Existing situations may have grown, so the annotations are recomputed from scratch
+        temporalAnnotations = getTemporalAnnotations(oceDataset.getSituationsFromPrimaryResultSet());
+        graphMetadata = withTimeMetadata(graphMetadata);
+    }
+
+    /**
+     * Retrieves the indexes over the dataset, building them on first use. The indexes are maintained as alarms and
+     * situations are appended, and are built while holding the same lock so that no updates are missed.
+     */
+    private GraphIndex getGraphIndex() {
+        GraphIndex index = graphIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = graphIndex;
+                if (index == null) {
+                    index = GraphIndex.build(oceDataset, inventoryTopology);
+                    graphIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    static String getSituationLabel(Situation situation) {
+        return "situation #" + situation.getId();
+    }
+
+    private GraphMetadata withTimeMetadata(GraphMetadata graphMetadata) {
+        return GraphMetadata.builder()
+                .withId(graphMetadata.getId())
+                .withLabel(graphMetadata.getLabel())
+                .withDescription(graphMetadata.getDescription())
+                .withTimeMetadata(startMs, endMs, temporalAnnotations)
+                .build();
     }
 
     public long getStartMs() {
@@ -144,424 +249,881 @@ public class OceGraphGenerator {
     }
 
     public Graph getGraph(GraphView graphView) {
-        final Map<ResourceKey, Graph.Vertex> verticesByKey = Maps.newLinkedHashMap();
+        final GraphGeneratorMetrics.Recorder recorder = metrics.start();
+        final UnfilteredGraph unfilteredGraph = graphView.isExpandFromFocalPoints()
+                ? expandFromFocalPoints(graphView, recorder)
+                : buildUnfilteredGraph(graphView, recorder);
+        final CompactGraph graph = unfilteredGraph.getGraph();
+        final BitSet filteredGraph = filter(unfilteredGraph, graphView, recorder);
+        final List<Graph.Vertex> vertices = graph.getVertices(filteredGraph);
+        final List<Graph.Edge> edges = graph.getEdges(filteredGraph);
+        final Graph wrappedGraph = Graph.wrap(getGraphMetadata(), vertices, edges, createLayers());
+        recorder.stageCompleted(Stage.WRAP);
+        recorder.completed(vertices.size(), edges.size());
+        return wrappedGraph;
+    }
 
-        final List<Graph.Edge> edges = Lists.newLinkedList();
+    private static List<Graph.Layer> createLayers() {
         final List<Graph.Layer> layers = Lists.newLinkedList();
+        layers.add(new Graph.Layer(INVENTORY_LAYER_ID, "Inventory", "OCE Inventory", 0));
+        layers.add(new Graph.Layer(ALARMS_LAYER_ID, "Alarms", "OCE Alarms", 1));
+        layers.add(new Graph.Layer(SITUATIONS_LAYER_ID, "Situations", "OCE Situations", 2));
+        return layers;
+    }
 
-        final Graph.Layer inventoryLayer = new Graph.Layer(INVENTORY_LAYER_ID, "Inventory", "OCE Inventory", 0);
-        layers.add(inventoryLayer);
-        final Graph.Layer alarmLayer = new Graph.Layer(ALARMS_LAYER_ID, "Alarms", "OCE Alarms", 1);
-        layers.add(alarmLayer);
-        final Graph.Layer situationLayer = new Graph.Layer(SITUATIONS_LAYER_ID, "Situations", "OCE Situations", 2);
-        layers.add(situationLayer);
-
-        // Create vertices for the inventory
-        for (InventoryObject io : oceDataset.getInventory()) {
-            final ResourceKey key = getResourceKeyFor(io);
-            final String label = io.getFriendlyName() != null ? io.getFriendlyName() : io.getId();
-            final Graph.Vertex v = new Graph.Vertex(key.toString(), io.getType(), label, inventoryLayer.getId());
-            verticesByKey.put(key, v);
-        }
-
-        // Now handle the relationships
-        // Copied from  org.opennms.oce.graphserver.data.GraphManager
-        for (InventoryObject io : oceDataset.getInventory()) {
-            final ResourceKey resourceKey = getResourceKeyFor(io);
-            final Graph.Vertex vertex = verticesByKey.get(resourceKey);
-
-            // Parent relationships
-            final ResourceKey parentResourceKey = getResourceKeyForParent(io);
-            if (parentResourceKey != null) {
-                final Graph.Vertex parentVertex = verticesByKey.get(parentResourceKey);
-                if (parentVertex != null) {
-                    final Graph.Edge edge = new Graph.Edge("", vertex.getId(), parentVertex.getId(), "parent");
-                    edges.add(edge);
-                }
-            }
+    /**
+     * The complete graph for a view, along with the focal points to filter it from.
+     */
+    static class UnfilteredGraph {
+        private final CompactGraph graph;
+        private final int[] focalPoints;
+        private final InventoryComponents inventoryComponents;
+        private final int numInventoryVertices;
+        private final int[] inventoryOrdinals;
+
+        /**
+         * @param numInventoryVertices the number of inventory vertices, these come before any other vertices
+         * @param inventoryOrdinals the ordinals of the inventory vertices in the inventory topology, or null if they are the same
+         */
+        private UnfilteredGraph(CompactGraph graph, int[] focalPoints, InventoryComponents inventoryComponents,
+                                int numInventoryVertices, int[] inventoryOrdinals) {
+            this.graph = graph;
+            this.focalPoints = focalPoints;
+            this.inventoryComponents = inventoryComponents;
+            this.numInventoryVertices = numInventoryVertices;
+            this.inventoryOrdinals = inventoryOrdinals;
+        }
 
-            // Peer relationships
-            for (InventoryObjectPeerRef peerRef : io.getPeers()) {
-                final ResourceKey peerResourceKey = getResourceKeyForPeer(peerRef);
-                final Graph.Vertex peerVertex = verticesByKey.get(peerResourceKey);
-                if (peerVertex != null) {
-                    final Graph.Edge edge = new Graph.Edge("", vertex.getId(), peerVertex.getId(), "peer");
-                    edges.add(edge);
-                }
-            }
+        CompactGraph getGraph() {
+            return graph;
+        }
 
-            // Relative relationships
-            for (InventoryObjectRelativeRef relativeRef : io.getRelatives()) {
-                final ResourceKey relativeResourceKey = getResourceKeyForPeer(relativeRef);
-                final Graph.Vertex relativeVertex = verticesByKey.get(relativeResourceKey);
-                if (relativeVertex != null) {
-                    final Graph.Edge edge = new Graph.Edge("", vertex.getId(), relativeVertex.getId(), "relative");
-                    edges.add(edge);
-                }
-            }
+        int[] getFocalPoints() {
+            return focalPoints;
         }
+    }
+
+    /**
+     * Builds the complete graph for the given view: the inventory, the active alarms and situations and the situations
+     * from the other result sets. Exposed separately from {@link #getGraph(GraphView)} so that the stages can be measured.
+     */
+    UnfilteredGraph buildUnfilteredGraph(GraphView graphView) {
+        return buildUnfilteredGraph(graphView, GraphGeneratorMetrics.Recorder.NOOP);
+    }
+
+    private UnfilteredGraph buildUnfilteredGraph(GraphView graphView, GraphGeneratorMetrics.Recorder recorder) {
+        // Start with the inventory, the alarms and situations are added on top
+        final CompactGraph.Builder graphBuilder = CompactGraph.builder(inventoryTopology.getGraph());
+        recorder.stageCompleted(Stage.INVENTORY);
 
         // Find the alarms that were active at this time
+        final List<Alarm> activeAlarms = getActiveAlarmsAt(graphView.getTimestampInMillis());
+        final Map<String, Integer> alarmOrdinalsById = new HashMap<>();
+        final Map<Integer, Integer> vertexOrdinalsByKeyOrdinal = new HashMap<>();
         Map<String, Severity> alarmIdToSeverityMap = new HashMap<>();
-        for (Alarm alarm : getActiveAlarmsAt(graphView.getTimestampInMillis())) {
-            final ResourceKey ioKey = getInventoryResourceKeyFor(alarm);
-            final ResourceKey alarmKey = getAlarmResourceKeyFor(alarm);
-
-            // Create a vertex for the alarm
-            final ImmutableMap.Builder<String,String> attributeBuilder = ImmutableMap.<String,String>builder()
-                    .put(ID_ATTRIBUTE, alarm.getId())
-                    .put(SEVERITY_ATTRIBUTE, alarm.getSeverity().name().toLowerCase())
-                    .put(UPDATED_MS, Long.toString(alarm.getTime()));
-            if (alarm.getInventoryObjectType() != null) {
-                attributeBuilder.put(INVENTORY_OBJECT_TYPE_ATTRIBUTE, alarm.getInventoryObjectType());
-            }
-            if (alarm.getInventoryObjectId() != null) {
-                attributeBuilder.put(INVENTORY_OBJECT_ID_ATTRIBUTE, alarm.getInventoryObjectId());
-            }
-            if (alarm.getDescription() != null) {
-                attributeBuilder.put(DESCRIPTION_ATTRIBUTE, alarm.getDescription());
-            }
-            final Map<String,String> attributes = attributeBuilder.build();
-            final Graph.Vertex alarmVertex = new Graph.Vertex(alarmKey.toString(), "alarm", alarm.getSummary(), alarmLayer.getId(), attributes);
-            verticesByKey.put(alarmKey, alarmVertex);
-
-            final Graph.Vertex ioEdge = verticesByKey.get(ioKey);
-            if (ioEdge != null) {
-                final Graph.Edge edge = new Graph.Edge("", alarmVertex.getId(), ioEdge.getId(), "alarm-to-io");
-                edges.add(edge);
+        for (Alarm alarm : activeAlarms) {
+            final int alarmKeyOrdinal = resourceKeys.getAlarmOrdinal(alarm.getId());
+
+            final Graph.Vertex alarmVertex = createVertexForAlarm(alarm, alarmKeyOrdinal);
+            final int alarmOrdinal = graphBuilder.addVertex(alarmVertex);
+            alarmOrdinalsById.put(alarm.getId(), alarmOrdinal);
+            vertexOrdinalsByKeyOrdinal.put(alarmKeyOrdinal, alarmOrdinal);
+
+            // The ordinals of the inventory vertices match the ordinals of their keys
+            final int ioOrdinal = inventoryTopology.getOrdinal(alarm.getInventoryObjectType(), alarm.getInventoryObjectId());
+            if (ioOrdinal >= 0) {
+                final Graph.Edge edge = createAlarmToInventoryEdge(alarmKeyOrdinal, alarmVertex, ioOrdinal, graphBuilder.getVertex(ioOrdinal));
+                graphBuilder.addEdge(alarmOrdinal, ioOrdinal, edge);
             }
             alarmIdToSeverityMap.put(alarm.getId(), alarm.getSeverity());
         }
-
-        // Find the situations that were active at this time
-        final Map<String, String> alarmVertexIdToSituationVertexIdMap = new HashMap<>();
-        final List<Situation> activeSituations = getSituationsActiveAt(graphView.getTimestampInMillis());
-        for (Situation situation : activeSituations) {
-            final ResourceKey situationKey = getSituationResourceKeyFor(situation, PRIMARY_SOURCE_NAME);
-            final Graph.Vertex situationVertex = createVertexForSituation(situation, PRIMARY_SOURCE_NAME, alarmIdToSeverityMap);
-            verticesByKey.put(situationKey, situationVertex);
+        recorder.stageCompleted(Stage.ALARMS);
+
+        // Find the situations that were active at this time. Every alarm is associated with the last of these
+        // that contains it, the alarm vertices were all added above so their ordinals are in range.
+        final List<Situation> activeSituations = getSituationsActiveAt(activeAlarms, graphView.getTimestampInMillis());
+        final int[] primarySituationByAlarmOrdinal = new int[graphBuilder.getNumVertices()];
+        Arrays.fill(primarySituationByAlarmOrdinal, -1);
+        final int[] numAlarmsByPrimarySituation = new int[activeSituations.size()];
+        final int[] activeSituationOrdinals = new int[activeSituations.size()];
+        for (int k = 0; k < activeSituations.size(); k++) {
+            final Situation situation = activeSituations.get(k);
+            final int situationKeyOrdinal = resourceKeys.getSituationOrdinal(PRIMARY_SOURCE_NAME, situation.getId());
+            final Graph.Vertex situationVertex = createVertexForSituation(situation, situationKeyOrdinal, PRIMARY_SOURCE_NAME, alarmIdToSeverityMap);
+            final int situationOrdinal = graphBuilder.addVertex(situationVertex);
+            activeSituationOrdinals[k] = situationOrdinal;
+            vertexOrdinalsByKeyOrdinal.put(situationKeyOrdinal, situationOrdinal);
 
             // Add edges to the alarms
+            int numAlarms = 0;
             for (Alarm relatedAlarm : situation.getAlarms()) {
-                final ResourceKey alarmResourceKey = getAlarmResourceKeyFor(relatedAlarm);
-                final Graph.Vertex alarmVertex = verticesByKey.get(alarmResourceKey);
-                if (alarmVertex != null) {
-                    final Graph.Edge edge = new Graph.Edge("", situationVertex.getId(), alarmVertex.getId(), "situation-to-alarm");
-                    edges.add(edge);
-                    alarmVertexIdToSituationVertexIdMap.put(alarmVertex.getId(), situationVertex.getId());
+                final Integer alarmOrdinal = alarmOrdinalsById.get(relatedAlarm.getId());
+                if (alarmOrdinal != null) {
+                    final Graph.Edge edge = createSituationToAlarmEdge(situationKeyOrdinal, situationVertex, resourceKeys.getAlarmOrdinal(relatedAlarm.getId()),
+                            graphBuilder.getVertex(alarmOrdinal));
+                    graphBuilder.addEdge(situationOrdinal, alarmOrdinal, edge);
+                    primarySituationByAlarmOrdinal[alarmOrdinal] = k;
+                    numAlarms++;
                 }
             }
+            numAlarmsByPrimarySituation[k] = numAlarms;
         }
-
-        final List<Graph.Vertex> vertices = Lists.newArrayList(verticesByKey.values());
-
-        // Convert to a JUNG graph
-        final edu.uci.ics.jung.graph.DirectedGraph<Graph.Vertex, Graph.Edge> jungGraph = new DirectedSparseGraph<>();
-        final Map<String, Graph.Vertex> verticesById = new HashMap<>();
-        vertices.forEach(v -> {
-            jungGraph.addVertex(v);
-            verticesById.put(v.getId(), v);
-        });
-        edges.forEach(e -> {
-            jungGraph.addEdge(e, verticesById.get(e.getSourceId()), verticesById.get(e.getTargetId()), EdgeType.DIRECTED);
-        });
+        recorder.stageCompleted(Stage.SITUATIONS);
 
         // SZL processing
-        final edu.uci.ics.jung.graph.DirectedGraph<Graph.Vertex, Graph.Edge> filteredGraph;
-        final List<Graph.Vertex> focalPoints;
+        final int[] focalPoints;
         if (graphView.getFocalPoint() != null) {
-            focalPoints = vertices.stream().filter(v -> v.getLabel().toLowerCase().contains(graphView.getFocalPoint().toLowerCase()))
-                    .collect(Collectors.toList());
+            focalPoints = getFocalPoints(FocalPointQuery.parse(graphView.getFocalPoint()), graphBuilder, vertexOrdinalsByKeyOrdinal);
         } else {
             // No focal point was set, default to using the top 10 situations with the most *active* alarms
-            Comparator<Situation> situationComparator = Comparator.comparing(s -> {
+            Comparator<Integer> situationComparator = Comparator.comparing(k -> {
                 // Determine the number of *active* alarms
                 int numActiveAlarms = 0;
-                for (Alarm relatedAlarm : s.getAlarms()) {
-                    final ResourceKey alarmResourceKey = getAlarmResourceKeyFor(relatedAlarm);
-                    if (verticesByKey.containsKey(alarmResourceKey)) {
+                for (Alarm relatedAlarm : activeSituations.get(k).getAlarms()) {
+                    if (alarmOrdinalsById.containsKey(relatedAlarm.getId())) {
                         numActiveAlarms++;
                     }
                 }
                 return numActiveAlarms;
             }, Comparator.reverseOrder());
-            situationComparator = situationComparator.thenComparing(Situation::getCreationTime, Comparator.reverseOrder());
-            focalPoints = activeSituations.stream()
+            situationComparator = situationComparator.thenComparing(k -> activeSituations.get(k).getCreationTime(), Comparator.reverseOrder());
+            focalPoints = IntStream.range(0, activeSituations.size()).boxed()
                     .sorted(situationComparator)
                     .limit(10)
-                    .map(s -> verticesByKey.get(getSituationResourceKeyFor(s, PRIMARY_SOURCE_NAME)))
-                    .collect(Collectors.toList());
+                    .mapToInt(k -> activeSituationOrdinals[k])
+                    .toArray();
         }
+        recorder.stageCompleted(Stage.FOCAL_POINTS);
 
         // Add situations from the other result sets to the graph
-        addOtherSituations(jungGraph, alarmIdToSeverityMap, alarmVertexIdToSituationVertexIdMap);
+        addOtherSituations(graphBuilder, alarmOrdinalsById, alarmIdToSeverityMap, primarySituationByAlarmOrdinal, numAlarmsByPrimarySituation);
+        recorder.stageCompleted(Stage.OTHER_SITUATIONS);
 
-        final Sizzler sizzler = new Sizzler();
-        filteredGraph = sizzler.sizzle(jungGraph, focalPoints, graphView.getSzl());
+        final CompactGraph graph = graphBuilder.build();
+        recorder.stageCompleted(Stage.BUILD);
+        recorder.unfilteredGraphBuilt(graph);
+        return new UnfilteredGraph(graph, focalPoints, inventoryTopology.getComponents(), inventoryTopology.getNumVertices(), null);
+    }
 
-        if (graphView.isRemoveInventoryWithNoAlarms()) {
-            prune(filteredGraph);
+    /**
+     * Finds the vertices that match the given query, using the label index to avoid visiting every vertex.
+     *
+     * @return the matching vertex ordinals, in ascending order
+     */
+    private int[] getFocalPoints(FocalPointQuery query, CompactGraph.Builder graphBuilder, Map<Integer, Integer> vertexOrdinalsByKeyOrdinal) {
+        final int[] candidateKeyOrdinals = query.getCandidateKeyOrdinals(getGraphIndex().getLabels(), resourceKeys);
+        if (candidateKeyOrdinals == null) {
+            return IntStream.range(0, graphBuilder.getNumVertices())
+                    .filter(v -> query.matches(graphBuilder.getVertex(v).getLabel()))
+                    .toArray();
         }
 
-
-        if (graphView.getVertexLimit() > 0) {
-            // TODO: Improve logic as to what we remove
-            // If num situations < limit, then keep, delete oldest
-            // If num alarms + num situations < limit, keep, delete oldest
-            // If num ios < limit, keep, delete smallest ids -_-
-
-            final List<Graph.Vertex> verticesToDelete = new LinkedList<>();
-            int numVerticesKept = 0;
-            for (Graph.Vertex vertex : filteredGraph.getVertices()) {
-                if (numVerticesKept >= graphView.getVertexLimit()) {
-                    // We're at capacity, let's delete this one
-                    verticesToDelete.add(vertex);
-                } else {
-                    numVerticesKept++;
+        final int numInventoryVertices = inventoryTopology.getNumVertices();
+        final int[] focalPoints = new int[candidateKeyOrdinals.length];
+        int numFocalPoints = 0;
+        for (int keyOrdinal : candidateKeyOrdinals) {
+            final int v;
+            if (keyOrdinal < numInventoryVertices) {
+                v = keyOrdinal;
+            } else {
+                // Skip the alarms and situations that are not active at this time
+                final Integer vertexOrdinal = vertexOrdinalsByKeyOrdinal.get(keyOrdinal);
+                if (vertexOrdinal == null) {
+                    continue;
                 }
+                v = vertexOrdinal;
             }
-
-            for (Graph.Vertex vertexToDelete : verticesToDelete) {
-                filteredGraph.removeVertex(vertexToDelete);
+            if (query.matches(graphBuilder.getVertex(v).getLabel())) {
+                focalPoints[numFocalPoints++] = v;
             }
         }
+        // The alarms and situations are not added to the graph in the order of their keys
+        Arrays.sort(focalPoints, 0, numFocalPoints);
+        return Arrays.copyOf(focalPoints, numFocalPoints);
+    }
 
-        return new Graph(getGraphMetadata(), filteredGraph.getVertices(), filteredGraph.getEdges(), layers);
+    /**
+     * Builds the part of the graph that is within szl hops of the focal points, by expanding outwards from the focal
+     * points through the indexes rather than building the complete graph first. The vertices and edges are kept in the
+     * same order as in the complete graph, so filtering the result gives the same graph as filtering the one from
+     * {@link #buildUnfilteredGraph(GraphView)}.
+     */
+    UnfilteredGraph expandFromFocalPoints(GraphView graphView) {
+        return expandFromFocalPoints(graphView, GraphGeneratorMetrics.Recorder.NOOP);
     }
 
-    private Graph.Vertex createVertexForSituation(Situation situation, String source, Map<String, Severity> alarmIdToSeverityMap) {
-        return createVertexForSituation(situation, source, Collections.emptyMap(), alarmIdToSeverityMap);
+    private UnfilteredGraph expandFromFocalPoints(GraphView graphView, GraphGeneratorMetrics.Recorder recorder) {
+        final Expansion expansion = new Expansion(getGraphIndex(), graphView.getTimestampInMillis());
+        final long[] focalPoints = expansion.findFocalPoints(graphView.getFocalPoint());
+        if (focalPoints == null) {
+            // Every vertex is a focal point, so there is nothing to gain
+            return buildUnfilteredGraph(graphView, recorder);
+        }
+        recorder.stageCompleted(Stage.FOCAL_POINTS);
+        final long[] vertices = expansion.expand(focalPoints, graphView.getSzl(), graphView.getVertexLimit());
+        recorder.stageCompleted(Stage.EXPAND);
+        final UnfilteredGraph unfilteredGraph = expansion.build(vertices, focalPoints);
+        recorder.stageCompleted(Stage.BUILD);
+        recorder.unfilteredGraphBuilt(unfilteredGraph.getGraph());
+        return unfilteredGraph;
     }
 
-    private Graph.Vertex createVertexForSituation(Situation situation, String source, Map<String,String> defaultAttributes, Map<String, Severity> alarmIdToSeverityMap) {
-        final ResourceKey situationKey = getSituationResourceKeyFor(situation, source);
+    /**
+     * Identifies a vertex while expanding. Sorting these gives the same order as the vertices in the complete graph:
+     * the inventory by key ordinal, the active alarms by alarm ordinal, the situations from the primary result set
+     * by their ordinal, then the situations from each of the other result sets by their ordinal.
+     */
+    private static long vertex(int kind, int resultSet, int ordinal) {
+        return ((long) kind << 56) | ((long) resultSet << 32) | ordinal;
+    }
 
-        // Determine the max severity of all the related alarms
-        Severity maxSeverity = Severity.INDETERMINATE;
-        for (Alarm relatedAlarm : situation.getAlarms()) {
-            final Severity severity = alarmIdToSeverityMap.getOrDefault(relatedAlarm.getId(), Severity.INDETERMINATE);
-            if (severity.getValue() >= maxSeverity.getValue()) {
-                maxSeverity = severity;
-            }
-        }
-        Severity maxSeverityPlusOne = Severity.fromValue(Math.min(Severity.CRITICAL.getValue(), maxSeverity.getValue() + 1));
+    private static int getKind(long vertex) {
+        return (int) (vertex >>> 56);
+    }
 
-        // Create a vertex for the situation
-        final ImmutableMap.Builder<String,String> attributeBuilder = ImmutableMap.<String,String>builder()
-                .putAll(defaultAttributes)
-                .put(ID_ATTRIBUTE, situation.getId())
-                .put(SEVERITY_ATTRIBUTE, maxSeverityPlusOne.name().toLowerCase())
-                .put(CREATED_MS, Long.toString(situation.getCreationTime()))
-                .put(NUMBER_OF_ALARMS_ATTRIBUTE, Integer.toString(situation.getAlarms().size()))
-                .put(SOURCE_ATTRIBUTE, source);
-        if (situation.getDiagnosticText() != null) {
-            attributeBuilder.put(DESCRIPTION_ATTRIBUTE, situation.getDiagnosticText());
-        }
-        final Map<String,String> attributes = attributeBuilder.build();
-        return new Graph.Vertex(situationKey.toString(), "situation", "situation #" + situation.getId(), SITUATIONS_LAYER_ID, attributes);
+    private static int getResultSet(long vertex) {
+        return (int) (vertex >>> 32) & 0xffffff;
     }
 
-    private void addOtherSituations(edu.uci.ics.jung.graph.Graph<Graph.Vertex, Graph.Edge> jungGraph, Map<String, Severity> alarmIdToSeverityMap, Map<String, String> alarmVertexIdToSituationVertexIdMap) {
-        // Find the alarms on the graph
-        final Map<String, Graph.Vertex> alarmVerticesById = jungGraph.getVertices().stream()
-                .filter(v -> v.getLayerId().equals(ALARMS_LAYER_ID))
-                .collect(Collectors.toMap(Graph.Vertex::getId, v -> v));
-        // Find the situations on the graph
-        final Map<String, Graph.Vertex> situationVerticesById = jungGraph.getVertices().stream()
-                .filter(v -> v.getLayerId().equals(SITUATIONS_LAYER_ID))
-                .collect(Collectors.toMap(Graph.Vertex::getId, v -> v));
+    private static int getOrdinal(long vertex) {
+        return (int) vertex;
+    }
 
-        // Retrieve the non-primary situation result sets
-        final List<SituationResults> otherSituationResults = oceDataset.getSituationResults().stream()
+    /**
+     * The state of a single expansion. The alarms are only materialized once they are reached.
+     */
+    private class Expansion {
+        private final GraphIndex index;
+        private final long timestampInMs;
+        private final AlarmStore alarmStore = oceDataset.getAlarmStore();
+        private final CompactGraph inventoryGraph = inventoryTopology.getGraph();
+        private final SituationResults primarySituationResults = oceDataset.getPrimarySituationResults();
+        private final List<SituationResults> otherSituationResults = oceDataset.getSituationResults().stream()
                 .filter(s -> !s.isPrimary())
                 .collect(Collectors.toList());
+        private final Map<Integer, Optional<Alarm>> activeAlarmsByOrdinal = new HashMap<>();
+
+        private Expansion(GraphIndex index, long timestampInMs) {
+            this.index = index;
+            this.timestampInMs = timestampInMs;
+        }
+
+        /**
+         * Finds the focal points, in the same order as {@link #buildUnfilteredGraph(GraphView)}.
+         *
+         * @return the focal points, or null if every vertex is a focal point
+         */
+        private long[] findFocalPoints(String focalPoint) {
+            if (focalPoint == null) {
+                return findLargestSituations();
+            }
+            final FocalPointQuery query = FocalPointQuery.parse(focalPoint);
+            final int[] candidateKeyOrdinals = query.getCandidateKeyOrdinals(index.getLabels(), resourceKeys);
+            if (candidateKeyOrdinals == null) {
+                return null;
+            }
 
-        for (SituationResults situationResults : otherSituationResults) {
-            for (Situation situation : situationResults.getSituations()) {
-                // Find all of the referenced alarms that are on the graph
-                final List<Graph.Vertex> alarmVertices = new LinkedList<>();
-                for (Alarm relatedAlarm : situation.getAlarms()) {
-                    final ResourceKey alarmKey = getAlarmResourceKeyFor(relatedAlarm);
-                    final Graph.Vertex alarmVertex = alarmVerticesById.get(alarmKey.toString());
-                    if (alarmVertex != null) {
-                        alarmVertices.add(alarmVertex);
+            final long[] focalPoints = new long[candidateKeyOrdinals.length];
+            int numFocalPoints = 0;
+            for (int keyOrdinal : candidateKeyOrdinals) {
+                final long vertex;
+                final String label;
+                final int alarmOrdinal = index.getAlarmOrdinal(keyOrdinal);
+                final int situationOrdinal = index.getSituationOrdinal(keyOrdinal);
+                if (keyOrdinal < inventoryGraph.getNumVertices()) {
+                    vertex = vertex(INVENTORY_VERTEX, 0, keyOrdinal);
+                    label = inventoryGraph.getVertex(keyOrdinal).getLabel();
+                } else if (alarmOrdinal >= 0) {
+                    final Alarm alarm = getActiveAlarm(alarmOrdinal);
+                    if (alarm == null) {
+                        continue;
                     }
+                    vertex = vertex(ALARM_VERTEX, 0, alarmOrdinal);
+                    label = alarm.getSummary();
+                } else if (situationOrdinal >= 0) {
+                    final Situation situation = primarySituationResults.getSituation(situationOrdinal);
+                    if (situation.getCreationTime() > timestampInMs || getNumActiveAlarms(situation) == 0) {
+                        continue;
+                    }
+                    vertex = vertex(SITUATION_VERTEX, 0, situationOrdinal);
+                    label = getSituationLabel(situation);
+                } else {
+                    continue;
+                }
+                if (query.matches(label)) {
+                    focalPoints[numFocalPoints++] = vertex;
                 }
+            }
+            Arrays.sort(focalPoints, 0, numFocalPoints);
+            return Arrays.copyOf(focalPoints, numFocalPoints);
+        }
 
-                // Skip situations that don't have alarms in the current graph
-                if (alarmVertices.isEmpty()) {
-                    continue;
+        /**
+         * Finds the 10 situations with the most active alarms, without materializing the alarms.
+         */
+        private long[] findLargestSituations() {
+            final Set<String> activeAlarmIds = new HashSet<>();
+            for (int update : alarmStore.getActiveUpdatesAt(timestampInMs)) {
+                activeAlarmIds.add(alarmStore.getAlarmId(alarmStore.getAlarmOrdinal(update)));
+            }
+            final List<Situation> activeSituations = new ArrayList<>();
+            final List<Integer> activeSituationOrdinals = new ArrayList<>();
+            for (int situationOrdinal : primarySituationResults.getSituationOrdinalsWithAnyAlarm(activeAlarmIds)) {
+                final Situation situation = primarySituationResults.getSituation(situationOrdinal);
+                if (situation.getCreationTime() <= timestampInMs) {
+                    activeSituations.add(situation);
+                    activeSituationOrdinals.add(situationOrdinal);
                 }
+            }
 
-                // Are all of the alarms associated with the same situation in the primary dataset?
-                boolean foundSituationForAllAlarms = true;
-                Set<String> situationIds = new HashSet<>();
-                for (Graph.Vertex alarmVertex : alarmVertices) {
-                    final String situationId = alarmVertexIdToSituationVertexIdMap.get(alarmVertex.getId());
-                    if (situationId == null) {
-                        foundSituationForAllAlarms = false;
-                        break;
+            Comparator<Integer> situationComparator = Comparator.comparing(k -> {
+                int numActiveAlarms = 0;
+                for (Alarm relatedAlarm : activeSituations.get(k).getAlarms()) {
+                    if (activeAlarmIds.contains(relatedAlarm.getId())) {
+                        numActiveAlarms++;
                     }
-                    situationIds.add(situationId);
                 }
-                // The situation matches the one from the primary dataset?
-                boolean matchesPrimarySituation = false;
-                if (foundSituationForAllAlarms && situationIds.size() == 1) {
-                    // Only match if the primary situation has the same number of alarms (it may have more)
-                    final Graph.Vertex primarySituationVertex = situationVerticesById.get(situationIds.iterator().next());
-                    if (primarySituationVertex != null) {
-                        matchesPrimarySituation = jungGraph.getNeighbors(primarySituationVertex).size() == alarmVertices.size();
-                    }
+                return numActiveAlarms;
+            }, Comparator.reverseOrder());
+            situationComparator = situationComparator.thenComparing(k -> activeSituations.get(k).getCreationTime(), Comparator.reverseOrder());
+            return IntStream.range(0, activeSituations.size()).boxed()
+                    .sorted(situationComparator)
+                    .limit(10)
+                    .mapToLong(k -> vertex(SITUATION_VERTEX, 0, activeSituationOrdinals.get(k)))
+                    .toArray();
+        }
+
+        /**
+         * Finds the vertices within szl hops of the focal points.
+         *
+         * Situations rank above all other vertices when applying the vertex limit, and are never pruned, so we can
+         * stop expanding once we have found enough of them. The vertices further away would all be removed.
+         *
+         * @return the vertices, sorted
+         */
+        private long[] expand(long[] focalPoints, int szl, int vertexLimit) {
+            final Set<Long> visitedVertices = new HashSet<>();
+            final int[] numSituations = new int[1];
+            List<Long> frontier = new ArrayList<>();
+            for (long focalPoint : focalPoints) {
+                if (visitedVertices.add(focalPoint)) {
+                    frontier.add(focalPoint);
+                    numSituations[0] += getKind(focalPoint) >= SITUATION_VERTEX ? 1 : 0;
                 }
+            }
+            for (int i = 0; i < szl && !frontier.isEmpty() && (vertexLimit <= 0 || numSituations[0] < vertexLimit); i++) {
+                final List<Long> nextFrontier = new ArrayList<>();
+                for (long vertex : frontier) {
+                    forEachNeighbor(vertex, neighbor -> {
+                        if (visitedVertices.add(neighbor)) {
+                            nextFrontier.add(neighbor);
+                            numSituations[0] += getKind(neighbor) >= SITUATION_VERTEX ? 1 : 0;
+                        }
+                    });
+                }
+                frontier = nextFrontier;
+            }
+            return visitedVertices.stream()
+                    .mapToLong(Long::longValue)
+                    .sorted()
+                    .toArray();
+        }
 
-                final Graph.Vertex situationVertex = createVertexForSituation(situation, situationResults.getSource(), ImmutableMap.<String,String>builder()
-                        .put(MATCHES_PRIMARY_ATTRIBUTE, Boolean.toString(matchesPrimarySituation))
-                        .build(), alarmIdToSeverityMap);
-                jungGraph.addVertex(situationVertex);
+        private void forEachNeighbor(long vertex, LongConsumer consumer) {
+            final int ordinal = getOrdinal(vertex);
+            switch (getKind(vertex)) {
+                case INVENTORY_VERTEX:
+                    for (int i = 0; i < inventoryGraph.getOutDegree(ordinal); i++) {
+                        consumer.accept(vertex(INVENTORY_VERTEX, 0, inventoryGraph.getOutTarget(ordinal, i)));
+                    }
+                    for (int i = 0; i < inventoryGraph.getInDegree(ordinal); i++) {
+                        consumer.accept(vertex(INVENTORY_VERTEX, 0, inventoryGraph.getInSource(ordinal, i)));
+                    }
+                    // The alarm may have moved to another inventory object since
+                    for (int alarmOrdinal : index.getAlarmOrdinalsForInventoryObject(ordinal)) {
+                        final Alarm alarm = getActiveAlarm(alarmOrdinal);
+                        if (alarm != null && getInventoryOrdinal(alarm) == ordinal) {
+                            consumer.accept(vertex(ALARM_VERTEX, 0, alarmOrdinal));
+                        }
+                    }
+                    break;
+                case ALARM_VERTEX:
+                    final Alarm alarm = getActiveAlarm(ordinal);
+                    final int inventoryOrdinal = getInventoryOrdinal(alarm);
+                    if (inventoryOrdinal >= 0) {
+                        consumer.accept(vertex(INVENTORY_VERTEX, 0, inventoryOrdinal));
+                    }
+                    // Situations are active when they have been created and have at least one active alarm
+                    for (int situationOrdinal : primarySituationResults.getSituationOrdinalsWithAlarm(alarm.getId())) {
+                        if (primarySituationResults.getSituation(situationOrdinal).getCreationTime() <= timestampInMs) {
+                            consumer.accept(vertex(SITUATION_VERTEX, 0, situationOrdinal));
+                        }
+                    }
+                    for (int resultSet = 0; resultSet < otherSituationResults.size(); resultSet++) {
+                        for (int situationOrdinal : otherSituationResults.get(resultSet).getSituationOrdinalsWithAlarm(alarm.getId())) {
+                            consumer.accept(vertex(OTHER_SITUATION_VERTEX, resultSet, situationOrdinal));
+                        }
+                    }
+                    break;
+                default:
+                    for (Alarm relatedAlarm : getSituation(vertex).getAlarms()) {
+                        final int alarmOrdinal = getActiveAlarmOrdinal(relatedAlarm.getId());
+                        if (alarmOrdinal >= 0) {
+                            consumer.accept(vertex(ALARM_VERTEX, 0, alarmOrdinal));
+                        }
+                    }
+            }
+        }
 
-                // Add edges to the alarms
-                for (Graph.Vertex alarmVertex : alarmVertices) {
-                    final Graph.Edge edge = new Graph.Edge("", situationVertex.getId(), alarmVertex.getId(), "situation-to-alarm");
-                    jungGraph.addEdge(edge, situationVertex, alarmVertex);
-                }
+        /**
+         * Builds the graph from the given vertices, along with the edges between them.
+         */
+        private UnfilteredGraph build(long[] vertices, long[] focalPoints) {
+            final CompactGraph.Builder graphBuilder = CompactGraph.builder();
+            final Map<Long, Integer> ordinalsByVertex = new HashMap<>();
+            for (long vertex : vertices) {
+                ordinalsByVertex.put(vertex, graphBuilder.addVertex(createVertex(vertex)));
+            }
+            // The edges of every vertex are added in the same order as in the complete graph
+            for (long vertex : vertices) {
+                addEdges(graphBuilder, vertex, ordinalsByVertex);
             }
+            final int[] focalPointOrdinals = Arrays.stream(focalPoints)
+                    .mapToInt(ordinalsByVertex::get)
+                    .toArray();
+            // The inventory vertices come first
+            final int[] inventoryOrdinals = Arrays.stream(vertices)
+                    .filter(vertex -> getKind(vertex) == INVENTORY_VERTEX)
+                    .mapToInt(OceGraphGenerator::getOrdinal)
+                    .toArray();
+            return new UnfilteredGraph(graphBuilder.build(), focalPointOrdinals, inventoryTopology.getComponents(),
+                    inventoryOrdinals.length, inventoryOrdinals);
         }
-    }
 
-    private static boolean prune(edu.uci.ics.jung.graph.Graph<Graph.Vertex, Graph.Edge> jungGraph) {
-        boolean didRemove = false;
-        WeakComponentClusterer<Graph.Vertex,Graph.Edge> trns = new WeakComponentClusterer<>();
-        Set<Set<Graph.Vertex>> clusters = trns.apply(jungGraph);
+        private Graph.Vertex createVertex(long vertex) {
+            final int ordinal = getOrdinal(vertex);
+            switch (getKind(vertex)) {
+                case INVENTORY_VERTEX:
+                    return inventoryGraph.getVertex(ordinal);
+                case ALARM_VERTEX:
+                    final Alarm alarm = getActiveAlarm(ordinal);
+                    return createVertexForAlarm(alarm, resourceKeys.getAlarmOrdinal(alarm.getId()));
+                case SITUATION_VERTEX:
+                    final Situation situation = getSituation(vertex);
+                    return createVertexForSituation(situation, getSituationKeyOrdinal(vertex), PRIMARY_SOURCE_NAME, getSeverities(situation));
+                default:
+                    final Situation otherSituation = getSituation(vertex);
+                    return createVertexForSituation(otherSituation, getSituationKeyOrdinal(vertex), getSource(vertex),
+                            ImmutableMap.of(MATCHES_PRIMARY_ATTRIBUTE, Boolean.toString(matchesPrimarySituation(otherSituation))),
+                            getSeverities(otherSituation));
+            }
+        }
 
-        for (Set<Graph.Vertex> cluster : clusters) {
-            // Find the inventory objects in the cluster
-            final Set<Graph.Vertex> iosInCluster = cluster.stream()
-                    .filter(v -> v.getLayerId().equals(INVENTORY_LAYER_ID))
-                    .collect(Collectors.toSet());
+        private void addEdges(CompactGraph.Builder graphBuilder, long vertex, Map<Long, Integer> ordinalsByVertex) {
+            final int source = ordinalsByVertex.get(vertex);
+            final int ordinal = getOrdinal(vertex);
+            switch (getKind(vertex)) {
+                case INVENTORY_VERTEX:
+                    for (int i = 0; i < inventoryGraph.getOutDegree(ordinal); i++) {
+                        final Integer target = ordinalsByVertex.get(vertex(INVENTORY_VERTEX, 0, inventoryGraph.getOutTarget(ordinal, i)));
+                        if (target != null) {
+                            graphBuilder.addEdge(source, target, inventoryGraph.getOutEdge(ordinal, i));
+                        }
+                    }
+                    break;
+                case ALARM_VERTEX:
+                    final Alarm alarm = getActiveAlarm(ordinal);
+                    final int inventoryOrdinal = getInventoryOrdinal(alarm);
+                    final Integer ioTarget = inventoryOrdinal >= 0 ? ordinalsByVertex.get(vertex(INVENTORY_VERTEX, 0, inventoryOrdinal)) : null;
+                    if (ioTarget != null) {
+                        graphBuilder.addEdge(source, ioTarget, createAlarmToInventoryEdge(resourceKeys.getAlarmOrdinal(alarm.getId()), graphBuilder.getVertex(source),
+                                inventoryOrdinal, graphBuilder.getVertex(ioTarget)));
+                    }
+                    break;
+                default:
+                    final int situationKeyOrdinal = getSituationKeyOrdinal(vertex);
+                    for (Alarm relatedAlarm : getSituation(vertex).getAlarms()) {
+                        final int alarmOrdinal = getActiveAlarmOrdinal(relatedAlarm.getId());
+                        final Integer alarmTarget = alarmOrdinal >= 0 ? ordinalsByVertex.get(vertex(ALARM_VERTEX, 0, alarmOrdinal)) : null;
+                        if (alarmTarget != null) {
+                            graphBuilder.addEdge(source, alarmTarget, createSituationToAlarmEdge(situationKeyOrdinal, graphBuilder.getVertex(source),
+                                    resourceKeys.getAlarmOrdinal(relatedAlarm.getId()), graphBuilder.getVertex(alarmTarget)));
+                        }
+                    }
+            }
+        }
 
-            // Which of these are attached to alarms?
-            final Set<Graph.Vertex> verticesWithAlarmsAttached = new HashSet<>();
-            for (Graph.Vertex clusterVertex : iosInCluster) {
-                if(jungGraph.getIncidentEdges(clusterVertex).stream().anyMatch(e -> e.getType().equals("alarm-to-io"))) {
-                    verticesWithAlarmsAttached.add(clusterVertex);
+        /**
+         * @return the last update of the alarm with the given ordinal if it is active, or null otherwise
+         */
+        private Alarm getActiveAlarm(int alarmOrdinal) {
+            return activeAlarmsByOrdinal.computeIfAbsent(alarmOrdinal, k -> {
+                // The index may already know about alarms that were appended after the expansion started
+                if (alarmOrdinal >= alarmStore.getNumAlarms()) {
+                    return Optional.empty();
                 }
+                final int update = alarmStore.getLastUpdateBefore(alarmOrdinal, timestampInMs);
+                if (update < 0 || !AlarmStore.isActive(alarmStore.getTime(update), alarmStore.isClear(update), timestampInMs)) {
+                    return Optional.empty();
+                }
+                return Optional.of(alarmStore.getAlarm(update));
+            }).orElse(null);
+        }
+
+        /**
+         * @return the ordinal of the alarm with the given id if it is active, or -1 otherwise
+         */
+        private int getActiveAlarmOrdinal(String alarmId) {
+            final int keyOrdinal = resourceKeys.getAlarmOrdinal(alarmId);
+            final int alarmOrdinal = keyOrdinal >= 0 ? index.getAlarmOrdinal(keyOrdinal) : -1;
+            return alarmOrdinal >= 0 && getActiveAlarm(alarmOrdinal) != null ? alarmOrdinal : -1;
+        }
+
+        private int getInventoryOrdinal(Alarm alarm) {
+            return inventoryTopology.getOrdinal(alarm.getInventoryObjectType(), alarm.getInventoryObjectId());
+        }
+
+        private Situation getSituation(long vertex) {
+            if (getKind(vertex) == SITUATION_VERTEX) {
+                return primarySituationResults.getSituation(getOrdinal(vertex));
             }
+            return otherSituationResults.get(getResultSet(vertex)).getSituation(getOrdinal(vertex));
+        }
+
+        private String getSource(long vertex) {
+            return getKind(vertex) == SITUATION_VERTEX ? PRIMARY_SOURCE_NAME : otherSituationResults.get(getResultSet(vertex)).getSource();
+        }
 
-            if (verticesWithAlarmsAttached.isEmpty()) {
-                // There are no alarms attached to any vertex in this cluster, remove them all
-                for (Graph.Vertex clusterVertex : iosInCluster) {
-                    jungGraph.removeVertex(clusterVertex);
-                    didRemove = true;
+        private int getSituationKeyOrdinal(long vertex) {
+            return resourceKeys.getSituationOrdinal(getSource(vertex), getSituation(vertex).getId());
+        }
+
+        private int getNumActiveAlarms(Situation situation) {
+            int numActiveAlarms = 0;
+            for (Alarm relatedAlarm : situation.getAlarms()) {
+                if (getActiveAlarmOrdinal(relatedAlarm.getId()) >= 0) {
+                    numActiveAlarms++;
                 }
-                continue;
             }
+            return numActiveAlarms;
+        }
 
-            // We have some alarms attached, let's find the "root" vertices in the cluster
-            final Set<Graph.Vertex> rootVertices = new HashSet<>();
-            for (Graph.Vertex clusterVertex : iosInCluster) {
-                // A root has no parents
-                if(jungGraph.getOutEdges(clusterVertex).stream().noneMatch(e -> e.getType().equals("parent"))) {
-                    rootVertices.add(clusterVertex);
+        private Map<String, Severity> getSeverities(Situation situation) {
+            final Map<String, Severity> severitiesByAlarmId = new HashMap<>();
+            for (Alarm relatedAlarm : situation.getAlarms()) {
+                final int alarmOrdinal = getActiveAlarmOrdinal(relatedAlarm.getId());
+                if (alarmOrdinal >= 0) {
+                    severitiesByAlarmId.put(relatedAlarm.getId(), getActiveAlarm(alarmOrdinal).getSeverity());
                 }
             }
+            return severitiesByAlarmId;
+        }
 
-            for (Graph.Vertex clusterVertex : iosInCluster) {
-                // Keep a vertex if it has an alarm attached
-                if (verticesWithAlarmsAttached.contains(clusterVertex)) {
+        /**
+         * Determines whether the active alarms of the given situation are exactly those of a single situation from the
+         * primary result set. Like {@link #addOtherSituations}, every alarm is matched with the last active situation that
+         * contains it.
+         */
+        private boolean matchesPrimarySituation(Situation situation) {
+            int numAlarms = 0;
+            final Set<Integer> situationOrdinals = new HashSet<>();
+            for (Alarm relatedAlarm : situation.getAlarms()) {
+                if (getActiveAlarmOrdinal(relatedAlarm.getId()) < 0) {
                     continue;
                 }
-                // Keep a vertex if it is a root element
-                if (rootVertices.contains(clusterVertex)) {
-                    continue;
+                numAlarms++;
+                final int situationOrdinal = getLastActiveSituationOrdinal(relatedAlarm.getId());
+                if (situationOrdinal < 0) {
+                    return false;
                 }
-                // Keep a vertex if it has more >= 2 edges (to other IOs)
-                if (jungGraph.getIncidentEdges(clusterVertex).size() >= 2) {
-                    continue;
+                situationOrdinals.add(situationOrdinal);
+            }
+            return situationOrdinals.size() == 1
+                    && getNumActiveAlarms(primarySituationResults.getSituation(situationOrdinals.iterator().next())) == numAlarms;
+        }
+
+        private int getLastActiveSituationOrdinal(String activeAlarmId) {
+            final int[] situationOrdinals = primarySituationResults.getSituationOrdinalsWithAlarm(activeAlarmId);
+            for (int i = situationOrdinals.length - 1; i >= 0; i--) {
+                if (primarySituationResults.getSituation(situationOrdinals[i]).getCreationTime() <= timestampInMs) {
+                    return situationOrdinals[i];
                 }
-                // Remove it
-                jungGraph.removeVertex(clusterVertex);
-                didRemove = true;
             }
+            return -1;
         }
-        return didRemove;
     }
 
-    private List<Alarm> getActiveAlarmsAt(long timestampInMs) {
-        // Group alarms by id
-        final Map<String, List<Alarm>> alarmsById = oceDataset.getAlarms().stream()
-                // Must be before the given timestamp
-                .filter(a -> a.getTime() < timestampInMs)
-                .collect(Collectors.groupingBy(Alarm::getId));
-
-        List<Alarm> activeAlarms = new LinkedList<>();
-
-        // For every alarm, figure out it's last state at the given time
-        for (Map.Entry<String, List<Alarm>> entry : alarmsById.entrySet()) {
-            List<Alarm> alarmsByTime = sortAlarmsByTime(entry.getValue());
-            Alarm lastAlarm = alarmsByTime.get(alarmsByTime.size() -1);
-            // Disregard alarms that have been cleared for more than 5 minutes
-            long timeSinceLastAlarmInMs = Math.abs(lastAlarm.getTime() - timestampInMs);
-            if (lastAlarm.isClear() && timeSinceLastAlarmInMs >= TimeUnit.MINUTES.toMillis(5)) {
-                continue;
-            }
-            // Disregard alarms with no updates in the last 24 hours
-            if (timeSinceLastAlarmInMs >= TimeUnit.DAYS.toMillis(1)) {
-                continue;
+    /**
+     * Selects the vertices to keep for the given view.
+     */
+    static BitSet filter(UnfilteredGraph unfilteredGraph, GraphView graphView) {
+        return filter(unfilteredGraph, graphView, GraphGeneratorMetrics.Recorder.NOOP);
+    }
+
+    private static BitSet filter(UnfilteredGraph unfilteredGraph, GraphView graphView, GraphGeneratorMetrics.Recorder recorder) {
+        final CompactGraph graph = unfilteredGraph.getGraph();
+        final Sizzler sizzler = new Sizzler();
+        // Pruning may remove some of the vertices, so we can only stop early when we're not pruning
+        final int sizzleVertexLimit = graphView.isRemoveInventoryWithNoAlarms() ? 0 : graphView.getVertexLimit();
+        final BitSet filteredGraph = sizzler.sizzle(graph, unfilteredGraph.getFocalPoints(), graphView.getSzl(), sizzleVertexLimit);
+        recorder.stageCompleted(Stage.SIZZLE);
+
+        if (graphView.isRemoveInventoryWithNoAlarms()) {
+            prune(unfilteredGraph, filteredGraph);
+            recorder.stageCompleted(Stage.PRUNE);
+        }
+
+        if (graphView.getVertexLimit() > 0) {
+            if (filteredGraph.cardinality() > graphView.getVertexLimit()) {
+                applyVertexLimit(graph, filteredGraph, sizzler.getDistances(graph), graphView.getVertexLimit());
             }
-            activeAlarms.add(lastAlarm);
+            recorder.stageCompleted(Stage.VERTEX_LIMIT);
         }
+        return filteredGraph;
+    }
 
-        return activeAlarms;
+    /**
+     * Keeps the highest ranked vertexLimit vertices of the filtered graph, see {@link VertexRanking}.
+     *
+     * @param distances the number of hops from the focal points to each of the vertices in the filtered graph
+     */
+    static void applyVertexLimit(CompactGraph graph, BitSet filteredGraph, int[] distances, int vertexLimit) {
+        VertexRanking.truncate(graph, filteredGraph, distances, vertexLimit);
     }
 
-    private List<Situation> getSituationsActiveAt(long timestampInMs) {
-        final Set<String> activeAlarmIds = getActiveAlarmsAt(timestampInMs).stream()
-                .map(Alarm::getId)
-                .collect(Collectors.toSet());
+    /**
+     * Determines whether the graphs generated at the given times may differ.
+     *
+     * The graph is derived from the set of active alarms and situations, so if these are
+     * the same at both times, then the graphs will be the same for any given view.
+     * This lets us avoid generating the graphs when nothing has changed.
+     */
+    public boolean hasChangesBetween(long fromTimestampInMs, long toTimestampInMs) {
+        // Compare the indices of the updates, rather than the alarms themselves
+        final AlarmStore alarmStore = oceDataset.getAlarmStore();
+        final int[] fromActiveUpdates = alarmStore.getActiveUpdatesAt(fromTimestampInMs);
+        final int[] toActiveUpdates = alarmStore.getActiveUpdatesAt(toTimestampInMs);
+        if (!Arrays.equals(fromActiveUpdates, toActiveUpdates)) {
+            return true;
+        }
+        final List<String> activeAlarmIds = new ArrayList<>(toActiveUpdates.length);
+        for (int update : toActiveUpdates) {
+            activeAlarmIds.add(alarmStore.getAlarmId(alarmStore.getAlarmOrdinal(update)));
+        }
+        return !containsSameInstances(getSituationsActiveAt(activeAlarmIds, fromTimestampInMs),
+                getSituationsActiveAt(activeAlarmIds, toTimestampInMs));
+    }
 
-        return oceDataset.getSituationsFromPrimaryResultSet().stream()
-                // Situation must have been created before the given time
-                .filter(s -> s.getCreationTime() <= timestampInMs)
-                // At least one of the alarms in the situations must be active
-                .filter(s -> {
-                    final Set<String> alarmIds = s.getAlarms().stream().map(Alarm::getId).collect(Collectors.toSet());
-                    return !Sets.intersection(alarmIds, activeAlarmIds).isEmpty();
-                })
-                .collect(Collectors.toList());
+    private static boolean containsSameInstances(List<?> a, List<?> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private static long roundToTick(long time, long tickResolutionMs) {
-        return Math.floorDiv(time, tickResolutionMs) * tickResolutionMs;
+    private Graph.Vertex createVertexForAlarm(Alarm alarm, int alarmKeyOrdinal) {
+        final ImmutableMap.Builder<String,String> attributeBuilder = ImmutableMap.<String,String>builder()
+                .put(ID_ATTRIBUTE, alarm.getId())
+                .put(SEVERITY_ATTRIBUTE, alarm.getSeverity().name().toLowerCase())
+                .put(UPDATED_MS, Long.toString(alarm.getTime()));
+        if (alarm.getInventoryObjectType() != null) {
+            attributeBuilder.put(INVENTORY_OBJECT_TYPE_ATTRIBUTE, alarm.getInventoryObjectType());
+        }
+        if (alarm.getInventoryObjectId() != null) {
+            attributeBuilder.put(INVENTORY_OBJECT_ID_ATTRIBUTE, alarm.getInventoryObjectId());
+        }
+        if (alarm.getDescription() != null) {
+            attributeBuilder.put(DESCRIPTION_ATTRIBUTE, alarm.getDescription());
+        }
+        final Map<String,String> attributes = attributeBuilder.build();
+        return new Graph.Vertex(resourceKeys.getId(alarmKeyOrdinal), "alarm", alarm.getSummary(), ALARMS_LAYER_ID, attributes);
     }
 
-    private static ResourceKey getResourceKeyFor(InventoryObject io) {
-        return ResourceKey.key(io.getType(), io.getId());
+    private Graph.Vertex createVertexForSituation(Situation situation, int situationKeyOrdinal, String source, Map<String, Severity> alarmIdToSeverityMap) {
+        return createVertexForSituation(situation, situationKeyOrdinal, source, Collections.emptyMap(), alarmIdToSeverityMap);
     }
 
-    private static ResourceKey getInventoryResourceKeyFor(Alarm alarm) {
-        return ResourceKey.key(alarm.getInventoryObjectType(), alarm.getInventoryObjectId());
+    private Graph.Vertex createVertexForSituation(Situation situation, int situationKeyOrdinal, String source, Map<String,String> defaultAttributes,
+                                                  Map<String, Severity> alarmIdToSeverityMap) {
+        // Determine the max severity of all the related alarms
+        Severity maxSeverity = Severity.INDETERMINATE;
+        for (Alarm relatedAlarm : situation.getAlarms()) {
+            final Severity severity = alarmIdToSeverityMap.getOrDefault(relatedAlarm.getId(), Severity.INDETERMINATE);
+            if (severity.getValue() >= maxSeverity.getValue()) {
+                maxSeverity = severity;
+            }
+        }
+        Severity maxSeverityPlusOne = Severity.fromValue(Math.min(Severity.CRITICAL.getValue(), maxSeverity.getValue() + 1));
+
+        // Create a vertex for the situation
+        final ImmutableMap.Builder<String,String> attributeBuilder = ImmutableMap.<String,String>builder()
+                .putAll(defaultAttributes)
+                .put(ID_ATTRIBUTE, situation.getId())
+                .put(SEVERITY_ATTRIBUTE, maxSeverityPlusOne.name().toLowerCase())
+                .put(CREATED_MS, Long.toString(situation.getCreationTime()))
+                .put(NUMBER_OF_ALARMS_ATTRIBUTE, Integer.toString(situation.getAlarms().size()))
+                .put(SOURCE_ATTRIBUTE, source);
+        if (situation.getDiagnosticText() != null) {
+            attributeBuilder.put(DESCRIPTION_ATTRIBUTE, situation.getDiagnosticText());
+        }
+        final Map<String,String> attributes = attributeBuilder.build();
+        return new Graph.Vertex(resourceKeys.getId(situationKeyOrdinal), "situation", getSituationLabel(situation), SITUATIONS_LAYER_ID, attributes);
     }
 
-    private static ResourceKey getAlarmResourceKeyFor(Alarm alarm) {
-        return ResourceKey.key("alarm", alarm.getId());
+    /**
+     * Creates an edge from the given alarm to its inventory object, re-using the id from the dictionary.
+     */
+    private Graph.Edge createAlarmToInventoryEdge(int alarmKeyOrdinal, Graph.Vertex alarm, int inventoryOrdinal, Graph.Vertex inventoryObject) {
+        return new Graph.Edge(resourceKeys.getAlarmToInventoryEdgeId(alarmKeyOrdinal, inventoryOrdinal), "", alarm.getId(),
+                inventoryObject.getId(), ResourceKeyDictionary.ALARM_TO_INVENTORY_EDGE_TYPE);
     }
 
-    private static ResourceKey getSituationResourceKeyFor(Situation situation, String source) {
-        return ResourceKey.key("situation", source, situation.getId());
+    /**
+     * Creates an edge from the given situation to one of its alarms, re-using the id from the dictionary.
+     */
+    private Graph.Edge createSituationToAlarmEdge(int situationKeyOrdinal, Graph.Vertex situation, int alarmKeyOrdinal, Graph.Vertex alarm) {
+        return new Graph.Edge(resourceKeys.getSituationToAlarmEdgeId(situationKeyOrdinal, alarmKeyOrdinal), "", situation.getId(),
+                alarm.getId(), ResourceKeyDictionary.SITUATION_TO_ALARM_EDGE_TYPE);
     }
 
-    private static ResourceKey getResourceKeyForParent(InventoryObject child) {
-        if (child.getParentType() != null && child.getParentId() != null) {
-            return ResourceKey.key(child.getParentType(), child.getParentId());
+    /**
+     * Adds the situations from the other result sets that contain at least one of the alarms on the graph.
+     *
+     * The situations are found using the alarm index of each result set, so the work is proportional to the number of
+     * alarms on the graph rather than to the number of situations in the result sets. The result sets are independent,
+     * so when there are enough alarms on the graph their vertices and edges are created in parallel, and are then added
+     * to the graph in the same order as the result sets.
+     *
+     * @param primarySituationByAlarmOrdinal index of the last active primary situation that contains the alarm with the given
+     *                                       vertex ordinal, or -1 if there is no such situation
+     * @param numAlarmsByPrimarySituation number of alarms on the graph for each of the active primary situations
+     */
+    private void addOtherSituations(CompactGraph.Builder graphBuilder, Map<String, Integer> alarmOrdinalsById, Map<String, Severity> alarmIdToSeverityMap,
+                                    int[] primarySituationByAlarmOrdinal, int[] numAlarmsByPrimarySituation) {
+        // Retrieve the non-primary situation result sets
+        final List<SituationResults> otherSituationResults = oceDataset.getSituationResults().stream()
+                .filter(s -> !s.isPrimary())
+                .collect(Collectors.toList());
+
+        Stream<SituationResults> stream = otherSituationResults.stream();
+        if (otherSituationResults.size() > 1 && alarmOrdinalsById.size() >= PARALLEL_OTHER_SITUATIONS_THRESHOLD) {
+            stream = stream.parallel();
+        }
+        final List<List<OtherSituation>> otherSituationsByResultSet = stream
+                .map(situationResults -> getOtherSituations(situationResults, graphBuilder, alarmOrdinalsById, alarmIdToSeverityMap,
+                        primarySituationByAlarmOrdinal, numAlarmsByPrimarySituation))
+                .collect(Collectors.toList());
+
+        for (List<OtherSituation> otherSituations : otherSituationsByResultSet) {
+            for (OtherSituation otherSituation : otherSituations) {
+                final int situationOrdinal = graphBuilder.addVertex(otherSituation.vertex);
+                for (int i = 0; i < otherSituation.alarmOrdinals.length; i++) {
+                    graphBuilder.addEdge(situationOrdinal, otherSituation.alarmOrdinals[i], otherSituation.edges[i]);
+                }
+            }
         }
-        return null;
     }
 
-    private static ResourceKey getResourceKeyForPeer(InventoryObjectPeerRef peerRef) {
-        return ResourceKey.key(peerRef.getType(), peerRef.getId());
+    /**
+     * Creates the vertices and edges for the situations in the given result set that have alarms on the graph,
+     * without modifying the graph.
+     */
+    private List<OtherSituation> getOtherSituations(SituationResults situationResults, CompactGraph.Builder graphBuilder,
+                                                    Map<String, Integer> alarmOrdinalsById, Map<String, Severity> alarmIdToSeverityMap,
+                                                    int[] primarySituationByAlarmOrdinal, int[] numAlarmsByPrimarySituation) {
+        // The ordinals are sorted, so the situations are visited in the same order as the result set
+        final int[] situationOrdinals = situationResults.getSituationOrdinalsWithAnyAlarm(alarmOrdinalsById.keySet());
+        final List<OtherSituation> otherSituations = new ArrayList<>(situationOrdinals.length);
+        for (int ordinal : situationOrdinals) {
+            final Situation situation = situationResults.getSituation(ordinal);
+
+            // Find all of the referenced alarms that are on the graph
+            final int[] alarmOrdinals = new int[situation.getAlarms().size()];
+            final int[] alarmKeyOrdinals = new int[alarmOrdinals.length];
+            int numAlarms = 0;
+            for (Alarm relatedAlarm : situation.getAlarms()) {
+                final Integer alarmOrdinal = alarmOrdinalsById.get(relatedAlarm.getId());
+                if (alarmOrdinal != null) {
+                    alarmOrdinals[numAlarms] = alarmOrdinal;
+                    alarmKeyOrdinals[numAlarms] = resourceKeys.getAlarmOrdinal(relatedAlarm.getId());
+                    numAlarms++;
+                }
+            }
+            if (numAlarms == 0) {
+                continue;
+            }
+
+            // The situation matches the one from the primary dataset if all of its alarms are associated with the
+            // same primary situation, and that situation has the same number of alarms (it may have more)
+            int primarySituation = primarySituationByAlarmOrdinal[alarmOrdinals[0]];
+            for (int i = 1; i < numAlarms && primarySituation >= 0; i++) {
+                if (primarySituationByAlarmOrdinal[alarmOrdinals[i]] != primarySituation) {
+                    primarySituation = -1;
+                }
+            }
+            final boolean matchesPrimarySituation = primarySituation >= 0 && numAlarmsByPrimarySituation[primarySituation] == numAlarms;
+
+            final int situationKeyOrdinal = resourceKeys.getSituationOrdinal(situationResults.getSource(), situation.getId());
+            final Graph.Vertex situationVertex = createVertexForSituation(situation, situationKeyOrdinal, situationResults.getSource(), ImmutableMap.<String,String>builder()
+                    .put(MATCHES_PRIMARY_ATTRIBUTE, Boolean.toString(matchesPrimarySituation))
+                    .build(), alarmIdToSeverityMap);
+
+            // Create the edges to the alarms
+            final Graph.Edge[] edges = new Graph.Edge[numAlarms];
+            for (int i = 0; i < numAlarms; i++) {
+                edges[i] = createSituationToAlarmEdge(situationKeyOrdinal, situationVertex, alarmKeyOrdinals[i],
+                        graphBuilder.getVertex(alarmOrdinals[i]));
+            }
+            otherSituations.add(new OtherSituation(situationVertex, Arrays.copyOf(alarmOrdinals, numAlarms), edges));
+        }
+        return otherSituations;
     }
 
-    private static ResourceKey getResourceKeyForPeer(InventoryObjectRelativeRef relativeRef) {
-        return ResourceKey.key(relativeRef.getType(), relativeRef.getId());
+    /**
+     * A situation from one of the other result sets, along with the edges to its alarms.
+     */
+    private static class OtherSituation {
+        private final Graph.Vertex vertex;
+        private final int[] alarmOrdinals;
+        private final Graph.Edge[] edges;
+
+        private OtherSituation(Graph.Vertex vertex, int[] alarmOrdinals, Graph.Edge[] edges) {
+            this.vertex = vertex;
+            this.alarmOrdinals = alarmOrdinals;
+            this.edges = edges;
+        }
+    }
+
+    /**
+     * Removes the inventory that isn't relevant to the alarms from the filtered graph, see {@link Pruner}.
+     *
+     * @return true if any vertices were removed
+     */
+    static boolean prune(UnfilteredGraph unfilteredGraph, BitSet filteredGraph) {
+        return new Pruner(unfilteredGraph.getGraph(), filteredGraph, unfilteredGraph.inventoryComponents,
+                unfilteredGraph.numInventoryVertices, unfilteredGraph.inventoryOrdinals).prune();
+    }
+
+    private List<Alarm> getActiveAlarmsAt(long timestampInMs) {
+        return oceDataset.getAlarmStore().getActiveAlarmsAt(timestampInMs);
+    }
+
+    private List<Situation> getSituationsActiveAt(List<Alarm> activeAlarms, long timestampInMs) {
+        return getSituationsActiveAt(activeAlarms.stream()
+                .map(Alarm::getId)
+                .collect(Collectors.toList()), timestampInMs);
+    }
+
+    private List<Situation> getSituationsActiveAt(Collection<String> activeAlarmIds, long timestampInMs) {
+        // At least one of the alarms in the situations must be active
+        return oceDataset.getPrimarySituationResults().getSituationsWithAnyAlarm(activeAlarmIds).stream()
+                // Situation must have been created before the given time
+                .filter(s -> s.getCreationTime() <= timestampInMs)
+                .collect(Collectors.toList());
     }
 }
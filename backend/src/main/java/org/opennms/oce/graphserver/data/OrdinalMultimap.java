@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps keys to sorted sets of ordinals, stored as arrays.
+ *
+ * Ordinals can be added after the map is built. The arrays are replaced rather than modified, so readers
+ * always see a consistent set of ordinals for a given key.
+ */
+class OrdinalMultimap {
+    private static final int[] EMPTY = new int[0];
+
+    private final Map<Long, int[]> ordinalsByKey;
+
+    private OrdinalMultimap(Map<Long, int[]> ordinalsByKey) {
+        this.ordinalsByKey = new ConcurrentHashMap<>(ordinalsByKey);
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static class Builder {
+        private final Map<Long, GrowableOrdinals> ordinalsByKey = new HashMap<>();
+
+        private Builder() {}
+
+        Builder put(long key, int ordinal) {
+            ordinalsByKey.computeIfAbsent(key, k -> new GrowableOrdinals()).add(ordinal);
+            return this;
+        }
+
+        OrdinalMultimap build() {
+            final Map<Long, int[]> sortedOrdinalsByKey = new HashMap<>(ordinalsByKey.size() * 2);
+            ordinalsByKey.forEach((key, ordinals) -> sortedOrdinalsByKey.put(key, ordinals.toSortedDistinctArray()));
+            return new OrdinalMultimap(sortedOrdinalsByKey);
+        }
+    }
+
+    private static class GrowableOrdinals {
+        private int[] ordinals = new int[4];
+        private int size;
+
+        private void add(int ordinal) {
+            if (size > 0 && ordinals[size - 1] == ordinal) {
+                // The same ordinal is often added several times in a row
+                return;
+            }
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            ordinals[size++] = ordinal;
+        }
+
+        private int[] toSortedDistinctArray() {
+            final int[] sorted = Arrays.copyOf(ordinals, size);
+            Arrays.sort(sorted);
+            int numDistinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[numDistinct++] = sorted[i];
+                }
+            }
+            return numDistinct == sorted.length ? sorted : Arrays.copyOf(sorted, numDistinct);
+        }
+    }
+
+    /**
+     * @return the sorted ordinals for the given key, which are empty if there are none
+     */
+    int[] get(long key) {
+        return ordinalsByKey.getOrDefault(key, EMPTY);
+    }
+
+    Set<Map.Entry<Long, int[]>> entrySet() {
+        return Collections.unmodifiableMap(ordinalsByKey).entrySet();
+    }
+
+    /**
+     * Adds the ordinals from the given map to this one.
+     */
+    synchronized void putAll(OrdinalMultimap other) {
+        other.ordinalsByKey.forEach((key, ordinals) -> ordinalsByKey.merge(key, ordinals, OrdinalMultimap::union));
+    }
+
+    static int[] intersect(int[] a, int[] b) {
+        final int[] intersection = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                intersection[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(intersection, size);
+    }
+
+    static int[] union(int[] a, int[] b) {
+        final int[] union = new int[a.length + b.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                union[size++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                union[size++] = b[j++];
+            } else {
+                union[size++] = a[i++];
+                j++;
+            }
+        }
+        return size == union.length ? union : Arrays.copyOf(union, size);
+    }
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * Removes the inventory that isn't relevant to the alarms from a filtered graph.
+ *
+ * The filtered graph is split into weakly connected clusters. The inventory in clusters without any alarms
+ * attached to the inventory is removed. In the other clusters, we keep the inventory objects that have an alarm
+ * attached, the roots, and those with at least two edges, visiting the inventory objects by ordinal and removing
+ * the rest as we go.
+ *
+ * The clusters are found with a union-find over the edges of the filtered graph. Components of the inventory that
+ * are completely within the filtered graph are already known to be connected, so their edges are skipped. The
+ * clusters are independent of one another, so on larger graphs they are decided in parallel.
+ */
+class Pruner {
+
+    /**
+     * Minimum number of inventory vertices in the filtered graph before the clusters are decided in parallel.
+     */
+    static final int PARALLEL_THRESHOLD = 10000;
+
+    private final CompactGraph graph;
+    private final BitSet filteredGraph;
+    private final InventoryComponents inventoryComponents;
+    private final int numInventoryVertices;
+    private final int[] inventoryOrdinals;
+
+    /**
+     * @param graph the unfiltered graph
+     * @param filteredGraph the vertices in the filtered graph
+     * @param inventoryComponents the components of the inventory
+     * @param numInventoryVertices the number of inventory vertices in the graph, these come before any other vertices
+     * @param inventoryOrdinals the ordinals of the inventory vertices in the inventory topology, or null if they are the same
+     */
+    Pruner(CompactGraph graph, BitSet filteredGraph, InventoryComponents inventoryComponents, int numInventoryVertices, int[] inventoryOrdinals) {
+        this.graph = graph;
+        this.filteredGraph = filteredGraph;
+        this.inventoryComponents = inventoryComponents;
+        this.numInventoryVertices = numInventoryVertices;
+        this.inventoryOrdinals = inventoryOrdinals;
+    }
+
+    private int getInventoryOrdinal(int v) {
+        return inventoryOrdinals != null ? inventoryOrdinals[v] : v;
+    }
+
+    /**
+     * Prunes the filtered graph in place.
+     *
+     * @return true if any vertices were removed
+     */
+    boolean prune() {
+        final InventoryComponents.UnionFind clusters = new InventoryComponents.UnionFind(graph.getNumVertices());
+
+        // Find the components of the inventory that are completely within the filtered graph
+        final int[] numFilteredByComponent = new int[inventoryComponents.getNumComponents()];
+        final int[] firstFilteredByComponent = new int[inventoryComponents.getNumComponents()];
+        int numFilteredInventoryVertices = 0;
+        for (int v = filteredGraph.nextSetBit(0); v >= 0 && v < numInventoryVertices; v = filteredGraph.nextSetBit(v + 1)) {
+            final int component = inventoryComponents.getComponent(getInventoryOrdinal(v));
+            if (numFilteredByComponent[component]++ == 0) {
+                firstFilteredByComponent[component] = v;
+            }
+            numFilteredInventoryVertices++;
+        }
+
+        // Connect the inventory
+        for (int v = filteredGraph.nextSetBit(0); v >= 0 && v < numInventoryVertices; v = filteredGraph.nextSetBit(v + 1)) {
+            final int component = inventoryComponents.getComponent(getInventoryOrdinal(v));
+            if (numFilteredByComponent[component] == inventoryComponents.getComponentSize(component)) {
+                clusters.union(firstFilteredByComponent[component], v);
+                continue;
+            }
+            for (int i = 0; i < graph.getOutDegree(v); i++) {
+                final int target = graph.getOutTarget(v, i);
+                if (filteredGraph.get(target)) {
+                    clusters.union(v, target);
+                }
+            }
+        }
+
+        // Connect the alarms and situations, and find the inventory with alarms attached
+        final BitSet verticesWithAlarmsAttached = new BitSet(numInventoryVertices);
+        for (int v = filteredGraph.nextSetBit(numInventoryVertices); v >= 0; v = filteredGraph.nextSetBit(v + 1)) {
+            for (int i = 0; i < graph.getOutDegree(v); i++) {
+                final int target = graph.getOutTarget(v, i);
+                if (!filteredGraph.get(target)) {
+                    continue;
+                }
+                clusters.union(v, target);
+                if (target < numInventoryVertices && ResourceKeyDictionary.ALARM_TO_INVENTORY_EDGE_TYPE.equals(graph.getOutEdge(v, i).getType())) {
+                    verticesWithAlarmsAttached.set(target);
+                }
+            }
+        }
+
+        // Group the inventory by cluster, keeping them in order
+        final int[] clustersByRoot = new int[graph.getNumVertices()];
+        Arrays.fill(clustersByRoot, -1);
+        final int[] clustersByVertex = new int[numFilteredInventoryVertices];
+        int[] clusterOffsets = new int[16];
+        boolean[] clusterHasAlarms = new boolean[16];
+        int numClusters = 0;
+        int k = 0;
+        for (int v = filteredGraph.nextSetBit(0); v >= 0 && v < numInventoryVertices; v = filteredGraph.nextSetBit(v + 1)) {
+            final int root = clusters.find(v);
+            if (clustersByRoot[root] < 0) {
+                if (numClusters + 1 == clusterOffsets.length) {
+                    clusterOffsets = Arrays.copyOf(clusterOffsets, clusterOffsets.length * 2);
+                    clusterHasAlarms = Arrays.copyOf(clusterHasAlarms, clusterHasAlarms.length * 2);
+                }
+                clustersByRoot[root] = numClusters++;
+            }
+            final int cluster = clustersByRoot[root];
+            clustersByVertex[k++] = cluster;
+            clusterOffsets[cluster + 1]++;
+            clusterHasAlarms[cluster] |= verticesWithAlarmsAttached.get(v);
+        }
+        for (int c = 0; c < numClusters; c++) {
+            clusterOffsets[c + 1] += clusterOffsets[c];
+        }
+        final int[] next = Arrays.copyOf(clusterOffsets, numClusters);
+        final int[] verticesByCluster = new int[numFilteredInventoryVertices];
+        k = 0;
+        for (int v = filteredGraph.nextSetBit(0); v >= 0 && v < numInventoryVertices; v = filteredGraph.nextSetBit(v + 1)) {
+            verticesByCluster[next[clustersByVertex[k++]]++] = v;
+        }
+
+        // Decide which vertices to remove. Every cluster only reads and writes the flags for its own vertices,
+        // and the filtered graph is left as is until all of the clusters have been decided
+        final boolean[] removedVertices = new boolean[numInventoryVertices];
+        final int[] offsets = clusterOffsets;
+        final boolean[] hasAlarms = clusterHasAlarms;
+        IntStream clusterStream = IntStream.range(0, numClusters);
+        if (numFilteredInventoryVertices >= PARALLEL_THRESHOLD) {
+            clusterStream = clusterStream.parallel();
+        }
+        clusterStream.forEach(c -> pruneCluster(verticesByCluster, offsets[c], offsets[c + 1], hasAlarms[c],
+                verticesWithAlarmsAttached, removedVertices));
+
+        boolean didRemove = false;
+        for (int v = 0; v < numInventoryVertices; v++) {
+            if (removedVertices[v]) {
+                filteredGraph.clear(v);
+                didRemove = true;
+            }
+        }
+        return didRemove;
+    }
+
+    private void pruneCluster(int[] verticesByCluster, int from, int to, boolean hasAlarms,
+                              BitSet verticesWithAlarmsAttached, boolean[] removedVertices) {
+        for (int i = from; i < to; i++) {
+            final int v = verticesByCluster[i];
+            if (!hasAlarms) {
+                // There are no alarms attached to any vertex in this cluster, remove them all
+                removedVertices[v] = true;
+                continue;
+            }
+            // Keep a vertex if it has an alarm attached, or if it is a root element
+            if (verticesWithAlarmsAttached.get(v) || isRoot(v)) {
+                continue;
+            }
+            // Keep a vertex if it has >= 2 edges (to other IOs)
+            if (getNumIncidentEdges(v, removedVertices) >= 2) {
+                continue;
+            }
+            removedVertices[v] = true;
+        }
+    }
+
+    /**
+     * A root has no parents in the filtered graph.
+     */
+    private boolean isRoot(int v) {
+        if (inventoryComponents.isRoot(getInventoryOrdinal(v))) {
+            return true;
+        }
+        for (int i = 0; i < graph.getOutDegree(v); i++) {
+            if (filteredGraph.get(graph.getOutTarget(v, i))
+                    && InventoryComponents.PARENT_EDGE_TYPE.equals(graph.getOutEdge(v, i).getType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts the edges incident to the given vertex in the filtered graph, less the vertices that were removed.
+     * Self-loops are only counted once.
+     */
+    private int getNumIncidentEdges(int v, boolean[] removedVertices) {
+        int numIncidentEdges = 0;
+        for (int i = 0; i < graph.getOutDegree(v); i++) {
+            if (isKept(graph.getOutTarget(v, i), removedVertices)) {
+                numIncidentEdges++;
+            }
+        }
+        for (int i = 0; i < graph.getInDegree(v); i++) {
+            final int source = graph.getInSource(v, i);
+            if (source != v && isKept(source, removedVertices)) {
+                numIncidentEdges++;
+            }
+        }
+        return numIncidentEdges;
+    }
+
+    private boolean isKept(int v, boolean[] removedVertices) {
+        return filteredGraph.get(v) && (v >= numInventoryVertices || !removedVertices[v]);
+    }
+}
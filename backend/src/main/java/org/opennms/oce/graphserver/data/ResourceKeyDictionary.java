@@ -0,0 +1,477 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.InventoryObject;
+import org.opennms.alec.datasource.api.ResourceKey;
+import org.opennms.alec.datasource.api.Situation;
+
+/**
+ * Dictionary of the resource keys in a dataset.
+ *
+ * Every distinct key for an inventory object, alarm or situation is assigned a stable ordinal and
+ * a canonical string, which is used as the id of the corresponding vertex. The keys can be looked up
+ * by their tokens, so no {@link ResourceKey} or strings need to be created when generating a graph.
+ *
+ * Situations in the primary result set use {@link OceGraphGenerator#PRIMARY_SOURCE_NAME} as their source.
+ *
+ * The inventory keys are added first, in the order in which they appear in the inventory,
+ * so their ordinals are in [0, {@link #getNumInventoryKeys()}).
+ *
+ * Keys for alarms and situations that are appended to the dataset are added after the initial keys.
+ * These are kept in concurrent maps, and the key is added to the dictionary before its ordinal is
+ * published, so that readers can always resolve the ordinals they find.
+ *
+ * The ids of the edges from the alarms to their inventory object, and from the situations to their alarms, are
+ * built when the keys are added, and are kept in arrays indexed by key ordinal. There is one per alarm and one per
+ * alarm in a situation, so they grow with the dataset rather than with the graphs that are generated. The edges
+ * between inventory objects are built by the {@link InventoryTopology}.
+ */
+public class ResourceKeyDictionary {
+
+    public static final String ALARM_TYPE = "alarm";
+    public static final String SITUATION_TYPE = "situation";
+    public static final String ALARM_TO_INVENTORY_EDGE_TYPE = "alarm-to-io";
+    public static final String SITUATION_TO_ALARM_EDGE_TYPE = "situation-to-alarm";
+
+    private final Map<String, Map<String, Integer>> ordinalsByTypeAndId;
+    private final Map<String, Map<String, Integer>> situationOrdinalsBySourceAndId;
+    private final Map<String, Integer> appendedAlarmOrdinalsById = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Integer>> appendedSituationOrdinalsBySourceAndId = new ConcurrentHashMap<>();
+    private volatile String[] ids;
+    private volatile int numKeys;
+    private final int numInventoryKeys;
+
+    /**
+     * Both are indexed by key ordinal - {@link #numInventoryKeys}.
+     */
+    private volatile AlarmEdges alarmEdges;
+    private volatile Membership[] memberships;
+
+    private ResourceKeyDictionary(Map<String, Map<String, Integer>> ordinalsByTypeAndId,
+                                  Map<String, Map<String, Integer>> situationOrdinalsBySourceAndId,
+                                  String[] ids, int numInventoryKeys, int[] alarmInventoryOrdinals, int[][] situationAlarmOrdinals) {
+        this.ordinalsByTypeAndId = ordinalsByTypeAndId;
+        this.situationOrdinalsBySourceAndId = situationOrdinalsBySourceAndId;
+        this.ids = ids;
+        this.numKeys = ids.length;
+        this.numInventoryKeys = numInventoryKeys;
+
+        // Build the ids of the edges up front, so that they are shared by every graph
+        final AlarmEdges alarmEdges = new AlarmEdges(ids.length - numInventoryKeys);
+        final Membership[] memberships = new Membership[ids.length - numInventoryKeys];
+        for (int i = 0; i < memberships.length; i++) {
+            final int ordinal = numInventoryKeys + i;
+            if (alarmInventoryOrdinals[i] >= 0) {
+                alarmEdges.edgeIds[i] = buildEdgeId(ALARM_TO_INVENTORY_EDGE_TYPE, ordinal, alarmInventoryOrdinals[i]);
+                alarmEdges.inventoryOrdinals[i] = alarmInventoryOrdinals[i];
+            }
+            if (situationAlarmOrdinals[i] != null) {
+                memberships[i] = buildMembership(ordinal, situationAlarmOrdinals[i]);
+            }
+        }
+        this.alarmEdges = alarmEdges;
+        this.memberships = memberships;
+    }
+
+    /**
+     * Creates a dictionary from the keys of a dictionary that was built by
+     * {@link #build(List, AlarmStore, List)}, i.e. from a snapshot.
+     *
+     * @param firstTokens the type of every key, or its source for the situations
+     * @param secondTokens the id of every key
+     * @param situationKeys the ordinals of the keys that are situations
+     * @param alarmInventoryOrdinals the ordinal of the inventory object of every key starting from numInventoryKeys,
+     *                               or -1 for the keys that are not alarms with an inventory object
+     * @param situationAlarmOrdinals the sorted ordinals of the alarms of every key starting from numInventoryKeys,
+     *                               or null for the keys that are not situations
+     */
+    ResourceKeyDictionary(String[] ids, String[] firstTokens, String[] secondTokens, BitSet situationKeys, int numInventoryKeys,
+                          int[] alarmInventoryOrdinals, int[][] situationAlarmOrdinals) {
+        this(index(firstTokens, secondTokens, situationKeys, false), index(firstTokens, secondTokens, situationKeys, true),
+                ids, numInventoryKeys, alarmInventoryOrdinals, situationAlarmOrdinals);
+    }
+
+    private static Map<String, Map<String, Integer>> index(String[] firstTokens, String[] secondTokens, BitSet situationKeys, boolean situations) {
+        final Map<String, Map<String, Integer>> ordinals = new HashMap<>();
+        for (int i = 0; i < firstTokens.length; i++) {
+            if (situationKeys.get(i) == situations) {
+                ordinals.computeIfAbsent(firstTokens[i], k -> new HashMap<>()).put(secondTokens[i], i);
+            }
+        }
+        return ordinals;
+    }
+
+    public static ResourceKeyDictionary build(List<InventoryObject> inventory, AlarmStore alarmStore, List<SituationResults> situationResults) {
+        final Map<String, Map<String, Integer>> ordinalsByTypeAndId = new HashMap<>();
+        final Map<String, Map<String, Integer>> situationOrdinalsBySourceAndId = new HashMap<>();
+        final List<String> ids = new ArrayList<>(inventory.size() + alarmStore.getNumAlarms());
+        for (InventoryObject io : inventory) {
+            add(ordinalsByTypeAndId, ids, io.getType(), io.getId(), ResourceKey.key(io.getType(), io.getId()));
+        }
+        final int numInventoryKeys = ids.size();
+        for (int i = 0; i < alarmStore.getNumAlarms(); i++) {
+            final String alarmId = alarmStore.getAlarmId(i);
+            add(ordinalsByTypeAndId, ids, ALARM_TYPE, alarmId, ResourceKey.key(ALARM_TYPE, alarmId));
+        }
+        for (SituationResults results : situationResults) {
+            // The situations from the primary result set are always keyed as such, regardless of their source
+            final String source = results.isPrimary() ? OceGraphGenerator.PRIMARY_SOURCE_NAME : results.getSource();
+            for (Situation situation : results.getSituations()) {
+                add(situationOrdinalsBySourceAndId, ids, source, situation.getId(), ResourceKey.key(SITUATION_TYPE, source, situation.getId()));
+            }
+        }
+
+        // The edges follow the inventory object of the last update of every alarm
+        final int[] alarmInventoryOrdinals = new int[ids.size() - numInventoryKeys];
+        Arrays.fill(alarmInventoryOrdinals, -1);
+        final int[] lastUpdates = new int[alarmStore.getNumAlarms()];
+        Arrays.fill(lastUpdates, -1);
+        for (int update = 0; update < alarmStore.getNumUpdates(); update++) {
+            lastUpdates[alarmStore.getAlarmOrdinal(update)] = update;
+        }
+        for (int update : lastUpdates) {
+            if (update >= 0) {
+                final Alarm alarm = alarmStore.getAlarm(update);
+                final int inventoryOrdinal = getOrdinal(ordinalsByTypeAndId, alarm.getInventoryObjectType(), alarm.getInventoryObjectId());
+                if (inventoryOrdinal < numInventoryKeys) {
+                    alarmInventoryOrdinals[getOrdinal(ordinalsByTypeAndId, ALARM_TYPE, alarm.getId()) - numInventoryKeys] = inventoryOrdinal;
+                }
+            }
+        }
+        final int[][] situationAlarmOrdinals = new int[ids.size() - numInventoryKeys][];
+        for (SituationResults results : situationResults) {
+            final String source = results.isPrimary() ? OceGraphGenerator.PRIMARY_SOURCE_NAME : results.getSource();
+            for (Situation situation : results.getSituations()) {
+                final int ordinal = getOrdinal(situationOrdinalsBySourceAndId, source, situation.getId());
+                situationAlarmOrdinals[ordinal - numInventoryKeys] = getAlarmOrdinals(situation,
+                        alarmId -> getOrdinal(ordinalsByTypeAndId, ALARM_TYPE, alarmId));
+            }
+        }
+        return new ResourceKeyDictionary(ordinalsByTypeAndId, situationOrdinalsBySourceAndId, ids.toArray(new String[0]),
+                numInventoryKeys, alarmInventoryOrdinals, situationAlarmOrdinals);
+    }
+
+    private static void add(Map<String, Map<String, Integer>> ordinals, List<String> ids, String first, String second, ResourceKey key) {
+        final Map<String, Integer> ordinalsBySecond = ordinals.computeIfAbsent(first, k -> new HashMap<>());
+        if (!ordinalsBySecond.containsKey(second)) {
+            ordinalsBySecond.put(second, ids.size());
+            ids.add(key.toString());
+        }
+    }
+
+    /**
+     * Adds a key for the given alarm update, if there isn't one already, and points the id of the edge
+     * to its inventory object at the object of the update.
+     *
+     * @return the ordinal of the key
+     */
+    public synchronized int addAlarm(Alarm alarm) {
+        int ordinal = getAlarmOrdinal(alarm.getId());
+        if (ordinal < 0) {
+            ordinal = addId(ResourceKey.key(ALARM_TYPE, alarm.getId()).toString());
+            appendedAlarmOrdinalsById.put(alarm.getId(), ordinal);
+        }
+        setAlarmToInventoryEdge(alarm);
+        return ordinal;
+    }
+
+    /**
+     * Adds a key for the given situation, if there isn't one already, and builds the ids of the edges to its alarms.
+     * The alarms must have been added first.
+     *
+     * @return the ordinal of the key
+     */
+    public synchronized int addSituation(String source, Situation situation) {
+        int ordinal = getSituationOrdinal(source, situation.getId());
+        if (ordinal < 0) {
+            ordinal = addId(ResourceKey.key(SITUATION_TYPE, source, situation.getId()).toString());
+            appendedSituationOrdinalsBySourceAndId.computeIfAbsent(source, k -> new ConcurrentHashMap<>()).put(situation.getId(), ordinal);
+        }
+        setMembership(source, situation);
+        return ordinal;
+    }
+
+    private int addId(String id) {
+        final int ordinal = numKeys;
+        if (ordinal == ids.length) {
+            final int length = Math.max(16, ids.length * 2);
+            alarmEdges = alarmEdges.grow(length - numInventoryKeys);
+            memberships = Arrays.copyOf(memberships, length - numInventoryKeys);
+            ids = Arrays.copyOf(ids, length);
+        }
+        ids[ordinal] = id;
+        numKeys = ordinal + 1;
+        return ordinal;
+    }
+
+    private void setAlarmToInventoryEdge(Alarm alarm) {
+        final int alarmOrdinal = getAlarmOrdinal(alarm.getId());
+        final int inventoryOrdinal = getInventoryOrdinal(alarm.getInventoryObjectType(), alarm.getInventoryObjectId());
+        final int index = alarmOrdinal - numInventoryKeys;
+        final AlarmEdges alarmEdges = this.alarmEdges;
+        if (inventoryOrdinal < 0 || alarmEdges.inventoryOrdinals[index] == inventoryOrdinal) {
+            return;
+        }
+        // The id is set before the ordinal it was built for
+        alarmEdges.edgeIds[index] = buildEdgeId(ALARM_TO_INVENTORY_EDGE_TYPE, alarmOrdinal, inventoryOrdinal);
+        alarmEdges.inventoryOrdinals[index] = inventoryOrdinal;
+    }
+
+    private void setMembership(String source, Situation situation) {
+        final int situationOrdinal = getSituationOrdinal(source, situation.getId());
+        memberships[situationOrdinal - numInventoryKeys] = buildMembership(situationOrdinal, getAlarmOrdinals(situation, this::getAlarmOrdinal));
+    }
+
+    /**
+     * @return the sorted ordinals of the alarms in the given situation that have a key
+     */
+    private static int[] getAlarmOrdinals(Situation situation, ToIntFunction<String> alarmOrdinals) {
+        return situation.getAlarms().stream()
+                .mapToInt(alarm -> alarmOrdinals.applyAsInt(alarm.getId()))
+                .filter(ordinal -> ordinal >= 0)
+                .sorted()
+                .distinct()
+                .toArray();
+    }
+
+    private Membership buildMembership(int situationOrdinal, int[] alarmOrdinals) {
+        final String[] edgeIds = new String[alarmOrdinals.length];
+        for (int i = 0; i < alarmOrdinals.length; i++) {
+            edgeIds[i] = buildEdgeId(SITUATION_TO_ALARM_EDGE_TYPE, situationOrdinal, alarmOrdinals[i]);
+        }
+        return new Membership(alarmOrdinals, edgeIds);
+    }
+
+    /**
+     * @return the ordinal of the key with the given type and id, or -1 if there is no such key
+     */
+    public int getOrdinal(String type, String id) {
+        final int ordinal = getOrdinal(ordinalsByTypeAndId, type, id);
+        if (ordinal < 0 && ALARM_TYPE.equals(type) && id != null) {
+            final Integer appendedOrdinal = appendedAlarmOrdinalsById.get(id);
+            return appendedOrdinal != null ? appendedOrdinal : -1;
+        }
+        return ordinal;
+    }
+
+    /**
+     * @return the ordinal of the inventory object with the given type and id, or -1 if there is no such object
+     */
+    public int getInventoryOrdinal(String type, String id) {
+        final int ordinal = getOrdinal(type, id);
+        return ordinal < numInventoryKeys ? ordinal : -1;
+    }
+
+    /**
+     * @return the sorted ordinals of the inventory objects with the given id, of any type
+     */
+    public int[] getInventoryOrdinals(String id) {
+        return ordinalsByTypeAndId.values().stream()
+                .map(ordinalsById -> ordinalsById.get(id))
+                .filter(ordinal -> ordinal != null && ordinal < numInventoryKeys)
+                .mapToInt(Integer::intValue)
+                .sorted()
+                .toArray();
+    }
+
+    public int getAlarmOrdinal(String alarmId) {
+        return getOrdinal(ALARM_TYPE, alarmId);
+    }
+
+    /**
+     * @return the ordinal of the situation with the given id in the given result set, or -1 if there is no such situation
+     */
+    public int getSituationOrdinal(String source, String situationId) {
+        final int ordinal = getOrdinal(situationOrdinalsBySourceAndId, source, situationId);
+        if (ordinal < 0 && source != null && situationId != null) {
+            return getOrdinal(appendedSituationOrdinalsBySourceAndId, source, situationId);
+        }
+        return ordinal;
+    }
+
+    private static int getOrdinal(Map<String, Map<String, Integer>> ordinals, String first, String second) {
+        final Map<String, Integer> ordinalsBySecond = ordinals.get(first);
+        if (ordinalsBySecond == null) {
+            return -1;
+        }
+        final Integer ordinal = ordinalsBySecond.get(second);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * @return the canonical string for the key with the given ordinal
+     */
+    public String getId(int ordinal) {
+        return ids[ordinal];
+    }
+
+    public int getNumKeys() {
+        return numKeys;
+    }
+
+    public int getNumInventoryKeys() {
+        return numInventoryKeys;
+    }
+
+    /**
+     * Visits the type and id of every key, or the source and id for the situations.
+     */
+    void forEachKey(KeyVisitor visitor) {
+        final int numKeys = this.numKeys;
+        final List<Map<String, Map<String, Integer>>> typeKeys = Arrays.asList(ordinalsByTypeAndId,
+                Collections.singletonMap(ALARM_TYPE, appendedAlarmOrdinalsById));
+        final List<Map<String, Map<String, Integer>>> situationKeys = Arrays.asList(situationOrdinalsBySourceAndId,
+                appendedSituationOrdinalsBySourceAndId);
+        for (List<Map<String, Map<String, Integer>>> keys : Arrays.asList(typeKeys, situationKeys)) {
+            final boolean isSituation = keys == situationKeys;
+            for (Map<String, Map<String, Integer>> ordinals : keys) {
+                ordinals.forEach((first, ordinalsBySecond) -> ordinalsBySecond.forEach((second, ordinal) -> {
+                    if (ordinal < numKeys) {
+                        visitor.visit(ordinal, isSituation, first, second);
+                    }
+                }));
+            }
+        }
+    }
+
+    interface KeyVisitor {
+        void visit(int ordinal, boolean isSituation, String first, String second);
+    }
+
+    /**
+     * @return the ordinal of the inventory object that the edge ids of the alarm with the given key ordinal were built for,
+     * or -1 if there is none
+     */
+    int getAlarmInventoryOrdinal(int alarmOrdinal) {
+        final int[] inventoryOrdinals = alarmEdges.inventoryOrdinals;
+        final int index = alarmOrdinal - numInventoryKeys;
+        return index >= 0 && index < inventoryOrdinals.length ? inventoryOrdinals[index] : -1;
+    }
+
+    /**
+     * @return the sorted ordinals of the alarms of the situation with the given key ordinal, or null if it is not a situation
+     */
+    int[] getSituationAlarmOrdinals(int situationOrdinal) {
+        final Membership[] memberships = this.memberships;
+        final int index = situationOrdinal - numInventoryKeys;
+        return index >= 0 && index < memberships.length && memberships[index] != null ? memberships[index].alarmOrdinals : null;
+    }
+
+    /**
+     * Retrieves the id for the edge from the alarm with the given key ordinal to the given inventory object.
+     *
+     * The id matches the one generated by {@link org.opennms.oce.graphserver.model.Graph.Edge}, but is only
+     * built once and is shared by every graph that contains the edge. It is only built on demand when an
+     * earlier update of the alarm was associated with another inventory object.
+     */
+    public String getAlarmToInventoryEdgeId(int alarmOrdinal, int inventoryOrdinal) {
+        final int index = alarmOrdinal - numInventoryKeys;
+        final AlarmEdges alarmEdges = this.alarmEdges;
+        if (index < alarmEdges.inventoryOrdinals.length && alarmEdges.inventoryOrdinals[index] == inventoryOrdinal) {
+            final String edgeId = alarmEdges.edgeIds[index];
+            if (edgeId != null) {
+                return edgeId;
+            }
+        }
+        return buildEdgeId(ALARM_TO_INVENTORY_EDGE_TYPE, alarmOrdinal, inventoryOrdinal);
+    }
+
+    /**
+     * Retrieves the id for the edge from the situation with the given key ordinal to the alarm with the given key ordinal.
+     *
+     * @see #getAlarmToInventoryEdgeId(int, int)
+     */
+    public String getSituationToAlarmEdgeId(int situationOrdinal, int alarmOrdinal) {
+        final int index = situationOrdinal - numInventoryKeys;
+        final Membership[] memberships = this.memberships;
+        final Membership membership = index < memberships.length ? memberships[index] : null;
+        if (membership != null) {
+            final int position = Arrays.binarySearch(membership.alarmOrdinals, alarmOrdinal);
+            if (position >= 0) {
+                return membership.edgeIds[position];
+            }
+        }
+        // The situation was replaced by one that no longer contains the alarm
+        return buildEdgeId(SITUATION_TO_ALARM_EDGE_TYPE, situationOrdinal, alarmOrdinal);
+    }
+
+    private String buildEdgeId(String type, int sourceOrdinal, int targetOrdinal) {
+        return "edge-" + type + "-" + getId(sourceOrdinal) + "-" + getId(targetOrdinal);
+    }
+
+    /**
+     * The inventory objects of the alarms, and the ids of the edges to them. The ordinal of the inventory object
+     * is -1 for the keys that are not alarms, or for the alarms that are not associated with one.
+     */
+    private static class AlarmEdges {
+        private final int[] inventoryOrdinals;
+        private final String[] edgeIds;
+
+        private AlarmEdges(int length) {
+            this(new int[length], new String[length]);
+            Arrays.fill(inventoryOrdinals, -1);
+        }
+
+        private AlarmEdges(int[] inventoryOrdinals, String[] edgeIds) {
+            this.inventoryOrdinals = inventoryOrdinals;
+            this.edgeIds = edgeIds;
+        }
+
+        private AlarmEdges grow(int length) {
+            final int[] grownInventoryOrdinals = Arrays.copyOf(inventoryOrdinals, length);
+            Arrays.fill(grownInventoryOrdinals, inventoryOrdinals.length, length, -1);
+            return new AlarmEdges(grownInventoryOrdinals, Arrays.copyOf(edgeIds, length));
+        }
+    }
+
+    /**
+     * The alarms of a situation, and the ids of the edges to them.
+     */
+    private static class Membership {
+        private final int[] alarmOrdinals;
+        private final String[] edgeIds;
+
+        private Membership(int[] alarmOrdinals, String[] edgeIds) {
+            this.alarmOrdinals = alarmOrdinals;
+            this.edgeIds = edgeIds;
+        }
+    }
+}
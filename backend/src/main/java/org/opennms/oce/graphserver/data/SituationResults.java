@@ -28,18 +28,46 @@
 
 package org.opennms.oce.graphserver.data;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.opennms.alec.datasource.api.Alarm;
 import org.opennms.alec.datasource.api.Situation;
 
+import com.google.common.primitives.Ints;
+
+/**
+ * A set of situations, indexed by the alarms they contain.
+ *
+ * Situations can be appended once the results are built. Appends are serialized, and readers are never blocked:
+ * every append publishes a new array of situations, and the index entries are replaced rather than modified.
+ * Since the index is shared, a reader may briefly see the memberships of an append against the situations that
+ * preceded it.
+ */
 public class SituationResults {
     private static final String DEFAULT_SOURCE_NAME = "default";
 
     private final String source;
     private final boolean isPrimary;
-    private final Set<Situation> situations;
+    private final Map<String, int[]> situationOrdinalsByAlarmId = new ConcurrentHashMap<>();
+
+    /**
+     * Ordinals are added before the situations are published, and never change afterwards.
+     */
+    private final Map<String, Integer> situationOrdinalsById = new ConcurrentHashMap<>();
+
+    private volatile Snapshot snapshot;
 
     public static Builder builder() {
         return new Builder();
@@ -48,7 +76,36 @@ public class SituationResults {
     public SituationResults(Builder builder) {
         this.source = builder.source;
         this.isPrimary = builder.isPrimary;
-        this.situations = new LinkedHashSet<>(builder.situations);
+        final Set<Situation> situations = new LinkedHashSet<>(builder.situations);
+
+        // Index the situations by the ids of the alarms they contain
+        final Situation[] situationsByOrdinal = situations.toArray(new Situation[0]);
+        final Map<String, List<Integer>> ordinalsByAlarmId = new HashMap<>();
+        for (int i = 0; i < situationsByOrdinal.length; i++) {
+            situationOrdinalsById.put(situationsByOrdinal[i].getId(), i);
+            for (Alarm alarm : situationsByOrdinal[i].getAlarms()) {
+                final List<Integer> ordinals = ordinalsByAlarmId.computeIfAbsent(alarm.getId(), k -> new ArrayList<>(1));
+                if (ordinals.isEmpty() || ordinals.get(ordinals.size() - 1) != i) {
+                    ordinals.add(i);
+                }
+            }
+        }
+        ordinalsByAlarmId.forEach((alarmId, ordinals) -> situationOrdinalsByAlarmId.put(alarmId, Ints.toArray(ordinals)));
+        this.snapshot = new Snapshot(situationsByOrdinal, situations);
+    }
+
+    /**
+     * Creates the results from an index that was built by {@link #SituationResults(Builder)}, i.e. from a snapshot.
+     * The ordinals for every alarm must be sorted.
+     */
+    SituationResults(String source, boolean isPrimary, Situation[] situationsByOrdinal, Map<String, int[]> situationOrdinalsByAlarmId) {
+        this.source = Objects.requireNonNull(source, "source cannot be null");
+        this.isPrimary = isPrimary;
+        for (int i = 0; i < situationsByOrdinal.length; i++) {
+            situationOrdinalsById.put(situationsByOrdinal[i].getId(), i);
+        }
+        this.situationOrdinalsByAlarmId.putAll(situationOrdinalsByAlarmId);
+        this.snapshot = new Snapshot(situationsByOrdinal, null);
     }
 
     public static class Builder {
@@ -82,10 +139,174 @@ public class SituationResults {
     }
 
     public Set<Situation> getSituations() {
-        return situations;
+        return snapshot.getSituations();
+    }
+
+    /**
+     * Appends the given situations. Situations with the same id as an existing situation replace it,
+     * and keep its position.
+     */
+    public synchronized void append(Collection<Situation> situations) {
+        final Situation[] current = snapshot.situationsByOrdinal;
+        final Situation[] situationsByOrdinal = Arrays.copyOf(current, current.length + situations.size());
+        int numSituations = current.length;
+        final Map<String, Set<Integer>> removedOrdinalsByAlarmId = new HashMap<>();
+        for (Situation situation : situations) {
+            Integer ordinal = situationOrdinalsById.get(situation.getId());
+            if (ordinal != null) {
+                final Set<String> alarmIds = new HashSet<>();
+                situation.getAlarms().forEach(a -> alarmIds.add(a.getId()));
+                for (Alarm alarm : situationsByOrdinal[ordinal].getAlarms()) {
+                    if (!alarmIds.contains(alarm.getId())) {
+                        removedOrdinalsByAlarmId.computeIfAbsent(alarm.getId(), k -> new HashSet<>()).add(ordinal);
+                    }
+                }
+            } else {
+                ordinal = numSituations++;
+                situationOrdinalsById.put(situation.getId(), ordinal);
+            }
+            situationsByOrdinal[ordinal] = situation;
+
+            // New memberships are added before the situations are published, readers of the
+            // previous snapshot ignore the ordinals they don't know about
+            final int situationOrdinal = ordinal;
+            for (Alarm alarm : situation.getAlarms()) {
+                situationOrdinalsByAlarmId.compute(alarm.getId(), (alarmId, ordinals) -> {
+                    if (ordinals == null) {
+                        return new int[]{situationOrdinal};
+                    }
+                    return Ints.contains(ordinals, situationOrdinal) ? ordinals : Ints.concat(ordinals, new int[]{situationOrdinal});
+                });
+            }
+        }
+        snapshot = new Snapshot(Arrays.copyOf(situationsByOrdinal, numSituations), null);
+
+        // Stale memberships are removed once the situations that replaced them are published
+        removedOrdinalsByAlarmId.forEach((alarmId, removedOrdinals) -> situationOrdinalsByAlarmId.computeIfPresent(alarmId, (k, ordinals) -> {
+            // The alarm may have been added back by a later situation with the same id
+            final int[] remaining = Arrays.stream(ordinals)
+                    .filter(o -> !removedOrdinals.contains(o) || containsAlarm(situationsByOrdinal[o], alarmId))
+                    .toArray();
+            return remaining.length > 0 ? remaining : null;
+        }));
+    }
+
+    private static boolean containsAlarm(Situation situation, String alarmId) {
+        for (Alarm alarm : situation.getAlarms()) {
+            if (alarm.getId().equals(alarmId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the situations that contain at least one of the given alarms.
+     *
+     * @param alarmIds ids of the alarms
+     * @return the matching situations, in the same order as {@link #getSituations()}
+     */
+    public List<Situation> getSituationsWithAnyAlarm(Collection<String> alarmIds) {
+        final Situation[] situationsByOrdinal = snapshot.situationsByOrdinal;
+        final int[] matchingOrdinals = getSituationOrdinalsWithAnyAlarm(alarmIds, situationsByOrdinal.length);
+        final List<Situation> matchingSituations = new ArrayList<>(matchingOrdinals.length);
+        for (int ordinal : matchingOrdinals) {
+            matchingSituations.add(situationsByOrdinal[ordinal]);
+        }
+        return matchingSituations;
+    }
+
+    /**
+     * Retrieves the ordinals of the situations that contain at least one of the given alarms.
+     * The ordinal of a situation is its position in {@link #getSituations()}, and is kept when the situation is replaced.
+     *
+     * @param alarmIds ids of the alarms
+     * @return the sorted ordinals of the matching situations
+     */
+    public int[] getSituationOrdinalsWithAnyAlarm(Collection<String> alarmIds) {
+        return getSituationOrdinalsWithAnyAlarm(alarmIds, snapshot.situationsByOrdinal.length);
+    }
+
+    private int[] getSituationOrdinalsWithAnyAlarm(Collection<String> alarmIds, int numSituations) {
+        final BitSet matchingOrdinals = new BitSet(numSituations);
+        for (String alarmId : alarmIds) {
+            final int[] ordinals = situationOrdinalsByAlarmId.get(alarmId);
+            if (ordinals == null) {
+                continue;
+            }
+            for (int ordinal : ordinals) {
+                if (ordinal < numSituations) {
+                    matchingOrdinals.set(ordinal);
+                }
+            }
+        }
+        return matchingOrdinals.stream().toArray();
+    }
+
+    /**
+     * Retrieves the ordinals of the situations that contain the given alarm.
+     *
+     * @return the sorted ordinals of the matching situations
+     * @see #getSituationOrdinalsWithAnyAlarm(Collection)
+     */
+    public int[] getSituationOrdinalsWithAlarm(String alarmId) {
+        final int[] ordinals = situationOrdinalsByAlarmId.get(alarmId);
+        if (ordinals == null) {
+            return new int[0];
+        }
+        final int numSituations = snapshot.situationsByOrdinal.length;
+        // The ordinals are only sorted until situations are appended
+        return Arrays.stream(ordinals).filter(o -> o < numSituations).sorted().toArray();
+    }
+
+    /**
+     * @return the ids of the alarms that are, or were, part of a situation
+     */
+    Set<String> getAlarmIds() {
+        return Collections.unmodifiableSet(situationOrdinalsByAlarmId.keySet());
+    }
+
+    int getNumSituations() {
+        return snapshot.situationsByOrdinal.length;
+    }
+
+    public Situation getSituation(int ordinal) {
+        return snapshot.situationsByOrdinal[ordinal];
+    }
+
+    /**
+     * @return the ordinal of the situation with the given id, or -1 if there is no such situation
+     */
+    public int getSituationOrdinal(String situationId) {
+        final Integer ordinal = situationOrdinalsById.get(situationId);
+        // Ignore the situations of an append that has not been published yet
+        return ordinal != null && ordinal < snapshot.situationsByOrdinal.length ? ordinal : -1;
     }
 
     public boolean isPrimary() {
         return isPrimary;
     }
+
+    /**
+     * The situations, as of a given append.
+     */
+    private static class Snapshot {
+        private final Situation[] situationsByOrdinal;
+        private volatile Set<Situation> situations;
+
+        private Snapshot(Situation[] situationsByOrdinal, Set<Situation> situations) {
+            this.situationsByOrdinal = situationsByOrdinal;
+            this.situations = situations != null ? Collections.unmodifiableSet(situations) : null;
+        }
+
+        private Set<Situation> getSituations() {
+            // Only build the set when it's needed, rather than on every append
+            Set<Situation> situations = this.situations;
+            if (situations == null) {
+                situations = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(situationsByOrdinal)));
+                this.situations = situations;
+            }
+            return situations;
+        }
+    }
 }
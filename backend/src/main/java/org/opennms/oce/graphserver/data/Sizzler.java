@@ -28,77 +28,107 @@
 
 package org.opennms.oce.graphserver.data;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
-
-import org.opennms.oce.graphserver.model.Graph;
-
-import com.google.common.collect.Lists;
-
-import edu.uci.ics.jung.graph.DirectedGraph;
-import edu.uci.ics.jung.graph.DirectedSparseGraph;
-import edu.uci.ics.jung.graph.util.EdgeType;
+import java.util.Arrays;
+import java.util.BitSet;
 
 public class Sizzler {
 
-    public DirectedGraph<Graph.Vertex, Graph.Edge> sizzle(DirectedGraph<Graph.Vertex, Graph.Edge> g, List<Graph.Vertex> focalPoints, int szl) {
+    /**
+     * The vertices found by the last sizzle, in the order in which they were found. The vertices at distance d
+     * from the focal points are in [levelOffsets[d], levelOffsets[d + 1]).
+     */
+    private int[] foundVertices = new int[0];
+    private int[] levelOffsets = new int[]{0};
 
-        // Create a new graph
-        final DirectedGraph<Graph.Vertex, Graph.Edge> filteredGraph = new DirectedSparseGraph<>();
-
-        // Start by adding all of the vertices in focus
-        for (Graph.Vertex focalPoint : focalPoints) {
-            filteredGraph.addVertex(focalPoint);
-        }
+    public BitSet sizzle(CompactGraph g, int[] focalPoints, int szl) {
+        return sizzle(g, focalPoints, szl, 0);
+    }
 
-        final List<Graph.Vertex> alreadyProcessedVertices = new ArrayList<>();
+    /**
+     * Finds all of the vertices within szl hops of the focal points.
+     *
+     * When a vertex limit is given, we stop expanding once the highest ranked vertices are known, see
+     * {@link VertexRanking}. More vertices than the limit may still be returned, since the ones that were found
+     * last are not necessarily the ones that rank lowest.
+     *
+     * @param g graph to filter
+     * @param focalPoints ordinals of the vertices in focus
+     * @param szl maximum number of hops from the focal points, edge direction is ignored
+     * @param vertexLimit stop expanding once the highest ranked vertexLimit vertices have been found, or 0 for no limit
+     * @return the ordinals of the vertices in the filtered graph
+     */
+    public BitSet sizzle(CompactGraph g, int[] focalPoints, int szl, int vertexLimit) {
+        final BitSet visitedVertices = new BitSet(g.getNumVertices());
+        final int[] numVerticesByLayer = vertexLimit > 0 ? VertexRanking.countByLayer(g) : null;
+        final int[] numVisitedByLayer = new int[VertexRanking.NUM_LAYERS];
+        int[] order = new int[Math.max(16, focalPoints.length)];
+        int numVisitedVertices = 0;
+        levelOffsets = new int[16];
 
-        // Determine all vertices according to szl
-        final List<Graph.Vertex> verticesToProcess = Lists.newArrayList(focalPoints);
-        for (int i=0; i<szl; i++) {
-            final List<Graph.Vertex> tmpVertices = new ArrayList<>();
-            for (Graph.Vertex eachVertex : verticesToProcess) {
-                final Collection<Graph.Vertex> neighbors = g.getNeighbors(eachVertex);
-                for (Graph.Vertex v : neighbors) {
-                    filteredGraph.addVertex(v);
+        // Start by adding all of the vertices in focus
+        for (int focalPoint : focalPoints) {
+            if (!visitedVertices.get(focalPoint)) {
+                visitedVertices.set(focalPoint);
+                order[numVisitedVertices++] = focalPoint;
+                if (vertexLimit > 0) {
+                    numVisitedByLayer[VertexRanking.getLayer(g.getVertex(focalPoint))]++;
                 }
+            }
+        }
 
-                // Mark for procession
-                for (Graph.Vertex eachNeighbor : neighbors) {
-                    // but only if not already processed or are processing in this iteration
-                    if (!alreadyProcessedVertices.contains(eachNeighbor) && !verticesToProcess.contains(eachNeighbor)) {
-                        tmpVertices.add(eachNeighbor);
+        // Expand outwards one hop at a time, only visiting every vertex once
+        int numLevels = 1;
+        levelOffsets[1] = numVisitedVertices;
+        for (int i = 0; i < szl; i++) {
+            final int frontierStart = levelOffsets[i];
+            final int frontierEnd = levelOffsets[i + 1];
+            if (frontierStart == frontierEnd
+                    || (vertexLimit > 0 && VertexRanking.isLimitFilled(numVisitedByLayer, numVerticesByLayer, vertexLimit))) {
+                break;
+            }
+            for (int f = frontierStart; f < frontierEnd; f++) {
+                final int v = order[f];
+                final int outDegree = g.getOutDegree(v);
+                final int degree = outDegree + g.getInDegree(v);
+                for (int k = 0; k < degree; k++) {
+                    final int neighbor = k < outDegree ? g.getOutTarget(v, k) : g.getInSource(v, k - outDegree);
+                    if (visitedVertices.get(neighbor)) {
+                        continue;
+                    }
+                    visitedVertices.set(neighbor);
+                    if (numVisitedVertices == order.length) {
+                        order = Arrays.copyOf(order, order.length * 2);
+                    }
+                    order[numVisitedVertices++] = neighbor;
+                    if (vertexLimit > 0) {
+                        numVisitedByLayer[VertexRanking.getLayer(g.getVertex(neighbor))]++;
                     }
                 }
             }
-            alreadyProcessedVertices.addAll(verticesToProcess);
-            verticesToProcess.clear();
-            verticesToProcess.addAll(tmpVertices);
+            if (i + 2 == levelOffsets.length) {
+                levelOffsets = Arrays.copyOf(levelOffsets, levelOffsets.length * 2);
+            }
+            levelOffsets[i + 2] = numVisitedVertices;
+            numLevels++;
         }
 
-        // Index the vertices on the filtered graph
-        final Map<String, Graph.Vertex> verticesById = new HashMap<>();
-        for (Graph.Vertex eachVertex : filteredGraph.getVertices()) {
-            verticesById.put(eachVertex.getId(), eachVertex);
-        }
+        foundVertices = order;
+        levelOffsets = Arrays.copyOf(levelOffsets, numLevels + 1);
+        return visitedVertices;
+    }
 
-        // Process the edges
-        for (Graph.Vertex v1 : filteredGraph.getVertices()) {
-            for (Graph.Edge e : g.getOutEdges(v1)) {
-                final Graph.Vertex v2 = verticesById.get(e.getTargetId());
-                if (v2 == null) {
-                    continue;
-                }
-                filteredGraph.addEdge(e, v1, v2, EdgeType.DIRECTED);
+    /**
+     * @return the number of hops from the focal points to every vertex found by the last sizzle, indexed by ordinal,
+     * or -1 for the vertices that were not found
+     */
+    public int[] getDistances(CompactGraph g) {
+        final int[] distances = new int[g.getNumVertices()];
+        Arrays.fill(distances, -1);
+        for (int d = 0; d < levelOffsets.length - 1; d++) {
+            for (int i = levelOffsets[d]; i < levelOffsets[d + 1]; i++) {
+                distances[foundVertices[i]] = d;
             }
         }
-
-        return filteredGraph;
+        return distances;
     }
 }
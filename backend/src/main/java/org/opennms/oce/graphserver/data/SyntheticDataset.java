@@ -0,0 +1,646 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.InventoryObject;
+import org.opennms.alec.datasource.api.InventoryObjectPeerEndpoint;
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.alec.datasource.api.Situation;
+import org.opennms.alec.datasource.common.ImmutableAlarm;
+import org.opennms.alec.datasource.common.ImmutableInventoryObject;
+import org.opennms.alec.datasource.common.ImmutableInventoryObjectPeerRef;
+import org.opennms.alec.datasource.common.ImmutableInventoryObjectRelativeRef;
+import org.opennms.alec.datasource.common.ImmutableSituation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates datasets of a given size for load and scale testing.
+ *
+ * The inventory is a hierarchy of sites, devices, cards and ports. Devices are related to the other devices
+ * in the same site, and the uplink port of every device is peered with a port on another device, most often
+ * in the same site.
+ *
+ * Alarms are raised on random inventory objects at a steady rate, and in storms where many alarms are raised
+ * on a device, its components and its uplink peer within a minute. Some alarms are raised again, and some are cleared.
+ *
+ * The primary situations group the alarms of every storm, and the background alarms that were raised in the
+ * same site within a few minutes of each other. The other result sets are variations of the primary one, where
+ * some of the situations are missing, are missing an alarm or are split in two.
+ *
+ * The same parameters always generate the same dataset. The dataset can either be built in memory, or written
+ * to a directory in the format read by {@link OceDataset#oceDataset(String)}:
+ * <pre>
+ * java -cp server-exec.jar -Dloader.main=org.opennms.oce.graphserver.data.SyntheticDataset \
+ *     org.springframework.boot.loader.PropertiesLauncher /tmp/dataset --inventory-size=100000
+ * </pre>
+ */
+public class SyntheticDataset {
+    private static final Logger LOG = LoggerFactory.getLogger(SyntheticDataset.class);
+
+    public static final long DEFAULT_START_MS = 1546300800000L;
+    public static final String INVENTORY_FILE_NAME = "alec.inventory.xml";
+    public static final String SITUATIONS_FILE_NAME = "alec.situations.xml";
+
+    private static final int DEVICES_PER_SITE = 10;
+    private static final int CARDS_PER_DEVICE = 2;
+    private static final int PORTS_PER_CARD = 4;
+    private static final int OBJECTS_PER_DEVICE = 1 + CARDS_PER_DEVICE * (1 + PORTS_PER_CARD);
+
+    private static final long STORM_WINDOW_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long SITUATION_WINDOW_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final int MAX_BACKGROUND_SITUATION_SIZE = 10;
+    private static final double FLAP_RATIO = 0.2;
+
+    private static final Severity[] SEVERITIES = {Severity.WARNING, Severity.MINOR, Severity.MAJOR, Severity.CRITICAL};
+    private static final Severity[] STORM_SEVERITIES = {Severity.MAJOR, Severity.CRITICAL};
+
+    private final int inventorySize;
+    private final int alarmsPerMinute;
+    private final long startMs;
+    private final long durationMs;
+    private final int stormsPerHour;
+    private final int stormSize;
+    private final double clearRatio;
+    private final int maxSituations;
+    private final int numResultSets;
+    private final long seed;
+
+    private SyntheticDataset(Builder builder) {
+        this.inventorySize = builder.inventorySize;
+        this.alarmsPerMinute = builder.alarmsPerMinute;
+        this.startMs = builder.startMs;
+        this.durationMs = builder.durationMs;
+        this.stormsPerHour = builder.stormsPerHour;
+        this.stormSize = builder.stormSize;
+        this.clearRatio = builder.clearRatio;
+        this.maxSituations = builder.maxSituations;
+        this.numResultSets = builder.numResultSets;
+        this.seed = builder.seed;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int inventorySize = 10000;
+        private int alarmsPerMinute = 10;
+        private long startMs = DEFAULT_START_MS;
+        private long durationMs = TimeUnit.HOURS.toMillis(1);
+        private int stormsPerHour = 6;
+        private int stormSize = 20;
+        private double clearRatio = 0.5;
+        private int maxSituations = Integer.MAX_VALUE;
+        private int numResultSets = 2;
+        private long seed = 42L;
+
+        /**
+         * Approximate number of inventory objects.
+         */
+        public Builder withInventorySize(int inventorySize) {
+            this.inventorySize = inventorySize;
+            return this;
+        }
+
+        /**
+         * Number of alarms raised every minute, outside of the storms.
+         */
+        public Builder withAlarmsPerMinute(int alarmsPerMinute) {
+            this.alarmsPerMinute = alarmsPerMinute;
+            return this;
+        }
+
+        public Builder withStartMs(long startMs) {
+            this.startMs = startMs;
+            return this;
+        }
+
+        public Builder withDurationMs(long durationMs) {
+            this.durationMs = durationMs;
+            return this;
+        }
+
+        public Builder withStormsPerHour(int stormsPerHour) {
+            this.stormsPerHour = stormsPerHour;
+            return this;
+        }
+
+        /**
+         * Number of alarms raised in every storm.
+         */
+        public Builder withStormSize(int stormSize) {
+            this.stormSize = stormSize;
+            return this;
+        }
+
+        /**
+         * Fraction of the alarms that are cleared.
+         */
+        public Builder withClearRatio(double clearRatio) {
+            this.clearRatio = clearRatio;
+            return this;
+        }
+
+        /**
+         * Upper bound on the number of situations in the primary result set. Situations for the storms are kept first.
+         */
+        public Builder withMaxSituations(int maxSituations) {
+            this.maxSituations = maxSituations;
+            return this;
+        }
+
+        /**
+         * Number of situation result sets, including the primary one.
+         */
+        public Builder withNumResultSets(int numResultSets) {
+            this.numResultSets = numResultSets;
+            return this;
+        }
+
+        public Builder withSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public SyntheticDataset build() {
+            if (inventorySize < 0 || alarmsPerMinute < 0 || durationMs <= 0 || stormsPerHour < 0 || stormSize < 0 || maxSituations < 0) {
+                throw new IllegalArgumentException("Sizes must be positive, and the duration must be greater than zero.");
+            }
+            if (clearRatio < 0 || clearRatio > 1) {
+                throw new IllegalArgumentException("The clear ratio must be between 0 and 1, got: " + clearRatio);
+            }
+            if (numResultSets < 1) {
+                throw new IllegalArgumentException("At least one result set is required, got: " + numResultSets);
+            }
+            return new SyntheticDataset(this);
+        }
+    }
+
+    public long getStartMs() {
+        return startMs;
+    }
+
+    public long getEndMs() {
+        return startMs + durationMs;
+    }
+
+    /**
+     * Generates the dataset in memory.
+     */
+    public OceDataset toDataset() {
+        final List<Alarm> alarms = new ArrayList<>();
+        final Generator generator = new Generator();
+        generator.generateAlarms(alarms::addAll);
+        final List<SituationResults> situationResults = new ArrayList<>(numResultSets);
+        for (int i = 0; i < numResultSets; i++) {
+            situationResults.add(SituationResults.builder()
+                    .withSource(getSituationsFileName(i))
+                    .withIsPrimary(i == 0)
+                    .withSituations(generator.generateSituations(i))
+                    .build());
+        }
+        return new OceDataset(alarms, generator.inventory, situationResults);
+    }
+
+    /**
+     * Writes the dataset to the given directory. The alarms are written as they are generated, so only
+     * the inventory and the alarms that are part of situations are held in memory.
+     */
+    public void writeTo(Path directory) throws IOException {
+        final long start = System.currentTimeMillis();
+        Files.createDirectories(directory);
+        final Generator generator = new Generator();
+        try (OceDatasetWriter.ElementWriter<List<Alarm>> writer = OceDatasetWriter.alarmWriter(directory.resolve(OceDataset.ALARMS_FILE_NAME))) {
+            generator.generateAlarms(updates -> {
+                try {
+                    writer.write(updates);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        OceDatasetWriter.writeInventory(directory.resolve(INVENTORY_FILE_NAME), generator.inventory);
+        for (int i = 0; i < numResultSets; i++) {
+            OceDatasetWriter.writeSituations(directory.resolve(getSituationsFileName(i)), generator.generateSituations(i));
+        }
+        LOG.info("Wrote {} inventory objects, {} alarms and {} situation result sets to {} in {}ms.",
+                generator.inventory.size(), generator.numAlarms, numResultSets, directory, System.currentTimeMillis() - start);
+    }
+
+    private static String getSituationsFileName(int resultSet) {
+        return resultSet == 0 ? SITUATIONS_FILE_NAME : "alec.variant" + resultSet + ".situations.xml";
+    }
+
+    /**
+     * Writes a dataset to the directory given as the first argument. The remaining arguments override the defaults.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            printUsage();
+            System.exit(1);
+        }
+        final SyntheticDataset dataset;
+        try {
+            final Builder builder = builder();
+            for (int i = 1; i < args.length; i++) {
+                parseOption(builder, args[i]);
+            }
+            dataset = builder.build();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+        dataset.writeTo(Paths.get(args[0]));
+    }
+
+    private static void parseOption(Builder builder, String option) {
+        final int idx = option.indexOf('=');
+        if (!option.startsWith("--") || idx < 0) {
+            throw new IllegalArgumentException("Invalid option: " + option);
+        }
+        final String name = option.substring(2, idx);
+        final String value = option.substring(idx + 1);
+        try {
+            switch (name) {
+                case "inventory-size":
+                    builder.withInventorySize(Integer.parseInt(value));
+                    break;
+                case "alarms-per-minute":
+                    builder.withAlarmsPerMinute(Integer.parseInt(value));
+                    break;
+                case "start-ms":
+                    builder.withStartMs(Long.parseLong(value));
+                    break;
+                case "duration-minutes":
+                    builder.withDurationMs(TimeUnit.MINUTES.toMillis(Long.parseLong(value)));
+                    break;
+                case "storms-per-hour":
+                    builder.withStormsPerHour(Integer.parseInt(value));
+                    break;
+                case "storm-size":
+                    builder.withStormSize(Integer.parseInt(value));
+                    break;
+                case "clear-ratio":
+                    builder.withClearRatio(Double.parseDouble(value));
+                    break;
+                case "max-situations":
+                    builder.withMaxSituations(Integer.parseInt(value));
+                    break;
+                case "result-sets":
+                    builder.withNumResultSets(Integer.parseInt(value));
+                    break;
+                case "seed":
+                    builder.withSeed(Long.parseLong(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: SyntheticDataset <directory> [--inventory-size=N] [--alarms-per-minute=N] [--start-ms=N]\n"
+                + "    [--duration-minutes=N] [--storms-per-hour=N] [--storm-size=N] [--clear-ratio=F]\n"
+                + "    [--max-situations=N] [--result-sets=N] [--seed=N]");
+    }
+
+    /**
+     * Holds the state for a single run, so that the inventory and the situations line up with the alarms.
+     */
+    private class Generator {
+        private final Random random = new Random(seed);
+        // Every site has a full complement of devices, apart from the last one
+        private final int numDevices = Math.max(2, inventorySize * DEVICES_PER_SITE / (1 + DEVICES_PER_SITE * OBJECTS_PER_DEVICE));
+        private final int numSites = (numDevices + DEVICES_PER_SITE - 1) / DEVICES_PER_SITE;
+        private final List<InventoryObject> inventory = new ArrayList<>(numSites + numDevices * OBJECTS_PER_DEVICE);
+        // Index of the port at the other end of every device's uplink
+        private final int[] uplinkPeers = new int[numDevices];
+
+        private final List<List<Alarm>> stormSituations = new ArrayList<>();
+        private final List<List<Alarm>> backgroundSituations = new ArrayList<>();
+        private final List<Situation> primarySituations = new ArrayList<>();
+        private int numAlarms;
+
+        private Generator() {
+            generateInventory();
+        }
+
+        private void generateInventory() {
+            for (int s = 0; s < numSites; s++) {
+                inventory.add(ImmutableInventoryObject.newBuilder()
+                        .setType("site")
+                        .setId("site" + s)
+                        .setFriendlyName("Site " + s)
+                        .setTopLevel(true)
+                        .build());
+            }
+            for (int d = 0; d < numDevices; d++) {
+                final int site = d / DEVICES_PER_SITE;
+                final String deviceId = "d" + d;
+                final ImmutableInventoryObject.Builder device = ImmutableInventoryObject.newBuilder()
+                        .setType("device")
+                        .setId(deviceId)
+                        .setFriendlyName("device-" + d)
+                        .setParentType("site")
+                        .setParentId("site" + site)
+                        .setWeightToParent(1);
+                // Devices in the same site share the same power and cooling
+                if (d % DEVICES_PER_SITE != 0) {
+                    device.addRelative(ImmutableInventoryObjectRelativeRef.newBuilder()
+                            .setType("device")
+                            .setId("d" + (d - 1))
+                            .setWeight(1)
+                            .build());
+                }
+                inventory.add(device.build());
+
+                for (int c = 0; c < CARDS_PER_DEVICE; c++) {
+                    final String cardId = deviceId + "-c" + c;
+                    inventory.add(ImmutableInventoryObject.newBuilder()
+                            .setType("card")
+                            .setId(cardId)
+                            .setFriendlyName("device-" + d + " card " + c)
+                            .setParentType("device")
+                            .setParentId(deviceId)
+                            .setWeightToParent(1)
+                            .build());
+                    for (int p = 0; p < PORTS_PER_CARD; p++) {
+                        final ImmutableInventoryObject.Builder port = ImmutableInventoryObject.newBuilder()
+                                .setType("port")
+                                .setId(cardId + "-p" + p)
+                                .setFriendlyName("device-" + d + " port " + c + "/" + p)
+                                .setParentType("card")
+                                .setParentId(cardId)
+                                .setWeightToParent(1);
+                        // The first port is the uplink, which is connected to a port on another device
+                        if (c == 0 && p == 0) {
+                            final int peerDevice = getPeerDevice(d);
+                            final int peerPort = random.nextInt(PORTS_PER_CARD);
+                            uplinkPeers[d] = getPortIndex(peerDevice, CARDS_PER_DEVICE - 1, peerPort);
+                            port.addPeer(ImmutableInventoryObjectPeerRef.newBuilder()
+                                    .setType("port")
+                                    .setId("d" + peerDevice + "-c" + (CARDS_PER_DEVICE - 1) + "-p" + peerPort)
+                                    .setEndpoint(InventoryObjectPeerEndpoint.A)
+                                    .setWeight(1)
+                                    .build());
+                        }
+                        inventory.add(port.build());
+                    }
+                }
+            }
+        }
+
+        private int getPeerDevice(int device) {
+            // Most uplinks stay within the site
+            final int site = device / DEVICES_PER_SITE;
+            final int firstDevice = site * DEVICES_PER_SITE;
+            final int devicesInSite = Math.min(DEVICES_PER_SITE, numDevices - firstDevice);
+            if (devicesInSite > 1 && random.nextInt(10) < 8) {
+                return firstDevice + (device - firstDevice + 1 + random.nextInt(devicesInSite - 1)) % devicesInSite;
+            }
+            return (device + 1 + random.nextInt(numDevices - 1)) % numDevices;
+        }
+
+        private int getDeviceIndex(int device) {
+            return numSites + device * OBJECTS_PER_DEVICE;
+        }
+
+        private int getDevice(int index) {
+            return (index - numSites) / OBJECTS_PER_DEVICE;
+        }
+
+        private int getPortIndex(int device, int card, int port) {
+            return getDeviceIndex(device) + 1 + card * (1 + PORTS_PER_CARD) + 1 + port;
+        }
+
+        /**
+         * Generates the alarms, and invokes the consumer with all of the updates for every alarm.
+         */
+        private void generateAlarms(Consumer<List<Alarm>> consumer) {
+            final int numBackgroundAlarms = (int) (alarmsPerMinute * durationMs / TimeUnit.MINUTES.toMillis(1));
+            final long slotMs = numBackgroundAlarms > 0 ? Math.max(1, durationMs / numBackgroundAlarms) : 1;
+            final List<Alarm>[] openGroupsBySite = newListArray(numSites);
+            for (int i = 0; i < numBackgroundAlarms; i++) {
+                final int index = numSites + random.nextInt(inventory.size() - numSites);
+                final InventoryObject io = inventory.get(index);
+                final long raisedAt = startMs + (durationMs * i) / numBackgroundAlarms + (long) (random.nextDouble() * slotMs);
+                final Severity severity = SEVERITIES[random.nextInt(SEVERITIES.length)];
+                final long clearedAt = random.nextDouble() < clearRatio ? raisedAt + 1 + random.nextInt((int) TimeUnit.MINUTES.toMillis(30)) : -1;
+                final Alarm alarm = generateAlarm(io, raisedAt, severity, clearedAt, consumer);
+
+                // Group the alarms raised in the same site around the same time
+                final int site = getDevice(index) / DEVICES_PER_SITE;
+                List<Alarm> group = openGroupsBySite[site];
+                if (group != null && (raisedAt - group.get(group.size() - 1).getTime() > SITUATION_WINDOW_MS
+                        || group.size() >= MAX_BACKGROUND_SITUATION_SIZE)) {
+                    closeGroup(group);
+                    group = null;
+                }
+                if (group == null) {
+                    group = new ArrayList<>();
+                    openGroupsBySite[site] = group;
+                }
+                group.add(alarm);
+            }
+            for (List<Alarm> group : openGroupsBySite) {
+                if (group != null) {
+                    closeGroup(group);
+                }
+            }
+
+            final int numStorms = (int) (stormsPerHour * durationMs / TimeUnit.HOURS.toMillis(1));
+            for (int i = 0; i < numStorms; i++) {
+                generateStorm(consumer);
+            }
+        }
+
+        private void closeGroup(List<Alarm> group) {
+            if (group.size() > 1) {
+                backgroundSituations.add(group);
+            }
+        }
+
+        /**
+         * Raises alarms on a device, its components and the remote end of its uplink, and clears most of
+         * them once the fault is resolved.
+         */
+        private void generateStorm(Consumer<List<Alarm>> consumer) {
+            final int device = random.nextInt(numDevices);
+            final List<InventoryObject> targets = new ArrayList<>(inventory.subList(getDeviceIndex(device), getDeviceIndex(device) + OBJECTS_PER_DEVICE));
+            targets.add(inventory.get(uplinkPeers[device]));
+
+            final long stormStart = startMs + (long) (random.nextDouble() * Math.max(1, durationMs - STORM_WINDOW_MS));
+            final long resolvedAt = stormStart + STORM_WINDOW_MS + random.nextInt((int) TimeUnit.MINUTES.toMillis(30));
+            final List<Alarm> stormAlarms = new ArrayList<>(stormSize);
+            for (int i = 0; i < stormSize; i++) {
+                final InventoryObject io = targets.get(random.nextInt(targets.size()));
+                final long raisedAt = stormStart + random.nextInt((int) STORM_WINDOW_MS);
+                final Severity severity = STORM_SEVERITIES[random.nextInt(STORM_SEVERITIES.length)];
+                final long clearedAt = random.nextDouble() < clearRatio ? resolvedAt + random.nextInt((int) TimeUnit.MINUTES.toMillis(1)) : -1;
+                stormAlarms.add(generateAlarm(io, raisedAt, severity, clearedAt, consumer));
+            }
+            if (stormAlarms.size() > 1) {
+                stormSituations.add(stormAlarms);
+            }
+        }
+
+        /**
+         * Generates the updates for a single alarm: it is raised, possibly raised again a few times, and then
+         * optionally cleared.
+         *
+         * @param clearedAt time at which the alarm is cleared, or -1 if it remains active
+         * @return the first update
+         */
+        private Alarm generateAlarm(InventoryObject io, long raisedAt, Severity severity, long clearedAt, Consumer<List<Alarm>> consumer) {
+            final String id = "a" + numAlarms++;
+            final List<Alarm> updates = new ArrayList<>(2);
+            updates.add(alarm(id, raisedAt, severity, io));
+            if (random.nextDouble() < FLAP_RATIO) {
+                final long lastRaisedAt = clearedAt > raisedAt ? clearedAt - 1 : raisedAt + TimeUnit.MINUTES.toMillis(10);
+                final int numReraises = 1 + random.nextInt(3);
+                long time = raisedAt;
+                for (int i = 0; i < numReraises && time < lastRaisedAt; i++) {
+                    time += 1 + (long) (random.nextDouble() * (lastRaisedAt - time));
+                    updates.add(alarm(id, time, severity, io));
+                }
+            }
+            if (clearedAt >= 0) {
+                updates.add(alarm(id, Math.max(clearedAt, updates.get(updates.size() - 1).getTime() + 1), Severity.CLEARED, io));
+            }
+            consumer.accept(updates);
+            return updates.get(0);
+        }
+
+        private Alarm alarm(String id, long time, Severity severity, InventoryObject io) {
+            return ImmutableAlarm.newBuilder()
+                    .setId(id)
+                    .setTime(time)
+                    .setSeverity(severity)
+                    .setInventoryObjectType(io.getType())
+                    .setInventoryObjectId(io.getId())
+                    .setSummary(getSummary(io) + " on " + io.getFriendlyName())
+                    .setDescription("Synthetic alarm")
+                    .build();
+        }
+
+        private String getSummary(InventoryObject io) {
+            switch (io.getType()) {
+                case "device":
+                    return "Device unreachable";
+                case "card":
+                    return "Card out of service";
+                default:
+                    return "Interface down";
+            }
+        }
+
+        /**
+         * Generates the situations for the given result set. The alarms must be generated first.
+         */
+        private Set<Situation> generateSituations(int resultSet) {
+            if (resultSet == 0) {
+                return new LinkedHashSet<>(getPrimarySituations());
+            }
+
+            // Vary the primary situations
+            final Random variantRandom = new Random(seed + resultSet);
+            final Set<Situation> situations = new LinkedHashSet<>();
+            for (Situation situation : getPrimarySituations()) {
+                final List<Alarm> alarms = new ArrayList<>(situation.getAlarms());
+                final double variation = variantRandom.nextDouble();
+                if (variation < 0.1) {
+                    continue;
+                } else if (variation < 0.3 && alarms.size() > 2) {
+                    alarms.remove(variantRandom.nextInt(alarms.size()));
+                } else if (variation < 0.4 && alarms.size() > 3) {
+                    Collections.shuffle(alarms, variantRandom);
+                    final int split = alarms.size() / 2;
+                    situations.add(situation(situation.getId() + "-1", alarms.subList(0, split)));
+                    situations.add(situation(situation.getId() + "-2", alarms.subList(split, alarms.size())));
+                    continue;
+                }
+                situations.add(situation(situation.getId(), alarms));
+            }
+            return situations;
+        }
+
+        private List<Situation> getPrimarySituations() {
+            if (primarySituations.isEmpty()) {
+                final List<List<Alarm>> groups = new ArrayList<>(stormSituations);
+                groups.addAll(backgroundSituations);
+                for (List<Alarm> group : groups.subList(0, Math.min(maxSituations, groups.size()))) {
+                    primarySituations.add(situation("s" + primarySituations.size(), group));
+                }
+            }
+            return primarySituations;
+        }
+
+        private Situation situation(String id, List<Alarm> alarms) {
+            // The situation is created once the second alarm is raised
+            final List<Alarm> sortedAlarms = new ArrayList<>(alarms);
+            sortedAlarms.sort(Comparator.comparingLong(Alarm::getTime));
+            final ImmutableSituation.Builder situation = ImmutableSituation.newBuilder()
+                    .setId(id)
+                    .setCreationTime(sortedAlarms.get(Math.min(1, sortedAlarms.size() - 1)).getTime())
+                    .setSeverity(alarms.stream().map(Alarm::getSeverity).max(Comparator.comparingInt(Severity::getValue)).orElse(Severity.MAJOR))
+                    .setDiagnosticText("Synthetic situation");
+            sortedAlarms.forEach(situation::addAlarm);
+            return situation.build();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Alarm>[] newListArray(int size) {
+        return (List<Alarm>[]) new List[size];
+    }
+}
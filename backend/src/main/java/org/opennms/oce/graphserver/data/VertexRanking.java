@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.oce.graphserver.model.Graph;
+
+/**
+ * Ranks the vertices of a graph, to decide which ones to keep when there are more than the vertex limit.
+ *
+ * Situations rank above alarms, and alarms rank above the inventory. Within a layer, the vertices closest to the
+ * focal points rank highest, followed by the most severe and then the most recently created or updated.
+ * Any remaining ties are broken by ordinal, so the same vertices are always kept.
+ */
+class VertexRanking {
+
+    static final int SITUATIONS_LAYER = 0;
+    static final int ALARMS_LAYER = 1;
+    static final int OTHER_LAYER = 2;
+    static final int NUM_LAYERS = 3;
+
+    private static final int MAX_SEVERITY = Arrays.stream(Severity.values()).mapToInt(Severity::getValue).max().orElse(0);
+
+    private VertexRanking() {}
+
+    static int getLayer(Graph.Vertex vertex) {
+        if (OceGraphGenerator.SITUATIONS_LAYER_ID.equals(vertex.getLayerId())) {
+            return SITUATIONS_LAYER;
+        } else if (OceGraphGenerator.ALARMS_LAYER_ID.equals(vertex.getLayerId())) {
+            return ALARMS_LAYER;
+        }
+        return OTHER_LAYER;
+    }
+
+    private static int getSeverity(Graph.Vertex vertex) {
+        final String severity = vertex.getAttributes().get(OceGraphGenerator.SEVERITY_ATTRIBUTE);
+        if (severity == null) {
+            return 0;
+        }
+        try {
+            return Severity.valueOf(severity.toUpperCase()).getValue();
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    private static long getTime(Graph.Vertex vertex) {
+        String time = vertex.getAttributes().get(OceGraphGenerator.UPDATED_MS);
+        if (time == null) {
+            time = vertex.getAttributes().get(OceGraphGenerator.CREATED_MS);
+        }
+        return time != null ? Long.parseLong(time) : 0L;
+    }
+
+    /**
+     * Counts the vertices in each of the layers.
+     */
+    static int[] countByLayer(CompactGraph graph) {
+        final int[] numVerticesByLayer = new int[NUM_LAYERS];
+        for (int v = 0; v < graph.getNumVertices(); v++) {
+            numVerticesByLayer[getLayer(graph.getVertex(v))]++;
+        }
+        return numVerticesByLayer;
+    }
+
+    /**
+     * Determines whether the highest ranked vertices are already known, once every vertex up to some distance
+     * from the focal points has been found. Any vertex that is found afterwards is further away, so it can only
+     * outrank the vertices found so far if it is in a higher layer that still has vertices left to find.
+     *
+     * @param numFoundByLayer number of vertices found so far in each layer
+     * @param numByLayer number of vertices in each layer of the graph
+     * @param vertexLimit maximum number of vertices to keep
+     */
+    static boolean isLimitFilled(int[] numFoundByLayer, int[] numByLayer, int vertexLimit) {
+        int numFound = 0;
+        for (int layer = 0; layer < NUM_LAYERS; layer++) {
+            numFound += numFoundByLayer[layer];
+            if (numFound >= vertexLimit) {
+                return true;
+            }
+            if (numFoundByLayer[layer] < numByLayer[layer]) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all but the highest ranked vertexLimit vertices from the given sub-graph.
+     *
+     * @param graph the graph
+     * @param subgraph the vertices to choose from, updated in place
+     * @param distances the number of hops from the focal points to each of the vertices in the sub-graph
+     * @param vertexLimit maximum number of vertices to keep
+     */
+    static void truncate(CompactGraph graph, BitSet subgraph, int[] distances, int vertexLimit) {
+        final int numVertices = subgraph.cardinality();
+        if (numVertices <= vertexLimit) {
+            return;
+        }
+
+        // The layers, distances and severities only take a few distinct values, so we bucket the vertices by these
+        // and only need to sort the vertices in the bucket that straddles the limit
+        int maxDistance = 0;
+        for (int v = subgraph.nextSetBit(0); v >= 0; v = subgraph.nextSetBit(v + 1)) {
+            maxDistance = Math.max(maxDistance, distances[v]);
+        }
+        final int numSeverities = MAX_SEVERITY + 1;
+        final int[] counts = new int[NUM_LAYERS * (maxDistance + 1) * numSeverities];
+        final int[] buckets = new int[numVertices];
+        int k = 0;
+        for (int v = subgraph.nextSetBit(0); v >= 0; v = subgraph.nextSetBit(v + 1)) {
+            final Graph.Vertex vertex = graph.getVertex(v);
+            final int bucket = (getLayer(vertex) * (maxDistance + 1) + distances[v]) * numSeverities + MAX_SEVERITY - getSeverity(vertex);
+            buckets[k++] = bucket;
+            counts[bucket]++;
+        }
+
+        // Find the bucket with the last vertex that we can keep
+        int lastBucket = 0;
+        int numKeptBeforeLastBucket = 0;
+        while (numKeptBeforeLastBucket + counts[lastBucket] < vertexLimit) {
+            numKeptBeforeLastBucket += counts[lastBucket];
+            lastBucket++;
+        }
+
+        // Keep the most recent vertices from the last bucket, the sort is stable so ties are kept by ordinal
+        final int[] lastBucketVertices = new int[counts[lastBucket]];
+        final long[] times = new long[lastBucketVertices.length];
+        int numInLastBucket = 0;
+        k = 0;
+        for (int v = subgraph.nextSetBit(0); v >= 0; v = subgraph.nextSetBit(v + 1)) {
+            final int bucket = buckets[k++];
+            if (bucket > lastBucket) {
+                subgraph.clear(v);
+            } else if (bucket == lastBucket) {
+                times[numInLastBucket] = getTime(graph.getVertex(v));
+                lastBucketVertices[numInLastBucket++] = v;
+            }
+        }
+        final Integer[] byRecency = new Integer[lastBucketVertices.length];
+        for (int i = 0; i < byRecency.length; i++) {
+            byRecency[i] = i;
+        }
+        Arrays.sort(byRecency, (a, b) -> Long.compare(times[b], times[a]));
+        for (int i = vertexLimit - numKeptBeforeLastBucket; i < byRecency.length; i++) {
+            subgraph.clear(lastBucketVertices[byRecency[i]]);
+        }
+    }
+}
@@ -37,9 +37,11 @@ import java.util.Objects;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 
+@JsonSerialize(using = GraphJsonSerializer.class)
 public class Graph {
 
     private final GraphMetadata graphMetadata;
@@ -48,15 +50,43 @@ public class Graph {
     private final List<Layer> layers;
 
     public Graph(GraphMetadata graphMetadata, Collection<Vertex> vertices, Collection<Edge> edges, Collection<Layer> layers) {
+        this(graphMetadata, Lists.newArrayList(Objects.requireNonNull(vertices)), Lists.newArrayList(Objects.requireNonNull(edges)),
+                Lists.newArrayList(Objects.requireNonNull(layers)));
+    }
+
+    private Graph(GraphMetadata graphMetadata, List<Vertex> vertices, List<Edge> edges, List<Layer> layers) {
         this.graphMetadata = Objects.requireNonNull(graphMetadata);
-        this.vertices = Lists.newArrayList(Objects.requireNonNull(vertices));
+        this.vertices = vertices;
         this.vertices.sort(Comparator.comparing(Vertex::getId));
-        this.edges = Lists.newArrayList(Objects.requireNonNull(edges));
+        this.edges = edges;
         this.edges.sort(Comparator.comparing(Edge::getId));
-        this.layers = Lists.newArrayList(Objects.requireNonNull(layers));
+        this.layers = layers;
         this.layers.sort(Comparator.comparing(Layer::getId));
     }
 
+    /**
+     * Creates a graph that takes ownership of the given lists instead of copying them.
+     * The lists are sorted in place and must not be modified afterwards.
+     */
+    public static Graph wrap(GraphMetadata graphMetadata, List<Vertex> vertices, List<Edge> edges, List<Layer> layers) {
+        return new Graph(graphMetadata, Objects.requireNonNull(vertices), Objects.requireNonNull(edges), Objects.requireNonNull(layers));
+    }
+
+    /**
+     * Creates a graph with the same vertices, edges and layers, which are shared rather than copied,
+     * but with the given metadata.
+     */
+    public Graph withGraphMetadata(GraphMetadata graphMetadata) {
+        return new Graph(graphMetadata, this);
+    }
+
+    private Graph(GraphMetadata graphMetadata, Graph graph) {
+        this.graphMetadata = Objects.requireNonNull(graphMetadata);
+        this.vertices = graph.vertices;
+        this.edges = graph.edges;
+        this.layers = graph.layers;
+    }
+
     @JsonIgnore
     public GraphMetadata getGraphMetadata() {
         return graphMetadata;
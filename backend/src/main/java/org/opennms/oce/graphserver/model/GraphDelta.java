@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The changes required to go from one graph to another.
+ *
+ * Vertices and edges are matched by id. A vertex is considered to have changed when its label,
+ * type, layer or attributes differ. Edge ids are derived from their endpoints and type, so
+ * edges are only ever added or removed.
+ */
+public class GraphDelta {
+
+    private final long fromTimestampInMillis;
+    private final long toTimestampInMillis;
+    private final List<Graph.Vertex> addedVertices;
+    private final List<String> removedVertexIds;
+    private final List<Graph.Vertex> changedVertices;
+    private final List<Graph.Edge> addedEdges;
+    private final List<String> removedEdgeIds;
+
+    private GraphDelta(long fromTimestampInMillis, long toTimestampInMillis, List<Graph.Vertex> addedVertices,
+                       List<String> removedVertexIds, List<Graph.Vertex> changedVertices,
+                       List<Graph.Edge> addedEdges, List<String> removedEdgeIds) {
+        this.fromTimestampInMillis = fromTimestampInMillis;
+        this.toTimestampInMillis = toTimestampInMillis;
+        this.addedVertices = Objects.requireNonNull(addedVertices);
+        this.removedVertexIds = Objects.requireNonNull(removedVertexIds);
+        this.changedVertices = Objects.requireNonNull(changedVertices);
+        this.addedEdges = Objects.requireNonNull(addedEdges);
+        this.removedEdgeIds = Objects.requireNonNull(removedEdgeIds);
+    }
+
+    /**
+     * @return a delta with no changes
+     */
+    public static GraphDelta empty(long fromTimestampInMillis, long toTimestampInMillis) {
+        return new GraphDelta(fromTimestampInMillis, toTimestampInMillis, Collections.emptyList(), Collections.emptyList(),
+                Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Computes the changes required to go from one graph to the other.
+     */
+    public static GraphDelta between(long fromTimestampInMillis, Graph from, long toTimestampInMillis, Graph to) {
+        final Map<String, Graph.Vertex> fromVerticesById = from.getVertices().stream()
+                .collect(Collectors.toMap(Graph.Vertex::getId, Function.identity(), (a, b) -> a));
+        final Map<String, Graph.Vertex> toVerticesById = to.getVertices().stream()
+                .collect(Collectors.toMap(Graph.Vertex::getId, Function.identity(), (a, b) -> a));
+
+        final List<Graph.Vertex> addedVertices = new ArrayList<>();
+        final List<Graph.Vertex> changedVertices = new ArrayList<>();
+        for (Graph.Vertex vertex : to.getVertices()) {
+            final Graph.Vertex previousVertex = fromVerticesById.get(vertex.getId());
+            if (previousVertex == null) {
+                addedVertices.add(vertex);
+            } else if (!previousVertex.equals(vertex) || !previousVertex.getAttributes().equals(vertex.getAttributes())) {
+                changedVertices.add(vertex);
+            }
+        }
+        final List<String> removedVertexIds = from.getVertices().stream()
+                .map(Graph.Vertex::getId)
+                .filter(vertexId -> !toVerticesById.containsKey(vertexId))
+                .collect(Collectors.toList());
+
+        final Map<String, Graph.Edge> fromEdgesById = from.getEdges().stream()
+                .collect(Collectors.toMap(Graph.Edge::getId, Function.identity(), (a, b) -> a));
+        final Map<String, Graph.Edge> toEdgesById = to.getEdges().stream()
+                .collect(Collectors.toMap(Graph.Edge::getId, Function.identity(), (a, b) -> a));
+        final List<Graph.Edge> addedEdges = to.getEdges().stream()
+                .filter(edge -> !fromEdgesById.containsKey(edge.getId()))
+                .collect(Collectors.toList());
+        final List<String> removedEdgeIds = from.getEdges().stream()
+                .map(Graph.Edge::getId)
+                .filter(edgeId -> !toEdgesById.containsKey(edgeId))
+                .collect(Collectors.toList());
+
+        return new GraphDelta(fromTimestampInMillis, toTimestampInMillis, addedVertices, removedVertexIds,
+                changedVertices, addedEdges, removedEdgeIds);
+    }
+
+    @JsonProperty("from")
+    public long getFromTimestampInMillis() {
+        return fromTimestampInMillis;
+    }
+
+    @JsonProperty("to")
+    public long getToTimestampInMillis() {
+        return toTimestampInMillis;
+    }
+
+    @JsonProperty("added_vertices")
+    public List<Graph.Vertex> getAddedVertices() {
+        return addedVertices;
+    }
+
+    @JsonProperty("removed_vertex_ids")
+    public List<String> getRemovedVertexIds() {
+        return removedVertexIds;
+    }
+
+    @JsonProperty("changed_vertices")
+    public List<Graph.Vertex> getChangedVertices() {
+        return changedVertices;
+    }
+
+    @JsonProperty("added_edges")
+    public List<Graph.Edge> getAddedEdges() {
+        return addedEdges;
+    }
+
+    @JsonProperty("removed_edge_ids")
+    public List<String> getRemovedEdgeIds() {
+        return removedEdgeIds;
+    }
+
+    @JsonIgnore
+    public boolean isEmpty() {
+        return addedVertices.isEmpty() && removedVertexIds.isEmpty() && changedVertices.isEmpty()
+                && addedEdges.isEmpty() && removedEdgeIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "GraphDelta{" +
+                "fromTimestampInMillis=" + fromTimestampInMillis +
+                ", toTimestampInMillis=" + toTimestampInMillis +
+                ", addedVertices=" + addedVertices +
+                ", removedVertexIds=" + removedVertexIds +
+                ", changedVertices=" + changedVertices +
+                ", addedEdges=" + addedEdges +
+                ", removedEdgeIds=" + removedEdgeIds +
+                '}';
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.model;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Writes a {@link Graph} directly to the generator, one vertex and edge at a time.
+ *
+ * Large graphs are written straight to the response stream without going through Jackson's
+ * reflection based bean serializers. The output is the same as the one produced by the default
+ * serializers, and the vertices, edges and layers are written in the (sorted) order in which they
+ * are stored in the graph.
+ *
+ * The time taken is recorded in the global meter registry. Since the output is usually streamed to
+ * the client, this includes the time spent waiting on the client.
+ */
+public class GraphJsonSerializer extends StdSerializer<Graph> {
+
+    public static final String SERIALIZE_TIMER_NAME = "graph.serialize";
+
+    private static final Timer SERIALIZE_TIMER = Timer.builder(SERIALIZE_TIMER_NAME)
+            .description("Time taken to write a graph as JSON")
+            .register(Metrics.globalRegistry);
+
+    public GraphJsonSerializer() {
+        super(Graph.class);
+    }
+
+    @Override
+    public void serialize(Graph graph, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        final long startNanos = System.nanoTime();
+        try {
+            writeGraph(graph, gen);
+        } finally {
+            SERIALIZE_TIMER.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static void writeGraph(Graph graph, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+
+        gen.writeArrayFieldStart("vertices");
+        for (Graph.Vertex vertex : graph.getVertices()) {
+            writeVertex(vertex, gen);
+        }
+        gen.writeEndArray();
+
+        gen.writeArrayFieldStart("edges");
+        for (Graph.Edge edge : graph.getEdges()) {
+            writeEdge(edge, gen);
+        }
+        gen.writeEndArray();
+
+        gen.writeArrayFieldStart("layers");
+        for (Graph.Layer layer : graph.getLayers()) {
+            writeLayer(layer, gen);
+        }
+        gen.writeEndArray();
+
+        gen.writeEndObject();
+    }
+
+    private static void writeVertex(Graph.Vertex vertex, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("id", vertex.getId());
+        gen.writeStringField("label", vertex.getLabel());
+        gen.writeStringField("type", vertex.getType());
+        gen.writeObjectFieldStart("attributes");
+        for (Map.Entry<String, String> attribute : vertex.getAttributes().entrySet()) {
+            gen.writeStringField(attribute.getKey(), attribute.getValue());
+        }
+        gen.writeEndObject();
+        gen.writeStringField("layer_id", vertex.getLayerId());
+        gen.writeEndObject();
+    }
+
+    private static void writeEdge(Graph.Edge edge, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("id", edge.getId());
+        gen.writeStringField("label", edge.getLabel());
+        gen.writeStringField("type", edge.getType());
+        gen.writeStringField("source_id", edge.getSourceId());
+        gen.writeStringField("target_id", edge.getTargetId());
+        gen.writeEndObject();
+    }
+
+    private static void writeLayer(Graph.Layer layer, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("id", layer.getId());
+        gen.writeStringField("label", layer.getLabel());
+        gen.writeStringField("description", layer.getDescription());
+        gen.writeNumberField("order", layer.getOrder());
+        gen.writeEndObject();
+    }
+}
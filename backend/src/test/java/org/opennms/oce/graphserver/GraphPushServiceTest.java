@@ -0,0 +1,92 @@
+package org.opennms.oce.graphserver;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.oce.graphserver.model.GraphMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+@ContextConfiguration(initializers = SampleDatasets.TemporaryDatasetPath.class)
+public class GraphPushServiceTest {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private GraphService graphService;
+
+	@Autowired
+	private GraphPushService graphPushService;
+
+	@Value("${oce.dataset.path}")
+	private Path datasetPath;
+
+	@Test
+	public void canStreamGraph() throws Exception {
+		final GraphMetadata metadata = graphService.getAvailableGraphs().get(0);
+		final long time = metadata.getTimeMetadata().getEndMs();
+		final int numSubscribersBefore = graphPushService.getNumSubscribers();
+
+		// Two clients with the same view
+		final MvcResult r1 = mockMvc.perform(get("/{id}/stream", metadata.getId()).param("time", Long.toString(time)))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		final MvcResult r2 = mockMvc.perform(get("/{id}/stream", metadata.getId()).param("time", Long.toString(time)))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		assertThat(graphPushService.getNumSubscribers(), equalTo(numSubscribersBefore + 2));
+
+		// Both should have received the complete graph
+		assertThat(r1.getResponse().getContentAsString(), containsString("event:graph"));
+		assertThat(r2.getResponse().getContentAsString(), equalTo(r1.getResponse().getContentAsString()));
+
+		// Nothing changes at a fixed point in time
+		graphPushService.pushUpdates();
+		assertThat(r1.getResponse().getContentAsString(), equalTo(r2.getResponse().getContentAsString()));
+		assertThat(r1.getResponse().getContentAsString().contains("event:delta"), equalTo(false));
+	}
+
+	@Test
+	@DirtiesContext
+	public void canCloseSubscribersWhenTheDatasetIsRemoved() throws Exception {
+		final Path directory = SampleDatasets.copyTo(datasetPath.resolve("customer1"));
+
+		final int numSubscribersBefore = graphPushService.getNumSubscribers();
+		final long defaultGeneration = graphService.getGeneration(graphService.getAvailableGraphs().get(0).getId());
+
+		final long time = graphService.getGraphMetadata("customer1").getTimeMetadata().getEndMs();
+		final MvcResult r = mockMvc.perform(get("/{id}/stream", "customer1").param("time", Long.toString(time)))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		assertThat(r.getResponse().getContentAsString(), containsString("event:graph"));
+		assertThat(graphPushService.getNumSubscribers(), equalTo(numSubscribersBefore + 1));
+
+		// Loading another dataset leaves the generation of the default one as-is
+		assertThat(graphService.getGeneration(graphService.getAvailableGraphs().get(0).getId()), equalTo(defaultGeneration));
+
+		// Once the dataset is gone, the subscriber is dropped instead of failing on every tick
+		Files.delete(directory.resolve("alec.alarms.xml"));
+		graphPushService.pushUpdates();
+		assertThat(graphPushService.getNumSubscribers(), equalTo(numSubscribersBefore));
+	}
+
+}
@@ -0,0 +1,53 @@
+package org.opennms.oce.graphserver;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.oce.graphserver.model.Graph;
+import org.opennms.oce.graphserver.model.GraphMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.google.common.cache.CacheStats;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "oce.datasets.cache.max.mb=0")
+@ContextConfiguration(initializers = SampleDatasets.TemporaryDatasetPath.class)
+public class GraphServiceDatasetCacheTest {
+
+	@Autowired
+	private GraphService graphService;
+
+	@Value("${oce.dataset.path}")
+	private Path datasetPath;
+
+	@Test
+	public void canKeepDatasetThatExceedsTheBudget() throws IOException {
+		for (String id : new String[]{"customer1", "customer2"}) {
+			SampleDatasets.copyTo(datasetPath.resolve(id));
+		}
+
+		final CacheStats statsBefore = graphService.getDatasetCacheStats();
+
+		// The most recently used dataset is kept, even though it is evicted from the cache right away
+		final GraphMetadata metadata = graphService.getGraphMetadata("customer1");
+		final GraphView view = GraphView.builder().setTimestampInMillis(metadata.getTimeMetadata().getEndMs()).build();
+		final Graph graph = graphService.getGraph("customer1", view);
+		assertThat(graphService.getGraph("customer1", view), sameInstance(graph));
+		assertThat(graphService.getDatasetCacheStats().minus(statsBefore).loadCount(), equalTo(1L));
+
+		// Until another one is used
+		graphService.getGraphMetadata("customer2");
+		graphService.getGraphMetadata("customer1");
+		assertThat(graphService.getDatasetCacheStats().minus(statsBefore).loadCount(), equalTo(3L));
+	}
+}
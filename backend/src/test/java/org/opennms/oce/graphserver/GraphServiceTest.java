@@ -0,0 +1,243 @@
+package org.opennms.oce.graphserver;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.alec.datasource.common.ImmutableAlarm;
+import org.opennms.oce.graphserver.model.Graph;
+import org.opennms.oce.graphserver.model.GraphDelta;
+import org.opennms.oce.graphserver.model.GraphMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.google.common.cache.CacheStats;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "oce.graph.cache.tick.ms=10000")
+@ContextConfiguration(initializers = SampleDatasets.TemporaryDatasetPath.class)
+public class GraphServiceTest {
+
+	@Autowired
+	private GraphService graphService;
+
+	@Value("${oce.dataset.path}")
+	private Path datasetPath;
+
+	@Test
+	public void canReuseGraphsWithinTheSameTick() {
+		final String id = graphService.getAvailableGraphs().get(0).getId();
+		final CacheStats statsBefore = graphService.getGraphCacheStats();
+
+		final Graph g1 = graphService.getGraph(id, GraphView.builder().setTimestampInMillis(1546788110001L).build());
+		final Graph g2 = graphService.getGraph(id, GraphView.builder().setTimestampInMillis(1546788119999L).build());
+		assertThat(g2, sameInstance(g1));
+
+		// Next tick
+		final Graph g3 = graphService.getGraph(id, GraphView.builder().setTimestampInMillis(1546788120000L).build());
+		assertThat(g3 == g1, equalTo(false));
+
+		final CacheStats stats = graphService.getGraphCacheStats().minus(statsBefore);
+		assertThat(stats.hitCount(), equalTo(1L));
+		assertThat(stats.missCount(), equalTo(2L));
+	}
+
+	@Test
+	public void canCoalesceConcurrentRequests() throws Exception {
+		final String id = graphService.getAvailableGraphs().get(0).getId();
+		final CacheStats statsBefore = graphService.getGraphCacheStats();
+
+		final int numThreads = 8;
+		final CyclicBarrier barrier = new CyclicBarrier(numThreads);
+		final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			final List<Future<Graph>> futures = new ArrayList<>();
+			for (int i = 0; i < numThreads; i++) {
+				futures.add(executor.submit(() -> {
+					barrier.await();
+					return graphService.getGraph(id, GraphView.builder().setTimestampInMillis(1546788200000L).build());
+				}));
+			}
+			final Graph g = futures.get(0).get();
+			for (Future<Graph> future : futures) {
+				assertThat(future.get(), sameInstance(g));
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// The graph was only generated once
+		final CacheStats stats = graphService.getGraphCacheStats().minus(statsBefore);
+		assertThat(stats.loadCount(), equalTo(1L));
+		assertThat(stats.requestCount(), equalTo((long)numThreads));
+	}
+
+	@Test
+	public void canComputeDeltaBetweenGraphs() {
+		final GraphMetadata metadata = graphService.getAvailableGraphs().get(0);
+		final String id = metadata.getId();
+		final long startMs = metadata.getTimeMetadata().getStartMs();
+		final long endMs = metadata.getTimeMetadata().getEndMs();
+		final long fromMs = startMs + (endMs - startMs) / 2;
+
+		final GraphView fromView = GraphView.builder().setTimestampInMillis(fromMs).build();
+		final GraphView toView = GraphView.builder().setTimestampInMillis(endMs + 1).build();
+		final GraphDelta delta = graphService.getGraphDelta(id, fromMs, toView);
+		assertThat(delta.isEmpty(), equalTo(false));
+
+		// Applying the delta to the previous graph should yield the new graph
+		final Graph from = graphService.getGraph(id, fromView);
+		final Graph to = graphService.getGraph(id, toView);
+		final Map<String, Graph.Vertex> vertices = new LinkedHashMap<>();
+		from.getVertices().forEach(v -> vertices.put(v.getId(), v));
+		delta.getRemovedVertexIds().forEach(vertices::remove);
+		delta.getAddedVertices().forEach(v -> vertices.put(v.getId(), v));
+		delta.getChangedVertices().forEach(v -> vertices.put(v.getId(), v));
+		final Map<String, Graph.Edge> edges = new LinkedHashMap<>();
+		from.getEdges().forEach(e -> edges.put(e.getId(), e));
+		delta.getRemovedEdgeIds().forEach(edges::remove);
+		delta.getAddedEdges().forEach(e -> edges.put(e.getId(), e));
+
+		final Graph patched = new Graph(to.getGraphMetadata(), vertices.values(), edges.values(), to.getLayers());
+		assertThat(patched, equalTo(to));
+		for (int i = 0; i < to.getVertices().size(); i++) {
+			assertThat(patched.getVertices().get(i).getAttributes(), equalTo(to.getVertices().get(i).getAttributes()));
+		}
+
+		// Nothing changes within the same tick
+		assertThat(graphService.getGraphDelta(id, endMs + 1, toView.withTimestamp(endMs + 2)).isEmpty(), equalTo(true));
+	}
+
+	@Test
+	@DirtiesContext
+	public void canReloadDataset() throws IOException {
+		final String id = graphService.getAvailableGraphs().get(0).getId();
+		final GraphView view = GraphView.builder().setTimestampInMillis(1546788300000L).build();
+		final Graph before = graphService.getGraph(id, view);
+		final long generation = graphService.getGeneration(id);
+
+		// A dataset that fails to load leaves the current one in place
+		graphService.reload();
+		assertThat(graphService.getGeneration(id), equalTo(generation));
+		assertThat(graphService.getGraph(id, view), sameInstance(before));
+
+		SampleDatasets.copyTo(datasetPath);
+		graphService.reload();
+
+		// The graph keeps its id, and is generated from the new dataset
+		assertThat(graphService.getGeneration(id), not(equalTo(generation)));
+		assertThat(graphService.getAvailableGraphs().get(0).getId(), equalTo(id));
+		final Graph after = graphService.getGraph(id, view);
+		assertThat(after == before, equalTo(false));
+		assertThat(after, equalTo(before));
+	}
+
+	@Test
+	@DirtiesContext
+	public void canServeDatasetsFromSubdirectories() throws IOException {
+		final String defaultId = graphService.getAvailableGraphs().get(0).getId();
+		for (String id : new String[]{"customer1", "customer2", defaultId}) {
+			SampleDatasets.copyTo(datasetPath.resolve(id));
+		}
+		Files.createDirectory(datasetPath.resolve("not-a-dataset"));
+
+		final CacheStats statsBefore = graphService.getDatasetCacheStats();
+
+		// The datasets are listed, but not loaded, and the one that clashes with the default dataset is ignored
+		List<GraphMetadata> graphs = graphService.getAvailableGraphs();
+		assertThat(graphs.stream().map(GraphMetadata::getId).collect(Collectors.toList()),
+				equalTo(Arrays.asList(defaultId, "customer1", "customer2")));
+		assertThat(graphs.get(1).getTimeMetadata(), nullValue());
+		assertThat(graphService.getDatasetCacheStats().minus(statsBefore).loadCount(), equalTo(0L));
+
+		// Until they are used
+		final GraphMetadata metadata = graphService.getGraphMetadata("customer1");
+		assertThat(metadata.getTimeMetadata(), notNullValue());
+		final GraphView view = GraphView.builder().setTimestampInMillis(metadata.getTimeMetadata().getEndMs()).build();
+		final Graph graph = graphService.getGraph("customer1", view);
+		assertThat(graph.getVertices().isEmpty(), equalTo(false));
+		// The sample dataset that is served by default also includes the situations from another result set
+		assertThat(graphService.getGraph(defaultId, view).getVertices().containsAll(graph.getVertices()), equalTo(true));
+		assertThat(graphService.getAvailableGraphs().get(1).getTimeMetadata(), notNullValue());
+		assertThat(graphService.getAvailableGraphs().get(2).getTimeMetadata(), nullValue());
+		assertThat(graphService.getDatasetCacheStats().minus(statsBefore).loadCount(), equalTo(1L));
+
+		for (String id : new String[]{"not-a-dataset", "missing", "..", "../customer1"}) {
+			try {
+				graphService.getGraphMetadata(id);
+				fail("No dataset should be found for: " + id);
+			} catch (NoSuchElementException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	@DirtiesContext
+	public void canAppendAlarmsToDataset() throws IOException {
+		SampleDatasets.copyTo(datasetPath.resolve("live"));
+
+		final long endMs = graphService.getGraphMetadata("live").getTimeMetadata().getEndMs();
+		final GraphView earlierView = GraphView.builder().setTimestampInMillis(endMs).setFocalPoint("appended").build();
+		final GraphView laterView = earlierView.withTimestamp(endMs + 20000);
+		final Graph earlier = graphService.getGraph("live", earlierView);
+		final Graph later = graphService.getGraph("live", laterView);
+		assertThat(later.getVertices().isEmpty(), equalTo(true));
+
+		final long time = endMs + 10000;
+		final GraphMetadata metadata = graphService.appendAlarms("live", Collections.singletonList(ImmutableAlarm.newBuilder()
+				.setId("appended-alarm")
+				.setTime(time)
+				.setSeverity(Severity.MAJOR)
+				.setSummary("Appended alarm")
+				.build()));
+		assertThat(metadata.getTimeMetadata().getEndMs(), equalTo(time));
+		assertThat(graphService.getGraphMetadata("live"), equalTo(metadata));
+
+		// Graphs before the appended alarm are still served from the cache with the new metadata, the ones after it are regenerated
+		final Graph earlierAfterAppend = graphService.getGraph("live", earlierView);
+		assertThat(earlierAfterAppend.getVertices(), sameInstance(earlier.getVertices()));
+		assertThat(earlierAfterAppend.getGraphMetadata(), equalTo(metadata));
+		final Graph laterWithAlarm = graphService.getGraph("live", laterView);
+		assertThat(laterWithAlarm.getVertices().size(), equalTo(1));
+		assertThat(graphService.getGraphDelta("live", endMs, laterView).getAddedVertices(), equalTo(laterWithAlarm.getVertices()));
+	}
+
+	@Test
+	public void canRoundTimestampToTick() {
+		final GraphView view = GraphView.builder().setTimestampInMillis(12345L).setSzl(2).build();
+		final GraphView rounded = view.withTimestampRoundedToTick(1000L);
+		assertThat(rounded.getTimestampInMillis(), equalTo(12000L));
+		assertThat(rounded.getSzl(), equalTo(2));
+		assertThat(rounded, equalTo(GraphView.builder().setTimestampInMillis(12999L).setSzl(2).build().withTimestampRoundedToTick(1000L)));
+		assertThat(view.withTimestampRoundedToTick(0), sameInstance(view));
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.opennms.oce.graphserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.util.FileSystemUtils;
+
+import com.google.common.io.Resources;
+
+/**
+ * Helpers for the tests that serve datasets from oce.dataset.path.
+ */
+public class SampleDatasets {
+
+	/**
+	 * Copies the sample alarms, inventory and situations to the given directory, creating it if needed.
+	 *
+	 * @return the directory
+	 */
+	public static Path copyTo(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		for (String name : new String[]{"alarms", "inventory", "situations"}) {
+			try (InputStream is = Resources.getResource("sample/sample." + name + ".xml").openStream()) {
+				Files.copy(is, directory.resolve("alec." + name + ".xml"));
+			}
+		}
+		return directory;
+	}
+
+	/**
+	 * Points oce.dataset.path at an empty temporary directory that belongs to the context, and is deleted when
+	 * the context is closed. Tests that add datasets to it should be marked with @DirtiesContext, so that they
+	 * don't leak into the other tests that share the context.
+	 */
+	public static class TemporaryDatasetPath implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+		@Override
+		public void initialize(ConfigurableApplicationContext context) {
+			final Path directory;
+			try {
+				directory = Files.createTempDirectory("datasets");
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			TestPropertyValues.of("oce.dataset.path=" + directory, "oce.dataset.watch=false").applyTo(context);
+			context.addApplicationListener((ApplicationListener<ApplicationEvent>) event -> {
+				if (event instanceof ContextClosedEvent) {
+					FileSystemUtils.deleteRecursively(directory.toFile());
+				}
+			});
+		}
+	}
+
+}
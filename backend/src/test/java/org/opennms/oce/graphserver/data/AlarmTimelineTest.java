@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.alec.datasource.common.ImmutableAlarm;
+
+public class AlarmTimelineTest {
+
+    @Test
+    public void canFindLastStateOfActiveAlarms() {
+        final AlarmTimeline timeline = new AlarmTimeline(Arrays.asList(
+                alarm("a1", 30, Severity.MAJOR),
+                alarm("a2", 15, Severity.MINOR),
+                alarm("a1", 10, Severity.MINOR),
+                alarm("a1", 20, Severity.CRITICAL)));
+        assertThat(timeline.getNumAlarms(), equalTo(2));
+        assertThat(timeline.getNumUpdates(), equalTo(4));
+
+        // Nothing happened yet
+        assertThat(timeline.getActiveAlarmsAt(10), empty());
+
+        // Only updates strictly before the given time are considered
+        List<Alarm> active = timeline.getActiveAlarmsAt(20);
+        assertThat(active, hasSize(2));
+        assertThat(active.get(0).getSeverity(), equalTo(Severity.MINOR));
+        assertThat(active.get(1).getId(), equalTo("a2"));
+
+        active = timeline.getActiveAlarmsAt(31);
+        assertThat(active.get(0).getSeverity(), equalTo(Severity.MAJOR));
+    }
+
+    @Test
+    public void canExpireClearedAndStaleAlarms() {
+        final long clearedAt = TimeUnit.DAYS.toMillis(1);
+        final AlarmTimeline timeline = new AlarmTimeline(Arrays.asList(
+                alarm("cleared", clearedAt - 1, Severity.MAJOR),
+                alarm("cleared", clearedAt, Severity.CLEARED),
+                alarm("stale", 1, Severity.MAJOR)));
+
+        // The stale alarm is still active up until 24 hours after its last update
+        assertThat(timeline.getActiveAlarmsAt(clearedAt).stream().map(Alarm::getId).toArray(), equalTo(new Object[]{"cleared", "stale"}));
+        assertThat(timeline.getActiveAlarmsAt(clearedAt + 1).stream().map(Alarm::getId).toArray(), equalTo(new Object[]{"cleared"}));
+
+        // The cleared alarm remains visible for 5 minutes
+        assertThat(timeline.getActiveAlarmsAt(clearedAt + AlarmTimeline.CLEARED_ALARM_TTL_MS - 1), hasSize(1));
+        assertThat(timeline.getActiveAlarmsAt(clearedAt + AlarmTimeline.CLEARED_ALARM_TTL_MS), empty());
+    }
+
+    @Test
+    public void usesLastGivenUpdateWhenTimesAreEqual() {
+        final AlarmTimeline timeline = new AlarmTimeline(Arrays.asList(
+                alarm("a1", 10, Severity.MINOR),
+                alarm("a1", 10, Severity.MAJOR)));
+        assertThat(timeline.getActiveAlarmsAt(11), contains(alarm("a1", 10, Severity.MAJOR)));
+    }
+
+    private static Alarm alarm(String id, long time, Severity severity) {
+        return ImmutableAlarm.newBuilder()
+                .setId(id)
+                .setTime(time)
+                .setSeverity(severity)
+                .build();
+    }
+}
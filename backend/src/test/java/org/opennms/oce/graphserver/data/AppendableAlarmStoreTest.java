@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.alec.datasource.common.ImmutableAlarm;
+
+public class AppendableAlarmStoreTest {
+
+    @Test
+    public void canAppendUpdatesToExistingAndNewAlarms() {
+        final AlarmTimeline timeline = new AlarmTimeline(Arrays.asList(
+                alarm("a1", 10, Severity.MINOR),
+                alarm("a2", 15, Severity.MINOR)));
+        final AppendableAlarmStore store = new AppendableAlarmStore(timeline);
+        final int[] activeUpdatesBefore = store.getActiveUpdatesAt(100);
+
+        store.append(Arrays.asList(
+                alarm("a3", 30, Severity.WARNING),
+                alarm("a1", 20, Severity.MAJOR),
+                // Out of order, and older than the loaded update
+                alarm("a2", 5, Severity.CRITICAL)));
+        assertThat(store.getNumAlarms(), equalTo(3));
+        assertThat(store.getNumUpdates(), equalTo(5));
+        assertThat(store.getAlarmId(2), equalTo("a3"));
+        assertThat(store.getAlarmOrdinal(2), equalTo(2));
+        assertThat(store.getAlarmOrdinal(3), equalTo(0));
+
+        // The indices handed out before the append remain valid
+        assertThat(store.getAlarm(activeUpdatesBefore[0]), equalTo(alarm("a1", 10, Severity.MINOR)));
+
+        assertThat(store.getActiveAlarmsAt(10), contains(alarm("a2", 5, Severity.CRITICAL)));
+        assertThat(store.getActiveAlarmsAt(16), contains(alarm("a1", 10, Severity.MINOR), alarm("a2", 15, Severity.MINOR)));
+        assertThat(store.getActiveAlarmsAt(31), contains(alarm("a1", 20, Severity.MAJOR), alarm("a2", 15, Severity.MINOR),
+                alarm("a3", 30, Severity.WARNING)));
+    }
+
+    @Test
+    public void usesAppendedUpdateWhenTimesAreEqual() {
+        final AppendableAlarmStore store = new AppendableAlarmStore(new AlarmTimeline(Collections.singletonList(
+                alarm("a1", 10, Severity.MINOR))));
+        store.append(Collections.singletonList(alarm("a1", 10, Severity.MAJOR)));
+        store.append(Collections.singletonList(alarm("a1", 10, Severity.CLEARED)));
+        assertThat(store.getActiveAlarmsAt(11), contains(alarm("a1", 10, Severity.CLEARED)));
+        assertThat(store.getActiveAlarmsAt(10), empty());
+    }
+
+    private static Alarm alarm(String id, long time, Severity severity) {
+        return ImmutableAlarm.newBuilder()
+                .setId(id)
+                .setTime(time)
+                .setSeverity(severity)
+                .build();
+    }
+}
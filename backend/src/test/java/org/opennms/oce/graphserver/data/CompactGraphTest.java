@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.oce.graphserver.model.Graph;
+
+public class CompactGraphTest {
+
+    @Test
+    public void canOverlayVerticesAndEdgesOnBaseGraph() {
+        // a -> b -> c in the base
+        final CompactGraph.Builder baseBuilder = CompactGraph.builder();
+        for (String id : new String[]{"a", "b", "c"}) {
+            baseBuilder.addVertex(new Graph.Vertex(id, "io", id, OceGraphGenerator.INVENTORY_LAYER_ID));
+        }
+        addEdge(baseBuilder, 0, 1);
+        addEdge(baseBuilder, 1, 2);
+        final CompactGraph base = baseBuilder.build();
+
+        // x -> c, y -> x, and c -> a between vertices of the base, along with edges that are already present
+        final CompactGraph.Builder builder = CompactGraph.builder(base);
+        assertThat(builder.addVertex(new Graph.Vertex("x", "alarm", "x", OceGraphGenerator.ALARMS_LAYER_ID)), equalTo(3));
+        assertThat(builder.addVertex(new Graph.Vertex("y", "situation", "y", OceGraphGenerator.SITUATIONS_LAYER_ID)), equalTo(4));
+        addEdge(builder, 3, 2);
+        addEdge(builder, 4, 3);
+        addEdge(builder, 2, 0);
+        addEdge(builder, 3, 2);
+        addEdge(builder, 0, 1);
+        final CompactGraph graph = builder.build();
+
+        // The base is left as-is
+        assertThat(base.getNumVertices(), equalTo(3));
+        assertThat(base.getNumEdges(), equalTo(2));
+        assertThat(base.getOutDegree(2), equalTo(0));
+
+        assertThat(graph.getNumVertices(), equalTo(5));
+        assertThat(graph.getNumEdges(), equalTo(5));
+        assertThat(graph.getVertex(1).getId(), equalTo("b"));
+        assertThat(graph.getVertex(4).getId(), equalTo("y"));
+        assertThat(outTargets(graph, 0), contains(1));
+        assertThat(outTargets(graph, 2), contains(0));
+        assertThat(outTargets(graph, 3), contains(2));
+        assertThat(inSources(graph, 0), contains(2));
+        assertThat(inSources(graph, 2), contains(1, 3));
+        assertThat(inSources(graph, 3), contains(4));
+        assertThat(graph.getInEdge(2, 1).getType(), equalTo("x-c"));
+
+        final BitSet subgraph = new BitSet();
+        subgraph.set(0, 4);
+        assertThat(graph.getNumIncidentEdges(2, subgraph), equalTo(3));
+        assertThat(graph.getEdges(subgraph).stream().map(Graph.Edge::getType).collect(Collectors.toList()),
+                contains("a-b", "b-c", "c-a", "x-c"));
+    }
+
+    private static void addEdge(CompactGraph.Builder builder, int source, int target) {
+        final String sourceId = builder.getVertex(source).getId();
+        final String targetId = builder.getVertex(target).getId();
+        builder.addEdge(source, target, new Graph.Edge("", sourceId, targetId, sourceId + "-" + targetId));
+    }
+
+    private static List<Integer> outTargets(CompactGraph graph, int v) {
+        final List<Integer> targets = new ArrayList<>();
+        for (int i = 0; i < graph.getOutDegree(v); i++) {
+            targets.add(graph.getOutTarget(v, i));
+        }
+        return targets;
+    }
+
+    private static List<Integer> inSources(CompactGraph graph, int v) {
+        final List<Integer> sources = new ArrayList<>();
+        for (int i = 0; i < graph.getInDegree(v); i++) {
+            sources.add(graph.getInSource(v, i));
+        }
+        return sources;
+    }
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableSet;
+
+public class DatasetWatcherTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void canDetectChangesToXmlFiles() throws IOException, InterruptedException {
+        final Path root = temporaryFolder.getRoot().toPath();
+        final Path subdirectory = temporaryFolder.newFolder("customer1").toPath();
+        final AtomicInteger numChanges = new AtomicInteger();
+        final List<Set<Path>> changedDirectories = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        try (DatasetWatcher watcher = new DatasetWatcher(root, 200, directories -> {
+            numChanges.incrementAndGet();
+            changedDirectories.add(directories);
+            latch.countDown();
+        })) {
+            watcher.start();
+
+            // Other files are ignored
+            Files.write(root.resolve(OceDataset.SNAPSHOT_FILE_NAME), new byte[]{1});
+            Thread.sleep(500);
+            assertThat(numChanges.get(), equalTo(0));
+
+            // Changes made in quick succession only trigger a single callback
+            Files.write(root.resolve("alec.alarms.xml"), new byte[]{1});
+            Files.write(root.resolve("alec.situations.xml"), new byte[]{1});
+            Files.write(subdirectory.resolve("alec.alarms.xml"), new byte[]{1});
+            assertThat(latch.await(10, TimeUnit.SECONDS), equalTo(true));
+            Thread.sleep(500);
+            assertThat(numChanges.get(), equalTo(1));
+            assertThat(changedDirectories.get(0), equalTo(ImmutableSet.of(root, subdirectory)));
+        }
+    }
+}
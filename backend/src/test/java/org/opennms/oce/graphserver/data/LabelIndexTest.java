@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.Test;
+
+public class LabelIndexTest {
+
+    @Test
+    public void canFindCandidatesForTerms() {
+        final LabelIndex index = LabelIndex.builder()
+                .add(0, "swmgmt01")
+                .add(1, "swmgmt01: Ethernet102/1/22")
+                .add(2, "swmgmt02")
+                .add(5, "Link down syslog")
+                .add(5, "Port down due to oper")
+                .add(7, "ab")
+                .build();
+
+        assertThat(index.getCandidates("SWMGMT01"), equalTo(new int[]{0, 1}));
+        assertThat(index.getCandidates("ethernet"), equalTo(new int[]{1}));
+        assertThat(index.getCandidates("down"), equalTo(new int[]{5}));
+        assertThat(index.getCandidates("missing"), equalTo(new int[0]));
+
+        // Short terms are matched against the trigrams, and the labels that are too short to have any
+        assertThat(index.getCandidates("02"), equalTo(new int[]{1, 2}));
+        assertThat(index.getCandidates("b"), equalTo(new int[]{7}));
+        assertThat(index.getCandidates(""), nullValue());
+    }
+
+    @Test
+    public void canAddLabels() {
+        final LabelIndex index = LabelIndex.builder()
+                .add(0, "swmgmt01")
+                .add(4, "Port up")
+                .build();
+        index.addAll(LabelIndex.builder()
+                .add(2, "swmgmt03")
+                .add(6, "Port down")
+                .build());
+
+        assertThat(index.getCandidates("swmgmt"), equalTo(new int[]{0, 2}));
+        assertThat(index.getCandidates("port"), equalTo(new int[]{4, 6}));
+    }
+}
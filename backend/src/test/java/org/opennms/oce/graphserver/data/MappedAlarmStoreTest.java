@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.alec.datasource.common.ImmutableAlarm;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.alec.datasource.common.ImmutableAlarm;
+
+public class MappedAlarmStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void canStoreAndRetrieveAlarms() throws IOException {
+        final List<Alarm> alarms = Arrays.asList(
+                alarm("a1", 30, Severity.MAJOR),
+                alarm("a2", 15, Severity.MINOR),
+                alarm("a1", 10, Severity.MINOR),
+                alarm("a1", 20, Severity.CRITICAL),
+                alarm("a2", 40, Severity.CLEARED),
+                alarm("a3", 15, Severity.WARNING),
+                alarm("a3", 15, Severity.MAJOR));
+        final AlarmTimeline timeline = new AlarmTimeline(alarms);
+        final MappedAlarmStore store = write(alarms, "fingerprint");
+
+        // The updates should be ordered in the same way as they are in the timeline
+        assertThat(store.getNumAlarms(), equalTo(timeline.getNumAlarms()));
+        assertThat(store.getNumUpdates(), equalTo(timeline.getNumUpdates()));
+        for (int i = 0; i < timeline.getNumUpdates(); i++) {
+            assertThat(store.getAlarm(i), equalTo(timeline.getAlarm(i)));
+            assertThat(store.getAlarmOrdinal(i), equalTo(timeline.getAlarmOrdinal(i)));
+            assertThat(store.getTime(i), equalTo(timeline.getTime(i)));
+        }
+        for (long timestamp = 0; timestamp < 50; timestamp++) {
+            assertThat(store.getActiveUpdatesAt(timestamp), equalTo(timeline.getActiveUpdatesAt(timestamp)));
+            assertThat(store.getActiveAlarmsAt(timestamp), equalTo(timeline.getActiveAlarmsAt(timestamp)));
+        }
+        store.close();
+    }
+
+    @Test
+    public void canRetainAllFieldsOfTheAlarms() throws IOException {
+        final ImmutableAlarm.Builder builder = ImmutableAlarm.newBuilder()
+                .setId("a1")
+                .setTime(10)
+                .setSeverity(Severity.MAJOR)
+                .setInventoryObjectType("node")
+                .setInventoryObjectId("n1")
+                .setSummary("Node down")
+                .setDescription("Node n1 is down ☹");
+        builder.setNodeId(1L);
+        final Alarm alarm = builder.build();
+        final Alarm minimalAlarm = alarm("a2", 20, null);
+
+        final MappedAlarmStore store = write(Arrays.asList(alarm, minimalAlarm), "fingerprint");
+        assertThat(store.getAlarm(0), equalTo(alarm));
+        assertThat(store.getAlarm(0).getInventoryObjectType(), equalTo("node"));
+        assertThat(store.getAlarm(0).getDescription(), equalTo("Node n1 is down ☹"));
+        assertThat(store.getAlarm(0).getNodeId(), equalTo(1L));
+        assertThat(store.getAlarm(1).getSeverity(), nullValue());
+        assertThat(store.getAlarm(1).getInventoryObjectId(), nullValue());
+        assertThat(store.getAlarm(1).getNodeId(), nullValue());
+        store.close();
+    }
+
+    @Test
+    public void canOnlyOpenStoreWithMatchingFingerprint() throws IOException {
+        final Path path = temporaryFolder.getRoot().toPath().resolve(MappedAlarmStore.FILE_NAME);
+        assertThat(MappedAlarmStore.open(path, "fingerprint"), equalTo(Optional.empty()));
+
+        write(Arrays.asList(alarm("a1", 10, Severity.MAJOR)), "fingerprint").close();
+        assertThat(MappedAlarmStore.open(path, "other"), equalTo(Optional.empty()));
+        final MappedAlarmStore store = MappedAlarmStore.open(path, "fingerprint").get();
+        assertThat(store.getAlarmId(0), equalTo("a1"));
+        store.close();
+    }
+
+    private MappedAlarmStore write(List<Alarm> alarms, String fingerprint) throws IOException {
+        try (MappedAlarmStore.Writer writer = MappedAlarmStore.writer(temporaryFolder.getRoot().toPath()
+                .resolve(MappedAlarmStore.FILE_NAME), fingerprint)) {
+            for (Alarm alarm : alarms) {
+                writer.append(alarm);
+            }
+            return writer.finish();
+        }
+    }
+
+    private static Alarm alarm(String id, long time, Severity severity) {
+        return ImmutableAlarm.newBuilder()
+                .setId(id)
+                .setTime(time)
+                .setSeverity(severity)
+                .build();
+    }
+}
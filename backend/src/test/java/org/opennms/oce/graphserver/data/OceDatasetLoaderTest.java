@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.Situation;
+import org.opennms.alec.datasource.jaxb.JaxbUtils;
+
+import com.google.common.io.Resources;
+
+public class OceDatasetLoaderTest {
+
+    @Test
+    public void canStreamSameObjectsAsJaxb() throws Exception {
+        try (InputStream is = Resources.getResource("sample/sample.alarms.xml").openStream()) {
+            assertThat(OceDatasetLoader.readAlarms(source("sample/sample.alarms.xml")), equalTo(JaxbUtils.getAlarms(is)));
+        }
+        try (InputStream is = Resources.getResource("sample/sample.inventory.xml").openStream()) {
+            assertThat(OceDatasetLoader.readInventory(source("sample/sample.inventory.xml")), equalTo(JaxbUtils.getInventory(is)));
+        }
+        try (InputStream is = Resources.getResource("sample/sample.situations.xml").openStream()) {
+            // The alarm references are stamped with the current time, so only compare the ids
+            assertThat(toAlarmIdsBySituationId(OceDatasetLoader.readSituations(source("sample/sample.situations.xml"))),
+                    equalTo(toAlarmIdsBySituationId(JaxbUtils.getSituations(is))));
+        }
+    }
+
+    @Test
+    public void canLoadDataset() {
+        final OceDataset dataset = OceDatasetLoader.load(source("sample/sample.alarms.xml"), source("sample/sample.inventory.xml"),
+                Collections.singletonList(source("sample/sample.situations.xml")));
+        assertThat(dataset.getSituationResults(), hasSize(1));
+        assertThat(dataset.getPrimarySituationResults().getSource(), equalTo("sample/sample.situations.xml"));
+        assertThat(dataset.getAlarmStore().getNumUpdates(), equalTo(dataset.getAlarms().size()));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void failsOnMissingFile() {
+        OceDatasetLoader.load(source("sample/sample.alarms.xml"), source("sample/sample.inventory.xml"),
+                Collections.singletonList(new OceDatasetLoader.Source("missing", () -> {
+                    throw new FileNotFoundException("missing");
+                })));
+    }
+
+    private static Map<String, Set<String>> toAlarmIdsBySituationId(Set<Situation> situations) {
+        return situations.stream().collect(Collectors.toMap(Situation::getId,
+                s -> s.getAlarms().stream().map(Alarm::getId).collect(Collectors.toSet())));
+    }
+
+    private static OceDatasetLoader.Source source(String resource) {
+        return new OceDatasetLoader.Source(resource, () -> Resources.getResource(resource).openStream());
+    }
+}
@@ -29,18 +29,36 @@
 package org.opennms.oce.graphserver.data;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.number.OrderingComparison.greaterThanOrEqualTo;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.stream.Collectors;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.InventoryObject;
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.alec.datasource.api.Situation;
+import org.opennms.alec.datasource.common.ImmutableAlarm;
+import org.opennms.alec.datasource.common.ImmutableSituation;
+import org.opennms.oce.graphserver.GraphView;
+import org.opennms.oce.graphserver.model.Graph;
 
 import com.google.common.io.Resources;
 
@@ -66,6 +84,166 @@ public class OceDatasetTest {
         assertThat(data.getSituationResults(), hasSize(equalTo(2)));
     }
 
+    @Test
+    public void canLoadDatasetFromSnapshot() throws IOException {
+        copy("sample/sample.alarms.xml", "alec.alarms.xml");
+        copy("sample/sample.inventory.xml", "alec.inventory.xml");
+        copy("sample/sample.situations.xml", "alec.situations.xml");
+        copy("sample/sample.other.situations.xml", "alec.other.situations.xml");
+
+        // The snapshot is written on the first load
+        final OceDataset fromXml = OceDataset.oceDataset(temporaryFolder.getRoot().toString());
+        final Path snapshot = temporaryFolder.getRoot().toPath().resolve(OceDataset.SNAPSHOT_FILE_NAME);
+        assertThat(Files.exists(snapshot), equalTo(true));
+
+        // Garble the alarms without changing the size or modification time, they should be loaded from the snapshot
+        final Path alarmsXml = temporaryFolder.getRoot().toPath().resolve("alec.alarms.xml");
+        final FileTime lastModifiedTime = Files.getLastModifiedTime(alarmsXml);
+        Files.write(alarmsXml, new byte[(int)Files.size(alarmsXml)]);
+        Files.setLastModifiedTime(alarmsXml, lastModifiedTime);
+
+        final OceDataset fromSnapshot = OceDataset.oceDataset(temporaryFolder.getRoot().toString());
+        assertThat(fromSnapshot.getAlarms(), equalTo(fromXml.getAlarms()));
+        assertThat(fromSnapshot.getInventory(), equalTo(fromXml.getInventory()));
+        assertThat(fromSnapshot.getSituationResults(), hasSize(equalTo(2)));
+        for (int i = 0; i < fromXml.getSituationResults().size(); i++) {
+            final SituationResults expected = fromXml.getSituationResults().get(i);
+            final SituationResults actual = fromSnapshot.getSituationResults().get(i);
+            assertThat(actual.getSource(), equalTo(expected.getSource()));
+            assertThat(actual.isPrimary(), equalTo(expected.isPrimary()));
+            assertThat(actual.getSituations().stream().map(Situation::getId).collect(Collectors.toList()),
+                    equalTo(expected.getSituations().stream().map(Situation::getId).collect(Collectors.toList())));
+        }
+
+        // Touching the file invalidates the snapshot
+        Files.setLastModifiedTime(alarmsXml, FileTime.fromMillis(lastModifiedTime.toMillis() + 1000));
+        try {
+            OceDataset.oceDataset(temporaryFolder.getRoot().toString());
+            fail("The garbled alarms should have been parsed.");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void canReadSnapshotInChunks() throws IOException {
+        final OceDataset dataset = OceDataset.sampleDataset();
+        final Path snapshot = temporaryFolder.getRoot().toPath().resolve(OceDataset.SNAPSHOT_FILE_NAME);
+        DatasetSnapshot.write(dataset, snapshot, "fingerprint");
+
+        // Use an odd chunk size, so that the values and strings straddle the chunks
+        final OceDataset fromSnapshot = DatasetSnapshot.read(snapshot, "fingerprint", 7)
+                .orElseThrow(() -> new AssertionError("The snapshot should have been read."));
+        assertThat(fromSnapshot.getAlarms(), equalTo(dataset.getAlarms()));
+        assertThat(fromSnapshot.getInventory(), equalTo(dataset.getInventory()));
+
+        // The indexes are read rather than rebuilt, and match those of the dataset
+        final ResourceKeyDictionary expectedKeys = dataset.getResourceKeys();
+        final ResourceKeyDictionary actualKeys = fromSnapshot.getResourceKeys();
+        assertThat(actualKeys.getNumKeys(), equalTo(expectedKeys.getNumKeys()));
+        for (int ordinal = 0; ordinal < expectedKeys.getNumKeys(); ordinal++) {
+            assertThat(actualKeys.getId(ordinal), equalTo(expectedKeys.getId(ordinal)));
+        }
+        assertThat(fromSnapshot.getInventoryTopology().getGraph().getNumEdges(),
+                equalTo(dataset.getInventoryTopology().getGraph().getNumEdges()));
+        for (int i = 0; i < dataset.getSituationResults().size(); i++) {
+            final SituationResults expected = dataset.getSituationResults().get(i);
+            final SituationResults actual = fromSnapshot.getSituationResults().get(i);
+            for (Alarm alarm : dataset.getAlarms()) {
+                assertThat(actual.getSituationOrdinalsWithAlarm(alarm.getId()), equalTo(expected.getSituationOrdinalsWithAlarm(alarm.getId())));
+            }
+        }
+
+        final OceGraphGenerator expectedGenerator = new OceGraphGenerator(dataset);
+        final OceGraphGenerator actualGenerator = new OceGraphGenerator(fromSnapshot);
+        for (long timestamp = expectedGenerator.getStartMs(); timestamp <= expectedGenerator.getEndMs() + 1; timestamp += 60000) {
+            final GraphView view = GraphView.builder()
+                    .setTimestampInMillis(timestamp)
+                    .build();
+            final Graph expected = expectedGenerator.getGraph(view);
+            final Graph actual = actualGenerator.getGraph(view);
+            assertThat(actual.getVertices(), equalTo(expected.getVertices()));
+            assertThat(actual.getEdges(), equalTo(expected.getEdges()));
+        }
+    }
+
+    @Test
+    public void canLoadDatasetWithMappedAlarms() {
+        copy("sample/sample.alarms.xml", "alec.alarms.xml");
+        copy("sample/sample.inventory.xml", "alec.inventory.xml");
+        copy("sample/sample.situations.xml", "alec.situations.xml");
+        copy("sample/sample.other.situations.xml", "alec.other.situations.xml");
+
+        final OceDataset onHeap = OceDataset.oceDataset(temporaryFolder.getRoot().toString(), false);
+        final OceDataset mapped = OceDataset.oceDataset(temporaryFolder.getRoot().toString(), true);
+        assertThat(mapped.getAlarmStore(), instanceOf(MappedAlarmStore.class));
+        assertThat(Files.exists(temporaryFolder.getRoot().toPath().resolve(MappedAlarmStore.FILE_NAME)), equalTo(true));
+        assertThat(mapped.getAlarms(), hasSize(onHeap.getAlarms().size()));
+
+        // The store is re-used on the next load, and the graphs match those generated from the alarms on the heap
+        final OceGraphGenerator expectedGenerator = new OceGraphGenerator(onHeap);
+        final OceGraphGenerator actualGenerator = new OceGraphGenerator(OceDataset.oceDataset(temporaryFolder.getRoot().toString(), true));
+        assertThat(actualGenerator.getStartMs(), equalTo(expectedGenerator.getStartMs()));
+        assertThat(actualGenerator.getEndMs(), equalTo(expectedGenerator.getEndMs()));
+        for (long timestamp = expectedGenerator.getStartMs(); timestamp <= expectedGenerator.getEndMs() + 1; timestamp += 5000) {
+            final GraphView view = GraphView.builder()
+                    .setTimestampInMillis(timestamp)
+                    .build();
+            final Graph expected = expectedGenerator.getGraph(view);
+            final Graph actual = actualGenerator.getGraph(view);
+            assertThat(actual.getVertices(), equalTo(expected.getVertices()));
+            assertThat(actual.getVertices().stream().map(Graph.Vertex::getAttributes).collect(Collectors.toList()),
+                    equalTo(expected.getVertices().stream().map(Graph.Vertex::getAttributes).collect(Collectors.toList())));
+            assertThat(actual.getEdges(), equalTo(expected.getEdges()));
+        }
+    }
+
+    @Test
+    public void canAppendAlarmsAndSituations() {
+        final OceDataset dataset = OceDataset.sampleDataset();
+        final OceGraphGenerator generator = new OceGraphGenerator(dataset);
+        final InventoryObject io = dataset.getInventory().get(0);
+        final long time = generator.getEndMs() + 1;
+        final Alarm alarm = ImmutableAlarm.newBuilder()
+                .setId("appended-alarm")
+                .setTime(time)
+                .setSeverity(Severity.MAJOR)
+                .setSummary("Appended alarm")
+                .setInventoryObjectType(io.getType())
+                .setInventoryObjectId(io.getId())
+                .build();
+        final GraphView view = GraphView.builder()
+                .setTimestampInMillis(time + 1)
+                .setFocalPoint("appended")
+                .build();
+        assertThat(generator.getGraph(view).getVertices(), empty());
+
+        generator.appendAlarms(Collections.singletonList(alarm));
+        assertThat(dataset.getAlarmStore(), instanceOf(AppendableAlarmStore.class));
+        assertThat(generator.getGraphMetadata().getTimeMetadata().getEndMs(), equalTo(time));
+        final String alarmVertexId = dataset.getResourceKeys().getId(dataset.getResourceKeys().getAlarmOrdinal(alarm.getId()));
+        assertThat(generator.getGraph(view).getVertices().stream().anyMatch(v -> v.getId().equals(alarmVertexId)), equalTo(true));
+
+        // Replace an existing situation with one that only contains the new alarm
+        final int numSituations = dataset.getSituationsFromPrimaryResultSet().size();
+        final Situation existing = dataset.getSituationsFromPrimaryResultSet().iterator().next();
+        final Situation situation = ImmutableSituation.newBuilder()
+                .setId(existing.getId())
+                .setCreationTime(time)
+                .addAlarm(alarm)
+                .build();
+        generator.appendSituations(Collections.singletonList(situation));
+        assertThat(dataset.getSituationsFromPrimaryResultSet(), hasSize(numSituations));
+        assertThat(dataset.getPrimarySituationResults().getSituationsWithAnyAlarm(Collections.singletonList(alarm.getId())), contains(situation));
+        for (Alarm existingAlarm : existing.getAlarms()) {
+            assertThat(dataset.getPrimarySituationResults().getSituationsWithAnyAlarm(Collections.singletonList(existingAlarm.getId())),
+                    not(hasItem(existing)));
+        }
+        final String situationVertexId = dataset.getResourceKeys().getId(dataset.getResourceKeys()
+                .getSituationOrdinal(OceGraphGenerator.PRIMARY_SOURCE_NAME, situation.getId()));
+        assertThat(generator.getGraph(view).getVertices().stream().anyMatch(v -> v.getId().equals(situationVertexId)), equalTo(true));
+    }
+
     private void copy(String resource, String fileName) {
         try (InputStream is = Resources.getResource(resource).openStream()) {
             Files.copy(is, Paths.get(temporaryFolder.getRoot().getAbsolutePath(), fileName));
@@ -53,7 +53,9 @@ import static org.opennms.oce.graphserver.data.OceGraphGenerator.SITUATIONS_LAYE
 import static org.opennms.oce.graphserver.data.OceGraphGenerator.SOURCE_ATTRIBUTE;
 import static org.opennms.oce.graphserver.data.OceGraphGenerator.UPDATED_MS;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -66,6 +68,11 @@ import org.opennms.oce.graphserver.GraphView;
 import org.opennms.oce.graphserver.model.Graph;
 import org.opennms.oce.graphserver.model.TemporalAnnotation;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 public class OceGraphGeneratorTest {
 
     /*
@@ -214,6 +221,25 @@ public class OceGraphGeneratorTest {
         assertThat(verticesOnLayer(vertices, INVENTORY_LAYER_ID), hasSize(2));
     }
 
+    @Test
+    public void canKeepHighestRankedVerticesWithinVertexLimit() {
+        final OceGraphGenerator oceGraphGenerator = new OceGraphGenerator(OceDataset.sampleDataset());
+        final GraphView.Builder graphViewBuilder = GraphView.builder()
+                .setTimestampInMillis(1546759375000L)
+                .setRemoveInventoryWithNoAlarms(true);
+        assertThat(oceGraphGenerator.getGraph(graphViewBuilder.build()).getVertices(), hasSize(7));
+
+        // Situations are kept first, then alarms, then inventory
+        List<Graph.Vertex> vertices = oceGraphGenerator.getGraph(graphViewBuilder.sertVertexLimit(3).build()).getVertices();
+        assertThat(verticesOnLayer(vertices, SITUATIONS_LAYER_ID), hasSize(2));
+        assertThat(verticesOnLayer(vertices, ALARMS_LAYER_ID), hasSize(1));
+
+        vertices = oceGraphGenerator.getGraph(graphViewBuilder.sertVertexLimit(6).build()).getVertices();
+        assertThat(verticesOnLayer(vertices, SITUATIONS_LAYER_ID), hasSize(2));
+        assertThat(verticesOnLayer(vertices, ALARMS_LAYER_ID), hasSize(3));
+        assertThat(verticesOnLayer(vertices, INVENTORY_LAYER_ID), hasSize(1));
+    }
+
     @Test
     public void canGenerateGraphWithMultipleSituationResults() {
         final OceDataset data = OceDataset.sampleDataset();
@@ -244,6 +270,117 @@ public class OceGraphGeneratorTest {
         assertThat(PRIMARY_SOURCE_NAME, isIn(uniqueSourceAttributes));
     }
 
+    @Test
+    public void canMatchSituationsFromOtherResultSetsWithPrimary() {
+        // Load the primary situations a second time, as another result set
+        final OceDataset data = OceDataset.fromResources("sample/sample.alarms.xml",
+                "sample/sample.inventory.xml",
+                "sample/sample.situations.xml",
+                "sample/sample.situations.xml",
+                "sample/sample.other.situations.xml");
+        assertThat(data.getSituationResults(), hasSize(3));
+
+        // Generate the graph at some known time
+        final GraphView viewAtKnownTime = GraphView.builder()
+                .setTimestampInMillis(1546759375000L)
+                .setRemoveInventoryWithNoAlarms(true)
+                .build();
+        final OceGraphGenerator oceGraphGenerator = new OceGraphGenerator(data);
+        final Graph g = oceGraphGenerator.getGraph(viewAtKnownTime);
+        validateGraph(g);
+
+        // Only the copy of the primary situation matches it
+        final Map<String, String> matchesPrimaryBySource = verticesOnLayer(g.getVertices(), SITUATIONS_LAYER_ID).stream()
+                .collect(Collectors.toMap(v -> v.getAttributes().get(SOURCE_ATTRIBUTE), v -> String.valueOf(v.getAttributes().get(MATCHES_PRIMARY_ATTRIBUTE))));
+        assertThat(matchesPrimaryBySource.keySet(), containsInAnyOrder(PRIMARY_SOURCE_NAME, "sample/sample.situations.xml", "sample/sample.other.situations.xml"));
+        assertThat(matchesPrimaryBySource.get("sample/sample.situations.xml"), equalTo("true"));
+        assertThat(matchesPrimaryBySource.get("sample/sample.other.situations.xml"), equalTo("false"));
+    }
+
+    @Test
+    public void canRecordMetricsForEveryStage() {
+        final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final OceGraphGenerator oceGraphGenerator = new OceGraphGenerator(OceDataset.sampleDataset(), "sample", "Sample", meterRegistry);
+        final Graph g = oceGraphGenerator.getGraph(GraphView.builder()
+                .setTimestampInMillis(1546759375000L)
+                .setRemoveInventoryWithNoAlarms(true)
+                .build());
+
+        assertThat(meterRegistry.find(GraphGeneratorMetrics.GENERATE_TIMER_NAME).tag(GraphGeneratorMetrics.GRAPH_TAG, "sample").timer().count(), equalTo(1L));
+        for (GraphGeneratorMetrics.Stage stage : GraphGeneratorMetrics.Stage.values()) {
+            final Timer stageTimer = meterRegistry.find(GraphGeneratorMetrics.STAGE_TIMER_NAME)
+                    .tag(GraphGeneratorMetrics.STAGE_TAG, stage.getTagValue())
+                    .timer();
+            // The expansion is only used when requested
+            assertThat(stage.name(), stageTimer.count(), equalTo(stage == GraphGeneratorMetrics.Stage.EXPAND ? 0L : 1L));
+        }
+        final DistributionSummary filteredVertices = meterRegistry.find(GraphGeneratorMetrics.VERTICES_SUMMARY_NAME)
+                .tag(GraphGeneratorMetrics.SUBGRAPH_TAG, "filtered")
+                .summary();
+        assertThat(filteredVertices.max(), equalTo((double) g.getVertices().size()));
+
+        oceGraphGenerator.getGraph(GraphView.builder()
+                .setTimestampInMillis(1546759375000L)
+                .setExpandFromFocalPoints(true)
+                .build());
+        assertThat(meterRegistry.find(GraphGeneratorMetrics.STAGE_TIMER_NAME)
+                .tag(GraphGeneratorMetrics.STAGE_TAG, GraphGeneratorMetrics.Stage.EXPAND.getTagValue())
+                .timer().count(), equalTo(1L));
+    }
+
+    @Test
+    public void canExpandFromFocalPoints() {
+        final OceGraphGenerator oceGraphGenerator = new OceGraphGenerator(OceDataset.sampleDataset());
+
+        // Expanding from the focal points must give the same graph as filtering the complete graph
+        for (String focalPoint : Arrays.asList(null, "swmgmt01", "id:swmgmt02", "id:4738843", "Port down", "missing")) {
+            for (int szl = 0; szl <= 4; szl++) {
+                for (int vertexLimit : new int[]{0, 3, GraphView.DEFAULT_VERTEX_LIMIT}) {
+                    for (boolean removeInventoryWithNoAlarms : new boolean[]{false, true}) {
+                        final GraphView.Builder graphViewBuilder = GraphView.builder()
+                                .setTimestampInMillis(1546759375000L)
+                                .setFocalPoint(focalPoint)
+                                .setSzl(szl)
+                                .sertVertexLimit(vertexLimit)
+                                .setRemoveInventoryWithNoAlarms(removeInventoryWithNoAlarms);
+                        final Graph expected = oceGraphGenerator.getGraph(graphViewBuilder.build());
+                        final Graph actual = oceGraphGenerator.getGraph(graphViewBuilder.setExpandFromFocalPoints(true).build());
+
+                        final String description = focalPoint + "/" + szl + "/" + vertexLimit + "/" + removeInventoryWithNoAlarms;
+                        assertThat(description, actual.getVertices(), equalTo(expected.getVertices()));
+                        assertThat(description, actual.getVertices().stream().map(Graph.Vertex::getAttributes).collect(Collectors.toList()),
+                                equalTo(expected.getVertices().stream().map(Graph.Vertex::getAttributes).collect(Collectors.toList())));
+                        assertThat(description, actual.getEdges(), equalTo(expected.getEdges()));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canFindFocalPoints() {
+        final OceGraphGenerator oceGraphGenerator = new OceGraphGenerator(OceDataset.sampleDataset());
+
+        // The labels are matched ignoring case
+        assertThat(focalPointLabels(oceGraphGenerator, "SWMGMT01"), contains("swmgmt01: Ethernet102/1/22", "swmgmt01: Ethernet102/1/23", "swmgmt01"));
+        assertThat(focalPointLabels(oceGraphGenerator, "prefix:swmgmt01:"), contains("swmgmt01: Ethernet102/1/22", "swmgmt01: Ethernet102/1/23"));
+        assertThat(focalPointLabels(oceGraphGenerator, "terms:1/23 SWMGMT"), contains("swmgmt01: Ethernet102/1/23"));
+        assertThat(focalPointLabels(oceGraphGenerator, "id:swmgmt02"), contains("swmgmt02"));
+        // The situation shares its id with one of its alarms
+        assertThat(focalPointLabels(oceGraphGenerator, "id:4738843"), contains("Port down due to oper", "situation #4738843"));
+        assertThat(focalPointLabels(oceGraphGenerator, "missing"), hasSize(0));
+    }
+
+    private static List<String> focalPointLabels(OceGraphGenerator oceGraphGenerator, String focalPoint) {
+        final OceGraphGenerator.UnfilteredGraph unfilteredGraph = oceGraphGenerator.buildUnfilteredGraph(GraphView.builder()
+                .setTimestampInMillis(1546759375000L)
+                .setFocalPoint(focalPoint)
+                .build());
+        return Arrays.stream(unfilteredGraph.getFocalPoints())
+                .mapToObj(v -> unfilteredGraph.getGraph().getVertex(v).getLabel())
+                .collect(Collectors.toList());
+    }
+
     @Test
     @Ignore
     public void canLoadSnapshot() {
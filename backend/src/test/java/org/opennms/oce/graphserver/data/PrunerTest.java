@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.oce.graphserver.model.Graph;
+
+public class PrunerTest {
+
+    @Test
+    public void canPruneInventoryWithoutAlarms() {
+        // r <- a <- b, a <- c, r <- d, with an alarm on b, and a separate e <- f without any alarms
+        final CompactGraph.Builder inventoryBuilder = CompactGraph.builder();
+        for (String id : new String[]{"r", "a", "b", "c", "d", "e", "f"}) {
+            inventoryBuilder.addVertex(new Graph.Vertex(id, "io", id, OceGraphGenerator.INVENTORY_LAYER_ID));
+        }
+        addEdge(inventoryBuilder, 1, 0, "parent");
+        addEdge(inventoryBuilder, 2, 1, "parent");
+        addEdge(inventoryBuilder, 3, 1, "parent");
+        addEdge(inventoryBuilder, 4, 0, "parent");
+        addEdge(inventoryBuilder, 6, 5, "parent");
+        final CompactGraph inventoryGraph = inventoryBuilder.build();
+        final InventoryComponents inventoryComponents = new InventoryComponents(inventoryGraph);
+        assertThat(inventoryComponents.getNumComponents(), equalTo(2));
+        assertThat(inventoryComponents.isRoot(0), equalTo(true));
+        assertThat(inventoryComponents.isRoot(1), equalTo(false));
+
+        final CompactGraph.Builder builder = CompactGraph.builder(inventoryGraph);
+        builder.addVertex(new Graph.Vertex("x", "alarm", "x", OceGraphGenerator.ALARMS_LAYER_ID));
+        addEdge(builder, 7, 2, "alarm-to-io");
+        final CompactGraph graph = builder.build();
+
+        // Keep the root, the vertex with the alarm, and the vertex that links them
+        BitSet filteredGraph = new BitSet();
+        filteredGraph.set(0, graph.getNumVertices());
+        assertThat(new Pruner(graph, filteredGraph, inventoryComponents, inventoryGraph.getNumVertices(), null).prune(), equalTo(true));
+        assertThat(ids(graph, filteredGraph), contains("r", "a", "b", "x"));
+
+        // Once the parent is filtered out, a becomes a root
+        filteredGraph = new BitSet();
+        filteredGraph.set(1, 4);
+        filteredGraph.set(7);
+        new Pruner(graph, filteredGraph, inventoryComponents, inventoryGraph.getNumVertices(), null).prune();
+        assertThat(ids(graph, filteredGraph), contains("a", "b", "x"));
+    }
+
+    private static void addEdge(CompactGraph.Builder builder, int source, int target, String type) {
+        builder.addEdge(source, target, new Graph.Edge("", builder.getVertex(source).getId(), builder.getVertex(target).getId(), type));
+    }
+
+    private static List<String> ids(CompactGraph graph, BitSet filteredGraph) {
+        return graph.getVertices(filteredGraph).stream()
+                .map(Graph.Vertex::getId)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.InventoryObject;
+import org.opennms.alec.datasource.api.ResourceKey;
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.alec.datasource.api.Situation;
+import org.opennms.alec.datasource.common.ImmutableAlarm;
+import org.opennms.alec.datasource.common.ImmutableSituation;
+import org.opennms.oce.graphserver.GraphView;
+import org.opennms.oce.graphserver.model.Graph;
+
+public class ResourceKeyDictionaryTest {
+
+    @Test
+    public void canLookupKeysInSampleDataset() {
+        final OceDataset dataset = OceDataset.sampleDataset();
+        final ResourceKeyDictionary dictionary = dataset.getResourceKeys();
+
+        // The inventory comes first
+        int expectedOrdinal = 0;
+        for (InventoryObject io : dataset.getInventory()) {
+            final int ordinal = dictionary.getInventoryOrdinal(io.getType(), io.getId());
+            if (ordinal == expectedOrdinal) {
+                expectedOrdinal++;
+            }
+            assertThat(dictionary.getId(ordinal), equalTo(ResourceKey.key(io.getType(), io.getId()).toString()));
+        }
+        assertThat(dictionary.getNumInventoryKeys(), equalTo(expectedOrdinal));
+
+        for (Alarm alarm : dataset.getAlarms()) {
+            final int ordinal = dictionary.getAlarmOrdinal(alarm.getId());
+            assertThat(dictionary.getId(ordinal), equalTo(ResourceKey.key("alarm", alarm.getId()).toString()));
+            assertThat(dictionary.getInventoryOrdinal("alarm", alarm.getId()), equalTo(-1));
+        }
+
+        for (Situation situation : dataset.getSituationsFromPrimaryResultSet()) {
+            final int ordinal = dictionary.getSituationOrdinal(OceGraphGenerator.PRIMARY_SOURCE_NAME, situation.getId());
+            assertThat(dictionary.getId(ordinal), equalTo(ResourceKey.key("situation", OceGraphGenerator.PRIMARY_SOURCE_NAME, situation.getId()).toString()));
+        }
+        assertThat(dictionary.getOrdinal("missing", "missing"), equalTo(-1));
+    }
+
+    @Test
+    public void canReuseEdgeIds() {
+        final OceDataset dataset = OceDataset.sampleDataset();
+        final OceGraphGenerator generator = new OceGraphGenerator(dataset);
+        final GraphView view = GraphView.builder()
+                .setTimestampInMillis(generator.getEndMs())
+                .build();
+        final Graph first = generator.getGraph(view);
+        final Graph second = generator.getGraph(view);
+
+        // The ids should match those built by the edges, but only be built once
+        for (int i = 0; i < first.getEdges().size(); i++) {
+            final Graph.Edge edge = first.getEdges().get(i);
+            assertThat(edge.getId(), equalTo(new Graph.Edge(edge.getLabel(), edge.getSourceId(), edge.getTargetId(), edge.getType()).getId()));
+            assertThat(second.getEdges().get(i).getId(), sameInstance(edge.getId()));
+        }
+        for (int i = 0; i < first.getVertices().size(); i++) {
+            assertThat(second.getVertices().get(i).getId(), sameInstance(first.getVertices().get(i).getId()));
+        }
+    }
+
+    @Test
+    public void canBuildEdgeIdsForAppendedAlarmsAndSituations() {
+        final OceDataset dataset = OceDataset.sampleDataset();
+        final ResourceKeyDictionary dictionary = dataset.getResourceKeys();
+        final InventoryObject io = dataset.getInventory().get(0);
+        final int ioOrdinal = dictionary.getInventoryOrdinal(io.getType(), io.getId());
+
+        final Alarm alarm = ImmutableAlarm.newBuilder()
+                .setId("appended")
+                .setTime(1)
+                .setSeverity(Severity.MAJOR)
+                .setInventoryObjectType(io.getType())
+                .setInventoryObjectId(io.getId())
+                .build();
+        dataset.appendAlarms(Collections.singletonList(alarm));
+        final int alarmOrdinal = dictionary.getAlarmOrdinal(alarm.getId());
+        final String alarmEdgeId = dictionary.getAlarmToInventoryEdgeId(alarmOrdinal, ioOrdinal);
+        assertThat(alarmEdgeId, equalTo(edgeId("alarm-to-io", dictionary.getId(alarmOrdinal), dictionary.getId(ioOrdinal))));
+        assertThat(dictionary.getAlarmToInventoryEdgeId(alarmOrdinal, ioOrdinal), sameInstance(alarmEdgeId));
+
+        final Situation situation = ImmutableSituation.newBuilder()
+                .setId("appended")
+                .setCreationTime(1)
+                .addAlarm(alarm)
+                .build();
+        dataset.appendSituations(Collections.singletonList(situation));
+        final int situationOrdinal = dictionary.getSituationOrdinal(OceGraphGenerator.PRIMARY_SOURCE_NAME, situation.getId());
+        final String situationEdgeId = dictionary.getSituationToAlarmEdgeId(situationOrdinal, alarmOrdinal);
+        assertThat(situationEdgeId, equalTo(edgeId("situation-to-alarm", dictionary.getId(situationOrdinal), dictionary.getId(alarmOrdinal))));
+        assertThat(dictionary.getSituationToAlarmEdgeId(situationOrdinal, alarmOrdinal), sameInstance(situationEdgeId));
+
+        // Edges that are not known to the dictionary are still given the right id
+        final int otherAlarmOrdinal = dictionary.getAlarmOrdinal(dataset.getAlarms().get(0).getId());
+        assertThat(dictionary.getSituationToAlarmEdgeId(situationOrdinal, otherAlarmOrdinal),
+                equalTo(edgeId("situation-to-alarm", dictionary.getId(situationOrdinal), dictionary.getId(otherAlarmOrdinal))));
+    }
+
+    private static String edgeId(String type, String sourceId, String targetId) {
+        return new Graph.Edge("", sourceId, targetId, type).getId();
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.alec.datasource.api.Severity;
+import org.opennms.alec.datasource.api.Situation;
+import org.opennms.alec.datasource.common.ImmutableAlarm;
+import org.opennms.alec.datasource.common.ImmutableSituation;
+
+public class SituationResultsTest {
+
+    @Test
+    public void canFindSituationsWithAnyAlarmInOrder() {
+        final SituationResults results = results(
+                situation("s0", "a1", "a2"),
+                situation("s1", "a2"),
+                situation("s2", "a3"));
+
+        // The ordinals follow the order of the situations, not the order of the alarms
+        assertThat(results.getSituationOrdinalsWithAnyAlarm(Arrays.asList("a3", "a1")), equalTo(new int[]{0, 2}));
+        assertThat(ids(results.getSituationsWithAnyAlarm(Arrays.asList("a3", "a1"))), contains("s0", "s2"));
+        assertThat(results.getSituationOrdinalsWithAnyAlarm(Arrays.asList("a2", "missing")), equalTo(new int[]{0, 1}));
+        assertThat(results.getSituationOrdinalsWithAnyAlarm(Collections.singletonList("missing")), equalTo(new int[0]));
+        assertThat(results.getSituationOrdinal("s2"), equalTo(2));
+        assertThat(results.getSituationOrdinal("missing"), equalTo(-1));
+    }
+
+    @Test
+    public void canKeepOrdinalsSortedAfterAppends() {
+        final SituationResults results = results(
+                situation("s0", "a1"),
+                situation("s1", "a2"),
+                situation("s2", "a3"));
+
+        // The replaced situation keeps its position, and is added to the end of the memberships of a3
+        results.append(Arrays.asList(situation("s3", "a1"), situation("s0", "a3")));
+        assertThat(ids(results.getSituations()), contains("s0", "s1", "s2", "s3"));
+        assertThat(results.getSituationOrdinalsWithAlarm("a3"), equalTo(new int[]{0, 2}));
+        assertThat(results.getSituationOrdinalsWithAnyAlarm(Collections.singletonList("a3")), equalTo(new int[]{0, 2}));
+        assertThat(results.getSituationOrdinalsWithAlarm("a1"), equalTo(new int[]{3}));
+        assertThat(results.getSituationOrdinal("s3"), equalTo(3));
+    }
+
+    @Test
+    public void canKeepAlarmAddedBackByLaterSituationInSameAppend() {
+        final SituationResults results = results(
+                situation("s0", "a1", "a2"),
+                situation("s1", "a2"));
+
+        // The first replacement removes a1 from s0, the second one adds it back but drops a2
+        results.append(Arrays.asList(situation("s0", "a3"), situation("s0", "a1", "a3")));
+        assertThat(results.getSituationOrdinalsWithAlarm("a1"), equalTo(new int[]{0}));
+        assertThat(results.getSituationOrdinalsWithAlarm("a2"), equalTo(new int[]{1}));
+        assertThat(results.getSituationOrdinalsWithAlarm("a3"), equalTo(new int[]{0}));
+        assertThat(ids(results.getSituations()), contains("s0", "s1"));
+        assertThat(ids(results.getSituationsWithAnyAlarm(Collections.singletonList("a1"))), contains("s0"));
+    }
+
+    @Test
+    public void canRemoveAlarmThatLeftAllSituations() {
+        final SituationResults results = results(situation("s0", "a1", "a2"));
+        results.append(Collections.singletonList(situation("s0", "a2")));
+        assertThat(results.getSituationOrdinalsWithAlarm("a1"), equalTo(new int[0]));
+        assertThat(results.getSituationOrdinalsWithAnyAlarm(Arrays.asList("a1", "a2")), equalTo(new int[]{0}));
+    }
+
+    private static SituationResults results(Situation... situations) {
+        return SituationResults.builder()
+                .withSituations(new LinkedHashSet<>(Arrays.asList(situations)))
+                .build();
+    }
+
+    private static Situation situation(String id, String... alarmIds) {
+        final ImmutableSituation.Builder builder = ImmutableSituation.newBuilder()
+                .setId(id)
+                .setCreationTime(1)
+                // Situations are compared without their id
+                .setDiagnosticText(id + Arrays.toString(alarmIds));
+        for (String alarmId : alarmIds) {
+            builder.addAlarm(ImmutableAlarm.newBuilder()
+                    .setId(alarmId)
+                    .setTime(1)
+                    .setSeverity(Severity.MAJOR)
+                    .build());
+        }
+        return builder.build();
+    }
+
+    private static List<String> ids(Iterable<Situation> situations) {
+        final List<String> ids = new ArrayList<>();
+        situations.forEach(s -> ids.add(s.getId()));
+        return ids;
+    }
+}
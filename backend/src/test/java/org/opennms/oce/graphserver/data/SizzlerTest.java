@@ -28,63 +28,117 @@
 
 package org.opennms.oce.graphserver.data;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
 
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.BitSet;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 import org.opennms.oce.graphserver.model.Graph;
 
-import edu.uci.ics.jung.graph.DirectedGraph;
-import edu.uci.ics.jung.graph.DirectedSparseGraph;
-import edu.uci.ics.jung.graph.util.EdgeType;
-
 public class SizzlerTest {
 
     private Sizzler sizzler = new Sizzler();
 
     @Test
     public void canApplySzlToEmptyGraph() {
-        DirectedGraph<Graph.Vertex, Graph.Edge> g = new DirectedSparseGraph<>();
-        DirectedGraph<Graph.Vertex, Graph.Edge> gg = sizzler.sizzle(g, Collections.emptyList(), 0);
+        CompactGraph g = CompactGraph.builder().build();
+        BitSet gg = sizzler.sizzle(g, new int[0], 0);
 
-        assertThat(gg.getVertices(), hasSize(0));
-        assertThat(gg.getEdges(), hasSize(0));
+        assertThat(g.getVertices(gg), hasSize(0));
+        assertThat(g.getEdges(gg), hasSize(0));
     }
 
     @Test
     public void canApplySzlToGraph() {
-        DirectedGraph<Graph.Vertex, Graph.Edge> g = new DirectedSparseGraph<>();
+        CompactGraph.Builder builder = CompactGraph.builder();
 
         Graph.Vertex v1 = new Graph.Vertex("v1", "i1", "n1", "l1");
-        g.addVertex(v1);
+        int v1Ordinal = builder.addVertex(v1);
+        CompactGraph g = builder.build();
 
         // One vertex in focus
-        DirectedGraph<Graph.Vertex, Graph.Edge> gg = sizzler.sizzle(g, Arrays.asList(v1), 0);
-        assertThat(gg.getVertices(), hasSize(1));
-        assertThat(gg.getEdges(), hasSize(0));
+        BitSet gg = sizzler.sizzle(g, new int[]{v1Ordinal}, 0);
+        assertThat(g.getVertices(gg), hasSize(1));
+        assertThat(g.getEdges(gg), hasSize(0));
 
         // Add an edge between v1 and v2
         Graph.Vertex v2 = new Graph.Vertex("v2", "i1", "n1", "l1");
-        g.addVertex(v2);
+        int v2Ordinal = builder.addVertex(v2);
         Graph.Edge e_v1_v2 = new Graph.Edge("", v1.getId(), v2.getId(), "v-to-v");
-        g.addEdge(e_v1_v2, v1, v2, EdgeType.DIRECTED);
+        builder.addEdge(v1Ordinal, v2Ordinal, e_v1_v2);
+        g = builder.build();
 
         // Still one vertex in focus
-        gg = sizzler.sizzle(g, Arrays.asList(v1), 0);
-        assertThat(gg.getVertices(), hasSize(1));
-        assertThat(gg.getEdges(), hasSize(0));
+        gg = sizzler.sizzle(g, new int[]{v1Ordinal}, 0);
+        assertThat(g.getVertices(gg), hasSize(1));
+        assertThat(g.getEdges(gg), hasSize(0));
 
         // Now increase the SZL
-        gg = sizzler.sizzle(g, Arrays.asList(v1), 1);
-        assertThat(gg.getVertices(), hasSize(2));
-        assertThat(gg.getEdges(), hasSize(1));
+        gg = sizzler.sizzle(g, new int[]{v1Ordinal}, 1);
+        assertThat(g.getVertices(gg), hasSize(2));
+        assertThat(g.getEdges(gg), hasSize(1));
 
         // We ignore edge direction, so we should get the same results when switching v1 and v2
-        gg = sizzler.sizzle(g, Arrays.asList(v2), 1);
-        assertThat(gg.getVertices(), hasSize(2));
-        assertThat(gg.getEdges(), hasSize(1));
+        gg = sizzler.sizzle(g, new int[]{v2Ordinal}, 1);
+        assertThat(g.getVertices(gg), hasSize(2));
+        assertThat(g.getEdges(gg), hasSize(1));
+    }
+
+    @Test
+    public void canStopExpandingAtVertexLimit() {
+        CompactGraph.Builder builder = CompactGraph.builder();
+
+        // Build a chain v0 -> v1 -> ... -> v9
+        int previous = -1;
+        for (int i = 0; i < 10; i++) {
+            Graph.Vertex v = new Graph.Vertex("v" + i, "i1", "n" + i, "l1");
+            int ordinal = builder.addVertex(v);
+            if (previous >= 0) {
+                builder.addEdge(previous, ordinal, new Graph.Edge("", builder.getVertex(previous).getId(), v.getId(), "v-to-v"));
+            }
+            previous = ordinal;
+        }
+        CompactGraph g = builder.build();
+
+        // Every vertex is reachable, no limit
+        BitSet gg = sizzler.sizzle(g, new int[]{0}, 9);
+        assertThat(g.getVertices(gg), hasSize(10));
+        assertThat(g.getEdges(gg), hasSize(9));
+
+        // Stop as soon as we've found 4 vertices
+        gg = sizzler.sizzle(g, new int[]{0}, 9, 4);
+        assertThat(g.getVertices(gg), hasSize(4));
+        assertThat(g.getEdges(gg), hasSize(3));
+    }
+
+    @Test
+    public void canKeepExpandingUntilHigherRankedVerticesAreFound() {
+        CompactGraph.Builder builder = CompactGraph.builder();
+
+        // Build a chain of inventory i0 -> i1 -> i2 -> i3, with a situation at the end
+        int previous = -1;
+        for (int i = 0; i < 5; i++) {
+            Graph.Vertex v = i < 4 ? new Graph.Vertex("i" + i, "i1", "n" + i, OceGraphGenerator.INVENTORY_LAYER_ID)
+                    : new Graph.Vertex("s", "situation", "s", OceGraphGenerator.SITUATIONS_LAYER_ID);
+            int ordinal = builder.addVertex(v);
+            if (previous >= 0) {
+                builder.addEdge(previous, ordinal, new Graph.Edge("", builder.getVertex(previous).getId(), v.getId(), "v-to-v"));
+            }
+            previous = ordinal;
+        }
+        CompactGraph g = builder.build();
+
+        // The situation outranks the inventory, so we need to keep going until we find it
+        BitSet gg = sizzler.sizzle(g, new int[]{0}, 9, 2);
+        assertThat(g.getVertices(gg), hasSize(5));
+        assertThat(sizzler.getDistances(g)[4], equalTo(4));
+
+        // Only the focal point and the situation are kept
+        OceGraphGenerator.applyVertexLimit(g, gg, sizzler.getDistances(g), 2);
+        assertThat(g.getVertices(gg).stream().map(Graph.Vertex::getId).collect(Collectors.toList()), contains("i0", "s"));
     }
 }
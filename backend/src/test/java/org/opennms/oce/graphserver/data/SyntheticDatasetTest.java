@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.oce.graphserver.data;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.Situation;
+
+public class SyntheticDatasetTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void canLoadWrittenDataset() throws Exception {
+        final SyntheticDataset syntheticDataset = SyntheticDataset.builder()
+                .withInventorySize(1000)
+                .withAlarmsPerMinute(5)
+                .withNumResultSets(3)
+                .build();
+        final File directory = temporaryFolder.newFolder();
+        syntheticDataset.writeTo(directory.toPath());
+
+        final OceDataset expected = syntheticDataset.toDataset();
+        final OceDataset actual = OceDataset.oceDataset(directory.getAbsolutePath());
+        assertThat(actual.getAlarms(), equalTo(expected.getAlarms()));
+        assertThat(actual.getInventory(), equalTo(expected.getInventory()));
+        assertThat(actual.getSituationResults(), hasSize(3));
+        for (int i = 0; i < 3; i++) {
+            final SituationResults expectedResults = expected.getSituationResults().get(i);
+            final SituationResults actualResults = actual.getSituationResults().get(i);
+            assertThat(actualResults.getSource(), equalTo(expectedResults.getSource()));
+            assertThat(actualResults.isPrimary(), equalTo(i == 0));
+            assertThat(toAlarmIdsBySituationId(actualResults.getSituations()),
+                    equalTo(toAlarmIdsBySituationId(expectedResults.getSituations())));
+        }
+    }
+
+    @Test
+    public void canGenerateStormsAndVariations() {
+        final OceDataset dataset = SyntheticDataset.builder()
+                .withInventorySize(10000)
+                .withAlarmsPerMinute(0)
+                .withStormsPerHour(10)
+                .withStormSize(20)
+                .withClearRatio(1)
+                .build()
+                .toDataset();
+        assertThat(dataset.getInventory().size(), lessThanOrEqualTo(10000));
+        assertThat(dataset.getInventory().size(), greaterThan(9000));
+
+        // Every storm is a situation, and every alarm is cleared
+        assertThat(dataset.getAlarmStore().getNumAlarms(), equalTo(200));
+        assertThat(dataset.getSituationsFromPrimaryResultSet(), hasSize(10));
+        assertThat(dataset.getAlarmStore().getActiveUpdatesAt(SyntheticDataset.DEFAULT_START_MS + 3 * 60 * 60 * 1000).length, equalTo(0));
+
+        // The other result set is a variation of the primary one
+        final Set<Situation> otherSituations = dataset.getSituationResults().get(1).getSituations();
+        assertThat(toAlarmIdsBySituationId(otherSituations), not(equalTo(toAlarmIdsBySituationId(dataset.getSituationsFromPrimaryResultSet()))));
+    }
+
+    private static Map<String, Set<String>> toAlarmIdsBySituationId(Set<Situation> situations) {
+        return situations.stream().collect(Collectors.toMap(Situation::getId,
+                s -> s.getAlarms().stream().map(Alarm::getId).collect(Collectors.toSet())));
+    }
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.model;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+
+public class GraphJsonSerializerTest {
+
+    @Test
+    public void canSerializeGraph() throws Exception {
+        final Graph.Vertex v1 = new Graph.Vertex("v1", "node", "Node 1", "inventory");
+        final Graph.Vertex v2 = new Graph.Vertex("v2", "alarm", null, "alarms", ImmutableMap.of("severity", "major", "id", "2"));
+        final Graph graph = new Graph(GraphMetadata.builder().build(),
+                Arrays.asList(v2, v1),
+                Collections.singletonList(new Graph.Edge("", "v2", "v1", "alarm-to-io")),
+                Collections.singletonList(new Graph.Layer("inventory", "Inventory", null, 0)));
+
+        final String json = new ObjectMapper().writeValueAsString(graph);
+        assertThat(json, equalTo("{\"vertices\":[" +
+                "{\"id\":\"v1\",\"label\":\"Node 1\",\"type\":\"node\",\"attributes\":{},\"layer_id\":\"inventory\"}," +
+                "{\"id\":\"v2\",\"label\":null,\"type\":\"alarm\",\"attributes\":{\"severity\":\"major\",\"id\":\"2\"},\"layer_id\":\"alarms\"}]," +
+                "\"edges\":[{\"id\":\"edge-alarm-to-io-v2-v1\",\"label\":\"\",\"type\":\"alarm-to-io\",\"source_id\":\"v2\",\"target_id\":\"v1\"}]," +
+                "\"layers\":[{\"id\":\"inventory\",\"label\":\"Inventory\",\"description\":null,\"order\":0}]}"));
+    }
+
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.oce.graphserver.data;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.alec.datasource.api.Alarm;
+import org.opennms.alec.datasource.api.Situation;
+import org.opennms.oce.graphserver.GraphView;
+import org.opennms.oce.graphserver.model.Graph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link OceGraphGenerator#getGraph(GraphView)}, along with each of its stages in isolation.
+ *
+ * The inputs for every stage are computed once per trial, from the output of the stages that precede it,
+ * so that a change to one stage can be compared on its own.
+ *
+ * Build with "mvn package" and run with "java -jar target/benchmarks.jar". The parameters can be overridden
+ * with -p, for example: "java -jar target/benchmarks.jar -p inventorySize=100000 -p szl=1".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class GraphGeneratorBenchmark {
+
+    @Param({"1000", "10000"})
+    public int inventorySize;
+
+    /**
+     * Number of alarms raised per minute, over the course of an hour, outside of the alarm storms.
+     */
+    @Param({"10", "100"})
+    public int alarmRate;
+
+    /**
+     * Upper bound on the number of situations in the primary result set.
+     */
+    @Param({"50", "500"})
+    public int situationCount;
+
+    @Param({"1", "3"})
+    public int szl;
+
+    private OceDataset dataset;
+    private OceGraphGenerator generator;
+    private GraphView graphView;
+    private long timestampInMs;
+    private List<String> activeAlarmIds;
+    private OceGraphGenerator.UnfilteredGraph unfilteredGraph;
+    private BitSet sizzledGraph;
+    private BitSet prunedGraph;
+    private int[] distances;
+    private List<Graph.Vertex> vertices;
+    private List<Graph.Edge> edges;
+    private List<Graph.Layer> layers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final SyntheticDataset syntheticDataset = SyntheticDataset.builder()
+                .withInventorySize(inventorySize)
+                .withAlarmsPerMinute(alarmRate)
+                .withMaxSituations(situationCount)
+                .build();
+        dataset = syntheticDataset.toDataset();
+        generator = new OceGraphGenerator(dataset);
+        // Towards the end of the dataset, when most of the alarms are active
+        timestampInMs = syntheticDataset.getEndMs();
+        graphView = GraphView.builder()
+                .setTimestampInMillis(timestampInMs)
+                .setSzl(szl)
+                .setRemoveInventoryWithNoAlarms(true)
+                .build();
+
+        activeAlarmIds = new ArrayList<>();
+        for (Alarm alarm : dataset.getAlarmStore().getActiveAlarmsAt(timestampInMs)) {
+            activeAlarmIds.add(alarm.getId());
+        }
+        unfilteredGraph = generator.buildUnfilteredGraph(graphView);
+        final Sizzler sizzler = new Sizzler();
+        sizzledGraph = sizzler.sizzle(unfilteredGraph.getGraph(), unfilteredGraph.getFocalPoints(), szl);
+        distances = sizzler.getDistances(unfilteredGraph.getGraph());
+        prunedGraph = (BitSet) sizzledGraph.clone();
+        OceGraphGenerator.prune(unfilteredGraph, prunedGraph);
+
+        final BitSet filteredGraph = OceGraphGenerator.filter(unfilteredGraph, graphView);
+        vertices = unfilteredGraph.getGraph().getVertices(filteredGraph);
+        edges = unfilteredGraph.getGraph().getEdges(filteredGraph);
+        layers = generator.getGraph(graphView).getLayers();
+    }
+
+    @Benchmark
+    public Graph getGraph() {
+        return generator.getGraph(graphView);
+    }
+
+    @Benchmark
+    public int[] activeAlarmLookup() {
+        return dataset.getAlarmStore().getActiveUpdatesAt(timestampInMs);
+    }
+
+    @Benchmark
+    public List<Situation> situationLookup() {
+        return dataset.getPrimarySituationResults().getSituationsWithAnyAlarm(activeAlarmIds);
+    }
+
+    @Benchmark
+    public OceGraphGenerator.UnfilteredGraph buildUnfilteredGraph() {
+        return generator.buildUnfilteredGraph(graphView);
+    }
+
+    @Benchmark
+    public OceGraphGenerator.UnfilteredGraph expandFromFocalPoints() {
+        return generator.expandFromFocalPoints(graphView);
+    }
+
+    @Benchmark
+    public BitSet sizzle() {
+        return new Sizzler().sizzle(unfilteredGraph.getGraph(), unfilteredGraph.getFocalPoints(), szl);
+    }
+
+    @Benchmark
+    public BitSet prune() {
+        final BitSet filteredGraph = (BitSet) sizzledGraph.clone();
+        OceGraphGenerator.prune(unfilteredGraph, filteredGraph);
+        return filteredGraph;
+    }
+
+    @Benchmark
+    public BitSet vertexLimit() {
+        final BitSet filteredGraph = (BitSet) prunedGraph.clone();
+        OceGraphGenerator.applyVertexLimit(unfilteredGraph.getGraph(), filteredGraph, distances, graphView.getVertexLimit());
+        return filteredGraph;
+    }
+
+    @Benchmark
+    public Graph graphConstructor() {
+        // The public constructor copies the lists before sorting them, so the inputs are left untouched
+        return new Graph(generator.getGraphMetadata(), vertices, edges, layers);
+    }
+}
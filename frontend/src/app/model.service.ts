@@ -4,9 +4,8 @@ import {HttpClient} from '@angular/common/http';
 import * as _ from 'lodash';
 
 import {Observable, throwError} from 'rxjs';
-import {catchError, concatMap, map, switchMap} from 'rxjs/operators';
+import {catchError, map, switchMap} from 'rxjs/operators';
 import {ContextModel, StateModel, StateService} from './state.service';
-import {timer} from 'rxjs/internal/observable/timer';
 import {BehaviorSubject} from 'rxjs/internal/BehaviorSubject';
 import {environment} from '../environments/environment';
 
@@ -22,6 +21,8 @@ export class ModelService {
   load$ = new BehaviorSubject('');
   stateModel = new StateModel();
   pointInTimeMs: number;
+  // Until a point in time is picked, the graph follows the current time and the server pushes the changes as they happen
+  followingNow = true;
 
   constructor(private http: HttpClient, private stateService: StateService) {
     this.pointInTimeMs = new Date().getTime();
@@ -37,25 +38,9 @@ export class ModelService {
       map((e: Response) => this.toModel(e))
     );
 
+    // The server pushes the complete graph when we subscribe, followed by deltas as it changes
     this.polledModel$ = this.load$.pipe(
-      switchMap(_ => timer(0, 10000).pipe(
-        concatMap(__ => {
-          const params = {'time': '' + this.pointInTimeMs};
-          if (this.contextModel.focalPoint != null) {
-            params['focalPoint'] = this.contextModel.focalPoint;
-          }
-          if (this.contextModel.szl != null) {
-            params['szl'] = this.contextModel.szl;
-          }
-          if (this.contextModel.prune != null) {
-            params['removeInventoryWithNoAlarms'] = this.contextModel.prune;
-          }
-          return this.http.get(environment.modelUrl, {'params': params}).pipe(
-            map((e: Response) => this.toModel(e))
-          );
-        })
-        )
-      )
+      switchMap(_ => this.streamModel())
     );
 
     stateService.stateModel$.subscribe(stateModel => {
@@ -73,7 +58,9 @@ export class ModelService {
   }
 
   private onPointInTimeChanged(pointInTimeMs: number) {
-    this.pointInTimeMs = pointInTimeMs;
+    // Clearing the point in time goes back to following the current time
+    this.followingNow = pointInTimeMs == null;
+    this.pointInTimeMs = this.followingNow ? new Date().getTime() : pointInTimeMs;
     this.refreshModel();
   }
 
@@ -120,6 +107,61 @@ export class ModelService {
       );
   }
 
+  private streamModel(): Observable<Model> {
+    return new Observable<Model>(subscriber => {
+      const params = {};
+      if (!this.followingNow) {
+        params['time'] = '' + this.pointInTimeMs;
+      }
+      if (this.contextModel.focalPoint != null) {
+        params['focalPoint'] = this.contextModel.focalPoint;
+      }
+      if (this.contextModel.szl != null) {
+        params['szl'] = this.contextModel.szl;
+      }
+      if (this.contextModel.prune != null) {
+        params['removeInventoryWithNoAlarms'] = this.contextModel.prune;
+      }
+      const query = Object.keys(params)
+        .map(key => encodeURIComponent(key) + '=' + encodeURIComponent(params[key]))
+        .join('&');
+
+      let graph: any;
+      const eventSource = new EventSource(environment.modelUrl + '/stream?' + query);
+      eventSource.addEventListener('graph', (e: MessageEvent) => {
+        graph = JSON.parse(e.data);
+        subscriber.next(this.toModel(graph));
+      });
+      eventSource.addEventListener('delta', (e: MessageEvent) => {
+        if (graph !== undefined) {
+          graph = this.applyDelta(graph, JSON.parse(e.data));
+          subscriber.next(this.toModel(graph));
+        }
+      });
+      return () => eventSource.close();
+    });
+  }
+
+  private applyDelta(graph: any, delta: any): any {
+    const removedVertexIds = new Set(delta.removed_vertex_ids);
+    const changedVerticesById = _.keyBy(delta.changed_vertices, 'id');
+    const vertices = graph.vertices
+      .filter(vertex => !removedVertexIds.has(vertex.id))
+      .map(vertex => changedVerticesById[vertex.id] !== undefined ? changedVerticesById[vertex.id] : vertex)
+      .concat(delta.added_vertices);
+
+    const removedEdgeIds = new Set(delta.removed_edge_ids);
+    const edges = graph.edges
+      .filter(edge => !removedEdgeIds.has(edge.id))
+      .concat(delta.added_edges);
+
+    return {
+      vertices: _.sortBy(vertices, 'id'),
+      edges: _.sortBy(edges, 'id'),
+      layers: graph.layers
+    };
+  }
+
   private getRandomSeverityLabel() {
     const severities = ['critical', 'major', 'minor', 'warning', 'normal', 'cleared'];
     return severities[Math.floor(Math.random() * severities.length)];